@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.pluto.container.bean.processor.PortletAnnotationIndex;
+import org.apache.pluto.container.bean.processor.PortletAnnotationIndex.Fingerprint;
+
+import eu.infomas.annotation.AnnotationDetector;
+
+/**
+ * The IndexMojo writes the portlet annotation index of the compiled classes, so
+ * that the portlet container does not need to scan the byte code of all classes
+ * of the web application for portlet method annotations at deployment.
+ * <p/>
+ * Example Maven 2 <code>pom.xml</code> usage:
+ * <pre>
+ * &lt;project&gt;
+ *   ...
+ *   &lt;build&gt;
+ *      &lt;plugins&gt;
+ *          &lt;plugin&gt;
+ *              &lt;groupId&gt;org.apache.portals.pluto&lt;/groupId&gt;
+ *              &lt;artifactId&gt;maven-pluto-plugin&lt;/artifactId&gt;
+ *              &lt;executions&gt;
+ *                  &lt;execution&gt;
+ *                      &lt;goals&gt;
+ *                          &lt;goal&gt;index&lt;/goal&gt;
+ *                      &lt;/goals&gt;
+ *                  &lt;/execution&gt;
+ *              &lt;/executions&gt;
+ *          &lt;/plugin&gt;
+ *      &lt;/plugins&gt;
+ *   &lt;/build&gt;
+ *   ...
+ * &lt;/project&gt;
+ * </pre>
+ *
+ * @see org.apache.pluto.container.bean.processor.PortletAnnotationIndex
+ *
+ * @goal index
+ * @description writes the portlet annotation index of the compiled classes
+ * @phase process-classes
+ */
+public class IndexMojo extends AbstractMojo {
+
+    /**
+     * The directory containing the compiled classes.
+     * @parameter expression="${project.build.outputDirectory}"
+     * @required
+     */
+    private File classesDirectory;
+
+    public void execute() throws MojoExecutionException {
+        if (!classesDirectory.isDirectory()) {
+            getLog().info("No classes to index in " + classesDirectory.getAbsolutePath());
+            return;
+        }
+
+        final Set<String> classNames = new TreeSet<String>();
+        AnnotationDetector detector = new AnnotationDetector(new AnnotationDetector.MethodReporter() {
+            public Class<? extends Annotation>[] annotations() {
+                return PortletAnnotationIndex.getAnnotations();
+            }
+
+            public void reportMethodAnnotation(Class<? extends Annotation> annotation, String className,
+                    String methodName) {
+                classNames.add(className);
+            }
+        });
+
+        File index = new File(classesDirectory, PortletAnnotationIndex.RESOURCE);
+        try {
+            detector.detect(classesDirectory);
+
+            Map<String, Fingerprint> files = new TreeMap<String, Fingerprint>();
+            addFingerprints(classesDirectory, "", files);
+
+            index.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(index);
+            try {
+                new PortletAnnotationIndex(classNames, files).write(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing the portlet annotation index", e);
+        }
+
+        getLog().info("Wrote portlet annotation index with " + classNames.size() + " classes to "
+                + index.getAbsolutePath());
+    }
+
+    /**
+     * Adds the fingerprints of the class files below a directory, with which
+     * the portlet container checks that the index is up to date.
+     *
+     * @param dir  the directory
+     * @param path  the path of the directory relative to the class directory
+     * @param files  receives the fingerprints by path
+     */
+    private void addFingerprints(File dir, String path, Map<String, Fingerprint> files) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File file : children) {
+            if (file.isDirectory()) {
+                if (!file.getName().equals("META-INF")) {
+                    addFingerprints(file, path + file.getName() + "/", files);
+                }
+            } else if (file.getName().endsWith(".class")) {
+                files.put(path + file.getName(), Fingerprint.of(file));
+            }
+        }
+    }
+}
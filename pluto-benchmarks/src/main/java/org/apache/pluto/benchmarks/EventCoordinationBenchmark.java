@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.container.EventCoordinationService;
+import org.apache.pluto.container.EventProvider;
+import org.apache.pluto.container.PortletContainer;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortalDriverServices;
+import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.core.PortletWindowImpl;
+import org.apache.pluto.driver.services.container.EventImpl;
+import org.apache.pluto.driver.services.container.EventProviderImpl;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routes an event fired by an action to the portlets on the page that
+ * process it. The portlet container does not invoke the portlets, so the
+ * benchmark measures the routing and the unmarshalling of the event values.
+ * An event fired by a portlet is delivered by reference; its creation is
+ * measured separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventCoordinationBenchmark {
+
+   @Param({"1", "5", "20"})
+   public int portlets;
+
+   private EventCoordinationService service;
+   private PortletContainer container;
+   private PortletWindow window;
+   private HttpServletRequest request;
+   private HttpServletResponse response;
+   private List<Event> objectEvents;
+   private List<Event> xmlEvents;
+   private List<Event> firedEvents;
+   private EventProvider eventProvider;
+
+   @Setup
+   public void setup() throws Exception {
+      PortalFixture fixture = new PortalFixture(portlets);
+      PortalDriverServices services = fixture.installServices(new InMemoryPortletInvoker(fixture.getServletContext()));
+      service = services.getEventCoordinationService();
+      container = Stub.of(PortletContainer.class)
+            .returns("getContainerServices", services)
+            .create();
+
+      PortalRequestContext portalRequest = fixture.portalRequest(fixture.createRenderState(), new StringWriter());
+      request = portalRequest.getRequest();
+      response = portalRequest.getResponse();
+      window = new PortletWindowImpl(container, PortletWindowConfig.fromId(fixture.getPortletIds().get(0)),
+            portalRequest.getRequestedPortalURL());
+
+      objectEvents = Collections.<Event>singletonList(new EventImpl(PortalFixture.PING, Integer.valueOf(42)));
+      xmlEvents = Collections.<Event>singletonList(new EventImpl(PortalFixture.PING,
+            "<ping xmlns='" + PortalFixture.NAMESPACE + "'>hello</ping>"));
+      eventProvider = new EventProviderImpl(window, fixture.getRegistry());
+      firedEvents = Collections.singletonList(eventProvider.createEvent(PortalFixture.PING, "hello"));
+   }
+
+   @Benchmark
+   public void processObjectEvent() {
+      service.processEvents(container, window, request, response, objectEvents);
+   }
+
+   @Benchmark
+   public void processXmlEvent() {
+      service.processEvents(container, window, request, response, xmlEvents);
+   }
+
+   @Benchmark
+   public void processFiredEvent() {
+      service.processEvents(container, window, request, response, firedEvents);
+   }
+
+   @Benchmark
+   public Event createEvent() {
+      return eventProvider.createEvent(PortalFixture.PING, "hello");
+   }
+}
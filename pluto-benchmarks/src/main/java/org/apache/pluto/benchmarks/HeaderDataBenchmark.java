@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pluto.container.HeaderData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracts the head section tags that a portlet writes in the header phase,
+ * both from the output stream and from a dependency added with markup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderDataBenchmark {
+
+   private static final String DEPENDENCY = "<script type='text/javascript' src='/app/js/dependency.js'></script>";
+
+   /** The number of tags written to the output stream. */
+   @Param({"2", "10"})
+   public int tags;
+
+   @Benchmark
+   public String getHeadSectionMarkup() {
+      HeaderData headerData = new HeaderData();
+      PrintWriter writer = headerData.getWriter();
+      for (int ii = 0; ii < tags; ii++) {
+         writer.append("<link rel='stylesheet' type='text/css' href='/app/css/style").append(String.valueOf(ii))
+               .append(".css'/>\n");
+         writer.append("<meta name='portlet").append(String.valueOf(ii)).append("' content='a &amp; b'/>\n");
+      }
+      writer.append("<script type='text/javascript'>var portlet = { id : 'portlet', count : 2 };</script>\n");
+      writer.flush();
+      headerData.addDependency("dependency.js", "org.apache.pluto", "1.0.0", DEPENDENCY);
+      return headerData.getHeadSectionMarkup();
+   }
+}
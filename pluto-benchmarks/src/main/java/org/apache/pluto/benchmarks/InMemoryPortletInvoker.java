@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ListResourceBundle;
+
+import javax.portlet.ActionRequest;
+import javax.portlet.ActionResponse;
+import javax.portlet.EventRequest;
+import javax.portlet.EventResponse;
+import javax.portlet.GenericPortlet;
+import javax.portlet.HeaderRequest;
+import javax.portlet.HeaderResponse;
+import javax.portlet.MutableRenderParameters;
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+import javax.portlet.PortletException;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletResponse;
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+import javax.portlet.RenderURL;
+import javax.portlet.ResourceRequest;
+import javax.portlet.ResourceResponse;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.container.FilterManager;
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.PortletInvokerService;
+import org.apache.pluto.container.PortletRequestContext;
+import org.apache.pluto.container.PortletResponseContext;
+
+/**
+ * Invokes the {@link BenchmarkPortlet} directly instead of dispatching to the
+ * portlet servlet of the portlet application. The request and response
+ * contexts are initialized as the portlet servlet initializes them, and the
+ * portlet filters are not applied.
+ */
+public class InMemoryPortletInvoker implements PortletInvokerService {
+
+   private final GenericPortlet portlet = new BenchmarkPortlet();
+   private final PortletConfig portletConfig;
+   private final ServletContext servletContext;
+
+   public InMemoryPortletInvoker(ServletContext servletContext) throws PortletException {
+      this.servletContext = servletContext;
+      PortletContext portletContext = Stub.of(PortletContext.class)
+            .returns("getPortletContextName", PortalFixture.APPLICATION)
+            .returns("getEffectiveMajorVersion", 3)
+            .returns("getEffectiveMinorVersion", 0)
+            .create();
+      this.portletConfig = Stub.of(PortletConfig.class)
+            .returns("getPortletName", "portlet")
+            .returns("getPortletContext", portletContext)
+            .returns("getResourceBundle", new ListResourceBundle() {
+               @Override
+               protected Object[][] getContents() {
+                  return new Object[][] {{"javax.portlet.title", "Benchmark"}};
+               }
+            })
+            .create();
+      portlet.init(portletConfig);
+   }
+
+   public void action(PortletRequestContext ctx, ActionRequest req, ActionResponse res, FilterManager filterManager)
+         throws IOException, PortletException, PortletContainerException {
+      begin(ctx, req);
+      try {
+         portlet.processAction(req, res);
+      } finally {
+         ctx.setExecutingRequestBody(false);
+      }
+   }
+
+   public void event(PortletRequestContext ctx, EventRequest req, EventResponse res, FilterManager filterManager)
+         throws IOException, PortletException, PortletContainerException {
+      begin(ctx, req);
+      try {
+         portlet.processEvent(req, res);
+      } finally {
+         ctx.setExecutingRequestBody(false);
+      }
+   }
+
+   public void render(PortletRequestContext ctx, RenderRequest req, RenderResponse res, FilterManager filterManager)
+         throws IOException, PortletException, PortletContainerException {
+      begin(ctx, req);
+      try {
+         portlet.render(req, res);
+      } finally {
+         ctx.setExecutingRequestBody(false);
+      }
+   }
+
+   public void header(PortletRequestContext ctx, HeaderRequest req, HeaderResponse res, FilterManager filterManager)
+         throws IOException, PortletException, PortletContainerException {
+      begin(ctx, req);
+      try {
+         portlet.renderHeaders(req, res);
+      } finally {
+         ctx.setExecutingRequestBody(false);
+      }
+   }
+
+   public void serveResource(PortletRequestContext ctx, ResourceRequest req, ResourceResponse res,
+         FilterManager filterManager) throws IOException, PortletException, PortletContainerException {
+      begin(ctx, req);
+      try {
+         portlet.serveResource(req, res);
+      } finally {
+         ctx.setExecutingRequestBody(false);
+      }
+   }
+
+   public void load(PortletRequestContext ctx, PortletRequest req, PortletResponse res)
+         throws IOException, PortletException, PortletContainerException {
+      // the portlet is always loaded
+   }
+
+   public void admin(PortletRequestContext ctx, PortletRequest req, PortletResponse res)
+         throws IOException, PortletException, PortletContainerException {
+      // no administrative request listeners
+   }
+
+   private void begin(PortletRequestContext ctx, PortletRequest req) {
+      PortletResponseContext responseContext = (PortletResponseContext) req
+            .getAttribute(PortletInvokerService.RESPONSE_CONTEXT);
+      // the portlet servlet receives the container request and response by a
+      // request dispatcher include, which does not apply here
+      HttpServletRequest request = ctx.getContainerRequest();
+      HttpServletResponse response = ctx.getContainerResponse();
+      ctx.init(portletConfig, servletContext, request, response, responseContext);
+      ctx.setExecutingRequestBody(true);
+      responseContext.init(request, response);
+   }
+
+   /**
+    * Writes a small fragment containing a render URL and an action URL, as a
+    * typical portlet would.
+    */
+   public static class BenchmarkPortlet extends GenericPortlet {
+
+      @Override
+      protected void doView(RenderRequest request, RenderResponse response) throws PortletException, IOException {
+         response.setContentType("text/html");
+         PrintWriter writer = response.getWriter();
+         String ns = response.getNamespace();
+
+         RenderURL renderURL = response.createRenderURL();
+         MutableRenderParameters params = renderURL.getRenderParameters();
+         params.setValue("page", "2");
+         params.setValue("filter", "name:a b");
+
+         writer.append("<div id='").append(ns).append("view'>");
+         writer.append("<h3>").append(request.getRenderParameters().getValue("page")).append("</h3>");
+         writer.append("<a href='").append(renderURL.toString()).append("'>next</a>");
+         writer.append("<form method='post' action='").append(response.createActionURL().toString())
+               .append("'><input name='").append(ns).append("color'/></form>");
+         writer.append("</div>");
+      }
+
+      @Override
+      protected void doEdit(RenderRequest request, RenderResponse response) throws PortletException, IOException {
+         doView(request, response);
+      }
+   }
+}
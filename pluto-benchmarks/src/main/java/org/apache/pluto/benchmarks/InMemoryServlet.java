@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * In-memory servlet objects standing in for the servlet container. The
+ * attributes are held in plain maps, as a request is processed by a single
+ * thread in the benchmarks.
+ */
+public final class InMemoryServlet {
+
+   private InMemoryServlet() {
+   }
+
+   public static ServletContext context(final Map<String, Object> attributes) {
+      return attributes(Stub.of(ServletContext.class), attributes)
+            .returns("getContextPath", "/pluto")
+            .returns("getServletContextName", "pluto")
+            .returns("getMajorVersion", 3)
+            .returns("getMinorVersion", 1)
+            .create();
+   }
+
+   public static HttpSession session() {
+      return attributes(Stub.of(HttpSession.class), new HashMap<String, Object>())
+            .returns("getId", "benchmark")
+            .returns("getMaxInactiveInterval", 1800)
+            .create();
+   }
+
+   /**
+    * Creates a GET request.
+    *
+    * @param context      the servlet context
+    * @param contextPath  the context path
+    * @param servletPath  the servlet path
+    * @param uri          the request URI, starting with the context and
+    *                     servlet path
+    */
+   public static HttpServletRequest request(ServletContext context, String contextPath, String servletPath,
+         String uri) {
+      final HttpSession session = session();
+      String pathInfo = uri.substring(contextPath.length() + servletPath.length());
+      return attributes(Stub.of(HttpServletRequest.class), new HashMap<String, Object>())
+            .returns("getRequestURI", uri)
+            .returns("getRequestURL", new StringBuffer("http://localhost:8080").append(uri))
+            .returns("getContextPath", contextPath)
+            .returns("getServletPath", servletPath)
+            .returns("getPathInfo", (pathInfo.length() > 0) ? pathInfo : null)
+            .returns("getMethod", "GET")
+            .returns("getScheme", "http")
+            .returns("getServerName", "localhost")
+            .returns("getServerPort", 8080)
+            .returns("getProtocol", "HTTP/1.1")
+            .returns("getCharacterEncoding", "UTF-8")
+            .returns("getLocale", Locale.ENGLISH)
+            .answers("getLocales", enumeration(Collections.singletonList(Locale.ENGLISH)))
+            .answers("getHeaderNames", enumeration(Collections.<String>emptyList()))
+            .answers("getHeaders", enumeration(Collections.<String>emptyList()))
+            .returns("getParameterMap", Collections.<String, String[]>emptyMap())
+            .answers("getParameterNames", enumeration(Collections.<String>emptyList()))
+            .returns("getDispatcherType", DispatcherType.REQUEST)
+            .returns("getServletContext", context)
+            .returns("getSession", session)
+            .create();
+   }
+
+   /**
+    * Creates a response writing the content to the given writer.
+    */
+   public static HttpServletResponse response(Writer out) {
+      final PrintWriter writer = new PrintWriter(out);
+      final String[] contentType = new String[1];
+      Stub.Answer encode = new Stub.Answer() {
+         public Object answer(Object[] args) {
+            return args[0];
+         }
+      };
+      return Stub.of(HttpServletResponse.class)
+            .returns("getWriter", writer)
+            .returns("getCharacterEncoding", "UTF-8")
+            .returns("getLocale", Locale.ENGLISH)
+            .returns("getBufferSize", 8192)
+            .answers("encodeURL", encode)
+            .answers("encodeRedirectURL", encode)
+            .answers("setContentType", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  contentType[0] = (String) args[0];
+                  return null;
+               }
+            })
+            .answers("getContentType", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  return contentType[0];
+               }
+            })
+            .create();
+   }
+
+   /**
+    * Answers a new enumeration of the given values on each call.
+    */
+   private static Stub.Answer enumeration(final Collection<?> values) {
+      return new Stub.Answer() {
+         public Object answer(Object[] args) {
+            return Collections.enumeration(values);
+         }
+      };
+   }
+
+   /**
+    * Stubs the attribute methods of a servlet object by the given map.
+    */
+   private static <T> Stub<T> attributes(Stub<T> stub, final Map<String, Object> attributes) {
+      return stub
+            .answers("getAttribute", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  return attributes.get(args[0]);
+               }
+            })
+            .answers("setAttribute", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  if (args[1] == null) {
+                     attributes.remove(args[0]);
+                  } else {
+                     attributes.put((String) args[0], args[1]);
+                  }
+                  return null;
+               }
+            })
+            .answers("removeAttribute", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  attributes.remove(args[0]);
+                  return null;
+               }
+            })
+            .answers("getAttributeNames", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  return Collections.enumeration(attributes.keySet());
+               }
+            });
+   }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pluto.container.PageResourceId;
+import org.apache.pluto.driver.services.portal.PageResources;
+import org.apache.pluto.driver.services.portal.PageResources.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generates the markup of the page resources that the portlets on a page
+ * depend on, and looks up the markup cached for the page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageResourcesBenchmark {
+
+   /** The number of resources of each type. */
+   @Param({"4", "20"})
+   public int resources;
+
+   private PageResources pageResources;
+   private final List<PageResourceId> dependencies = new ArrayList<PageResourceId>();
+
+   @Setup
+   public void setup() {
+      pageResources = new PageResources();
+      for (int ii = 0; ii < resources; ii++) {
+         PageResourceId css = new PageResourceId("style" + ii + ".css", "org.apache.pluto", "1.0.0");
+         pageResources.addResource(css, Type.CSS, "/css/style" + ii + ".css");
+         PageResourceId script = new PageResourceId("script" + ii + ".js", "org.apache.pluto", "1.0.0");
+         pageResources.addResource(script, Type.SCRIPT, "/javascript/script" + ii + ".js");
+         PageResourceId markup = new PageResourceId("markup" + ii, "org.apache.pluto", "1.0.0");
+         pageResources.addResource(markup, Type.MARKUP, "<meta name='markup" + ii + "' content='x'/>");
+         dependencies.add(css);
+         dependencies.add(script);
+         dependencies.add(markup);
+      }
+      pageResources.initialized();
+   }
+
+   @Benchmark
+   public String getMarkup() {
+      return pageResources.getMarkup(dependencies, PortalFixture.CONTEXT_PATH);
+   }
+
+   @Benchmark
+   public String getCachedMarkup() {
+      return pageResources.getMarkup(PortalFixture.PAGE, dependencies, PortalFixture.CONTEXT_PATH);
+   }
+}
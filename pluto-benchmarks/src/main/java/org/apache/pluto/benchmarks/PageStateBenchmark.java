@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.pluto.driver.util.PageState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generates the page state JSON passed to the portlet hub with every page and
+ * every partial action, and the page state returned after an Ajax action, in
+ * which only the state of the action target has changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageStateBenchmark {
+
+   @Param({"1", "5", "20"})
+   public int portlets;
+
+   private static final Pattern STATE_HASH = Pattern.compile("\"(\\w+)\" : \\{\\s*\"state\"[^}]*\\}[^}]*\\},\\s*\"stateHash\" : \"(\\w+)\"");
+
+   private PageState pageState;
+   private String stateHashes;
+
+   /** Stands for the response, which does not keep the JSON. */
+   private final Writer response = new Writer() {
+      private int length;
+
+      public void write(char[] cbuf, int off, int len) {
+         length += len;
+      }
+
+      public void flush() {
+      }
+
+      public void close() {
+      }
+
+      public String toString() {
+         return String.valueOf(length);
+      }
+   };
+
+   @Setup
+   public void setup() {
+      PortalFixture fixture = new PortalFixture(portlets);
+      HttpServletRequest request = fixture.portalRequest(fixture.createRenderState(), new StringWriter())
+            .getRequest();
+      pageState = new PageState(request);
+
+      // the client knows the states of all portlets but the first one
+      StringBuilder hashes = new StringBuilder();
+      Matcher matcher = STATE_HASH.matcher(pageState.toJSONString());
+      matcher.find();
+      while (matcher.find()) {
+         hashes.append(hashes.length() == 0 ? "" : ",").append(matcher.group(1)).append(':').append(matcher.group(2));
+      }
+      stateHashes = hashes.toString();
+   }
+
+   @Benchmark
+   public String toJSONString() {
+      return pageState.toJSONString();
+   }
+
+   @Benchmark
+   public Writer writeJSON() throws IOException {
+      pageState.writeJSON(response, null);
+      return response;
+   }
+
+   @Benchmark
+   public String toDeltaJSONString() {
+      return pageState.toJSONString(stateHashes);
+   }
+}
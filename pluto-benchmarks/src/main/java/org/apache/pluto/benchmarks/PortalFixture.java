@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.FilterManager;
+import org.apache.pluto.container.FilterManagerService;
+import org.apache.pluto.container.PortletInvokerService;
+import org.apache.pluto.container.driver.PlutoServices;
+import org.apache.pluto.container.driver.PortalDriverServices;
+import org.apache.pluto.container.driver.PortletContextService;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.impl.PortletEnvironmentServiceImpl;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.Supports;
+import org.apache.pluto.container.om.portlet.impl.EventDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.EventDefinitionReferenceImpl;
+import org.apache.pluto.container.om.portlet.impl.PortletApplicationDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.PortletDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.PublicRenderParameterImpl;
+import org.apache.pluto.container.om.portlet.impl.SupportsImpl;
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.container.DefaultNamespaceMapper;
+import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.services.container.EventCoordinationServiceImpl;
+import org.apache.pluto.driver.services.container.PortalContextImpl;
+import org.apache.pluto.driver.services.container.PortletRequestContextServiceImpl;
+import org.apache.pluto.driver.services.container.PortletURLListenerServiceImpl;
+import org.apache.pluto.driver.services.impl.resource.PublicRenderParameterServiceImpl;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterMapper;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURL.URLType;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.PortalURLParser;
+import org.apache.pluto.driver.url.impl.PortalURLParserImpl;
+
+/**
+ * An in-memory portal with a single page. The portlets of the page belong to
+ * one version 3 portlet application; each of them supports the public render
+ * parameter {@link #COLOR}, and publishes and processes the event
+ * {@link #PING}.
+ */
+public class PortalFixture {
+
+   public static final String CONTEXT_PATH = "/pluto";
+   public static final String SERVLET_PATH = "/portal";
+   public static final String PAGE = "/page";
+   public static final String APPLICATION = "/app";
+   public static final String NAMESPACE = "urn:pluto:benchmarks";
+
+   public static final QName COLOR = new QName(NAMESPACE, "color");
+   public static final QName PING = new QName(NAMESPACE, "ping");
+
+   private final List<String> portletIds = new ArrayList<String>();
+   private final PageConfig pageConfig = new PageConfig();
+   private final PortletApplicationDefinition application = new PortletApplicationDefinitionImpl();
+   private final PortletRegistryService registry;
+   private final RenderConfigService renderConfig;
+   private final DriverConfiguration driverConfig;
+   private final Map<String, Object> contextAttributes = new HashMap<String, Object>();
+   private final ServletContext servletContext;
+
+   /**
+    * @param portlets  the number of portlets on the page
+    */
+   public PortalFixture(int portlets) {
+      application.setName(APPLICATION);
+      application.setContextPath(APPLICATION);
+      application.setVersion("3.0");
+      application.setDefaultNamespace(NAMESPACE);
+      application.addPublicRenderParameter(new PublicRenderParameterImpl(COLOR, "color"));
+      EventDefinition ping = new EventDefinitionImpl(PING);
+      ping.setValueType(String.class.getName());
+      application.addEventDefinition(ping);
+
+      for (int ii = 0; ii < portlets; ii++) {
+         PortletDefinition portlet = new PortletDefinitionImpl("portlet" + ii, application);
+         portlet.setPortletClass(InMemoryPortletInvoker.BenchmarkPortlet.class.getName());
+         portlet.addSupportedPublicRenderParameter("color");
+         portlet.addSupportedProcessingEvent(new EventDefinitionReferenceImpl(PING));
+         portlet.addSupportedPublishingEvent(new EventDefinitionReferenceImpl(PING));
+         Supports supports = new SupportsImpl("text/html");
+         supports.addPortletMode("view");
+         supports.addPortletMode("edit");
+         supports.addWindowState("normal");
+         supports.addWindowState("maximized");
+         portlet.addSupports(supports);
+         application.addPortlet(portlet);
+         portletIds.add(PortletWindowConfig.createPortletId(APPLICATION, portlet.getPortletName(), String.valueOf(ii)));
+      }
+
+      pageConfig.setName(PAGE.substring(1));
+      pageConfig.setUri("/WEB-INF/themes/portlet-skin.jsp");
+      pageConfig.setPortletIds(portletIds);
+
+      registry = Stub.of(PortletRegistryService.class)
+            .returns("getPortletApplication", application)
+            .answers("getPortlet", new Stub.Answer() {
+               public Object answer(Object[] args) {
+                  return application.getPortlet((String) args[1]);
+               }
+            })
+            .create();
+
+      renderConfig = Stub.of(RenderConfigService.class)
+            .returns("getPage", pageConfig)
+            .returns("getDefaultPage", pageConfig)
+            .returns("getPages", Collections.singletonList(pageConfig))
+            .create();
+
+      driverConfig = Stub.of(DriverConfiguration.class)
+            .returns("getPortalName", "pluto-benchmarks")
+            .returns("getContainerName", "Pluto")
+            .returns("getPageConfig", pageConfig)
+            .returns("getPages", Collections.singletonList(pageConfig))
+            .returns("getRenderConfigService", renderConfig)
+            .returns("getPortletRegistryService", registry)
+            .returns("getPublicRenderParameterService", new PublicRenderParameterServiceImpl(renderConfig, registry))
+            .returns("getPortalUrlParser", PortalURLParserImpl.getParser())
+            .returns("getSupportedPortletModes",
+                  new HashSet<PortletMode>(Arrays.asList(PortletMode.VIEW, PortletMode.EDIT)))
+            .returns("getSupportedWindowStates",
+                  new HashSet<WindowState>(Arrays.asList(WindowState.NORMAL, WindowState.MAXIMIZED)))
+            .returns("isPortletModeSupported", true)
+            .returns("isPortletModeSupportedByPortal", true)
+            .returns("isPortletModeSupportedByPortlet", true)
+            .returns("isWindowStateSupported", true)
+            .returns("isWindowStateSupportedByPortal", true)
+            .returns("isWindowStateSupportedByPortlet", true)
+            .create();
+
+      contextAttributes.put(AttributeKeys.DRIVER_CONFIG, driverConfig);
+      servletContext = InMemoryServlet.context(contextAttributes);
+   }
+
+   public List<String> getPortletIds() {
+      return portletIds;
+   }
+
+   public PortletApplicationDefinition getApplication() {
+      return application;
+   }
+
+   public PortletRegistryService getRegistry() {
+      return registry;
+   }
+
+   public RenderConfigService getRenderConfig() {
+      return renderConfig;
+   }
+
+   public DriverConfiguration getDriverConfig() {
+      return driverConfig;
+   }
+
+   public ServletContext getServletContext() {
+      return servletContext;
+   }
+
+   public void setContextAttribute(String name, Object value) {
+      contextAttributes.put(name, value);
+   }
+
+   /**
+    * Creates the container services of the portal and installs them as
+    * {@link PlutoServices}. The services are the ones configured in the Pluto
+    * portal, apart from the given portlet invoker and a filter manager that
+    * does not apply any filters.
+    *
+    * @param invoker  the portlet invoker service
+    */
+   public PortalDriverServices installServices(PortletInvokerService invoker) {
+      final FilterManager filterManager = Stub.of(FilterManager.class).create();
+      FilterManagerService filterManagerService = Stub.of(FilterManagerService.class)
+            .returns("getFilterManager", filterManager)
+            .create();
+      PortletContextService contextService = Stub.of(PortletContextService.class)
+            .returns("getClassLoader", PortalFixture.class.getClassLoader())
+            .create();
+      PortalDriverServices services = Stub.of(PortalDriverServices.class)
+            .returns("getPortalContext", new PortalContextImpl(driverConfig))
+            .returns("getPortletRegistryService", registry)
+            .returns("getPortletContextService", contextService)
+            .returns("getPortletRequestContextService", new PortletRequestContextServiceImpl())
+            .returns("getPortletEnvironmentService", new PortletEnvironmentServiceImpl())
+            .returns("getPortletInvokerService", invoker)
+            .returns("getFilterManagerService", filterManagerService)
+            .returns("getPortletURLListenerService", new PortletURLListenerServiceImpl())
+            .returns("getNamespaceMapper", new DefaultNamespaceMapper())
+            .returns("getEventCoordinationService", new EventCoordinationServiceImpl(registry, contextService))
+            .create();
+      new PlutoServices(services);
+      return services;
+   }
+
+   /**
+    * Creates a request for the page.
+    *
+    * @param state  the URL state following the page in the path info
+    */
+   public HttpServletRequest request(String state) {
+      return InMemoryServlet.request(servletContext, CONTEXT_PATH, SERVLET_PATH,
+            CONTEXT_PATH + SERVLET_PATH + PAGE + state);
+   }
+
+   /**
+    * Creates the portal request context of a request for the page, which binds
+    * itself to the request.
+    *
+    * @param state  the URL state following the page in the path info
+    * @param out    receives the content written to the response
+    */
+   public PortalRequestContext portalRequest(String state, Writer out) {
+      return new PortalRequestContext(servletContext, request(state), InMemoryServlet.response(out));
+   }
+
+   /**
+    * Creates a typical URL state of a render URL: each portlet has render
+    * parameters and a non-default portlet mode or window state, and the
+    * public render parameter is set.
+    *
+    * @return the URL state in the path format
+    */
+   public String createRenderState() {
+      PortalURLParser parser = PortalURLParserImpl.getParser();
+      PortalURL url = parser.parse(request(""));
+      url.setType(URLType.Render);
+      url.setTargetWindow(portletIds.get(0));
+      for (int ii = 0; ii < portletIds.size(); ii++) {
+         String pid = portletIds.get(ii);
+         url.setPortletMode(pid, (ii % 2 == 0) ? PortletMode.VIEW : PortletMode.EDIT);
+         url.setWindowState(pid, (ii % 3 == 0) ? WindowState.MAXIMIZED : WindowState.NORMAL);
+         url.setParameter(new PortalURLParameter(pid, "page", new String[] {String.valueOf(ii)}));
+         url.setParameter(new PortalURLParameter(pid, "filter", new String[] {"name:a b", "type/x"}));
+      }
+      PublicRenderParameterMapper mapper = url.getPublicRenderParameterMapper();
+      if (mapper.getNumberOfGroups() > 0) {
+         mapper.setValues(0, new String[] {"red"});
+      }
+      String path = parser.toString(url);
+      return path.substring(path.indexOf(PAGE) + PAGE.length());
+   }
+}
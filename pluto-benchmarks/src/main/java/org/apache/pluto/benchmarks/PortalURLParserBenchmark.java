@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParser;
+import org.apache.pluto.driver.url.impl.PortalURLParserImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses the state of a render URL from the request path and writes it back,
+ * in the path and in the compact format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortalURLParserBenchmark {
+
+   @Param({"1", "5", "20"})
+   public int portlets;
+
+   private final PortalURLParser parser = PortalURLParserImpl.getParser();
+   private final PortalURLParser compactParser = PortalURLParserImpl.getCompactParser();
+
+   private HttpServletRequest pathRequest;
+   private HttpServletRequest compactRequest;
+   private PortalURL url;
+
+   @Setup
+   public void setup() {
+      PortalFixture fixture = new PortalFixture(portlets);
+      pathRequest = fixture.request(fixture.createRenderState());
+      url = parser.parse(pathRequest);
+      String compact = compactParser.toString(url);
+      compactRequest = fixture.request(compact.substring(compact.indexOf(PortalFixture.PAGE)
+            + PortalFixture.PAGE.length()));
+   }
+
+   @Benchmark
+   public PortalURL parsePath() {
+      return parser.parse(pathRequest);
+   }
+
+   @Benchmark
+   public PortalURL parseCompact() {
+      return parser.parse(compactRequest);
+   }
+
+   @Benchmark
+   public String toStringPath() {
+      return parser.toString(url);
+   }
+
+   @Benchmark
+   public String toStringCompact() {
+      return compactParser.toString(url);
+   }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pluto.container.PortletRequestContext;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortletParameterFactory;
+import org.apache.pluto.driver.url.impl.PortalURLParserImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Retrieves the render parameters of each portlet on the page, as the render
+ * requests of the portlets do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortletParameterFactoryBenchmark {
+
+   @Param({"1", "5", "20"})
+   public int portlets;
+
+   private List<String> portletIds;
+   private PortletParameterFactory factory;
+
+   @Setup
+   public void setup() {
+      PortalFixture fixture = new PortalFixture(portlets);
+      portletIds = fixture.getPortletIds();
+      PortalURL url = PortalURLParserImpl.getParser().parse(fixture.request(fixture.createRenderState()));
+      PortletRequestContext reqctx = Stub.of(PortletRequestContext.class)
+            .returns("getQueryParams", Collections.emptyMap())
+            .create();
+      factory = new PortletParameterFactory(url, reqctx);
+   }
+
+   @Benchmark
+   public void getParameterMap(Blackhole bh) {
+      for (String pid : portletIds) {
+         Map<String, String[]> params = factory.getParameterMap(pid);
+         bh.consume(params);
+      }
+   }
+}
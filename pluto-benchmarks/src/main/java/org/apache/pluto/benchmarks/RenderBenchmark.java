@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pluto.container.HeaderData;
+import org.apache.pluto.container.PortletContainer;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortalDriverServices;
+import org.apache.pluto.container.impl.PortletContainerImpl;
+import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.core.PortletWindowImpl;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.apache.pluto.driver.url.PortalURL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Renders all portlets on the page through the portlet container. Each
+ * invocation processes a new request, so the benchmark includes the parsing
+ * of the portal URL, the creation of the portlet request and response
+ * objects and the generation of the URLs written by the portlets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+   @Param({"1", "5", "20"})
+   public int portlets;
+
+   private PortalFixture fixture;
+   private PortletContainer container;
+   private String state;
+
+   @Setup
+   public void setup() throws Exception {
+      fixture = new PortalFixture(portlets);
+      PortalDriverServices services = fixture.installServices(new InMemoryPortletInvoker(fixture.getServletContext()));
+      PortletContainerImpl containerImpl = new PortletContainerImpl("pluto-benchmarks", services);
+      containerImpl.init();
+      container = containerImpl;
+      state = fixture.createRenderState();
+   }
+
+   @Benchmark
+   public void doRender(Blackhole bh) throws Exception {
+      StringWriter out = new StringWriter(1024 * portlets);
+      PortalRequestContext portalRequest = fixture.portalRequest(state, out);
+      PortalURL url = portalRequest.getRequestedPortalURL();
+      List<PortletWindow> windows = new ArrayList<PortletWindow>(portlets);
+      for (String pid : url.getPortletIds()) {
+         windows.add(new PortletWindowImpl(container, PortletWindowConfig.fromId(pid), url));
+      }
+      for (PortletWindow window : windows) {
+         HeaderData headerData = container.doRender(window, portalRequest.getRequest(),
+               portalRequest.getResponse(), null);
+         bh.consume(headerData);
+      }
+      bh.consume(out.getBuffer());
+   }
+}
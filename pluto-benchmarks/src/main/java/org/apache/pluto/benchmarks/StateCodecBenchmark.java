@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pluto.container.bean.processor.CompactStateCodec;
+import org.apache.pluto.container.bean.processor.PortletStateCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stores the serialized values of a render state scoped bean in the URL
+ * parameter value and reads them back, with the values as they are and with
+ * the {@link CompactStateCodec}. The values are URL encoded the way the
+ * portal URL parser encodes render parameter values. The store benchmarks
+ * report the length of the URL parameter value as the secondary result
+ * <code>urlLength</code>.
+ * <p>
+ * <code>storeUnchanged</code> stands for an action that leaves the bean
+ * alone, where the bean holder only compares the values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateCodecBenchmark {
+
+   /**
+    * The length of the URL parameter value written by the last store.
+    */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.EVENTS)
+   public static class UrlLength {
+      public long urlLength;
+   }
+
+   @Param({"1", "5", "20"})
+   public int fields;
+
+   private static final String[] FIELDS = {
+      "1234", "Main Street 17", "true", "2017-06-18T10:15:30", "name,asc", 
+      "{\"page\":3,\"size\":25}", "M\u00fcller", "", "user@example.com", "a/b/c"};
+
+   private final PortletStateCodec codec = new CompactStateCodec();
+
+   private String[] values;
+   private String[] previous;
+   private String plainUrl;
+   private String compactUrl;
+
+   @Setup
+   public void setup() throws UnsupportedEncodingException {
+      values = new String[fields];
+      for (int ii = 0; ii < fields; ii++) {
+         values[ii] = FIELDS[ii % FIELDS.length];
+      }
+      previous = values.clone();
+      plainUrl = urlEncode(values);
+      compactUrl = urlEncode(codec.encode(values));
+   }
+
+   @Benchmark
+   public String storePlain(UrlLength length) throws UnsupportedEncodingException {
+      String url = urlEncode(values);
+      length.urlLength = url.length();
+      return url;
+   }
+
+   @Benchmark
+   public String storeCompact(UrlLength length) throws UnsupportedEncodingException {
+      String url = urlEncode(codec.encode(values));
+      length.urlLength = url.length();
+      return url;
+   }
+
+   @Benchmark
+   public boolean storeUnchanged() {
+      return Arrays.equals(values, previous);
+   }
+
+   @Benchmark
+   public String[] loadPlain() throws UnsupportedEncodingException {
+      return urlDecode(plainUrl);
+   }
+
+   @Benchmark
+   public String[] loadCompact() throws UnsupportedEncodingException {
+      return codec.decode(urlDecode(compactUrl));
+   }
+
+   private static String urlEncode(String[] vals) throws UnsupportedEncodingException {
+      StringBuilder txt = new StringBuilder();
+      for (int ii = 0; ii < vals.length; ii++) {
+         txt.append(ii == 0 ? "" : ":").append(URLEncoder.encode(vals[ii], "UTF-8"));
+      }
+      return txt.toString();
+   }
+
+   private static String[] urlDecode(String txt) throws UnsupportedEncodingException {
+      String[] vals = txt.split(":", -1);
+      for (int ii = 0; ii < vals.length; ii++) {
+         vals[ii] = URLDecoder.decode(vals[ii], "UTF-8");
+      }
+      return vals;
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a stub implementation of an interface. The methods are identified by
+ * name; a method that has not been stubbed returns <code>null</code>,
+ * <code>false</code> or zero.
+ *
+ * @param <T>  the interface
+ */
+public final class Stub<T> {
+
+   /**
+    * Computes the result of a stubbed method.
+    */
+   public interface Answer {
+      Object answer(Object[] args) throws Exception;
+   }
+
+   private final Class<T> type;
+   private final Map<String, Answer> answers = new HashMap<String, Answer>();
+
+   private Stub(Class<T> type) {
+      this.type = type;
+   }
+
+   public static <T> Stub<T> of(Class<T> type) {
+      return new Stub<T>(type);
+   }
+
+   /**
+    * Stubs a method returning a fixed value.
+    */
+   public Stub<T> returns(String method, final Object value) {
+      return answers(method, new Answer() {
+         public Object answer(Object[] args) {
+            return value;
+         }
+      });
+   }
+
+   /**
+    * Stubs a method computing its result.
+    */
+   public Stub<T> answers(String method, Answer answer) {
+      answers.put(method, answer);
+      return this;
+   }
+
+   public T create() {
+      final Map<String, Answer> stubbed = new HashMap<String, Answer>(answers);
+      InvocationHandler handler = new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+               return invokeObjectMethod(proxy, method, args);
+            }
+            Answer answer = stubbed.get(method.getName());
+            if (answer == null) {
+               return defaultValue(method.getReturnType());
+            }
+            return answer.answer((args == null) ? new Object[0] : args);
+         }
+      };
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+   }
+
+   private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("equals")) {
+         return proxy == args[0];
+      } else if (method.getName().equals("hashCode")) {
+         return System.identityHashCode(proxy);
+      }
+      return "Stub[" + type.getSimpleName() + "]";
+   }
+
+   private static Object defaultValue(Class<?> type) {
+      if (!type.isPrimitive() || type == void.class) {
+         return null;
+      } else if (type == boolean.class) {
+         return false;
+      } else if (type == char.class) {
+         return '\0';
+      } else if (type == long.class) {
+         return 0L;
+      } else if (type == float.class) {
+         return 0f;
+      } else if (type == double.class) {
+         return 0d;
+      } else if (type == byte.class) {
+         return (byte) 0;
+      } else if (type == short.class) {
+         return (short) 0;
+      }
+      return 0;
+   }
+}
@@ -0,0 +1,658 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.pluto.container;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts the tags that are valid for the document head section from markup
+ * provided by a portlet.
+ * <p>
+ * The markup is scanned in a single pass, and the allowed tags are written to
+ * the output as they are found. The markup must be well-formed, apart from the
+ * META and LINK tags, which may be left open, and the SCRIPT and STYLE tags,
+ * whose content is copied as it is. The tags are written in HTML form, with
+ * sorted attributes, and are formatted the way the HTML serializer of the
+ * JDK formats them, so that the markup is the same as the one formerly
+ * produced by parsing it into a DOM document and serializing the document.
+ * Only the top level tags are checked, so that a NOSCRIPT tag may contain
+ * any markup. Characters outside of ASCII are written as they are rather
+ * than as character entities.
+ *
+ * @see HeaderData
+ */
+final class HeadTagFilter {
+
+   /** Logger. */
+   private static final Logger       LOG      = LoggerFactory.getLogger(HeadTagFilter.class);
+
+   private static final Charset      UTF8     = Charset.forName("UTF-8");
+
+   // the element flags used for the formatting
+   private static final int          EMPTY    = 1;
+   private static final int          BLOCK    = 2;
+   private static final int          RAW      = 4;
+   private static final int          PRESERVE = 8;
+
+   // the attribute flags used for the formatting
+   private static final int          URL      = 1;
+   private static final int          NOVALUE  = 2;
+
+   /** The tags allowed at the top level, by upper case name. */
+   private static final Set<String>  allowedTags = new HashSet<String>(Arrays.asList(
+         "META", "SCRIPT", "STYLE", "LINK", "NOSCRIPT"));
+
+   /**
+    * The element flags by upper case name, as defined by the HTML serializer.
+    * Elements that are not listed are block elements.
+    */
+   private static final Map<String, Integer> elementFlags = new HashMap<String, Integer>();
+   static {
+      for (String name : new String[] { "A", "ABBR", "ACRONYM", "B", "BDO", "BIG", "BUTTON", "CITE", "CODE",
+            "DEL", "DFN", "EM", "FONT", "I", "INS", "KBD", "LABEL", "LEGEND", "OPTGROUP",
+            "OPTION", "Q", "S", "SAMP", "SELECT", "SMALL", "SPAN", "STRIKE", "STRONG", "SUB", "SUP", "TD",
+            "TEXTAREA", "TH", "TT", "U", "VAR" }) {
+         elementFlags.put(name, 0);
+      }
+      for (String name : new String[] { "BASEFONT", "INPUT", "PARAM" }) {
+         elementFlags.put(name, EMPTY);
+      }
+      elementFlags.put("APPLET", PRESERVE);
+      elementFlags.put("OBJECT", PRESERVE);
+      elementFlags.put("IMG", EMPTY | PRESERVE);
+      for (String name : new String[] { "AREA", "BASE", "BR", "COL", "FRAME", "HR", "ISINDEX", "LINK", "META" }) {
+         elementFlags.put(name, EMPTY | BLOCK);
+      }
+      elementFlags.put("SCRIPT", RAW);
+      elementFlags.put("STYLE", RAW | BLOCK);
+   }
+
+   /**
+    * The attribute flags by upper case element and attribute name, as defined
+    * by the HTML serializer.
+    */
+   private static final Map<String, Integer> attributeFlags = new HashMap<String, Integer>();
+   static {
+      for (String name : new String[] { "A HREF", "A NAME", "AREA HREF", "BASE HREF", "BLOCKQUOTE CITE",
+            "DEL CITE", "DIV SRC", "FORM ACTION", "FRAME SRC", "FRAME LONGDESC", "HEAD PROFILE", "IFRAME SRC",
+            "IFRAME LONGDESC", "IMG SRC", "IMG LONGDESC", "IMG USEMAP", "INPUT SRC", "INPUT USEMAP",
+            "INS CITE", "LINK HREF", "OBJECT CLASSID", "OBJECT CODEBASE", "OBJECT DATA", "OBJECT ARCHIVE",
+            "OBJECT USEMAP", "Q CITE", "SCRIPT SRC", "SCRIPT FOR" }) {
+         attributeFlags.put(name, URL);
+      }
+      for (String name : new String[] { "AREA NOHREF", "BUTTON DISABLED", "DIR COMPACT", "DIV NOWRAP",
+            "DL COMPACT", "FRAME NORESIZE", "HR NOSHADE", "IMG ISMAP", "INPUT CHECKED", "INPUT DISABLED",
+            "INPUT ISMAP", "INPUT READONLY", "MENU COMPACT", "OBJECT DECLARE", "OL COMPACT",
+            "OPTGROUP DISABLED", "OPTION SELECTED", "OPTION DISABLED", "SCRIPT DEFER", "SELECT DISABLED",
+            "SELECT MULTIPLE", "TABLE NOWRAP", "TD NOWRAP", "TEXTAREA DISABLED", "TEXTAREA READONLY",
+            "TH NOWRAP", "TR NOWRAP", "UL COMPACT" }) {
+         attributeFlags.put(name, NOVALUE);
+      }
+   }
+
+   private static final Comparator<String[]> BY_NAME = new Comparator<String[]>() {
+      public int compare(String[] a1, String[] a2) {
+         return a1[0].compareTo(a2[0]);
+      }
+   };
+
+   private final String              src;
+   private final boolean             chkArgs;
+   private final StringBuilder       txt;
+   private final List<String>        problems = new ArrayList<String>();
+   private int                       pos      = 0;
+
+   // the formatting state, as kept by the HTML serializer
+   private boolean                   inBlockElem  = false;
+   private boolean                   preserve     = false;
+   private boolean                   prevText     = false;
+   private boolean                   startTagOpen = false;
+
+   private HeadTagFilter(String src, boolean chkArgs) {
+      this.src = src;
+      this.chkArgs = chkArgs;
+      this.txt = new StringBuilder(src.length() + 16);
+   }
+
+   /**
+    * Extracts the tags that are valid for the document head section.
+    *
+    * @param src     the text to parse
+    * @param chkArgs if true, illegal argument exception is thrown when source
+    *                contains invalid tags. Otherwise, invalid tags are silently deleted.
+    * @return        the extracted tags in string form
+    * @throws IllegalArgumentException if the text is not well-formed
+    */
+   static String filter(String src, boolean chkArgs) {
+      HeadTagFilter filter = new HeadTagFilter(src, chkArgs);
+      filter.parseContent(null, true);
+
+      // the invalid markup is only reported once the text is known to be well-formed
+      for (String err : filter.problems) {
+         LOG.warn(err);
+         if (chkArgs) {
+            throw new IllegalArgumentException(err);
+         }
+      }
+      return filter.trim();
+   }
+
+   /**
+    * Parses the content of an element up to its end tag, or the whole text at
+    * the top level.
+    *
+    * @param parent  the element name, or <code>null</code> at the top level
+    * @param emit    whether the content is written to the output
+    */
+   private void parseContent(String parent, boolean emit) {
+      while (pos < src.length()) {
+         int lt = src.indexOf('<', pos);
+         int end = (lt < 0) ? src.length() : lt;
+         if (end > pos) {
+            text(src.substring(pos, end), parent == null, emit);
+            pos = end;
+         }
+         if (lt < 0) {
+            break;
+         }
+
+         if (src.startsWith("<!--", pos)) {
+            int close = indexOf("-->", pos + 4);
+            if (emit) {
+               comment(src.substring(pos + 4, close));
+            }
+            pos = close + 3;
+         } else if (src.startsWith("<![CDATA[", pos)) {
+            int close = indexOf("]]>", pos + 9);
+            if (emit && parent != null) {
+               startTagOpen = false;
+               preserve = true;
+               prevText = true;
+               appendNormalized(src.substring(pos, close + 3));
+            } else if (emit) {
+               invalid("Invalid node type: 4, node name: #cdata-section");
+            }
+            pos = close + 3;
+         } else if (src.startsWith("<?", pos)) {
+            pos += 2;
+            String target = parseName();
+            if (target.equalsIgnoreCase("xml")) {
+               throw parseError();
+            }
+            int close = indexOf("?>", pos);
+            if (emit && parent != null) {
+               instruction(target, src.substring(pos, close));
+            } else if (emit) {
+               invalid("Invalid node type: 7, node name: " + target);
+            }
+            pos = close + 2;
+         } else if (src.startsWith("</", pos)) {
+            pos += 2;
+            String name = parseName();
+            skipWhitespace();
+            expect('>');
+            if (name.equalsIgnoreCase("META") || name.equalsIgnoreCase("LINK")) {
+               // closing tags of meta & link tags are dropped, since we're generating html
+               continue;
+            }
+            if (parent == null || !parent.equalsIgnoreCase(name)) {
+               throw parseError();
+            }
+            return;
+         } else if (src.startsWith("<!", pos)) {
+            throw parseError();
+         } else {
+            element(parent == null, emit);
+         }
+      }
+
+      if (parent != null) {
+         throw parseError();
+      }
+   }
+
+   /**
+    * Parses an element starting at the current position.
+    *
+    * @param topLevel  whether the element is a top level element, which must be one of the allowed tags
+    * @param emit      whether the element is written to the output
+    */
+   private void element(boolean topLevel, boolean emit) {
+      pos++;
+      String name = parseName();
+      List<String[]> attributes = parseAttributes();
+      boolean closed = src.startsWith("/>", pos);
+      if (closed) {
+         pos += 2;
+      } else {
+         expect('>');
+      }
+
+      String uname = name.toUpperCase(Locale.ENGLISH);
+      if (emit && topLevel && !allowedTags.contains(uname)) {
+         StringBuilder err = new StringBuilder(128);
+         err.append("Invalid tag: ");
+         err.append(name);
+         err.append(", node name: ").append(name);
+         invalid(err.toString());
+         emit = false;
+      }
+
+      // meta & link tags are always empty, as the portlet may leave them open
+      Integer flags = elementFlags.get(uname);
+      int flgs = (flags == null) ? BLOCK : flags;
+      boolean empty = uname.equals("META") || uname.equals("LINK") || closed;
+
+      if (emit) {
+         startElement(name, attributes, flgs);
+      }
+      if ((flgs & RAW) != 0) {
+         String content = closed ? "" : rawContent(name);
+         if (emit && content.length() > 0) {
+            // the content of script and style tags is written as it is
+            startTagOpen = false;
+            preserve = true;
+            appendNormalized(content);
+         }
+      } else if (!empty) {
+         parseContent(name, emit);
+      }
+      if (emit) {
+         endElement(name, flgs);
+      }
+   }
+
+   /**
+    * Returns the content of a script or style tag up to its end tag, and
+    * moves past the end tag.
+    */
+   private String rawContent(String name) {
+      int start = pos;
+      int end = src.indexOf("</", pos);
+      while (end >= 0) {
+         int after = end + 2 + name.length();
+         if (src.regionMatches(true, end + 2, name, 0, name.length())
+               && (after == src.length() || isWhitespace(src.charAt(after)) || src.charAt(after) == '>')) {
+            pos = after;
+            skipWhitespace();
+            expect('>');
+            return src.substring(start, end);
+         }
+         end = src.indexOf("</", end + 2);
+      }
+      throw parseError();
+   }
+
+   /**
+    * Handles text outside of the tags. At the top level, only white space is
+    * allowed.
+    */
+   private void text(String text, boolean topLevel, boolean emit) {
+      boolean white = true;
+      for (int ii = 0; ii < text.length() && white; ii++) {
+         white = isWhitespace(text.charAt(ii));
+      }
+      String value = decode(text, false);
+      if (!emit) {
+         return;
+      }
+
+      if (topLevel && !white) {
+         StringBuilder err = new StringBuilder(128);
+         err.append("Invalid text node: ");
+         err.append(text);
+         err.append(", node name: #text");
+         invalid(err.toString());
+         return;
+      }
+
+      startTagOpen = false;
+      if (!white) {
+         preserve = true;
+      }
+      prevText = true;
+      for (int ii = 0; ii < value.length(); ii++) {
+         char c = value.charAt(ii);
+         switch (c) {
+         case '&':
+            txt.append("&amp;");
+            break;
+         case '<':
+            txt.append("&lt;");
+            break;
+         case '>':
+            txt.append("&gt;");
+            break;
+         default:
+            txt.append(c);
+         }
+      }
+   }
+
+   private void comment(String comment) {
+      if (!preserve && !prevText) {
+         txt.append('\n');
+      }
+      startTagOpen = false;
+      txt.append("<!--");
+      appendNormalized(comment);
+      txt.append("-->");
+   }
+
+   private void instruction(String target, String data) {
+      if (!preserve && !prevText) {
+         txt.append('\n');
+      }
+      startTagOpen = false;
+      txt.append("<?").append(target);
+      appendNormalized(data);
+      txt.append('>');
+   }
+
+   private void startElement(String name, List<String[]> attributes, int flags) {
+      boolean block = (flags & BLOCK) != 0;
+      if (preserve) {
+         preserve = false;
+      } else if (!inBlockElem || block) {
+         txt.append('\n');
+      }
+      inBlockElem = !block;
+      prevText = false;
+
+      txt.append('<').append(name);
+      Collections.sort(attributes, BY_NAME);
+      for (String[] attribute : attributes) {
+         appendAttribute(name, attribute[0], attribute[1]);
+      }
+      txt.append('>');
+      startTagOpen = true;
+   }
+
+   private void endElement(String name, int flags) {
+      boolean block = (flags & BLOCK) != 0;
+      if (preserve) {
+         preserve = false;
+      } else if ((!inBlockElem || block) && !startTagOpen) {
+         txt.append('\n');
+      }
+      inBlockElem = !block;
+      prevText = false;
+
+      if ((flags & EMPTY) == 0) {
+         txt.append("</").append(name).append('>');
+      }
+      startTagOpen = false;
+      if ((flags & PRESERVE) != 0) {
+         preserve = true;
+      }
+   }
+
+   private void appendAttribute(String element, String name, String value) {
+      txt.append(' ').append(name);
+      Integer flags = attributeFlags.get((element + ' ' + name).toUpperCase(Locale.ENGLISH));
+      int flgs = (flags == null) ? 0 : flags;
+      if ((flgs & NOVALUE) != 0 && (value.length() == 0 || value.equalsIgnoreCase(name))) {
+         return;
+      }
+
+      txt.append("=\"");
+      if ((flgs & URL) != 0) {
+
+         // URL attributes have the characters outside of printable ASCII escaped
+         for (int ii = 0; ii < value.length(); ii++) {
+            char c = value.charAt(ii);
+            if (c < 32 || c > 126) {
+               int cp = value.codePointAt(ii);
+               ii += Character.charCount(cp) - 1;
+               for (byte b : new String(Character.toChars(cp)).getBytes(UTF8)) {
+                  txt.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+               }
+            } else if (c == '"') {
+               txt.append("%22");
+            } else if (c == '&') {
+               txt.append("&amp;");
+            } else {
+               txt.append(c);
+            }
+         }
+      } else {
+         for (int ii = 0; ii < value.length(); ii++) {
+            char c = value.charAt(ii);
+            if (c == '"') {
+               txt.append("&quot;");
+            } else if (c == '&' && (ii + 1 == value.length() || value.charAt(ii + 1) != '{')) {
+               txt.append("&amp;");
+            } else {
+               txt.append(c);
+            }
+         }
+      }
+      txt.append('"');
+   }
+
+   /**
+    * Parses the attributes of a start tag, leaving the position at the end of
+    * the tag.
+    *
+    * @return the attribute names and decoded values
+    */
+   private List<String[]> parseAttributes() {
+      List<String[]> attributes = new ArrayList<String[]>(4);
+      while (true) {
+         int start = pos;
+         skipWhitespace();
+         if (pos >= src.length() || src.charAt(pos) == '>' || src.startsWith("/>", pos)) {
+            return attributes;
+         }
+         if (pos == start) {
+            throw parseError();
+         }
+
+         String name = parseName();
+         skipWhitespace();
+         expect('=');
+         skipWhitespace();
+         if (pos >= src.length() || (src.charAt(pos) != '"' && src.charAt(pos) != '\'')) {
+            throw parseError();
+         }
+         int end = src.indexOf(src.charAt(pos), pos + 1);
+         if (end < 0) {
+            throw parseError();
+         }
+         String value = src.substring(pos + 1, end);
+         if (value.indexOf('<') >= 0) {
+            throw parseError();
+         }
+         pos = end + 1;
+
+         for (String[] attribute : attributes) {
+            if (attribute[0].equals(name)) {
+               throw parseError();
+            }
+         }
+         attributes.add(new String[] { name, decode(value, true) });
+      }
+   }
+
+   /**
+    * Resolves the character and entity references of a text or attribute
+    * value, and normalizes the line breaks. In attribute values, white space
+    * characters are replaced by blanks.
+    */
+   private String decode(String text, boolean attribute) {
+      if (text.indexOf('&') < 0 && text.indexOf('\r') < 0
+            && (!attribute || (text.indexOf('\n') < 0 && text.indexOf('\t') < 0))) {
+         return text;
+      }
+
+      StringBuilder sb = new StringBuilder(text.length());
+      for (int ii = 0; ii < text.length(); ii++) {
+         char c = text.charAt(ii);
+         if (c == '&') {
+            int semi = text.indexOf(';', ii);
+            if (semi < 0) {
+               throw parseError();
+            }
+            sb.append(resolve(text.substring(ii + 1, semi)));
+            ii = semi;
+         } else if (c == '\r') {
+            if (ii + 1 < text.length() && text.charAt(ii + 1) == '\n') {
+               ii++;
+            }
+            sb.append(attribute ? ' ' : '\n');
+         } else if (attribute && isWhitespace(c)) {
+            sb.append(' ');
+         } else {
+            sb.append(c);
+         }
+      }
+      return sb.toString();
+   }
+
+   private String resolve(String ref) {
+      if (ref.equals("amp")) {
+         return "&";
+      } else if (ref.equals("lt")) {
+         return "<";
+      } else if (ref.equals("gt")) {
+         return ">";
+      } else if (ref.equals("quot")) {
+         return "\"";
+      } else if (ref.equals("apos")) {
+         return "'";
+      } else if (ref.startsWith("#")) {
+         try {
+            int cp = ref.startsWith("#x") ? Integer.parseInt(ref.substring(2), 16) : Integer.parseInt(ref.substring(1));
+            if (cp == 0x9 || cp == 0xA || cp == 0xD || (cp >= 0x20 && cp <= 0xD7FF)
+                  || (cp >= 0xE000 && cp <= 0xFFFD) || (cp >= 0x10000 && cp <= 0x10FFFF)) {
+               return new String(Character.toChars(cp));
+            }
+         } catch (NumberFormatException e) {
+         }
+      }
+      throw parseError();
+   }
+
+   private String parseName() {
+      int start = pos;
+      while (pos < src.length()) {
+         char c = src.charAt(pos);
+         if (isWhitespace(c) || c == '>' || c == '/' || c == '=' || c == '<' || c == '?' || c == '"' || c == '\'') {
+            break;
+         }
+         pos++;
+      }
+      if (pos == start) {
+         throw parseError();
+      }
+      return src.substring(start, pos);
+   }
+
+   private void skipWhitespace() {
+      while (pos < src.length() && isWhitespace(src.charAt(pos))) {
+         pos++;
+      }
+   }
+
+   private void expect(char c) {
+      if (pos >= src.length() || src.charAt(pos) != c) {
+         throw parseError();
+      }
+      pos++;
+   }
+
+   private int indexOf(String str, int from) {
+      int idx = src.indexOf(str, from);
+      if (idx < 0) {
+         throw parseError();
+      }
+      return idx;
+   }
+
+   /**
+    * Appends text with its line breaks normalized.
+    */
+   private void appendNormalized(String text) {
+      if (text.indexOf('\r') < 0) {
+         txt.append(text);
+         return;
+      }
+      for (int ii = 0; ii < text.length(); ii++) {
+         char c = text.charAt(ii);
+         if (c == '\r') {
+            if (ii + 1 < text.length() && text.charAt(ii + 1) == '\n') {
+               ii++;
+            }
+            txt.append('\n');
+         } else {
+            txt.append(c);
+         }
+      }
+   }
+
+   /**
+    * Records invalid markup, which is dropped unless the arguments are checked.
+    */
+   private void invalid(String err) {
+      problems.add(err);
+   }
+
+   private IllegalArgumentException parseError() {
+      StringBuilder err = new StringBuilder();
+      err.append("Problem parsing tag data: ").append(src.replaceAll("&", "&amp;").replaceAll("<", "&lt;"));
+      return new IllegalArgumentException(err.toString());
+   }
+
+   /**
+    * Returns the output without leading and trailing white space.
+    */
+   private String trim() {
+      int start = 0;
+      int end = txt.length();
+      while (start < end && isSpace(txt.charAt(start))) {
+         start++;
+      }
+      while (end > start && isSpace(txt.charAt(end - 1))) {
+         end--;
+      }
+      return txt.substring(start, end);
+   }
+
+   private static boolean isWhitespace(char c) {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+   }
+
+   private static boolean isSpace(char c) {
+      return isWhitespace(c) || c == '\f' || c == '\u000B';
+   }
+}
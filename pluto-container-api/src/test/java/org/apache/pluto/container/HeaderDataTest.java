@@ -0,0 +1,228 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.pluto.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Compares the head section markup extracted by {@link HeaderData} with the
+ * markup extracted by the former DOM based implementation,
+ * {@link LegacyHeaderData}. The markup must be the same, apart from the
+ * differences that are checked separately.
+ */
+public class HeaderDataTest {
+
+   private static final String MARKER = "\n<!-- markup from portlet output stream -->";
+
+   private static final String[] TAGS = {
+      "<script src=\"a.js\"></script>",
+      "<script src=\"a.js\"></script><script src=\"b.js\"></script>",
+      "<SCRIPT SRC=\"a.js\"></SCRIPT>",
+      "<script type=\"text/javascript\">if (a < b && c) { x = '&amp;'; }</script>",
+      "<script src=\"a.js\" defer=\"defer\"></script>",
+      "<style>p > a { color: red; }</style>",
+      "<meta name=\"viewport\" content=\"width=device-width\">",
+      "<meta name=\"viewport\" content=\"width=device-width\"/>",
+      "<meta content=\"&lt;x&gt; &quot;q&quot; &#65;\" name=\"d\">",
+      "<link rel=\"stylesheet\" href=\"a.css\"></link>",
+      "<link href=\"a b.css?x=1&amp;y=2\" rel=\"stylesheet\">",
+      "<!-- comment --><script src=\"a.js\"></script>",
+      "<noscript><p class=\"x\">no <b>script</b> &amp; &lt;x&gt;</p></noscript>",
+      "<noscript><img src=\"a b.png\" ismap=\"ismap\"/><br/><span></span><![CDATA[a<b]]>"
+            + "<?pi x?><script>if (a<b) {}</script><!-- c --></noscript>",
+      "<noscript><input checked=\"\" disabled=\"disabled\" type=\"checkbox\"/>"
+            + "<a href=\"/x?a=1&amp;b=2\" name=\"n m\">l</a><object data=\"x\"></object><p/></noscript>",
+   };
+
+   private static final String[] WHITESPACE = {
+      "<style>\n a { b: c }\n</style>\n<meta charset=\"UTF-8\">",
+      "<noscript>\n  <div>\n    <p>x</p>\n  </div>\n</noscript>",
+      "<noscript>t<p>x</p>u<img src=\"i\"/>v<div>w</div></noscript>",
+      "<noscript><![CDATA[a]]><p>x</p><![CDATA[b]]>\r\n<span>y</span></noscript>",
+   };
+
+   private static final String[] DISALLOWED = {
+      "<div>disallowed</div>\n<script src=\"a.js\"></script>",
+      "<title>T &amp; U</title>",
+      "<![CDATA[x]]>",
+      "<?pi x?>",
+   };
+
+   private static final String[] MALFORMED = {
+      "<script src=\"a.js\">",
+      "<script async src=\"a.js\"></script>",
+      "<p>unclosed",
+      "<!-- comment --><base href=\"/x/\">",
+      "<noscript></script>",
+   };
+
+   @Test
+   public void allowedTags() {
+      for (String markup : TAGS) {
+         assertSame(markup);
+      }
+   }
+
+   @Test
+   public void whitespace() {
+      // the legacy markup depends on the serializer of the JDK, which indents differently as of Java 9
+      assumeTrue(System.getProperty("java.specification.version").startsWith("1."));
+      for (String markup : WHITESPACE) {
+         assertSame(markup);
+      }
+   }
+
+   @Test
+   public void disallowedTags() {
+      for (String markup : DISALLOWED) {
+         assertSame(markup);
+      }
+   }
+
+   @Test
+   public void malformedMarkup() {
+      for (String markup : MALFORMED) {
+         assertSame(markup);
+      }
+   }
+
+   @Test
+   public void emptyMarkup() {
+      assertSame(" \n ");
+      assertEquals(MARKER, new HeaderData().getHeadSectionMarkup());
+      assertEquals(MARKER, new LegacyHeaderData().getHeadSectionMarkup());
+   }
+
+   @Test
+   public void addedElements() {
+      HeaderData hd = new HeaderData();
+      LegacyHeaderData legacy = new LegacyHeaderData();
+      hd.addHeaderTag(hd.createElement("script"));
+      legacy.addHeaderTag(legacy.createElement("script"));
+      hd.getWriter().write("<meta name=\"a\" content=\"b\">");
+      legacy.getWriter().write("<meta name=\"a\" content=\"b\">");
+      assertEquals(legacy.getHeadSectionMarkup(), hd.getHeadSectionMarkup());
+   }
+
+   // Non-ASCII characters were written as character entities, but the page is written in
+   // an encoding that represents them, so they are now written as they are.
+   @Test
+   public void nonAsciiCharacters() {
+      String markup = "<meta name=\"\u00e9\" content=\"caf\u00e9\"><script>var s = '\u20ac';</script>";
+      assertEquals(MARKER + "<meta content=\"caf&eacute;\" name=\"&eacute;\">\n<script>var s = '\u20ac';</script>",
+            legacyMarkup(markup));
+      assertEquals(MARKER + "<meta content=\"caf\u00e9\" name=\"\u00e9\">\n<script>var s = '\u20ac';</script>",
+            markup(markup));
+   }
+
+   // The regular expression that closed the META and LINK tags swallowed the end of a
+   // self-closed tag into the next tag, so that valid markup was rejected.
+   @Test
+   public void selfClosedMetaFollowedByTag() {
+      String markup = "<meta name=\"a\" content=\"b\" /><script src=\"x.js\"></script>";
+      assertEquals("IllegalArgumentException: Problem parsing tag data: "
+            + "&lt;meta name=\"a\" content=\"b\" />&lt;script src=\"x.js\"/>&lt;/script>", legacyMarkup(markup));
+      assertEquals(MARKER + "<meta content=\"b\" name=\"a\">\n<script src=\"x.js\"></script>", markup(markup));
+   }
+
+   // The parse error quoted the markup as rewritten by the regular expressions rather than
+   // as written by the portlet.
+   @Test
+   public void parseErrorMessage() {
+      String markup = "<meta name=\"a\" content=\"b\">&nbsp;";
+      assertEquals("IllegalArgumentException: Problem parsing tag data: "
+            + "&lt;meta name=\"a\" content=\"b\"/>&amp;nbsp;", legacyMarkup(markup));
+      assertEquals("IllegalArgumentException: Problem parsing tag data: "
+            + "&lt;meta name=\"a\" content=\"b\">&amp;nbsp;", markup(markup));
+   }
+
+   // Invalid text was dropped, but part of the warning was written to the markup.
+   @Test
+   public void invalidText() {
+      String markup = "text <script src=\"a.js\"></script>";
+      assertEquals(MARKER + ", allowed tags: [META, SCRIPT, STYLE, LINK, NOSCRIPT]<script src=\"a.js\"></script>",
+            legacyMarkup(markup));
+      assertEquals(MARKER + "<script src=\"a.js\"></script>", markup(markup));
+      assertEquals(legacyDependency(markup), dependency(markup));
+   }
+
+   // The node following a removed node was not checked, so that a disallowed tag
+   // directly following another one was written to the markup.
+   @Test
+   public void adjacentDisallowedTags() {
+      String markup = "<div/><div>x</div>";
+      assertEquals(MARKER + "<div>x</div>", legacyMarkup(markup));
+      assertEquals(MARKER, markup(markup));
+      assertEquals(legacyDependency(markup), dependency(markup));
+   }
+
+   private static void assertSame(String markup) {
+      assertEquals(markup, legacyMarkup(markup), markup(markup));
+      assertEquals(markup, legacyDependency(markup), dependency(markup));
+   }
+
+   private static String markup(String markup) {
+      try {
+         HeaderData hd = new HeaderData();
+         hd.getWriter().write(markup);
+         return hd.getHeadSectionMarkup();
+      } catch (IllegalArgumentException e) {
+         return "IllegalArgumentException: " + e.getMessage();
+      }
+   }
+
+   private static String legacyMarkup(String markup) {
+      try {
+         LegacyHeaderData hd = new LegacyHeaderData();
+         hd.getWriter().write(markup);
+         return hd.getHeadSectionMarkup();
+      } catch (IllegalArgumentException e) {
+         return "IllegalArgumentException: " + e.getMessage();
+      }
+   }
+
+   private static String dependency(String markup) {
+      try {
+         HeaderData hd = new HeaderData();
+         hd.addDependency("name", "scope", "1.0", markup);
+         return toString(hd.getDynamicResources());
+      } catch (IllegalArgumentException e) {
+         return "IllegalArgumentException: " + e.getMessage();
+      }
+   }
+
+   private static String legacyDependency(String markup) {
+      try {
+         LegacyHeaderData hd = new LegacyHeaderData();
+         hd.addDependency("name", "scope", "1.0", markup);
+         return toString(hd.getDynamicResources());
+      } catch (IllegalArgumentException e) {
+         return "IllegalArgumentException: " + e.getMessage();
+      }
+   }
+
+   private static String toString(Map<PageResourceId, String> resources) {
+      return resources.values().toString();
+   }
+}
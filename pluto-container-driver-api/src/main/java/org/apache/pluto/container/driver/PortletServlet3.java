@@ -40,6 +40,9 @@ import javax.portlet.ResourceRequest;
 import javax.portlet.ResourceResponse;
 import javax.portlet.StateAwareResponse;
 import javax.portlet.UnavailableException;
+import javax.portlet.annotations.PortletRequestScoped;
+import javax.portlet.annotations.PortletSessionScoped;
+import javax.portlet.annotations.RenderStateScoped;
 import javax.servlet.DispatcherType;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -61,11 +64,14 @@ import org.apache.pluto.container.PortletResourceRequestContext;
 import org.apache.pluto.container.PortletResponseContext;
 import org.apache.pluto.container.PortletWindow;
 import org.apache.pluto.container.bean.processor.AnnotatedConfigBean;
+import org.apache.pluto.container.bean.processor.CompactStateCodec;
 import org.apache.pluto.container.bean.processor.PortletArtifactProducer;
 import org.apache.pluto.container.bean.processor.PortletInvoker;
 import org.apache.pluto.container.bean.processor.PortletRequestScopedBeanHolder;
 import org.apache.pluto.container.bean.processor.PortletSessionBeanHolder;
+import org.apache.pluto.container.bean.processor.PortletStateCodec;
 import org.apache.pluto.container.bean.processor.PortletStateScopedBeanHolder;
+import org.apache.pluto.container.bean.processor.PortletStateScopedConfig;
 import org.apache.pluto.container.impl.HttpServletPortletRequestWrapper;
 import org.apache.pluto.container.om.portlet.impl.ConfigurationHolder;
 import org.slf4j.Logger;
@@ -157,6 +163,7 @@ public class PortletServlet3 extends HttpServlet {
             holder.instantiatePortlets(beanmgr);
             invoker = new PortletInvoker(holder.getMethodStore(), portletName);
             LOG.debug("Created the portlet invoker for portlet: " + portletName);
+            initStateCodec(config.getServletContext());
          }
       } catch(Exception e) {
          StringBuilder txt = new StringBuilder(128);
@@ -192,6 +199,40 @@ public class PortletServlet3 extends HttpServlet {
       }, 1, 10000);
    }
 
+   /**
+    * Sets the codec for the render state scoped beans of the portlet application
+    * as selected by the context parameter, unless another portlet servlet of the
+    * application has already done so.
+    */
+   private void initStateCodec(ServletContext context) {
+      if (acb == null || acb.getStateScopedConfig() == null) {
+         return;
+      }
+      PortletStateScopedConfig pssc = acb.getStateScopedConfig();
+      String name = context.getInitParameter(PortletStateScopedConfig.CODEC_PARAM);
+      synchronized (pssc) {
+         if (name == null || name.trim().length() == 0 || pssc.getCodec() != null) {
+            return;
+         }
+         name = name.trim();
+         PortletStateCodec codec;
+         if ("compact".equals(name)) {
+            codec = new CompactStateCodec();
+         } else {
+            try {
+               ClassLoader cl = Thread.currentThread().getContextClassLoader();
+               codec = Class.forName(name, true, cl).asSubclass(PortletStateCodec.class).newInstance();
+            } catch (Exception e) {
+               LOG.warn("Could not instantiate render state scoped bean codec " + name 
+                     + ", storing the bean values as they are. Exception: " + e.toString());
+               return;
+            }
+         }
+         pssc.setCodec(codec);
+         LOG.debug("Render state scoped bean codec: " + codec.getClass().getName());
+      }
+   }
+
    protected boolean attemptRegistration(ServletContext context, ClassLoader paClassLoader) {
       if (PlutoServices.getServices() != null) {
          contextService = PlutoServices.getServices().getPortletContextService();
@@ -560,14 +601,23 @@ public class PortletServlet3 extends HttpServlet {
 
       if (acb != null) {
 
-         // Set the portlet session bean holder for the thread & session
-         PortletRequestScopedBeanHolder.setBeanHolder();
+         // The bean holders are only set for the custom scopes that have beans in
+         // this application. The holders defer their setup until a bean is requested.
+
+         // Set the portlet request bean holder for the thread
+         if (acb.isScopeUsed(PortletRequestScoped.class)) {
+            PortletRequestScopedBeanHolder.setBeanHolder();
+         }
 
          // Set the portlet session bean holder for the thread & session
-         PortletSessionBeanHolder.setBeanHolder(req, acb.getSessionScopedConfig());
+         if (acb.isScopeUsed(PortletSessionScoped.class)) {
+            PortletSessionBeanHolder.setBeanHolder(req, acb.getSessionScopedConfig());
+         }
 
          // Set the render state scoped bean holder
-         PortletStateScopedBeanHolder.setBeanHolder(req, acb.getStateScopedConfig());
+         if (acb.isScopeUsed(RenderStateScoped.class)) {
+            PortletStateScopedBeanHolder.setBeanHolder(req, acb.getStateScopedConfig());
+         }
 
          // Set up the artifact producer with request, response, and portlet config
          PortletArtifactProducer.setPrecursors(req, resp, config);
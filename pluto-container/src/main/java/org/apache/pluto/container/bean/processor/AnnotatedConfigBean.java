@@ -19,6 +19,9 @@
 
 package org.apache.pluto.container.bean.processor;
 
+import java.lang.annotation.Annotation;
+import java.util.Set;
+
 import javax.enterprise.context.ApplicationScoped;
 
 /**
@@ -34,6 +37,7 @@ public class AnnotatedConfigBean {
    private ConfigSummary summary = null;
    private PortletStateScopedConfig stateScopedConfig = null;
    private PortletSessionScopedConfig sessionScopedConfig = null;
+   private Set<Class<? extends Annotation>> scopes = null;
    
    /**
     * @return the methodStore
@@ -90,6 +94,24 @@ public class AnnotatedConfigBean {
    public void setSessionScopedConfig(PortletSessionScopedConfig sessionScopedConfig) {
       this.sessionScopedConfig = sessionScopedConfig;
    }
+
+   /**
+    * Determines whether the application has beans of the given scope. If the
+    * scopes were not recorded, all scopes are considered to be in use.
+    * 
+    * @param scope   the scope annotation
+    * @return        <code>true</code> if there are beans of the scope
+    */
+   public boolean isScopeUsed(Class<? extends Annotation> scope) {
+      return (scopes == null) || scopes.contains(scope);
+   }
+
+   /**
+    * @param scopes the scopes of the beans of the application
+    */
+   public void setScopes(Set<Class<? extends Annotation>> scopes) {
+      this.scopes = scopes;
+   }
    
    
 }
@@ -33,6 +33,11 @@ public class AnnotatedMethod {
    private Bean<?> bean;
    private Object beanInstance;
    private boolean isPortletClass = false;
+   
+   // Set upon activation if the bean has a normal scope. The client proxy of such a 
+   // bean looks up the contextual instance on each call, so it is obtained only once.
+   private boolean isNormalScoped = false;
+   private volatile Object beanProxy;
 
    /**
     * Constructor.
@@ -107,6 +112,16 @@ public class AnnotatedMethod {
          Set<Bean<?>> beans = bm.getBeans(beanClass);
          bean = bm.resolve(beans);
          assert bean != null;
+         isNormalScoped = bm.isNormalScope(bean.getScope());
+      }
+      
+      // skip the access check of reflection on each invocation
+      try {
+         meth.setAccessible(true);
+      } catch (SecurityException e) {
+         if (isTrace) {
+            LOG.debug("Access checks cannot be suppressed for method: " + meth.getName());
+         }
       }
    }
    
@@ -142,13 +157,22 @@ public class AnnotatedMethod {
     */
    public Object invoke(Object... args) 
          throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+      Object instance = beanInstance;
       if (!isPortletClass) {
          // get the reference for beans other than portlet classes in order to respect the 
          // scope of the bean.
-         beanInstance = beanMgr.getReference(bean, bean.getBeanClass(), beanMgr.createCreationalContext(bean));
+         if (isNormalScoped) {
+            instance = beanProxy;
+            if (instance == null) {
+               instance = beanMgr.getReference(bean, bean.getBeanClass(), beanMgr.createCreationalContext(bean));
+               beanProxy = instance;
+            }
+         } else {
+            instance = beanMgr.getReference(bean, bean.getBeanClass(), beanMgr.createCreationalContext(bean));
+         }
       }
 
-      return meth.invoke(beanInstance, args);
+      return meth.invoke(instance, args);
    }
 
    /**
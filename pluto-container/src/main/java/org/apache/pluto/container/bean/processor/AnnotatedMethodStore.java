@@ -31,6 +31,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.enterprise.inject.spi.BeanManager;
 import javax.portlet.annotations.ActionMethod;
@@ -68,6 +70,11 @@ public class AnnotatedMethodStore {
    private final Map<MethodIdentifier, List<AnnotatedMethod>> methods =
          new HashMap<MethodIdentifier, List<AnnotatedMethod>>();
    
+   // The dispatch tables by portlet name, built upon activation or first use. 
+   // Discarded when the stored methods change. 
+   private final ConcurrentMap<String, DispatchTable> dispatchTables = 
+         new ConcurrentHashMap<String, DispatchTable>();
+   
    // Set containing all portlet names appearing in either the configuration map, 
    // the method map, or both.
    private final Set<String>  portletNames = new TreeSet<String>();
@@ -138,6 +145,7 @@ public class AnnotatedMethodStore {
     *                <code>false</code> if there was a disallowed duplicate entry.
     */
    public boolean addMethod(MethodIdentifier mi, AnnotatedMethod am) {
+      dispatchTables.clear();
             
       // First collect the event references, if any
       
@@ -274,6 +282,7 @@ public class AnnotatedMethodStore {
     * @return     The list of annotated methods removed, or <code>null</code> if no list exists
     */
    public List<AnnotatedMethod> removeMethod(MethodIdentifier mi) {
+      dispatchTables.clear();
       return methods.remove(mi);
    }
    
@@ -396,6 +405,7 @@ public class AnnotatedMethodStore {
       }
       
       portletNames.remove(portletName);
+      dispatchTables.remove(portletName);
    }
    
    /**
@@ -414,6 +424,30 @@ public class AnnotatedMethodStore {
             meth.activate(bm);
          }
       }
+      
+      dispatchTables.clear();
+      for (String portletName : portletNames) {
+         dispatchTables.put(portletName, new DispatchTable(portletName, methods));
+      }
+   }
+   
+   /**
+    * Returns the dispatch table for the given portlet. The table is built
+    * upon activation, or when it is first requested after the stored methods 
+    * have changed.
+    * 
+    * @param portletName   The portlet name
+    * @return              The dispatch table
+    */
+   public DispatchTable getDispatchTable(String portletName) {
+      DispatchTable table = dispatchTables.get(portletName);
+      if (table == null) {
+         // the methods are not changed while the portlets are in service, so a
+         // table built twice is harmless
+         table = new DispatchTable(portletName, methods);
+         dispatchTables.put(portletName, table);
+      }
+      return table;
    }
    
    /**
@@ -476,6 +510,7 @@ public class AnnotatedMethodStore {
 
             methods.remove(mi);
             methods.put(newmi, meths);
+            dispatchTables.clear();
             
             if (isDebug) {
                StringBuilder txt = new StringBuilder();
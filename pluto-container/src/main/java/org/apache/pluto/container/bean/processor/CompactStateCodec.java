@@ -0,0 +1,306 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the values of a <code>{@literal @}RenderStateScoped</code> bean in a
+ * single render parameter value that is not expanded by URL encoding.
+ * <p>
+ * The values are written as a binary record: the number of values, followed
+ * by the length and the UTF-8 bytes of each value, the lengths being variable
+ * length integers. Longer records are deflated if that makes them smaller.
+ * The record is stored in base64url encoding behind the prefix
+ * <code>*b</code> for a plain record or <code>*z</code> for a deflated one.
+ * <p>
+ * If the encoded value would not be shorter in the URL than the values
+ * themselves, the values are stored as they are. A single value starting
+ * with the prefix character is always encoded, so that stored values can be
+ * told apart from encoded ones.
+ */
+public class CompactStateCodec implements PortletStateCodec {
+   private static final long serialVersionUID = -2637946211405727375L;
+
+   /** Logger. */
+   private static final Logger LOG = LoggerFactory.getLogger(CompactStateCodec.class);
+
+   /** The character starting an encoded value. It is not URL encoded. */
+   public static final char PREFIX_CHAR = '*';
+
+   private static final String RAW = PREFIX_CHAR + "b";
+   private static final String DEFLATED = PREFIX_CHAR + "z";
+
+   // Records shorter than this are not deflated, since deflating them rarely pays.
+   private static final int MIN_DEFLATE = 32;
+
+   // Upper bound for the length of a decoded record
+   private static final int MAX_LENGTH = 64 * 1024;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final String[] NO_VALUES = new String[0];
+
+   private static final char[] ALPHABET = 
+         "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+   private static final int[] INDEX = new int[128];
+   static {
+      Arrays.fill(INDEX, -1);
+      for (int ii = 0; ii < ALPHABET.length; ii++) {
+         INDEX[ALPHABET[ii]] = ii;
+      }
+   }
+
+   @Override
+   public String[] encode(String[] values) {
+      if (values == null || values.length == 0) {
+         return values;
+      }
+
+      byte[] record = toRecord(values);
+      byte[] deflated = (record.length >= MIN_DEFLATE) ? deflate(record) : null;
+
+      StringBuilder txt = new StringBuilder(2 + (record.length * 4 + 2) / 3);
+      if (deflated != null) {
+         txt.append(DEFLATED);
+         toBase64(deflated, txt);
+      } else {
+         txt.append(RAW);
+         toBase64(record, txt);
+      }
+
+      boolean isPrefixed = values.length == 1 && values[0] != null 
+            && values[0].length() > 0 && values[0].charAt(0) == PREFIX_CHAR;
+      if (!isPrefixed && txt.length() >= getEncodedLength(values)) {
+         return values;
+      }
+      return new String[] {txt.toString()};
+   }
+
+   @Override
+   public String[] decode(String[] values) {
+      if (values == null || values.length != 1 || values[0] == null 
+            || values[0].length() < 2 || values[0].charAt(0) != PREFIX_CHAR) {
+         return values;
+      }
+
+      String value = values[0];
+      try {
+         byte[] record = fromBase64(value, 2);
+         if (value.startsWith(DEFLATED)) {
+            record = inflate(record);
+         } else if (!value.startsWith(RAW)) {
+            throw new IllegalArgumentException("Unknown format.");
+         }
+         return fromRecord(record);
+      } catch (Exception e) {
+         if (LOG.isDebugEnabled()) {
+            StringBuilder txt = new StringBuilder(128);
+            txt.append("Dropping undecodable bean state: ").append(value);
+            txt.append(", Exception: ").append(e.toString());
+            LOG.debug(txt.toString());
+         }
+         return NO_VALUES;
+      }
+   }
+
+   /**
+    * Returns the number of characters the values take up in a URL, where they
+    * are URL encoded and delimited by a single character.
+    * 
+    * @param values  the values
+    * @return        the encoded length
+    */
+   public static int getEncodedLength(String[] values) {
+      int len = values.length - 1;
+      for (String value : values) {
+         if (value == null) {
+            len++;
+            continue;
+         }
+         for (int ii = 0; ii < value.length(); ii++) {
+            char c = value.charAt(ii);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') 
+                  || c == '.' || c == '-' || c == '*' || c == '_' || c == ' ') {
+               len++;
+            } else if (c < 0x80) {
+               len += 3;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+               len += 6;
+            } else {
+               len += 9;
+            }
+         }
+      }
+      return len;
+   }
+
+   private static byte[] toRecord(String[] values) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+      writeVarInt(values.length, out);
+      for (String value : values) {
+         if (value == null) {
+            writeVarInt(0, out);
+         } else {
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarInt(bytes.length + 1, out);
+            out.write(bytes, 0, bytes.length);
+         }
+      }
+      return out.toByteArray();
+   }
+
+   private static String[] fromRecord(byte[] record) {
+      ByteBuffer buf = ByteBuffer.wrap(record);
+      int count = readVarInt(buf);
+      if (count > buf.remaining()) {
+         throw new IllegalArgumentException("Invalid value count: " + count);
+      }
+      String[] values = new String[count];
+      for (int ii = 0; ii < count; ii++) {
+         int len = readVarInt(buf) - 1;
+         if (len >= 0) {
+            if (len > buf.remaining()) {
+               throw new IllegalArgumentException("Invalid value length: " + len);
+            }
+            values[ii] = new String(record, buf.position(), len, UTF8);
+            buf.position(buf.position() + len);
+         }
+      }
+      if (buf.hasRemaining()) {
+         throw new IllegalArgumentException("Unexpected data after the last value.");
+      }
+      return values;
+   }
+
+   private static void writeVarInt(int value, ByteArrayOutputStream out) {
+      while ((value & ~0x7f) != 0) {
+         out.write((value & 0x7f) | 0x80);
+         value >>>= 7;
+      }
+      out.write(value);
+   }
+
+   private static int readVarInt(ByteBuffer buf) {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+         int b = buf.get();
+         value |= (b & 0x7f) << shift;
+         if ((b & 0x80) == 0) {
+            if (value < 0) {
+               break;
+            }
+            return value;
+         }
+      }
+      throw new IllegalArgumentException("Invalid variable length integer.");
+   }
+
+   /**
+    * Returns the deflated record, or <code>null</code> if it is not smaller.
+    */
+   private static byte[] deflate(byte[] record) {
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+      try {
+         deflater.setInput(record);
+         deflater.finish();
+         byte[] buf = new byte[record.length - 1];
+         int len = 0;
+         while (!deflater.finished() && len < buf.length) {
+            len += deflater.deflate(buf, len, buf.length - len);
+         }
+         return deflater.finished() ? Arrays.copyOf(buf, len) : null;
+      } finally {
+         deflater.end();
+      }
+   }
+
+   private static byte[] inflate(byte[] data) throws DataFormatException {
+      Inflater inflater = new Inflater(true);
+      try {
+         inflater.setInput(data);
+         ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+         byte[] buf = new byte[512];
+         while (!inflater.finished()) {
+            int len = inflater.inflate(buf);
+            if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+               throw new DataFormatException("Truncated data.");
+            }
+            out.write(buf, 0, len);
+            if (out.size() > MAX_LENGTH) {
+               throw new DataFormatException("Record too long.");
+            }
+         }
+         return out.toByteArray();
+      } finally {
+         inflater.end();
+      }
+   }
+
+   private static void toBase64(byte[] data, StringBuilder out) {
+      int ii = 0;
+      for (; ii + 2 < data.length; ii += 3) {
+         int bits = (data[ii] & 0xff) << 16 | (data[ii + 1] & 0xff) << 8 | (data[ii + 2] & 0xff);
+         out.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f]);
+         out.append(ALPHABET[(bits >>> 6) & 0x3f]).append(ALPHABET[bits & 0x3f]);
+      }
+      int rest = data.length - ii;
+      if (rest > 0) {
+         int bits = (data[ii] & 0xff) << 16 | ((rest == 2) ? (data[ii + 1] & 0xff) << 8 : 0);
+         out.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f]);
+         if (rest == 2) {
+            out.append(ALPHABET[(bits >>> 6) & 0x3f]);
+         }
+      }
+   }
+
+   private static byte[] fromBase64(String txt, int start) {
+      int len = txt.length() - start;
+      if (len % 4 == 1) {
+         throw new IllegalArgumentException("Invalid base64 length.");
+      }
+      byte[] data = new byte[len * 3 / 4];
+      int bits = 0;
+      int count = 0;
+      int pos = 0;
+      for (int ii = start; ii < txt.length(); ii++) {
+         char c = txt.charAt(ii);
+         int val = (c < INDEX.length) ? INDEX[c] : -1;
+         if (val < 0) {
+            throw new IllegalArgumentException("Invalid base64 character: " + c);
+         }
+         bits = (bits << 6) | val;
+         count += 6;
+         if (count >= 8) {
+            count -= 8;
+            data[pos++] = (byte) (bits >>> count);
+         }
+      }
+      return data;
+   }
+}
@@ -0,0 +1,97 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.portlet.PortletMode;
+
+/**
+ * Immutable lookup table for the annotated methods of one portlet, built from the
+ * method store so that the portlet invoker does not need to create a method
+ * identifier and copy the method list on each call.
+ * <p>
+ * The method lists are sorted by ordinal. Render and header methods are keyed by
+ * portlet mode, so that the portlet mode of the request can be used for the lookup
+ * directly. A lookup for which no methods are stored falls back to the default 
+ * dispatch ID "".
+ * 
+ */
+public class DispatchTable {
+   
+   private static final List<AnnotatedMethod> NONE = Collections.emptyList();
+
+   private final Map<MethodType, Map<Object, List<AnnotatedMethod>>> tables =
+         new EnumMap<MethodType, Map<Object, List<AnnotatedMethod>>>(MethodType.class);
+
+   /**
+    * Constructor.
+    * 
+    * @param portletName   The portlet name
+    * @param methods       The stored methods of all portlets
+    */
+   public DispatchTable(String portletName, Map<MethodIdentifier, List<AnnotatedMethod>> methods) {
+      for (MethodType type : MethodType.values()) {
+         tables.put(type, new HashMap<Object, List<AnnotatedMethod>>());
+      }
+      for (Map.Entry<MethodIdentifier, List<AnnotatedMethod>> entry : methods.entrySet()) {
+         MethodIdentifier mi = entry.getKey();
+         if (!portletName.equals(mi.getName()) || entry.getValue().isEmpty()) {
+            continue;
+         }
+         List<AnnotatedMethod> list = new ArrayList<AnnotatedMethod>(entry.getValue());
+         Collections.sort(list, new AnnotatedMethodComparator());
+         tables.get(mi.getType()).put(getKey(mi.getType(), mi.getId()), Collections.unmodifiableList(list));
+      }
+   }
+
+   /**
+    * The render and header methods are stored by the upper case portlet mode name.
+    */
+   private static Object getKey(MethodType type, Object id) {
+      if ((type == MethodType.RENDER || type == MethodType.HEADER) 
+            && (id instanceof String) && ((String) id).length() > 0) {
+         return new PortletMode((String) id);
+      }
+      return id;
+   }
+
+   /**
+    * Returns the methods for the given method type and dispatch ID, falling back
+    * to the methods for the default dispatch ID "".
+    * 
+    * @param type    The method type
+    * @param id      The dispatch ID. The portlet mode for render and header methods.
+    * @return        The methods sorted by ordinal. May be empty, but not <code>null</code>.
+    */
+   public List<AnnotatedMethod> getMethods(MethodType type, Object id) {
+      Map<Object, List<AnnotatedMethod>> table = tables.get(type);
+      List<AnnotatedMethod> list = table.get(id);
+      if (list == null) {
+         list = table.get("");
+      }
+      return (list == null) ? NONE : list;
+   }
+}
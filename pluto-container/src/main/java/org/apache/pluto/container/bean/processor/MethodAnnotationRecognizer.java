@@ -20,18 +20,18 @@ package org.apache.pluto.container.bean.processor;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.annotation.Annotation;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
-import javax.portlet.annotations.ActionMethod;
-import javax.portlet.annotations.EventMethod;
-import javax.portlet.annotations.HeaderMethod;
-import javax.portlet.annotations.RenderMethod;
-import javax.portlet.annotations.ServeResourceMethod;
 import javax.servlet.ServletContext;
 
 import org.slf4j.Logger;
@@ -41,6 +41,11 @@ import eu.infomas.annotation.AnnotationDetector;
 
 /**
  * Uses the annotation detector to find the portlet method annotations.
+ * <p>
+ * The class directory and the libraries that contain a {@link PortletAnnotationIndex}
+ * are not scanned; the classes listed in the index are checked instead. The index of
+ * the class directory is only used if its class files match the fingerprints recorded
+ * in the index.
  * 
  * @author Scott Nicklous
  * 
@@ -64,11 +69,9 @@ public class MethodAnnotationRecognizer extends PortletAnnotationRecognizer impl
    /**
     * Defines the annotation classes to be scanned for
     */
-   @SuppressWarnings("unchecked")
    @Override
    public Class<? extends Annotation>[] annotations() {
-      return new Class[] { HeaderMethod.class, ActionMethod.class, EventMethod.class, RenderMethod.class,
-            ServeResourceMethod.class };
+      return PortletAnnotationIndex.getAnnotations();
    }
 
    /**
@@ -78,6 +81,24 @@ public class MethodAnnotationRecognizer extends PortletAnnotationRecognizer impl
    @Override
    public void reportMethodAnnotation(Class<? extends Annotation> anno, String className, String methName) {
       
+      if (isDebug) {
+         StringBuilder txt = new StringBuilder(128);
+         txt.append("Found: ").append(anno.getSimpleName());
+         txt.append(", class name: ").append(className);
+         txt.append(", method name: ").append(methName);
+         LOG.debug(txt.toString());
+      }
+      checkClass(className);
+   }
+   
+   /**
+    * Loads the class with the given name and registers the portlet annotated 
+    * methods in it. A class is only checked once.
+    * 
+    * @param className     the binary class name
+    */
+   private void checkClass(String className) {
+      
       if (!handledClasses.contains(className)) {
          handledClasses.add(className);
          
@@ -93,9 +114,7 @@ public class MethodAnnotationRecognizer extends PortletAnnotationRecognizer impl
          }
 
          if (isDebug) {
-            txt.append("Found: ").append(anno.getSimpleName());
-            txt.append(", class name: ").append(className);
-            txt.append(", method name: ").append(methName);
+            txt.append("Checking class: ").append(className);
             txt.append(", class: ").append((valClass == null) ? "could not be loaded." : "loaded.");
             LOG.debug(txt.toString());
          }
@@ -115,15 +134,113 @@ public class MethodAnnotationRecognizer extends PortletAnnotationRecognizer impl
    public void scanContext(ServletContext ctx) {
       Set<File> files;
       
-      files = getClassFilesForPath(ctx, CLASSDIR);
-      scanFiles(files);
+      if (!scanClassIndex(ctx)) {
+         scanFiles(getClassFilesForPath(ctx, CLASSDIR));
+      }
       
       files = getLibFilesForPath(ctx, LIBDIR);
-      scanFiles(files);
+      Set<File> unindexed = new HashSet<File>();
+      for (File lib : files) {
+         if (!scanLibIndex(lib)) {
+            unindexed.add(lib);
+         }
+      }
+      scanFiles(unindexed);
       
       activateAnnotatedMethods(null);
    }
    
+   /**
+    * Checks the classes listed in an annotation index.
+    * 
+    * @param classNames    the class names read from the index
+    */
+   public void scanIndex(Set<String> classNames) {
+      for (String className : classNames) {
+         checkClass(className);
+      }
+   }
+   
+   /**
+    * Checks the classes listed in the annotation index of the class directory,
+    * if it is present and up to date with the class files.
+    * 
+    * @param ctx     the servlet context
+    * @return        <code>true</code> if the index was used
+    */
+   public boolean scanClassIndex(ServletContext ctx) {
+      PortletAnnotationIndex index;
+      InputStream in = ctx.getResourceAsStream(CLASSDIR + "/" + PortletAnnotationIndex.RESOURCE);
+      if (in == null) {
+         return false;
+      }
+      try {
+         try {
+            index = PortletAnnotationIndex.read(in);
+         } finally {
+            in.close();
+         }
+      } catch (IOException e) {
+         LOG.warn("Could not read annotation index, scanning class directory: " + e.getMessage());
+         return false;
+      }
+      
+      if (index.getFiles() == null) {
+         LOG.info("Annotation index of class directory has no class file fingerprints, scanning class directory.");
+         return false;
+      }
+      
+      Map<String, File> classFiles = new HashMap<String, File>();
+      try {
+         for (String path : getClassPaths(ctx, CLASSDIR)) {
+            classFiles.put(path.substring(CLASSDIR.length() + 1), new File(ctx.getResource(path).toURI()));
+         }
+         if (!index.isCurrent(classFiles)) {
+            LOG.info("Annotation index of class directory is out of date, scanning class directory.");
+            return false;
+         }
+      } catch (Exception e) {
+         LOG.warn("Could not check annotation index, scanning class directory: " + e.getMessage());
+         return false;
+      }
+      
+      scanIndex(index.getClassNames());
+      LOG.info("Read annotation index of class directory instead of scanning " + classFiles.size() 
+            + " class files.");
+      return true;
+   }
+   
+   /**
+    * Checks the classes listed in the annotation index of a library, if it has one.
+    * 
+    * @param lib     the library
+    * @return        <code>true</code> if the index was used
+    */
+   private boolean scanLibIndex(File lib) {
+      try {
+         JarFile jar = new JarFile(lib);
+         try {
+            ZipEntry entry = jar.getEntry(PortletAnnotationIndex.RESOURCE);
+            if (entry == null) {
+               return false;
+            }
+            InputStream in = jar.getInputStream(entry);
+            try {
+               scanIndex(PortletAnnotationIndex.read(in).getClassNames());
+            } finally {
+               in.close();
+            }
+         } finally {
+            jar.close();
+         }
+      } catch (IOException e) {
+         LOG.warn("Could not read annotation index, scanning library " + lib + ": " + e.getMessage());
+         return false;
+      }
+      LOG.info("Read annotation index of library instead of scanning it: " + lib);
+      return true;
+   }
+   
    /**
     * Scans the given set of files for annotations.
     * 
@@ -174,34 +291,51 @@ public class MethodAnnotationRecognizer extends PortletAnnotationRecognizer impl
     */
    private Set<File> getClassFilesForPath(ServletContext ctx, String path) {
       Set<File> files = new HashSet<File>();
+      for (String pth : getClassPaths(ctx, path)) {
+         try {
+            URL url = ctx.getResource(pth);
+            File f = new File(url.toURI());
+            files.add(f);
+         } catch(Exception e) {
+            StringBuilder txt = new StringBuilder(128);
+            txt.append("Exception getting library file.");
+
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            e.printStackTrace(pw);
+            pw.flush();
+            txt.append(sw.toString());
+
+            LOG.warn(txt.toString());
+         }
+      }
+      return files;
+   }
+
+   /**
+    * Returns the resource paths of all class files below a given servlet context 
+    * resource path.
+    * 
+    * @param ctx     the servlet context
+    * @param path    the resource path
+    * 
+    * @return        a set of resource paths
+    */
+   private Set<String> getClassPaths(ServletContext ctx, String path) {
+      Set<String> classPaths = new HashSet<String>();
       Set<String> paths = ctx.getResourcePaths(path);
       if (paths != null) {
          for (String pth : paths) {
             if (pth.endsWith("META-INF/")) {
                continue;
             } else if (pth.endsWith("/")) {
-               files.addAll(getClassFilesForPath(ctx, pth));
+               classPaths.addAll(getClassPaths(ctx, pth));
             } else if (pth.endsWith(".class")) {
-               try {
-                  URL url = ctx.getResource(pth);
-                  File f = new File(url.toURI());
-                  files.add(f);
-               } catch(Exception e) {
-                  StringBuilder txt = new StringBuilder(128);
-                  txt.append("Exception getting library file.");
-
-                  StringWriter sw = new StringWriter();
-                  PrintWriter pw = new PrintWriter(sw);
-                  e.printStackTrace(pw);
-                  pw.flush();
-                  txt.append(sw.toString());
-
-                  LOG.warn(txt.toString());
-               }
+               classPaths.add(pth);
             }
          }
       }
-      return files;
+      return classPaths;
    }
 
    /**
@@ -0,0 +1,252 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import javax.portlet.annotations.ActionMethod;
+import javax.portlet.annotations.EventMethod;
+import javax.portlet.annotations.HeaderMethod;
+import javax.portlet.annotations.RenderMethod;
+import javax.portlet.annotations.ServeResourceMethod;
+
+/**
+ * The portlet annotation index lists the classes of a class directory or
+ * library that contain portlet method annotations, one binary class name per line.
+ * It is written at build time by the {@link PortletAnnotationIndexer} annotation 
+ * processor or the <code>index</code> goal of the maven-pluto-plugin. When it is 
+ * present, the {@link MethodAnnotationRecognizer} loads the listed classes instead 
+ * of scanning the byte code of all classes.
+ * <p>
+ * The <code>index</code> goal adds a <code>[files]</code> section listing the
+ * path, size and CRC32 checksum of each class file it indexed. The index of a
+ * class directory is only used if the class files match these fingerprints, so
+ * that classes compiled after the index was written are scanned.
+ * <p>
+ * Note that this class is used by the build tools, so it may only depend on the
+ * portlet API.
+ * 
+ */
+public class PortletAnnotationIndex {
+   
+   /**
+    * The location of the index within a class directory or library.
+    */
+   public static final String RESOURCE = "META-INF/pluto/portlet-annotations.idx";
+   
+   /**
+    * The method annotations whose classes are listed in the index.
+    */
+   @SuppressWarnings("unchecked")
+   public static Class<? extends Annotation>[] getAnnotations() {
+      return new Class[] { HeaderMethod.class, ActionMethod.class, EventMethod.class, RenderMethod.class,
+            ServeResourceMethod.class };
+   }
+   
+   private static final String CHARSET = "UTF-8";
+   
+   private static final String FILES = "[files]";
+   
+   private final Set<String> classNames;
+   
+   private final Map<String, Fingerprint> files;
+
+   /**
+    * @param classNames    the binary names of the classes containing portlet method annotations
+    * @param files         the fingerprints of the indexed class files by path relative to the 
+    *                      class directory, or <code>null</code> if they are not known
+    */
+   public PortletAnnotationIndex(Collection<String> classNames, Map<String, Fingerprint> files) {
+      this.classNames = new TreeSet<String>(classNames);
+      this.files = (files != null) ? new TreeMap<String, Fingerprint>(files) : null;
+   }
+
+   /**
+    * @return  the binary names of the classes containing portlet method annotations
+    */
+   public Set<String> getClassNames() {
+      return classNames;
+   }
+
+   /**
+    * @return  the fingerprints of the indexed class files by path, or <code>null</code>
+    *          if the index does not list them
+    */
+   public Map<String, Fingerprint> getFiles() {
+      return files;
+   }
+
+   /**
+    * Checks whether the index is up to date with the given class files, which
+    * is the case if they are the indexed files and match their fingerprints.
+    * An index without fingerprints is not up to date.
+    * 
+    * @param classFiles    the class files by path relative to the class directory,
+    *                      separated by '/'
+    * @return              <code>true</code> if the index is up to date
+    * @throws IOException
+    */
+   public boolean isCurrent(Map<String, File> classFiles) throws IOException {
+      if (files == null || !files.keySet().equals(classFiles.keySet())) {
+         return false;
+      }
+      for (Map.Entry<String, File> entry : classFiles.entrySet()) {
+         Fingerprint fingerprint = files.get(entry.getKey());
+         // compare the sizes first, as they do not require reading the files
+         if (fingerprint.size != entry.getValue().length() 
+               || !fingerprint.equals(Fingerprint.of(entry.getValue()))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Reads an index.
+    * 
+    * @param in   the index. It is not closed.
+    * @return     the index
+    * @throws IOException
+    */
+   public static PortletAnnotationIndex read(InputStream in) throws IOException {
+      Set<String> classNames = new TreeSet<String>();
+      Map<String, Fingerprint> files = null;
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+      String line;
+      while ((line = reader.readLine()) != null) {
+         line = line.trim();
+         if (line.equals(FILES)) {
+            files = new TreeMap<String, Fingerprint>();
+         } else if (line.length() > 0 && !line.startsWith("#")) {
+            if (files != null) {
+               String[] fields = line.split(" ");
+               if (fields.length != 3) {
+                  throw new IOException("Invalid class file entry: " + line);
+               }
+               try {
+                  files.put(fields[0], new Fingerprint(Long.parseLong(fields[1]), Long.parseLong(fields[2], 16)));
+               } catch (NumberFormatException e) {
+                  throw new IOException("Invalid class file entry: " + line);
+               }
+            } else {
+               classNames.add(line);
+            }
+         }
+      }
+      return new PortletAnnotationIndex(classNames, files);
+   }
+
+   /**
+    * Writes the index.
+    * 
+    * @param out           receives the index. It is not closed.
+    * @throws IOException
+    */
+   public void write(OutputStream out) throws IOException {
+      Writer writer = new OutputStreamWriter(out, CHARSET);
+      writer.write("# Classes containing portlet method annotations\n");
+      for (String className : classNames) {
+         writer.write(className);
+         writer.write('\n');
+      }
+      if (files != null) {
+         writer.write(FILES);
+         writer.write("\n# Indexed class files: path, size, CRC32\n");
+         for (Map.Entry<String, Fingerprint> entry : files.entrySet()) {
+            writer.write(entry.getKey());
+            writer.write(' ');
+            writer.write(entry.getValue().toString());
+            writer.write('\n');
+         }
+      }
+      writer.flush();
+   }
+
+   /**
+    * The size and CRC32 checksum of a class file.
+    */
+   public static class Fingerprint {
+      private final long size;
+      private final long crc;
+
+      public Fingerprint(long size, long crc) {
+         this.size = size;
+         this.crc = crc;
+      }
+
+      /**
+       * Computes the fingerprint of a file.
+       * 
+       * @param file    the file
+       * @return        the fingerprint
+       * @throws IOException
+       */
+      public static Fingerprint of(File file) throws IOException {
+         CRC32 crc = new CRC32();
+         long size = 0;
+         byte[] buffer = new byte[8192];
+         InputStream in = new FileInputStream(file);
+         try {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+               crc.update(buffer, 0, count);
+               size += count;
+            }
+         } finally {
+            in.close();
+         }
+         return new Fingerprint(size, crc.getValue());
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Fingerprint)) {
+            return false;
+         }
+         Fingerprint other = (Fingerprint) obj;
+         return size == other.size && crc == other.crc;
+      }
+
+      @Override
+      public int hashCode() {
+         return (int) (size ^ crc);
+      }
+
+      @Override
+      public String toString() {
+         return size + " " + Long.toHexString(crc);
+      }
+   }
+}
@@ -0,0 +1,111 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor writing the {@link PortletAnnotationIndex} of the compiled
+ * classes. It is enabled by adding it to the annotation processors of the compiler,
+ * for example with the <code>-processor</code> option of javac.
+ * <p>
+ * As an incremental build only passes the changed classes to the processor, the 
+ * classes listed in an existing index are kept. Classes that have been removed
+ * or no longer contain portlet method annotations are skipped when the index is read.
+ * <p>
+ * The processor cannot tell whether the class files are compiled by it later on,
+ * so the index it writes has no fingerprints of the class files, and the portlet
+ * container scans a class directory containing it. The <code>index</code> goal of
+ * the maven-pluto-plugin adds the fingerprints; in a library, the index is used
+ * as it is.
+ * 
+ */
+@SupportedAnnotationTypes({"javax.portlet.annotations.HeaderMethod", "javax.portlet.annotations.ActionMethod", 
+   "javax.portlet.annotations.EventMethod", "javax.portlet.annotations.RenderMethod",
+   "javax.portlet.annotations.ServeResourceMethod"})
+public class PortletAnnotationIndexer extends AbstractProcessor {
+
+   private final Set<String> classNames = new TreeSet<String>();
+
+   @Override
+   public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+   }
+
+   @Override
+   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      for (TypeElement annotation : annotations) {
+         for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            Element type = element.getEnclosingElement();
+            if (type instanceof TypeElement) {
+               classNames.add(processingEnv.getElementUtils().getBinaryName((TypeElement) type).toString());
+            }
+         }
+      }
+      
+      if (roundEnv.processingOver() && !classNames.isEmpty()) {
+         writeIndex();
+      }
+      return false;
+   }
+
+   private void writeIndex() {
+      Filer filer = processingEnv.getFiler();
+      try {
+         FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", PortletAnnotationIndex.RESOURCE);
+         InputStream in = existing.openInputStream();
+         try {
+            classNames.addAll(PortletAnnotationIndex.read(in).getClassNames());
+         } finally {
+            in.close();
+         }
+      } catch (IOException e) {
+         // no index yet
+      }
+      
+      try {
+         FileObject index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", PortletAnnotationIndex.RESOURCE);
+         OutputStream out = index.openOutputStream();
+         try {
+            new PortletAnnotationIndex(classNames, null).write(out);
+         } finally {
+            out.close();
+         }
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, 
+               "Could not write the portlet annotation index: " + e.getMessage());
+      }
+   }
+}
@@ -128,6 +128,17 @@ public class PortletArtifactProducer {
       }
    }
    
+   /**
+    * Determines whether the precursors are set for this thread, meaning that 
+    * the portlet contexts are active.
+    * 
+    * @return  <code>true</code> if the precursors are set
+    */
+   public static boolean isActive() {
+      PortletArtifactProducer pap = producers.get();
+      return (pap != null) && (pap.req != null);
+   }
+   
    /**
     * Creates a new producer for this thread and stores it in the thread local.
     * @param req        The portlet request
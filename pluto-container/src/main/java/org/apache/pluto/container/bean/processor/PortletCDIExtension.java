@@ -21,6 +21,7 @@ package org.apache.pluto.container.bean.processor;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -37,7 +38,11 @@ import javax.enterprise.inject.spi.BeanManager;
 import javax.enterprise.inject.spi.BeforeBeanDiscovery;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.enterprise.inject.spi.ProcessBean;
 import javax.portlet.PortletConfig;
+import javax.portlet.annotations.PortletRequestScoped;
+import javax.portlet.annotations.PortletSessionScoped;
+import javax.portlet.annotations.RenderStateScoped;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +60,9 @@ public class PortletCDIExtension implements Extension {
 
    private final AnnotatedMethodStore ams = new AnnotatedMethodStore(summary);
    private final PortletAnnotationRecognizer par = new PortletAnnotationRecognizer(ams, summary);
+
+   // The custom portlet scopes that have beans in this application
+   private final Set<Class<? extends Annotation>> scopes = new HashSet<Class<? extends Annotation>>();
    
    private static AnnotatedConfigBean acb = null;
    
@@ -159,6 +167,20 @@ public class PortletCDIExtension implements Extension {
 
    }
    
+   /**
+    * Record the custom portlet scopes of the beans, so that the bean holders 
+    * for scopes without beans need not be set up for each request.
+    * 
+    * @param pb
+    */
+   void processBean(@Observes ProcessBean<?> pb) {
+      Class<? extends Annotation> scope = pb.getBean().getScope();
+      if (scope == PortletRequestScoped.class || scope == PortletSessionScoped.class 
+            || scope == RenderStateScoped.class) {
+         scopes.add(scope);
+      }
+   }
+   
    /**
     * Add the context for the custom scope implementations.
     * 
@@ -206,6 +228,8 @@ public class PortletCDIExtension implements Extension {
             acb.setSummary(summary);
             acb.setStateScopedConfig(par.getStateScopedConfig());
             acb.setSessionScopedConfig(par.getSessionScopedConfig());
+            acb.setScopes(Collections.unmodifiableSet(scopes));
+            LOG.debug("Custom portlet scopes in use: " + scopes);
          } catch (Exception e) {
             StringBuilder txt = new StringBuilder(128);
             txt.append("Exception getting AnnotatedConfigBean bean instance: ");
@@ -22,7 +22,7 @@ import static javax.portlet.ActionRequest.ACTION_NAME;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.portlet.ActionRequest;
@@ -36,6 +36,7 @@ import javax.portlet.HeaderResponse;
 import javax.portlet.Portlet;
 import javax.portlet.PortletConfig;
 import javax.portlet.PortletException;
+import javax.portlet.PortletMode;
 import javax.portlet.PortletRequestDispatcher;
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
@@ -86,35 +87,25 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    // =======================================================================
 
    /**
-    * Returns a list of methods to be invoked for the given method identifier.
+    * Returns a list of methods to be invoked for the given method type and 
+    * dispatch ID.
     * 
-    * @param mi
-    *           The method identifier
-    * @return A list of methods. may be empty.
+    * @param type
+    *           The method type
+    * @param id
+    *           The dispatch ID. The portlet mode for render and header methods.
+    * @return A list of methods sorted by ordinal. may be empty.
     */
-   private List<AnnotatedMethod> getMethods(MethodIdentifier mi) {
+   private List<AnnotatedMethod> getMethods(MethodType type, Object id) {
 
-      // get the method from the store. If the requested method cannot
-      // be found,
-      // retry with the default dispatch ID ("").
+      // get the methods from the dispatch table. If the requested method cannot
+      // be found, the table falls back to the default dispatch ID ("").
 
       if (isDebug) {
-         LOG.debug("Retrieving method for method identifier: " + mi.toString());
+         LOG.debug("Retrieving methods for portlet: " + portletName + ", type: " + type + ", id: " + id);
       }
 
-      List<AnnotatedMethod> meths = methodStore.getMethods(mi);
-      if (meths.isEmpty()) {
-         Object id = mi.getId();
-         if ((id != null) && (id instanceof String) && ((String) id).length() > 0) {
-            mi.setId("");
-            if (isDebug) {
-               LOG.debug("Retrying retrieval with method identifier: " + mi.toString());
-            }
-            meths = methodStore.getMethods(mi);
-         }
-      }
-
-      return meths;
+      return methodStore.getDispatchTable(portletName).getMethods(type, id);
    }
 
    /**
@@ -164,9 +155,7 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    public void init(PortletConfig config) throws PortletException {
       this.config = config;
 
-      MethodIdentifier mi = new MethodIdentifier(portletName, "", MethodType.INIT);
-
-      List<AnnotatedMethod> meths = getMethods(mi);
+      List<AnnotatedMethod> meths = getMethods(MethodType.INIT, "");
       if (meths.size() == 0) {
 
          // If no init method, log debug trace and return
@@ -195,9 +184,7 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    @Override
    public void destroy() {
 
-      MethodIdentifier mi = new MethodIdentifier(portletName, "", MethodType.DESTROY);
-
-      List<AnnotatedMethod> meths = getMethods(mi);
+      List<AnnotatedMethod> meths = getMethods(MethodType.DESTROY, "");
       if (meths.size() == 0) {
 
          // If no init method, log debug trace and return
@@ -225,9 +212,8 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    public void serveResource(ResourceRequest req, ResourceResponse resp) throws PortletException, IOException {
 
       String id = (req.getResourceID() != null) ? req.getResourceID() : "";
-      MethodIdentifier mi = new MethodIdentifier(portletName, id, MethodType.RESOURCE);
 
-      List<AnnotatedMethod> meths = new ArrayList<AnnotatedMethod>();
+      List<AnnotatedMethod> meths;
       if (req.getDispatcherType() == DispatcherType.ASYNC) {
 
          // Handle AsyncContest#dispatch() case
@@ -241,9 +227,9 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
             return;
          }
          LOG.debug("Processing async dispatch. method: " + meth.toString());
-         meths.add(meth);
+         meths = Collections.singletonList(meth);
       } else {
-         meths = getMethods(mi);
+         meths = getMethods(MethodType.RESOURCE, id);
       }
 
       if (meths.size() == 0) {
@@ -323,25 +309,19 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    public void processEvent(EventRequest req, EventResponse resp) throws PortletException, IOException {
 
       QName qn = req.getEvent().getQName();
-      MethodIdentifier mi = new MethodIdentifier(portletName, qn, MethodType.EVENT);
 
-      List<AnnotatedMethod> meths = getMethods(mi);
+      // falls back to the empty string (for portlet class processEvent method, for
+      // example)
+      List<AnnotatedMethod> meths = getMethods(MethodType.EVENT, qn);
       if (meths.size() == 0) {
 
-         // retry with empty string (for portlet class processEvent method, for
-         // example)
-         mi.setId("");
-         meths = getMethods(mi);
-         if (meths.size() == 0) {
-
-            // If an event to be processed, but event method could not be found,
-            // add appropriate error string.
+         // If an event to be processed, but event method could not be found,
+         // add appropriate error string.
 
-            StringBuilder txt = new StringBuilder(128);
-            txt.append("Event method not found. Event qname=").append(qn);
-            LOG.warn(txt.toString());
-            return;
-         }
+         StringBuilder txt = new StringBuilder(128);
+         txt.append("Event method not found. Event qname=").append(qn);
+         LOG.warn(txt.toString());
+         return;
       }
       assert meths.size() == 1;
       AnnotatedMethod meth = meths.get(0);
@@ -357,9 +337,8 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
 
       String an = req.getActionParameters().getValue(ACTION_NAME);
       String id = (an != null) ? an : "";
-      MethodIdentifier mi = new MethodIdentifier(portletName, id, MethodType.ACTION);
 
-      List<AnnotatedMethod> meths = getMethods(mi);
+      List<AnnotatedMethod> meths = getMethods(MethodType.ACTION, id);
       if (meths.size() == 0) {
 
          // If an action URL was activated, but action method could not be
@@ -384,11 +363,9 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    @Override
    public void render(RenderRequest req, RenderResponse resp) throws PortletException, IOException {
 
-      String pm = req.getPortletMode().toString();
-      String id = (pm != null) ? pm.toUpperCase() : "";
-      MethodIdentifier mi = new MethodIdentifier(portletName, id, MethodType.RENDER);
+      PortletMode pm = req.getPortletMode();
 
-      List<AnnotatedMethod> meths = getMethods(mi);
+      List<AnnotatedMethod> meths = getMethods(MethodType.RENDER, pm);
       if (meths.isEmpty()) {
          // No render methods available
          StringBuilder txt = new StringBuilder(128);
@@ -440,11 +417,9 @@ public class PortletInvoker implements Portlet, ResourceServingPortlet, EventPor
    @Override
    public void renderHeaders(HeaderRequest req, HeaderResponse resp) throws PortletException, java.io.IOException {
 
-      String pm = req.getPortletMode().toString();
-      String id = (pm != null) ? pm.toUpperCase() : "";
-      MethodIdentifier mi = new MethodIdentifier(portletName, id, MethodType.HEADER);
+      PortletMode pm = req.getPortletMode();
 
-      List<AnnotatedMethod> meths = getMethods(mi);
+      List<AnnotatedMethod> meths = getMethods(MethodType.HEADER, pm);
       if (meths.isEmpty()) {
          // No header methods available
          StringBuilder txt = new StringBuilder(128);
@@ -54,11 +54,11 @@ public class PortletRequestScopedBeanHolder implements Serializable {
       T                       instance;
    }
    
-   // Each instance of the bean holder gets its own map.
+   // Each instance of the bean holder gets its own map, which is created when
+   // the first bean is requested.
    // Key: Bean Type, Value: Structure containing CreationalContext and the specific
    // bean instance.
-   private Map<Contextual<?>, BeanInstance<?>> beans = 
-         new ConcurrentHashMap<Contextual<?>, BeanInstance<?>>();
+   private Map<Contextual<?>, BeanInstance<?>> beans = null;
    
    /**
     * private constructor
@@ -142,7 +142,7 @@ public class PortletRequestScopedBeanHolder implements Serializable {
     */
    @SuppressWarnings("unchecked")
    public <T> T getBean(Contextual<T> bean) {
-      BeanInstance<?> bi = beans.get(bean);
+      BeanInstance<?> bi = (beans == null) ? null : beans.get(bean);
       return (bi == null) ? null : (T) bi.instance;
    }
    
@@ -155,6 +155,9 @@ public class PortletRequestScopedBeanHolder implements Serializable {
     */
    @SuppressWarnings("unchecked")
    public <T> T getBean(Contextual<T> bean, CreationalContext<T> crco) {
+      if (beans == null) {
+         beans = new ConcurrentHashMap<Contextual<?>, BeanInstance<?>>();
+      }
       BeanInstance<?> bi = beans.get(bean);
       
       if (bi == null) {
@@ -185,7 +188,7 @@ public class PortletRequestScopedBeanHolder implements Serializable {
     */
    @SuppressWarnings("unchecked")
    protected <T> void remove(Contextual<T> bean) {
-      BeanInstance<?> bi = beans.get(bean);
+      BeanInstance<?> bi = (beans == null) ? null : beans.get(bean);
       
       if (isTrace) {
          StringBuilder txt = new StringBuilder(80);
@@ -213,6 +216,9 @@ public class PortletRequestScopedBeanHolder implements Serializable {
     * @param   resp     The state aware response
     */
    protected void removeAll() {
+      if (beans == null) {
+         return;
+      }
       for (Contextual<?> bean : beans.keySet()) {
          remove(bean);
       }
@@ -47,57 +47,80 @@ public class PortletSessionBeanHolder implements Serializable {
 
    // ========== Instance vars
 
-   private final PortletSessionScopedBeanMap                  beans;
+   // The request is only needed to obtain the bean map and is not serialized.
+   private final transient PortletRequest                     request;
    private final PortletSessionScopedConfig                   config;
    private final String                                       windowId;
 
+   // The bean map is obtained from the portlet session when the first bean is
+   // requested, so that requests not using the scope do not create a session.
+   private PortletSessionScopedBeanMap                        beans = null;
+
    /**
     * private constructor ... constructed once per thread
     */
-   private PortletSessionBeanHolder(PortletSessionScopedBeanMap beans, String windowId,
-         PortletSessionScopedConfig config) {
-      this.beans = beans;
-      this.windowId = windowId;
+   private PortletSessionBeanHolder(PortletRequest req, PortletSessionScopedConfig config) {
+      this.request = req;
+      this.windowId = req.getWindowID();
       this.config = config;
    }
 
    /**
-    * Sets the portlet session bean holder in a ThreadLocal object for the given portlet session. If no bean holder
-    * exists in the session, a new one is created.
+    * Sets the portlet session bean holder in a ThreadLocal object for the given portlet request. 
+    * The bean map is looked up in the portlet session when the first bean is requested. 
+    * If no bean map exists in the session, a new one is created.
     * 
-    * @param ps
-    *           The portlet session.
-    * @return The portlet session bean holder
+    * @param req
+    *           The portlet request.
+    * @param config
+    *           The portlet session scoped bean configuration
     */
    public static void setBeanHolder(PortletRequest req, PortletSessionScopedConfig config) {
 
-      PortletSession ps = req.getPortletSession();
-      String windowId = req.getWindowID();
-
-      PortletSessionScopedBeanMap map = (PortletSessionScopedBeanMap) ps.getAttribute(ATTRIBNAME,
-            PortletSession.APPLICATION_SCOPE);
-      
-      boolean createdMap = false;
-      if (map == null) {
-         map = new PortletSessionScopedBeanMap();
-         ps.setAttribute(ATTRIBNAME, map, PortletSession.APPLICATION_SCOPE);
-         createdMap = true;
-      }
-
-      PortletSessionBeanHolder holder = new PortletSessionBeanHolder(map, windowId, config);
+      PortletSessionBeanHolder holder = new PortletSessionBeanHolder(req, config);
       holders.set(holder);
 
       if (isTrace) {
          StringBuilder txt = new StringBuilder(80);
          txt.append("Set portlet session bean holder.");
          txt.append(" ThreadId: ").append(Thread.currentThread().getId());
-         txt.append(", PortletSession: ").append(ps.getId());
-         txt.append(", WindowId: ").append(windowId);
-         txt.append(", Added new BeanMap to session: ").append(createdMap);
+         txt.append(", WindowId: ").append(holder.windowId);
          LOG.debug(txt.toString());
       }
    }
 
+   /**
+    * Returns the bean map of the portlet session, adding one to the session if necessary.
+    * 
+    * @return The bean map
+    */
+   private PortletSessionScopedBeanMap getBeanMap() {
+      if (beans == null) {
+         PortletSession ps = request.getPortletSession();
+         PortletSessionScopedBeanMap map = (PortletSessionScopedBeanMap) ps.getAttribute(ATTRIBNAME,
+               PortletSession.APPLICATION_SCOPE);
+
+         boolean createdMap = false;
+         if (map == null) {
+            map = new PortletSessionScopedBeanMap();
+            ps.setAttribute(ATTRIBNAME, map, PortletSession.APPLICATION_SCOPE);
+            createdMap = true;
+         }
+         beans = map;
+
+         if (isTrace) {
+            StringBuilder txt = new StringBuilder(80);
+            txt.append("Obtained portlet session bean map.");
+            txt.append(" ThreadId: ").append(Thread.currentThread().getId());
+            txt.append(", PortletSession: ").append(ps.getId());
+            txt.append(", WindowId: ").append(windowId);
+            txt.append(", Added new BeanMap to session: ").append(createdMap);
+            LOG.debug(txt.toString());
+         }
+      }
+      return beans;
+   }
+
    /**
     * Removes the bean holder for the current session.
     */
@@ -154,7 +177,7 @@ public class PortletSessionBeanHolder implements Serializable {
       if (config.isPortletScoped(bean)) {
          id = windowId;
       }
-      return beans.getBeanInstance(id, bean);
+      return getBeanMap().getBeanInstance(id, bean);
    }
 
    /**
@@ -172,6 +195,6 @@ public class PortletSessionBeanHolder implements Serializable {
       if (config.isPortletScoped(bean)) {
          id = windowId;
       }
-      beans.putBeanInstance(id, bean, crco, instance);
+      getBeanMap().putBeanInstance(id, bean, crco, instance);
    }
 }
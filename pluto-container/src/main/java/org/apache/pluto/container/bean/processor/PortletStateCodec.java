@@ -0,0 +1,54 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor;
+
+import java.io.Serializable;
+
+/**
+ * Converts the values of a <code>{@literal @}RenderStateScoped</code> bean, as
+ * produced by <code>PortletSerializable.serialize()</code>, to the values of
+ * the render parameter carrying the bean state, and back.
+ * <p>
+ * The codec of a portlet application is selected through the context
+ * parameter {@link PortletStateScopedConfig#CODEC_PARAM}. Without a codec,
+ * the bean values are stored as they are.
+ * 
+ * @see CompactStateCodec
+ */
+public interface PortletStateCodec extends Serializable {
+
+   /**
+    * Encodes the serialized bean values for storage in a render parameter.
+    * 
+    * @param values  the bean values
+    * @return        the render parameter values
+    */
+   String[] encode(String[] values);
+
+   /**
+    * Decodes the values of a render parameter written by
+    * {@link #encode(String[])}. Values that the codec cannot decode are 
+    * dropped, so that the bean starts out as if no state was stored.
+    * 
+    * @param values  the render parameter values
+    * @return        the bean values
+    */
+   String[] decode(String[] values);
+}
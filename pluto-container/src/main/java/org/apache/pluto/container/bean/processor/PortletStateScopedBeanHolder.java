@@ -27,6 +27,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import javax.enterprise.context.spi.Contextual;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.Bean;
+import javax.portlet.MutableRenderParameters;
 import javax.portlet.PortletRequest;
 import javax.portlet.StateAwareResponse;
 import javax.portlet.annotations.PortletSerializable;
@@ -56,13 +57,15 @@ public class PortletStateScopedBeanHolder implements Serializable {
       private static final long serialVersionUID = -4173708394115905180L;
       CreationalContext<T>    crco;
       T                       instance;
+      String[]                stored;     // render parameter values read from the request
+      String[]                values;     // bean values the instance was initialized with
    }
    
-   // Each instance of the bean holder gets its own map.
+   // Each instance of the bean holder gets its own map, which is created when
+   // the first bean is requested.
    // Key: Bean Type, Value: Structure containing CreationalContext and the specific
    // bean instance.
-   private Map<Contextual<?>, BeanInstance<?>> beans = 
-         new ConcurrentHashMap<Contextual<?>, BeanInstance<?>>();
+   private Map<Contextual<?>, BeanInstance<?>> beans = null;
    
    private final PortletRequest request;
    private final PortletStateScopedConfig config;
@@ -155,7 +158,7 @@ public class PortletStateScopedBeanHolder implements Serializable {
     */
    @SuppressWarnings("unchecked")
    public <T> T getBean(Contextual<T> bean) {
-      BeanInstance<?> bi = beans.get(bean);
+      BeanInstance<?> bi = (beans == null) ? null : beans.get(bean);
       return (bi == null) ? null : (T) bi.instance;
    }
    
@@ -168,6 +171,9 @@ public class PortletStateScopedBeanHolder implements Serializable {
     */
    @SuppressWarnings("unchecked")
    public <T> T getBean(Contextual<T> bean, CreationalContext<T> crco) {
+      if (beans == null) {
+         beans = new ConcurrentHashMap<Contextual<?>, BeanInstance<?>>();
+      }
       BeanInstance<?> bi = beans.get(bean);
       
       if (bi == null) {
@@ -185,10 +191,10 @@ public class PortletStateScopedBeanHolder implements Serializable {
          
          assert bean instanceof Bean<?>;
          String parmName = config.getParamName((Bean<?>) bean);
-         String[] vals = request.getRenderParameters().getValues(parmName);
-         if (vals == null) {
-            vals = new String[] {};
-         }
+         String[] stored = request.getRenderParameters().getValues(parmName);
+         String[] vals = (stored == null) ? new String[] {} : config.decode(stored);
+         newbi.stored = stored;
+         newbi.values = vals.clone();
 
          PortletSerializable thisBean = (PortletSerializable) newbi.instance;
          thisBean.deserialize(vals);
@@ -214,7 +220,7 @@ public class PortletStateScopedBeanHolder implements Serializable {
     */
    @SuppressWarnings("unchecked")
    protected <T> void remove(Contextual<T> bean) {
-      BeanInstance<?> bi = beans.get(bean);
+      BeanInstance<?> bi = (beans == null) ? null : beans.get(bean);
       
       if (isTrace) {
          StringBuilder txt = new StringBuilder(80);
@@ -238,20 +244,33 @@ public class PortletStateScopedBeanHolder implements Serializable {
    
    /**
     * Remove & destroy all beans. if a response is provided, store the bean state.
+    * The render parameter of a bean is left alone if the bean state has not 
+    * changed and the parameter still holds the value read from the request.
     * 
     * @param   resp     The state aware response
     */
    protected void removeAll(StateAwareResponse resp) {
+      if (beans == null) {
+         return;
+      }
       for (Contextual<?> bean : beans.keySet()) {
          if (resp != null) {
-            PortletSerializable thisBean = (PortletSerializable) beans.get(bean).instance;
+            BeanInstance<?> bi = beans.get(bean);
+            PortletSerializable thisBean = (PortletSerializable) bi.instance;
             String[] vals = thisBean.serialize();
             String pn = config.getParamName((Bean<?>) bean);
-            resp.getRenderParameters().setValues(pn, vals);
+            MutableRenderParameters rp = resp.getRenderParameters();
+            
+            boolean unchanged = Arrays.equals(vals, bi.values) 
+                  && Arrays.equals(rp.getValues(pn), bi.stored);
+            if (!unchanged) {
+               rp.setValues(pn, config.encode(vals));
+            }
             
             if (isTrace) {
                StringBuilder txt = new StringBuilder(128);
-               txt.append("Stored parameter for portlet with namespace: ");
+               txt.append(unchanged ? "Kept" : "Stored");
+               txt.append(" parameter for portlet with namespace: ");
                txt.append(resp.getNamespace());
                txt.append(", paramName: ").append(pn);
                txt.append(", Values: ").append(Arrays.toString(vals));
@@ -54,6 +54,17 @@ public class PortletStateScopedConfig  implements Serializable {
    // Prefix used when generating render parameter names
    private static final String   RP_PREFIX = "\uFE34";
 
+   /**
+    * Context parameter selecting the codec for the bean values. The value is 
+    * either <code>compact</code> for the {@link CompactStateCodec} or the name 
+    * of a class implementing {@link PortletStateCodec}.
+    */
+   public static final String    CODEC_PARAM = "org.apache.pluto.STATE_CODEC";
+
+   // Converts the bean values to render parameter values. Null if the values
+   // are stored as they are.
+   private PortletStateCodec     codec = null;
+
    // Description for the RenderStateScoped bean
    private class PSSDescription implements Serializable {
       private static final long serialVersionUID = 4089751663717085089L;
@@ -187,6 +198,44 @@ public class PortletStateScopedConfig  implements Serializable {
       return name;
    }
    
+   /**
+    * Returns the codec for the bean values.
+    * 
+    * @return  The codec, or <code>null</code> if the values are stored as they are
+    */
+   public PortletStateCodec getCodec() {
+      return codec;
+   }
+
+   /**
+    * Sets the codec for the bean values.
+    * 
+    * @param codec   The codec, or <code>null</code> to store the values as they are
+    */
+   public void setCodec(PortletStateCodec codec) {
+      this.codec = codec;
+   }
+
+   /**
+    * Converts the serialized bean values to the render parameter values.
+    * 
+    * @param values  The bean values
+    * @return        The render parameter values
+    */
+   public String[] encode(String[] values) {
+      return (codec == null) ? values : codec.encode(values);
+   }
+
+   /**
+    * Converts the render parameter values to the serialized bean values.
+    * 
+    * @param values  The render parameter values
+    * @return        The bean values
+    */
+   public String[] decode(String[] values) {
+      return (codec == null) ? values : codec.decode(values);
+   }
+
    /**
     * Determines the render parameter name for the given bean.
     * 
@@ -0,0 +1,313 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.portlet.annotations.RenderMethod;
+import javax.servlet.ServletContext;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.pluto.container.bean.processor.AnnotatedMethodStore;
+import org.apache.pluto.container.bean.processor.ConfigSummary;
+import org.apache.pluto.container.bean.processor.MethodAnnotationRecognizer;
+import org.apache.pluto.container.bean.processor.PortletAnnotationIndex;
+import org.apache.pluto.container.bean.processor.PortletAnnotationIndex.Fingerprint;
+import org.apache.pluto.container.bean.processor.PortletAnnotationIndexer;
+import org.apache.pluto.container.bean.processor.fixtures.InvocationResults;
+import org.apache.pluto.container.bean.processor.fixtures.render.Render1;
+import org.apache.pluto.container.bean.processor.fixtures.render.Render2;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for finding the annotated methods through the portlet annotation index.
+ * 
+ */
+public class AnnotationIndexTest {
+   
+   private static final String pkg = "org.apache.pluto.container.bean.processor.fixtures.render";
+   
+   private static final String CLASSDIR = "/WEB-INF/classes";
+   
+   private File classes;
+   
+   @Before
+   public void setUp() throws IOException {
+      classes = File.createTempFile("classes", "");
+      classes.delete();
+      classes.mkdir();
+   }
+   
+   @After
+   public void tearDown() {
+      delete(classes);
+   }
+
+   @Test
+   public void readWrite() throws Exception {
+      Map<String, Fingerprint> files = new HashMap<String, Fingerprint>();
+      files.put("b/B.class", new Fingerprint(120, 0xcafebabeL));
+      files.put("a/A$Inner.class", new Fingerprint(7, 0L));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new PortletAnnotationIndex(Arrays.asList("b.B", "a.A$Inner"), files).write(out);
+      PortletAnnotationIndex index = PortletAnnotationIndex.read(new ByteArrayInputStream(out.toByteArray()));
+      assertEquals(Arrays.asList("a.A$Inner", "b.B"), Arrays.asList(index.getClassNames().toArray()));
+      assertEquals(files, index.getFiles());
+      
+      out = new ByteArrayOutputStream();
+      new PortletAnnotationIndex(Arrays.asList("b.B"), null).write(out);
+      index = PortletAnnotationIndex.read(new ByteArrayInputStream(out.toByteArray()));
+      assertEquals(Arrays.asList("b.B"), Arrays.asList(index.getClassNames().toArray()));
+      assertNull(index.getFiles());
+   }
+
+   @Test
+   public void isCurrent() throws Exception {
+      File a = new File(classes, "A.class");
+      File b = new File(classes, "B.class");
+      write(a, "a");
+      write(b, "b");
+      Map<String, File> classFiles = new HashMap<String, File>();
+      classFiles.put("A.class", a);
+      classFiles.put("B.class", b);
+      PortletAnnotationIndex index = new PortletAnnotationIndex(Arrays.asList("A"), getFingerprints());
+      assertTrue(index.isCurrent(classFiles));
+
+      // same size, different content
+      write(b, "c");
+      assertFalse(index.isCurrent(classFiles));
+      write(b, "b");
+      classFiles.remove("B.class");
+      assertFalse(index.isCurrent(classFiles));
+      assertFalse(new PortletAnnotationIndex(Arrays.asList("A"), null).isCurrent(classFiles));
+   }
+
+   @Test
+   public void sameMethodsAsScan() throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new PortletAnnotationIndex(Arrays.asList(Render1.class.getName(), Render2.class.getName(), 
+            "org.apache.pluto.container.bean.processor.fixtures.render.Removed"), null).write(out);
+      
+      ConfigSummary summary = new ConfigSummary();
+      AnnotatedMethodStore indexed = new AnnotatedMethodStore(summary);
+      MethodAnnotationRecognizer mar = new MethodAnnotationRecognizer(indexed, summary);
+      mar.scanIndex(PortletAnnotationIndex.read(new ByteArrayInputStream(out.toByteArray())).getClassNames());
+      mar.activateAnnotatedMethods(null);
+      
+      assertSameMethods(indexed);
+   }
+
+   @Test
+   public void compiledIndex() throws Exception {
+      compile(true, new File("src/test/java/" + pkg.replace('.', '/'), "Render1.java"),
+            new File("src/test/java/" + pkg.replace('.', '/'), "Render2.java"));
+      PortletAnnotationIndex written = readIndex();
+      assertEquals(new HashSet<String>(Arrays.asList(Render1.class.getName(), Render2.class.getName())),
+            written.getClassNames());
+
+      // the index written by the processor has no fingerprints, so the classes are scanned
+      ConfigSummary summary = new ConfigSummary();
+      MethodAnnotationRecognizer mar = new MethodAnnotationRecognizer(new AnnotatedMethodStore(summary), summary);
+      assertFalse(mar.scanClassIndex(getContext()));
+
+      // the index goal adds them
+      writeIndex(new PortletAnnotationIndex(written.getClassNames(), getFingerprints()));
+      summary = new ConfigSummary();
+      AnnotatedMethodStore indexed = new AnnotatedMethodStore(summary);
+      mar = new MethodAnnotationRecognizer(indexed, summary);
+      assertTrue(mar.scanClassIndex(getContext()));
+      mar.activateAnnotatedMethods(null);
+
+      assertSameMethods(indexed);
+   }
+
+   @Test
+   public void changedClass() throws Exception {
+      File source = new File(classes, "Changed.java");
+      write(source, "public class Changed { public void render() {} }");
+      compile(false, source);
+      writeIndex(new PortletAnnotationIndex(new HashSet<String>(), getFingerprints()));
+      ConfigSummary summary = new ConfigSummary();
+      MethodAnnotationRecognizer mar = new MethodAnnotationRecognizer(new AnnotatedMethodStore(summary), summary);
+      assertTrue(mar.scanClassIndex(getContext()));
+
+      // the class gains a portlet method annotation in a build without the index
+      write(source, "public class Changed { @javax.portlet.annotations.RenderMethod(portletNames=\"p\") "
+            + "public void render() {} }");
+      compile(false, source);
+      mar = new MethodAnnotationRecognizer(new AnnotatedMethodStore(summary), summary);
+      assertFalse(mar.scanClassIndex(getContext()));
+   }
+
+   private void assertSameMethods(AnnotatedMethodStore indexed) throws Exception {
+      ConfigSummary summary = new ConfigSummary();
+      AnnotatedMethodStore scanned = new AnnotatedMethodStore(summary);
+      MethodAnnotationRecognizer mar = new MethodAnnotationRecognizer(scanned, summary);
+      mar.scanFiles(FileHelper.getClasses(pkg));
+      mar.activateAnnotatedMethods(null);
+
+      assertFalse(scanned.getPortletNames().isEmpty());
+      assertEquals(scanned.getPortletNames(), indexed.getPortletNames());
+      for (String name : scanned.getPortletNames()) {
+         assertEquals(scanned.getMethodIDsForPortlet(name), indexed.getMethodIDsForPortlet(name));
+      }
+   }
+
+   /**
+    * Compiles the sources into the class directory, with or without the indexer.
+    */
+   private void compile(boolean index, File... sources) throws Exception {
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      assumeNotNull(compiler);
+      String classPath = getLocation(RenderMethod.class) + File.pathSeparator 
+            + getLocation(PortletAnnotationIndexer.class) + File.pathSeparator 
+            + getLocation(InvocationResults.class) + File.pathSeparator + classes.getPath();
+      List<String> args = new ArrayList<String>(Arrays.asList("-d", classes.getPath(), "-classpath", classPath,
+            "-encoding", "UTF-8"));
+      if (index) {
+         args.addAll(Arrays.asList("-processor", PortletAnnotationIndexer.class.getName()));
+      } else {
+         args.add("-proc:none");
+      }
+      for (File source : sources) {
+         args.add(source.getPath());
+      }
+      assertEquals(0, compiler.run(null, null, null, args.toArray(new String[args.size()])));
+   }
+
+   /**
+    * Returns the fingerprints of the class files in the class directory, as the index goal does.
+    */
+   private Map<String, Fingerprint> getFingerprints() throws IOException {
+      Map<String, Fingerprint> files = new HashMap<String, Fingerprint>();
+      addFingerprints(classes, "", files);
+      return files;
+   }
+
+   private static void addFingerprints(File dir, String path, Map<String, Fingerprint> files) throws IOException {
+      for (File file : dir.listFiles()) {
+         if (file.isDirectory() && !file.getName().equals("META-INF")) {
+            addFingerprints(file, path + file.getName() + "/", files);
+         } else if (file.getName().endsWith(".class")) {
+            files.put(path + file.getName(), Fingerprint.of(file));
+         }
+      }
+   }
+
+   private PortletAnnotationIndex readIndex() throws IOException {
+      InputStream in = new FileInputStream(new File(classes, PortletAnnotationIndex.RESOURCE));
+      try {
+         return PortletAnnotationIndex.read(in);
+      } finally {
+         in.close();
+      }
+   }
+
+   private void writeIndex(PortletAnnotationIndex index) throws IOException {
+      File file = new File(classes, PortletAnnotationIndex.RESOURCE);
+      file.getParentFile().mkdirs();
+      OutputStream out = new FileOutputStream(file);
+      try {
+         index.write(out);
+      } finally {
+         out.close();
+      }
+   }
+
+   private static String getLocation(Class<?> cls) throws Exception {
+      return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+   }
+
+   /**
+    * Returns a servlet context whose class directory is the temporary class directory.
+    */
+   private ServletContext getContext() {
+      return (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(), 
+            new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            File file = null;
+            if (args != null && args[0] instanceof String && ((String) args[0]).startsWith(CLASSDIR)) {
+               file = new File(classes, ((String) args[0]).substring(CLASSDIR.length()));
+            }
+            if (file == null || !file.exists()) {
+               return null;
+            } else if (method.getName().equals("getResourcePaths")) {
+               Set<String> paths = new HashSet<String>();
+               for (File child : file.listFiles()) {
+                  String path = (String) args[0];
+                  paths.add(path + (path.endsWith("/") ? "" : "/") + child.getName() 
+                        + (child.isDirectory() ? "/" : ""));
+               }
+               return paths;
+            } else if (method.getName().equals("getResource")) {
+               return file.toURI().toURL();
+            } else if (method.getName().equals("getResourceAsStream")) {
+               return new FileInputStream(file);
+            }
+            return null;
+         }
+      });
+   }
+
+   private static void write(File file, String content) throws IOException {
+      OutputStream out = new FileOutputStream(file);
+      try {
+         out.write(content.getBytes("UTF-8"));
+      } finally {
+         out.close();
+      }
+   }
+
+   private static void delete(File file) {
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
@@ -0,0 +1,88 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package org.apache.pluto.container.bean.processor.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.pluto.container.bean.processor.CompactStateCodec;
+import org.junit.Test;
+
+/**
+ * Test class for the compact codec of render state scoped bean values.
+ * 
+ */
+public class CompactStateCodecTest {
+
+   private final CompactStateCodec codec = new CompactStateCodec();
+
+   private String[] roundTrip(String[] values) {
+      String[] encoded = codec.encode(values);
+      assertArrayEquals(values, codec.decode(encoded));
+      return encoded;
+   }
+
+   @Test
+   public void shortValuesAreKept() {
+      String[] values = {"42", "name"};
+      assertSame(values, roundTrip(values));
+   }
+
+   @Test
+   public void escapedValuesAreEncoded() {
+      String[] encoded = roundTrip(new String[] {"a/b;c", null, "", "\u00e4\u20ac\ud83d\ude00", "x y"});
+      assertEquals(1, encoded.length);
+      assertTrue(encoded[0].startsWith("*b"));
+   }
+
+   @Test
+   public void longValuesAreDeflated() {
+      StringBuilder txt = new StringBuilder();
+      for (int ii = 0; ii < 20; ii++) {
+         txt.append("{\"field\":\"value\"},");
+      }
+      String[] values = {txt.toString(), txt.toString()};
+      String[] encoded = roundTrip(values);
+      assertTrue(encoded[0].startsWith("*z"));
+      assertTrue(encoded[0].length() < CompactStateCodec.getEncodedLength(values) / 4);
+   }
+
+   @Test
+   public void prefixedValueIsEncoded() {
+      String[] encoded = roundTrip(new String[] {"*b"});
+      assertEquals(1, encoded.length);
+      assertTrue(!"*b".equals(encoded[0]));
+   }
+
+   @Test
+   public void emptyValues() {
+      String[] values = {};
+      assertSame(values, roundTrip(values));
+   }
+
+   @Test
+   public void invalidValueIsDropped() {
+      assertEquals(0, codec.decode(new String[] {"*b!!"}).length);
+      assertEquals(0, codec.decode(new String[] {"*zAAAA"}).length);
+      assertEquals(0, codec.decode(new String[] {"*xAQ"}).length);
+   }
+}
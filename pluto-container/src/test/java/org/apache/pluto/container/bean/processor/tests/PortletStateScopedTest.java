@@ -27,7 +27,9 @@ import static org.junit.Assert.assertTrue;
 import java.util.List;
 import java.util.Set;
 
+import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.portlet.annotations.RenderStateScoped;
 
 import org.apache.pluto.container.bean.processor.AnnotatedConfigBean;
 import org.apache.pluto.container.bean.processor.AnnotatedMethodStore;
@@ -77,6 +79,12 @@ public class PortletStateScopedTest {
       assertNotNull(psconfig);
    }
    
+   @Test
+   public void scopeUsed() {
+      assertTrue(acb.isScopeUsed(RenderStateScoped.class));
+      assertFalse(acb.isScopeUsed(ApplicationScoped.class));
+   }
+
    @Test
    public void annotatedClassPresent1() {
       Set<Class<?>> classes = psconfig.getBeanClasses();
@@ -23,17 +23,16 @@ import org.apache.pluto.container.PortletWindow;
 import org.apache.pluto.container.driver.PortletContextService;
 import org.apache.pluto.container.driver.PortletRegistryService;
 import org.apache.pluto.container.om.portlet.EventDefinition;
-import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
-import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apache.pluto.driver.AttributeKeys;
-import org.apache.pluto.driver.config.DriverConfiguration;
 import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.core.PortalServletRequest;
+import org.apache.pluto.driver.core.PortalTasks;
+import org.apache.pluto.driver.core.PortalWindowResponse;
+import org.apache.pluto.driver.core.PortletRenderCache;
 import org.apache.pluto.driver.core.PortletWindowImpl;
-import org.apache.pluto.driver.services.portal.PageConfig;
 import org.apache.pluto.driver.services.portal.PortletWindowConfig;
 import org.apache.pluto.driver.url.PortalURL;
-import org.apache.pluto.driver.url.impl.PortalURLParserImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,27 +41,41 @@ import javax.portlet.PortletException;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.FactoryConfigurationError;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.StringReader;
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class EventCoordinationServiceImpl implements EventCoordinationService {
    /** Logger. */
    private static final Logger          LOG           = LoggerFactory
                                                             .getLogger(EventCoordinationServiceImpl.class);
 
-   private static final long            WAITING_CYCLE = 100;
+   /** Request attribute holding the event cascade depth during serial processing */
+   private static final String          EVENT_DEPTH   = EventCoordinationServiceImpl.class.getName() + ".depth";
+
+   /** Request attribute holding the event processing deadline during serial processing */
+   private static final String          EVENT_DEADLINE = EventCoordinationServiceImpl.class.getName() + ".deadline";
+
+   /** Request attribute collecting the events fired by a window processed concurrently */
+   private static final String          FIRED_EVENTS  = EventCoordinationServiceImpl.class.getName() + ".fired";
 
    /** PortletRegistryService used to obtain PortletApplicationConfig objects */
    private final PortletRegistryService portletRegistry;
@@ -70,131 +83,327 @@ public class EventCoordinationServiceImpl implements EventCoordinationService {
    /** PortletContextService used to obtain PortletContext objects */
    private final PortletContextService  portletContextService;
 
+   /** Maps the events to the portlets processing them */
+   private final EventRoutingIndex      routingIndex;
+
+   /** Unmarshals the event values sent as XML */
+   private final EventPayloadMarshaller payloadMarshaller = EventPayloadMarshaller.getInstance();
+
+   /** Delivers the events concurrently; <code>null</code> if they are delivered serially */
+   private ExecutorService              executor;
+
+   /** Bounds the number of concurrent deliveries if the executor itself does not */
+   private Semaphore                    permits;
+
+   private int                          maxEventDepth = 0;
+
+   private long                         eventTimeout  = 0;
+
+   private boolean                      copyEventValues = false;
+
    public EventCoordinationServiceImpl(PortletRegistryService portletRegistry,
          PortletContextService portletContextService) {
       this.portletRegistry = portletRegistry;
       this.portletContextService = portletContextService;
+      this.routingIndex = new EventRoutingIndex(portletRegistry);
+      portletRegistry.addPortletRegistryListener(routingIndex);
+      portletRegistry.addPortletRegistryListener(payloadMarshaller);
+   }
+
+   /**
+    * Sets the number of portlet windows that may process events concurrently.
+    * With a value greater than 1, the events are delivered in rounds: the
+    * windows processing the events of a round run concurrently, each window
+    * receiving its events in order, and the events fired in a round are
+    * delivered in the next one. Virtual threads are used where the JVM
+    * supports them. By default, the events are delivered serially on the
+    * request thread.
+    * 
+    * @param eventThreads the maximum number of concurrently processed windows
+    */
+   public synchronized void setEventThreads(int eventThreads) {
+      stopExecutor();
+      if (eventThreads > 1) {
+         try {
+            // virtual threads are available from Java 21 on
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executor = (ExecutorService) factory.invoke(null);
+            permits = new Semaphore(eventThreads);
+         } catch (NoSuchMethodException e) {
+            executor = Executors.newFixedThreadPool(eventThreads, PortalTasks.newThreadFactory("pluto-event"));
+         } catch (Exception e) {
+            LOG.warn("Virtual threads are not available: " + e.getMessage());
+            executor = Executors.newFixedThreadPool(eventThreads, PortalTasks.newThreadFactory("pluto-event"));
+         }
+      }
+   }
+
+   /**
+    * Sets the maximum depth of event cascades. The events fired at the
+    * maximum depth are dropped. By default, the depth is not limited.
+    * 
+    * @param maxEventDepth the maximum depth, or 0 for no limit
+    */
+   public void setMaxEventDepth(int maxEventDepth) {
+      this.maxEventDepth = maxEventDepth;
+   }
+
+   /**
+    * Sets the time allowed for processing the events of a request, including
+    * the events they cascade to. Events not delivered in time are dropped. By
+    * default, the time is not limited.
+    * 
+    * @param eventTimeout the timeout in milliseconds, or 0 for no limit
+    */
+   public void setEventTimeout(long eventTimeout) {
+      this.eventTimeout = eventTimeout;
+   }
+
+   /**
+    * Sets whether the event values passed by reference are copied for each
+    * delivery. Event values are passed to the portlet applications sharing the
+    * value type by reference, and as XML otherwise. With this option, mutable
+    * values passed by reference are copied by Java serialization, so that the
+    * portlets cannot modify each other's values. By default, they are not
+    * copied.
+    * 
+    * @param copyEventValues <code>true</code> to copy mutable event values
+    */
+   public void setCopyEventValues(boolean copyEventValues) {
+      this.copyEventValues = copyEventValues;
+   }
+
+   /**
+    * Stops the threads delivering events concurrently and removes the
+    * registry listeners of the service.
+    */
+   public synchronized void destroy() {
+      stopExecutor();
+      portletRegistry.removePortletRegistryListener(routingIndex);
+      portletRegistry.removePortletRegistryListener(payloadMarshaller);
+   }
+
+   private void stopExecutor() {
+      if (executor != null) {
+         executor.shutdownNow();
+         executor = null;
+         permits = null;
+      }
    }
 
    public void processEvents(PortletContainer container,
          PortletWindow portletWindow, HttpServletRequest request,
          HttpServletResponse response, List<Event> events) {
-      ServletContext containerServletContext = PortalRequestContext.getContext(
-            request).getServletContext();
-      DriverConfiguration driverConfig = (DriverConfiguration) containerServletContext
-            .getAttribute(AttributeKeys.DRIVER_CONFIG);
 
-      // PortalURL portalURL = PortalURLParserImpl.getParser().parse(request);
-      PortalURL portalURL = PortalRequestContext.getContext(request)
-            .createPortalURL();
+      // a window processed concurrently passes the events it fires on to the next round
+      @SuppressWarnings("unchecked")
+      List<Event> fired = (List<Event>) request.getAttribute(FIRED_EVENTS);
+      if (fired != null) {
+         fired.addAll(events);
+         return;
+      }
 
-      // Map<String, PortletWindowThread> portletWindowThreads = new
-      // HashMap<String, PortletWindowThread>();
+      ExecutorService executor;
+      Semaphore permits;
+      synchronized (this) {
+         executor = this.executor;
+         permits = this.permits;
+      }
+      if (executor == null) {
+         processEventsSerially(container, request, response, events);
+      } else {
+         processEventsConcurrently(executor, permits, container, request, response, events);
+      }
+   }
 
-      // ThreadGroup threadGroup = new ThreadGroup("FireEventThreads");
+   private void processEventsSerially(PortletContainer container,
+         HttpServletRequest request, HttpServletResponse response,
+         List<Event> events) {
+      Integer outerDepth = (Integer) request.getAttribute(EVENT_DEPTH);
+      Long deadline = (Long) request.getAttribute(EVENT_DEADLINE);
+      int depth = (outerDepth == null) ? 1 : outerDepth + 1;
+      if (maxEventDepth > 0 && depth > maxEventDepth) {
+         LOG.warn("Maximum event depth of " + maxEventDepth + " exceeded, dropping " + events.size() + " events.");
+         return;
+      }
+      if (deadline == null) {
+         deadline = (eventTimeout > 0) ? System.currentTimeMillis() + eventTimeout : Long.MAX_VALUE;
+      }
 
-      for (Event event : events) {
-         List<String> portletNames = getAllPortletsRegisteredForEvent(event,
-               driverConfig, containerServletContext);
+      PortalRequestContext portalContext = PortalRequestContext.getContext(request);
+      PortletRenderCache renderCache = getRenderCache(portalContext);
+      PortalURL portalURL = portalContext.createPortalURL();
+      List<PortletWindowConfig> portlets = getPagePortlets(portalURL);
 
-         // Deliver events to all portlets in the portal
-         // Collection<PortletWindowConfig> portlets =
-         // getAllPortlets(driverConfig);
+      request.setAttribute(EVENT_DEPTH, depth);
+      request.setAttribute(EVENT_DEADLINE, deadline);
+      try {
+         for (Event event : events) {
+            for (PortletWindowConfig config : portlets) {
+               if (isProcessedBy(event, config)) {
+                  if (System.currentTimeMillis() > deadline) {
+                     LOG.warn("Event processing timed out after " + eventTimeout + " ms, dropping event "
+                           + event.getQName() + ".");
+                     return;
+                  }
+                  PortletWindow window = new PortletWindowImpl(container, config, portalURL);
+                  if (renderCache != null) {
+                     renderCache.invalidate(config.getId());
+                  }
+                  doEvent(container, window, event, request, response);
+               }
+            }
+         }
+      } finally {
+         if (outerDepth == null) {
+            request.removeAttribute(EVENT_DEPTH);
+            request.removeAttribute(EVENT_DEADLINE);
+         } else {
+            request.setAttribute(EVENT_DEPTH, outerDepth);
+         }
+      }
+   }
 
-         // Limit event delivery to portlets that are on the current page
-         Collection<PortletWindowConfig> portlets = new ArrayList<PortletWindowConfig>();
-         for (String pid : portalURL.getPortletIds()) {
-            portlets.add(PortletWindowConfig.fromId(pid));
+   /**
+    * Delivers the events in rounds. The windows of a round are processed
+    * concurrently, each in its own window context, and the changes they make
+    * to the portal URL and the response headers are merged in page order, so
+    * that the result does not depend on the timing of the threads.
+    */
+   private void processEventsConcurrently(ExecutorService executor, Semaphore permits,
+         PortletContainer container, HttpServletRequest request,
+         HttpServletResponse response, List<Event> events) {
+      PortalRequestContext portalContext = PortalRequestContext.getContext(request);
+      PortletRenderCache renderCache = getRenderCache(portalContext);
+      List<PortletWindowConfig> portlets = getPagePortlets(portalContext.createPortalURL());
+      long deadline = (eventTimeout > 0) ? System.currentTimeMillis() + eventTimeout : 0;
+
+      List<Event> round = events;
+      for (int depth = 1; !round.isEmpty(); depth++) {
+         if (maxEventDepth > 0 && depth > maxEventDepth) {
+            LOG.warn("Maximum event depth of " + maxEventDepth + " exceeded, dropping " + round.size() + " events.");
+            return;
          }
 
-         // iterate all portlets in the portal
+         List<WindowEvents> deliveries = new ArrayList<WindowEvents>();
          for (PortletWindowConfig config : portlets) {
-            PortletWindow window = new PortletWindowImpl(container, config,
-                  portalURL);
-            if (portletNames != null) {
-               for (String portlet : portletNames) {
-                  if (portlet.equals(config.getId())) {
-                     /*
-                      * PLUTO-569: multi-threaded (event) request processing
-                      * isn't thread save with the Pluto Portal Driver handling
-                      * of request attributes as they all are stored/managed
-                      * within the single underlying HttpServletRequest.
-                      * Providing proper thread save parallel request processing
-                      * would require extensive enhancements to the Pluto Portal
-                      * Driver and as such is out-of-scope for the purpose of
-                      * the Portal Driver itself.
-                      * 
-                      * // the thread now is a new one, with possible //
-                      * waiting, // for the old to exit
-                      * 
-                      * 
-                      * PortletWindowThread portletWindowThread =
-                      * getPortletWindowThread(portletWindowThreads,
-                      * threadGroup, container, config, window, request,
-                      * response, containerServletContext);
-                      * 
-                      * // is this event portletWindowThread.addEvent(event);
-                      * 
-                      * portletWindowThread.start();
-                      * 
-                      * } } } } waitForEventExecution(threadGroup); try {
-                      * Thread.sleep(WAITING_CYCLE); } catch
-                      * (InterruptedException e) { LOG.warn(e.getMessage(),e); }
-                      * } waitForEventExecution(threadGroup);
-                      */
-                     doEvent(container, window, event, request, response);
+            List<Event> windowEvents = new ArrayList<Event>();
+            for (Event event : round) {
+               if (isProcessedBy(event, config)) {
+                  windowEvents.add(event);
+               }
+            }
+            if (!windowEvents.isEmpty()) {
+               if (renderCache != null) {
+                  renderCache.invalidate(config.getId());
+               }
+               deliveries.add(new WindowEvents(container, config, windowEvents, portalContext, request, response));
+            }
+         }
+
+         List<Future<List<Event>>> futures = new ArrayList<Future<List<Event>>>(deliveries.size());
+         round = new ArrayList<Event>();
+         try {
+            for (WindowEvents delivery : deliveries) {
+               futures.add(PortalTasks.submit(executor, permits, delivery));
+            }
+            for (int ii = 0; ii < futures.size(); ii++) {
+               WindowEvents delivery = deliveries.get(ii);
+               List<Event> fired;
+               try {
+                  if (deadline == 0) {
+                     fired = futures.get(ii).get();
+                  } else {
+                     fired = futures.get(ii).get(Math.max(0, deadline - System.currentTimeMillis()),
+                           TimeUnit.MILLISECONDS);
                   }
+               } catch (ExecutionException e) {
+                  LOG.warn(e.getCause().getMessage(), e.getCause());
+                  continue;
                }
+               portalContext.mergeWindowContext(delivery.windowContext, delivery.config.getId());
+               delivery.response.applyHeaders();
+               round.addAll(fired);
+            }
+         } catch (TimeoutException e) {
+            LOG.warn("Event processing timed out after " + eventTimeout + " ms, dropping the remaining events.");
+            return;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while processing events, dropping the remaining events.");
+            return;
+         } catch (RejectedExecutionException e) {
+            LOG.warn("Event processing has been stopped, dropping the remaining events.");
+            return;
+         } finally {
+            for (Future<List<Event>> future : futures) {
+               future.cancel(true);
+            }
+            // the tasks use the request and response, which the container may
+            // recycle once the request has completed
+            for (WindowEvents delivery : deliveries) {
+               delivery.awaitStopped();
             }
          }
       }
    }
 
+   private PortletRenderCache getRenderCache(PortalRequestContext portalContext) {
+      ServletContext containerServletContext = portalContext.getServletContext();
+      return (PortletRenderCache) containerServletContext.getAttribute(AttributeKeys.RENDER_CACHE);
+   }
+
+   /**
+    * Limits event delivery to portlets that are on the current page.
+    */
+   private List<PortletWindowConfig> getPagePortlets(PortalURL portalURL) {
+      List<PortletWindowConfig> portlets = new ArrayList<PortletWindowConfig>();
+      for (String pid : portalURL.getPortletIds()) {
+         portlets.add(PortletWindowConfig.fromId(pid));
+      }
+      return portlets;
+   }
+
+   private boolean isProcessedBy(Event event, PortletWindowConfig config) {
+      Set<String> portletNames = routingIndex.getPortletNames(config.getContextPath(), event.getQName());
+      return portletNames.contains(config.getPortletName());
+   }
+
    protected void doEvent(PortletContainer container,
          PortletWindow portletWindow, Event event, HttpServletRequest request,
          HttpServletResponse response) {
       try {
          Object value = event.getValue();
 
-         XMLStreamReader xml = null;
-         try {
-            if (value instanceof String) {
-               String in = (String) value;
-               xml = XMLInputFactory.newInstance().createXMLStreamReader(
-                     new StringReader(in));
-            }
-         } catch (XMLStreamException e1) {
-            throw new IllegalStateException(e1);
-         } catch (FactoryConfigurationError e1) {
-            throw new IllegalStateException(e1);
-         }
-
-         if (xml != null) {
-            // XMLStreamReader xml = (XMLStreamReader) event.getValue();
-
-            // provider.getEventDefinition(event.getQName());
+         if (event instanceof ObjectValueEvent || value instanceof String) {
             try {
                // now test if object is jaxb
                EventDefinition eventDefinitionDD = getEventDefintion(
                      portletWindow, event.getQName());
 
+               String applicationName = portletWindow.getPortletDefinition()
+                     .getApplication().getName();
                ClassLoader loader = portletContextService
-                     .getClassLoader(portletWindow.getPortletDefinition()
-                           .getApplication().getName());
+                     .getClassLoader(applicationName);
                Class<? extends Serializable> clazz = loader.loadClass(
                      eventDefinitionDD.getValueType()).asSubclass(
                      Serializable.class);
 
-               JAXBContext jc = JAXBContext.newInstance(clazz);
-               Unmarshaller unmarshaller = jc.createUnmarshaller();
-
-               // unmarshaller.setEventHandler(new
-               // javax.xml.bind.helpers.DefaultValidationEventHandler());
-
-               JAXBElement result = unmarshaller.unmarshal(xml, clazz);
+               if (event instanceof ObjectValueEvent) {
+                  event = adaptEvent((ObjectValueEvent) event, applicationName, loader, clazz);
+                  if (event == null) {
+                     return;
+                  }
+               } else {
+                  JAXBElement<? extends Serializable> result = payloadMarshaller
+                        .unmarshal(applicationName, (String) value, clazz);
 
-               event = new EventImpl(event.getQName(),
-                     (Serializable) result.getValue());
+                  event = new EventImpl(event.getQName(), result.getValue());
+               }
+            } catch (XMLStreamException e) {
+               throw new IllegalStateException(e);
+            } catch (FactoryConfigurationError e) {
+               throw new IllegalStateException(e);
             } catch (JAXBException e) {
                throw new IllegalStateException(e);
             } catch (ClassCastException e) {
@@ -215,6 +424,37 @@ public class EventCoordinationServiceImpl implements EventCoordinationService {
       }
    }
 
+   /**
+    * Prepares an event fired with a value object for delivery to a portlet
+    * application. If the application shares the value type, the value is
+    * passed on by reference, or as a copy if event values are to be copied and
+    * the value is mutable. Otherwise the value is sent as XML.
+    * <p>
+    * If the value cannot be marshalled, the error is logged and
+    * <code>null</code> is returned, so that only this delivery is dropped.
+    */
+   private Event adaptEvent(ObjectValueEvent event, String applicationName, ClassLoader loader,
+         Class<? extends Serializable> clazz) throws JAXBException, XMLStreamException, IOException,
+         ClassNotFoundException {
+      Serializable value = event.getValue();
+      if (clazz.isInstance(value)) {
+         if (copyEventValues && !EventPayloadMarshaller.isImmutable(value)) {
+            return new EventImpl(event.getQName(), payloadMarshaller.copy(value, loader));
+         }
+         return event;
+      }
+      String xml;
+      try {
+         xml = event.toXML(payloadMarshaller);
+      } catch (JAXBException e) {
+         // maybe there is no valid jaxb binding
+         LOG.error("Event handling failed", e);
+         return null;
+      }
+      JAXBElement<? extends Serializable> result = payloadMarshaller.unmarshal(applicationName, xml, clazz);
+      return new EventImpl(event.getQName(), result.getValue());
+   }
+
    private EventDefinition getEventDefintion(PortletWindow portletWindow, QName name) {
       PortletApplicationDefinition appDD = portletWindow.getPortletDefinition().getApplication();
       
@@ -227,192 +467,78 @@ public class EventCoordinationServiceImpl implements EventCoordinationService {
       throw new IllegalStateException();
    }
 
-   private List<String> getAllPortletsRegisteredForEvent(Event event,
-         DriverConfiguration driverConfig,
-         ServletContext containerServletContext) {
-      Set<String> resultSet = new HashSet<String>();
-      List<String> resultList = new ArrayList<String>();
-      QName eventName = event.getQName();
-      Collection<PortletWindowConfig> portlets = getAllPortlets(driverConfig);
-
-      for (PortletWindowConfig portlet : portlets) {
-         String contextPath = portlet.getContextPath();
-         String applicationName = contextPath;
-         PortletApplicationDefinition portletAppDD = null;
-         try {
-            portletAppDD = portletRegistry
-                  .getPortletApplication(applicationName);
-            List<? extends PortletDefinition> portletDDs = portletAppDD
-                  .getPortlets();
-            List<QName> aliases = getAllAliases(eventName, portletAppDD);
-            for (PortletDefinition portletDD : portletDDs) {
-               List<? extends EventDefinitionReference> processingEvents = portletDD
-                     .getSupportedProcessingEvents();
-               if (isEventSupported(processingEvents, eventName,
-                     portletAppDD.getDefaultNamespace())) {
-                  if (portletDD.getPortletName().equals(
-                        portlet.getPortletName())) {
-                     resultSet.add(portlet.getId());
-                  }
-               } else {
-
-                  if (processingEvents != null) {
-                     for (EventDefinitionReference ref : processingEvents) {
-                        QName name = ref.getQualifiedName();
-                        if (name == null) {
-                           continue;
-                        }
-                        // add also grouped portlets, that ends with "."
-                        if (name.toString().endsWith(".")
-                              && eventName.toString().startsWith(
-                                    name.toString())
-                              && portletDD.getPortletName().equals(
-                                    portlet.getPortletName())) {
-                           resultSet.add(portlet.getId());
-                        }
-                        // also look for alias names:
-                        if (aliases != null) {
-                           for (QName alias : aliases) {
-                              if (alias.toString().equals(name.toString())
-                                    && portletDD.getPortletName().equals(
-                                          portlet.getPortletName())) {
-                                 resultSet.add(portlet.getId());
-                              }
-                           }
-                        }
-                        // also look for default namespaced events
-                        if (name.getNamespaceURI() == null
-                              || name.getNamespaceURI().equals("")) {
-                           String defaultNamespace = portletAppDD
-                                 .getDefaultNamespace();
-                           QName qname = new QName(defaultNamespace,
-                                 name.getLocalPart());
-                           if (eventName.toString().equals(qname.toString())
-                                 && portletDD.getPortletName().equals(
-                                       portlet.getPortletName())) {
-                              resultSet.add(portlet.getId());
-                           }
-                        }
-                     }
-                  }
-               }
-            }
-         } catch (PortletContainerException e) {
-            LOG.warn(e.getMessage(), e);
-         }
-      }
-
-      // make list
-      for (String name : resultSet) {
-         resultList.add(name);
+   /**
+    * Delivers the events of a round to one portlet window. The window is
+    * processed with its own request, response and portal request context, so
+    * that it does not interfere with the windows processed concurrently. The
+    * request attributes set while processing the window belong to its event
+    * requests and are not applied to the request.
+    */
+   private class WindowEvents implements Callable<List<Event>> {
+      private final PortletContainer       container;
+      private final PortletWindowConfig    config;
+      private final List<Event>            events;
+      private final PortalServletRequest   request;
+      private final PortalWindowResponse   response;
+      private final PortalRequestContext   windowContext;
+
+      /** Set when the task starts running, or when it is stopped before. */
+      private final AtomicBoolean          claimed  = new AtomicBoolean();
+
+      /** Released when the task has returned, or has been stopped before it started. */
+      private final CountDownLatch         finished = new CountDownLatch(1);
+
+      WindowEvents(PortletContainer container, PortletWindowConfig config, List<Event> events,
+            PortalRequestContext portalContext, HttpServletRequest request, HttpServletResponse response) {
+         this.container = container;
+         this.config = config;
+         this.events = events;
+         this.request = new PortalServletRequest(request);
+         this.response = new PortalWindowResponse(response);
+         this.windowContext = portalContext.createWindowContext(this.request, this.response);
       }
-      return resultList;
-   }
 
-   private boolean isEventSupported(
-         List<? extends EventDefinitionReference> supportedEvents,
-         QName eventName, String defaultNamespace) {
-      if (supportedEvents != null) {
-         for (EventDefinitionReference ref : supportedEvents) {
-            QName refQName = ref.getQualifiedName();
-            if (refQName != null && refQName.equals(eventName)) {
-               return true;
-            }
+      public List<Event> call() {
+         if (!claimed.compareAndSet(false, true)) {
+            // stopped before it started
+            return Collections.emptyList();
          }
-      }
-      return false;
-   }
-
-   private List<QName> getAllAliases(QName eventName,
-         PortletApplicationDefinition portletAppDD) {
-      if (portletAppDD.getEventDefinitions() != null) {
-
-         for (EventDefinition def : portletAppDD.getEventDefinitions()) {
-            QName defQName = def.getQName();
-            if (defQName != null && defQName.equals(eventName)) {
-               return def.getAliases();
+         try {
+            List<Event> fired = new ArrayList<Event>();
+            request.setAttribute(FIRED_EVENTS, fired);
+            PortletWindow window = new PortletWindowImpl(container, config, windowContext.getRequestedPortalURL());
+            for (Event event : events) {
+               doEvent(container, window, event, request, response);
             }
+            return fired;
+         } finally {
+            finished.countDown();
          }
       }
-      return null;
-   }
-
-   
-   /**
-    * gets the right PortletWindowThread or makes a new one, if theres none
-    * 
-    */
-//   private PortletWindowThread getPortletWindowThread(
-//         Map<String, PortletWindowThread> portletWindowThreads,
-//         ThreadGroup threadGroup, PortletContainer container,
-//         PortletWindowConfig config, PortletWindow window,
-//         HttpServletRequest req, HttpServletResponse res,
-//         ServletContext containerServletContext) {
-//      String windowID = window.getId().getStringId();
-//      PortletWindowThread portletWindowThread = portletWindowThreads
-//            .get(windowID);
-//      if (portletWindowThread == null) {
-//         portletWindowThread = new PortletWindowThread(threadGroup,
-//               config.getId(), container, window, req, res,
-//               portletContextService);
-//         portletWindowThreads.put(windowID, portletWindowThread);
-//      } else {
-//         // a thread could be started twice, so we make a new one,
-//         // after the old thread stopped
-//         // try {
-//         try {
-//            portletWindowThread.join();
-//         } catch (InterruptedException e) {
-//            LOG.warn(e.getMessage(), e);
-//         }
-//         portletWindowThreads.remove(portletWindowThread);
-//         portletWindowThread = new PortletWindowThread(threadGroup,
-//               config.getId(), container, window, req, res,
-//               portletContextService);
-//         portletWindowThreads.put(windowID, portletWindowThread);
-//      }
-//      return portletWindowThread;
-//   }
-
-   /**
-    * Wait for event execution.
-    */
-//   private void waitForEventExecution(ThreadGroup threadGroup) {
-//      long counter = 0;
-//      while (threadGroup.activeCount() > 0) {
-//         try {
-//            counter = +WAITING_CYCLE;
-//            if (counter > 500) {
-//               threadGroup.stop();
-//            }
-//            Thread.sleep(WAITING_CYCLE);
-//         } catch (InterruptedException e) {
-//            LOG.warn(e.getMessage(), e);
-//         }
-//      }
-//   }
 
-   /**
-	 * 
-	 */
-   private Collection<PortletWindowConfig> getAllPortlets(
-         DriverConfiguration driverConfig) {
-      Collection<PortletWindowConfig> portlets = new ArrayList<PortletWindowConfig>();
-      Collection pages = driverConfig.getPages();
-      if (pages != null) {
-         Iterator iPages = pages.iterator();
-         while (iPages.hasNext()) {
-            PageConfig pageConfig = (PageConfig) iPages.next();
-            Collection portletIDs = pageConfig.getPortletIds();
-            if (portletIDs != null) {
-               Iterator iPortletIDs = portletIDs.iterator();
-               while (iPortletIDs.hasNext()) {
-                  portlets.add(PortletWindowConfig.fromId(iPortletIDs.next()
-                        .toString()));
-               }
+      /**
+       * Prevents the task from starting, or waits for it to return if it is
+       * running. A cancelled task that is running keeps going until the
+       * portlet notices the interrupt, as it would block the request in
+       * serial mode.
+       */
+      void awaitStopped() {
+         if (claimed.compareAndSet(false, true)) {
+            finished.countDown();
+            return;
+         }
+         boolean interrupted = Thread.interrupted();
+         while (true) {
+            try {
+               finished.await();
+               break;
+            } catch (InterruptedException e) {
+               interrupted = true;
             }
          }
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
       }
-      return portlets;
    }
 }
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.container;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+
+/**
+ * Marshals event values to XML and back, and copies them.
+ * <p>
+ * Creating a JAXB context is expensive, so the contexts are cached by portlet
+ * application and value type, and their marshallers and unmarshallers are
+ * pooled. As the value types are loaded by the class loader of the portlet
+ * application, the cached contexts of an application are discarded when the
+ * application is removed from the portlet registry, or registered again.
+ */
+class EventPayloadMarshaller implements PortletRegistryListener {
+
+   /** The number of idle marshallers and unmarshallers kept per context. */
+   private static final int POOL_SIZE = 8;
+
+   private static final EventPayloadMarshaller INSTANCE = new EventPayloadMarshaller();
+
+   /** The JDK value types whose instances cannot be modified. */
+   private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+         String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+         Float.class, Double.class, BigInteger.class, BigDecimal.class, QName.class, UUID.class));
+
+   private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+   /** The cached contexts by application name and value type. */
+   private final ConcurrentMap<String, ConcurrentMap<Class<?>, CachedContext>> contexts =
+         new ConcurrentHashMap<String, ConcurrentMap<Class<?>, CachedContext>>();
+
+   EventPayloadMarshaller() {
+   }
+
+   /**
+    * Returns the marshaller shared by the event services of the portal.
+    */
+   static EventPayloadMarshaller getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Marshals an event value.
+    *
+    * @param applicationName  the name of the portlet application of the value type
+    * @param element  the event value
+    * @param out  receives the XML
+    */
+   void marshal(String applicationName, JAXBElement<?> element, Writer out) throws JAXBException {
+      CachedContext context = getContext(applicationName, element.getDeclaredType());
+      Marshaller marshaller = context.marshallers.poll();
+      if (marshaller == null) {
+         marshaller = context.jaxbContext.createMarshaller();
+      }
+      marshaller.marshal(element, out);
+      context.marshallers.offer(marshaller);
+   }
+
+   /**
+    * Marshals an event value to a string. The JAXB context is created with the
+    * class loader of the portal as context class loader, while the value type
+    * may come from the portlet application.
+    *
+    * @param applicationName  the name of the portlet application of the value type
+    * @param name  the name of the event
+    * @param value  the event value
+    * @return the XML representation of the value
+    */
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   String toXML(String applicationName, QName name, Serializable value) throws JAXBException {
+      Writer out = new StringWriter();
+      ClassLoader cl = Thread.currentThread().getContextClassLoader();
+      try {
+         Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+         marshal(applicationName, new JAXBElement(name, value.getClass(), value), out);
+      } finally {
+         Thread.currentThread().setContextClassLoader(cl);
+      }
+      return out.toString();
+   }
+
+   /**
+    * Unmarshals an event value.
+    *
+    * @param applicationName  the name of the portlet application of the value type
+    * @param xml  the XML of the event value
+    * @param type  the value type
+    * @return the event value
+    */
+   <T> JAXBElement<T> unmarshal(String applicationName, String xml, Class<T> type) throws JAXBException,
+         XMLStreamException {
+      CachedContext context = getContext(applicationName, type);
+      Unmarshaller unmarshaller = context.unmarshallers.poll();
+      if (unmarshaller == null) {
+         unmarshaller = context.jaxbContext.createUnmarshaller();
+      }
+      XMLStreamReader reader = createXMLStreamReader(xml);
+      try {
+         JAXBElement<T> result = unmarshaller.unmarshal(reader, type);
+         context.unmarshallers.offer(unmarshaller);
+         return result;
+      } finally {
+         reader.close();
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if the value is of a JDK type whose instances
+    * cannot be modified, so that it can be shared without copying.
+    */
+   static boolean isImmutable(Serializable value) {
+      return value == null || IMMUTABLE_TYPES.contains(value.getClass()) || value instanceof Enum;
+   }
+
+   /**
+    * Copies an event value by Java serialization, which is much cheaper than
+    * marshalling it to XML and back.
+    *
+    * @param value  the event value
+    * @param loader  the class loader resolving the classes of the copy
+    * @return the copy
+    */
+   Serializable copy(Serializable value, ClassLoader loader) throws IOException, ClassNotFoundException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      try {
+         out.writeObject(value);
+      } finally {
+         out.close();
+      }
+      ObjectInputStream in = new LoaderObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()), loader);
+      try {
+         return (Serializable) in.readObject();
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Creates a stream reader for an event value, using the cached factory.
+    */
+   XMLStreamReader createXMLStreamReader(String xml) throws XMLStreamException {
+      return xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+   }
+
+   private CachedContext getContext(String applicationName, Class<?> type) throws JAXBException {
+      ConcurrentMap<Class<?>, CachedContext> appContexts = contexts.get(applicationName);
+      if (appContexts == null) {
+         appContexts = new ConcurrentHashMap<Class<?>, CachedContext>();
+         ConcurrentMap<Class<?>, CachedContext> existing = contexts.putIfAbsent(applicationName, appContexts);
+         if (existing != null) {
+            appContexts = existing;
+         }
+      }
+      CachedContext context = appContexts.get(type);
+      if (context == null) {
+         // creating a context twice is harmless, so it is not done under a lock
+         context = new CachedContext(JAXBContext.newInstance(type));
+         CachedContext existing = appContexts.putIfAbsent(type, context);
+         if (existing != null) {
+            context = existing;
+         }
+      }
+      return context;
+   }
+
+   public void portletApplicationRegistered(PortletRegistryEvent event) {
+      discard(event);
+   }
+
+   public void portletApplicationRemoved(PortletRegistryEvent event) {
+      discard(event);
+   }
+
+   private void discard(PortletRegistryEvent event) {
+      PortletApplicationDefinition app = event.getPortletApplication();
+      if (app == null || app.getName() == null) {
+         contexts.clear();
+      } else {
+         contexts.remove(app.getName());
+      }
+   }
+
+   /**
+    * Resolves the classes of the deserialized objects with a given class
+    * loader.
+    */
+   private static class LoaderObjectInputStream extends ObjectInputStream {
+      private final ClassLoader loader;
+
+      LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+         super(in);
+         this.loader = loader;
+      }
+
+      @Override
+      protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+         try {
+            return Class.forName(desc.getName(), false, loader);
+         } catch (ClassNotFoundException e) {
+            return super.resolveClass(desc);
+         }
+      }
+   }
+
+   /**
+    * A JAXB context with its idle marshallers and unmarshallers.
+    */
+   private static class CachedContext {
+      final JAXBContext jaxbContext;
+      final BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<Marshaller>(POOL_SIZE);
+      final BlockingQueue<Unmarshaller> unmarshallers = new ArrayBlockingQueue<Unmarshaller>(POOL_SIZE);
+
+      CachedContext(JAXBContext jaxbContext) {
+         this.jaxbContext = jaxbContext;
+      }
+   }
+}
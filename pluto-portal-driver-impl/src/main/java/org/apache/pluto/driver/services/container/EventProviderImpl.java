@@ -19,19 +19,13 @@ package org.apache.pluto.driver.services.container;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
-import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.portlet.Event;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.namespace.QName;
-import javax.xml.stream.FactoryConfigurationError;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,49 +74,25 @@ public class EventProviderImpl implements EventProvider {
             throw new IllegalArgumentException("Payload class (" + value.getClass().getCanonicalName()
                   + ") does not have the right class, check your defined event types in portlet.xml.");
          }
-         try {
-            if (value == null) {
-               return new EventImpl(qname, value);
-            } else {
-               
-               boolean debug = false;
-               if (LOG.isDebugEnabled() && (value instanceof HashMap)) {
-                  debug = true;
-                  StringBuilder txt = new StringBuilder(128);
-                  txt.append("Event payload params:");
-                  Map<String, String[]> pmap = (HashMap<String, String[]>) value; 
-                  for (String name : pmap.keySet()) {
-                     txt.append("\nname: ").append(name);
-                     txt.append(", vals: ").append(Arrays.toString(pmap.get(name)));
-                  }
-                  LOG.debug(txt.toString());
-               }
-               
-               ClassLoader cl = Thread.currentThread().getContextClassLoader();
-               Writer out = new StringWriter();
-               @SuppressWarnings("rawtypes")
-               Class clazz = value.getClass();
-               try {
-                  Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
-                  JAXBContext jc = JAXBContext.newInstance(clazz);
-                  Marshaller marshaller = jc.createMarshaller();
-                  JAXBElement<Serializable> element = new JAXBElement<Serializable>(qname, clazz, value);
-                  marshaller.marshal(element, out);
-               } finally {
-                  Thread.currentThread().setContextClassLoader(cl);
-               }
-               
-               if (debug) {
-                  LOG.debug("Resulting marshalled HashMap: \n" + out.toString());
+         if (value == null) {
+            return new EventImpl(qname, value);
+         } else {
+            
+            if (LOG.isDebugEnabled() && (value instanceof HashMap)) {
+               StringBuilder txt = new StringBuilder(128);
+               txt.append("Event payload params:");
+               Map<String, String[]> pmap = (HashMap<String, String[]>) value; 
+               for (String name : pmap.keySet()) {
+                  txt.append("\nname: ").append(name);
+                  txt.append(", vals: ").append(Arrays.toString(pmap.get(name)));
                }
-               
-               return new EventImpl(qname, out.toString());
+               LOG.debug(txt.toString());
             }
-         } catch (JAXBException e) {
-            // maybe there is no valid jaxb binding
-            LOG.error("Event handling failed", e);
-         } catch (FactoryConfigurationError e) {
-            LOG.warn(e.getMessage(), e);
+            
+            // the value is marshalled to XML only if it is delivered to a
+            // portlet application that does not share its type
+            return new ObjectValueEvent(qname, value,
+                  portletWindow.getPortletDefinition().getApplication().getName());
          }
       }
       return null;
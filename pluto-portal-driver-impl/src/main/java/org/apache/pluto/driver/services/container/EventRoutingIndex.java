@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps event names to the portlets that process them.
+ * <p>
+ * The routes of a portlet application are computed from its deployment
+ * descriptor when the application is first looked up, and are discarded when
+ * the application is registered or removed again. A portlet processes an
+ * event if one of its processing events
+ * <ul>
+ * <li>has the name of the event,</li>
+ * <li>is an alias of the event definition in the application,</li>
+ * <li>has no namespace, and has the name of the event in the default
+ * namespace of the application, or</li>
+ * <li>is a wildcard ending with "." or "*" whose prefix starts the name of the
+ * event.</li>
+ * </ul>
+ * The routes do not depend on the pages, so changes to the page configuration
+ * do not affect them.
+ */
+class EventRoutingIndex implements PortletRegistryListener {
+
+   private static final Logger LOG = LoggerFactory.getLogger(EventRoutingIndex.class);
+
+   private final PortletRegistryService portletRegistry;
+
+   /** The routes of the portlet applications, by application name. */
+   private final ConcurrentMap<String, ApplicationRoutes> routes = new ConcurrentHashMap<String, ApplicationRoutes>();
+
+   EventRoutingIndex(PortletRegistryService portletRegistry) {
+      this.portletRegistry = portletRegistry;
+   }
+
+   /**
+    * Returns the names of the portlets of an application that process the
+    * given event.
+    *
+    * @param applicationName
+    *           the name of the portlet application
+    * @param eventName
+    *           the name of the event
+    * @return the portlet names; empty if the application is not registered
+    */
+   Set<String> getPortletNames(String applicationName, QName eventName) {
+      ApplicationRoutes appRoutes = routes.get(applicationName);
+      if (appRoutes == null) {
+         appRoutes = ApplicationRoutes.NONE;
+         try {
+            appRoutes = new ApplicationRoutes(portletRegistry.getPortletApplication(applicationName));
+         } catch (PortletContainerException e) {
+            LOG.warn(e.getMessage(), e);
+         }
+         // unregistered applications are remembered as well, until they are registered
+         ApplicationRoutes existing = routes.putIfAbsent(applicationName, appRoutes);
+         if (existing != null) {
+            appRoutes = existing;
+         }
+      }
+      return appRoutes.getPortletNames(eventName);
+   }
+
+   public void portletApplicationRegistered(PortletRegistryEvent event) {
+      discard(event);
+   }
+
+   public void portletApplicationRemoved(PortletRegistryEvent event) {
+      discard(event);
+   }
+
+   private void discard(PortletRegistryEvent event) {
+      PortletApplicationDefinition app = event.getPortletApplication();
+      if (app == null) {
+         routes.clear();
+      } else {
+         if (app.getContextPath() != null) {
+            routes.remove(app.getContextPath());
+         }
+         if (app.getName() != null) {
+            routes.remove(app.getName());
+         }
+      }
+   }
+
+   /**
+    * The routes of the events to the portlets of one application.
+    */
+   private static class ApplicationRoutes {
+
+      static final ApplicationRoutes NONE = new ApplicationRoutes(null);
+
+      /** The portlets for the event names matched exactly. */
+      private final Map<QName, Set<String>> exact = new HashMap<QName, Set<String>>();
+
+      /** The portlets for the prefixes of wildcard event names. */
+      private final List<String[]> wildcards = new ArrayList<String[]>();
+
+      ApplicationRoutes(PortletApplicationDefinition app) {
+         if (app == null) {
+            return;
+         }
+
+         // the event definitions that each alias refers to
+         Map<QName, List<QName>> aliased = new HashMap<QName, List<QName>>();
+         if (app.getEventDefinitions() != null) {
+            for (EventDefinition def : app.getEventDefinitions()) {
+               if (def.getQName() != null && def.getAliases() != null) {
+                  for (QName alias : def.getAliases()) {
+                     List<QName> defs = aliased.get(alias);
+                     if (defs == null) {
+                        defs = new ArrayList<QName>();
+                        aliased.put(alias, defs);
+                     }
+                     defs.add(def.getQName());
+                  }
+               }
+            }
+         }
+
+         for (PortletDefinition portlet : app.getPortlets()) {
+            if (portlet.getSupportedProcessingEvents() == null) {
+               continue;
+            }
+            String portletName = portlet.getPortletName();
+            for (EventDefinitionReference ref : portlet.getSupportedProcessingEvents()) {
+               QName name = ref.getQualifiedName();
+               if (name == null) {
+                  continue;
+               }
+               String txt = name.toString();
+               if (txt.endsWith(".")) {
+                  wildcards.add(new String[] {txt, portletName});
+               } else if (txt.endsWith("*")) {
+                  wildcards.add(new String[] {txt.substring(0, txt.length() - 1), portletName});
+               }
+               add(name, portletName);
+               if (aliased.containsKey(name)) {
+                  for (QName def : aliased.get(name)) {
+                     add(def, portletName);
+                  }
+               }
+               if (name.getNamespaceURI() == null || name.getNamespaceURI().equals("")) {
+                  add(new QName(app.getDefaultNamespace(), name.getLocalPart()), portletName);
+               }
+            }
+         }
+      }
+
+      private void add(QName eventName, String portletName) {
+         Set<String> names = exact.get(eventName);
+         if (names == null) {
+            names = new HashSet<String>();
+            exact.put(eventName, names);
+         }
+         names.add(portletName);
+      }
+
+      Set<String> getPortletNames(QName eventName) {
+         Set<String> names = exact.get(eventName);
+         if (wildcards.isEmpty()) {
+            return (names == null) ? Collections.<String> emptySet() : names;
+         }
+         Set<String> result = (names == null) ? new HashSet<String>() : new HashSet<String>(names);
+         String txt = eventName.toString();
+         for (String[] wildcard : wildcards) {
+            if (txt.startsWith(wildcard[0])) {
+               result.add(wildcard[1]);
+            }
+         }
+         return result;
+      }
+   }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.container;
+
+import java.io.Serializable;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
+
+/**
+ * An event fired by a portlet, holding the value object itself rather than
+ * its XML representation. The value is marshalled only when the event is
+ * delivered to a portlet application that does not share the value type, and
+ * then only once for all such deliveries.
+ */
+class ObjectValueEvent extends EventImpl {
+
+   /** The name of the portlet application that fired the event. */
+   private final String applicationName;
+
+   private volatile String xml;
+
+   ObjectValueEvent(QName qname, Serializable value, String applicationName) {
+      super(qname, value);
+      this.applicationName = applicationName;
+   }
+
+   /**
+    * Returns the XML representation of the value.
+    */
+   String toXML(EventPayloadMarshaller marshaller) throws JAXBException {
+      String result = xml;
+      if (result == null) {
+         // concurrent deliveries may marshal the value more than once, which is harmless
+         result = marshaller.toXML(applicationName, getQName(), getValue());
+         xml = result;
+      }
+      return result;
+   }
+}
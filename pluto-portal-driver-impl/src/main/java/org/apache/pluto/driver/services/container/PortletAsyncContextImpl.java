@@ -112,7 +112,7 @@ public class PortletAsyncContextImpl implements PortletAsyncManager, AsyncContex
    public void registerContext(boolean isListener) {
       
       // if the context is already active, then ignore register / deregister calls.
-      if (complete || (isListener && PortletRequestScopedBeanHolder.getBeanHolder() != null)) {
+      if (complete || (isListener && PortletArtifactProducer.isActive())) {
          doDeregister = false;
       } else {
          doDeregister = true;
@@ -18,6 +18,7 @@ package org.apache.pluto.driver.services.container;
 
 import java.util.Collection;
 
+import javax.portlet.CacheControl;
 import javax.portlet.PortletMode;
 import javax.portlet.PortletRequest;
 import javax.servlet.http.HttpServletRequest;
@@ -43,6 +44,25 @@ public class PortletRenderResponseContextImpl extends PortletMimeResponseContext
         setLifecycle(PortletRequest.RENDER_PHASE);
     }
 
+    /**
+     * Returns the cache control supplied by the portal when the window markup
+     * is cached, so that the portal sees the settings made by the portlet.
+     */
+    @Override
+    public CacheControl getCacheControl()
+    {
+        if (!isClosed())
+        {
+            CacheControl cacheControl = (CacheControl) getContainerRequest().getAttribute(
+                    AttributeKeys.RENDER_CACHE_CONTROL);
+            if (cacheControl != null)
+            {
+                return cacheControl;
+            }
+        }
+        return super.getCacheControl();
+    }
+
     public void setNextPossiblePortletModes(Collection<PortletMode> portletModes)
     {
         // not supported
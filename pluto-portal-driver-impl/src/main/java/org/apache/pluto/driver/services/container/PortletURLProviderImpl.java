@@ -78,6 +78,7 @@ public class PortletURLProviderImpl implements PortletURLProvider {
       urlTypeMap.put(URLType.Action, TYPE.ACTION);
       urlTypeMap.put(URLType.PartialAction, TYPE.ACTION);
       urlTypeMap.put(URLType.AjaxAction, TYPE.ACTION);
+      urlTypeMap.put(URLType.BatchAction, TYPE.ACTION);
       urlTypeMap.put(URLType.Portal, TYPE.RENDER);
       urlTypeMap.put(URLType.Render, TYPE.RENDER);
       urlTypeMap.put(URLType.Resource, TYPE.RESOURCE);
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.url.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Primitives for the binary encoding of the portal URL state used by the
+ * compact URL format.
+ * <p>
+ * Integers are written as unsigned variable length integers, 7 bits per byte.
+ * Strings are written in UTF-8. A string that has already been written to the
+ * same state is replaced by a reference to its first occurrence, so that
+ * portlet IDs, parameter names, portlet modes and window states are contained
+ * only once. The encoded state is represented as base64url text without
+ * padding, which does not need to be escaped in a URL path.
+ *
+ * @see PortalURLParserImpl
+ */
+final class CompactStateCodec {
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private CompactStateCodec() {
+   }
+
+   /**
+    * Writes the state.
+    */
+   static class Writer {
+      private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+      void writeByte(int b) {
+         out.write(b);
+      }
+
+      void writeInt(int value) {
+         while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+         out.write(value);
+      }
+
+      /**
+       * Writes a string: 0 for <code>null</code>, an odd number for a
+       * reference to a string written before, and an even number followed by
+       * the UTF-8 bytes for a new string.
+       */
+      void writeString(String str) {
+         if (str == null) {
+            writeInt(0);
+            return;
+         }
+         Integer ref = strings.get(str);
+         if (ref != null) {
+            writeInt((ref << 1) | 1);
+            return;
+         }
+         strings.put(str, strings.size());
+         byte[] bytes = str.getBytes(UTF8);
+         writeInt((bytes.length + 1) << 1);
+         out.write(bytes, 0, bytes.length);
+      }
+
+      void writeValues(String[] values) {
+         writeInt(values.length);
+         for (String value : values) {
+            writeString(value);
+         }
+      }
+
+      int size() {
+         return out.size();
+      }
+
+      /**
+       * @return the base64url representation of the state
+       */
+      String toText() {
+         String text = DatatypeConverter.printBase64Binary(out.toByteArray());
+         StringBuilder buffer = new StringBuilder(text.length());
+         for (int ii = 0; ii < text.length(); ii++) {
+            char c = text.charAt(ii);
+            if (c == '+') {
+               buffer.append('-');
+            } else if (c == '/') {
+               buffer.append('_');
+            } else if (c != '=') {
+               buffer.append(c);
+            }
+         }
+         return buffer.toString();
+      }
+   }
+
+   /**
+    * Reads a state. Methods throw an {@link IllegalArgumentException} if the
+    * state is not well formed.
+    */
+   static class Reader {
+      private final byte[] bytes;
+      private final List<String> strings = new ArrayList<String>();
+      private int pos;
+
+      /**
+       * @param text  the base64url representation of the state
+       */
+      Reader(String text) {
+         StringBuilder buffer = new StringBuilder(text.length() + 3);
+         for (int ii = 0; ii < text.length(); ii++) {
+            char c = text.charAt(ii);
+            if (c == '-') {
+               buffer.append('+');
+            } else if (c == '_') {
+               buffer.append('/');
+            } else {
+               buffer.append(c);
+            }
+         }
+         while (buffer.length() % 4 != 0) {
+            buffer.append('=');
+         }
+         bytes = DatatypeConverter.parseBase64Binary(buffer.toString());
+      }
+
+      boolean hasMore() {
+         return pos < bytes.length;
+      }
+
+      int readByte() {
+         if (pos >= bytes.length) {
+            throw new IllegalArgumentException("Unexpected end of state.");
+         }
+         return bytes[pos++] & 0xFF;
+      }
+
+      int readInt() {
+         int value = 0;
+         for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+               return value;
+            }
+         }
+         throw new IllegalArgumentException("Malformed integer at position " + pos);
+      }
+
+      String readString() {
+         int code = readInt();
+         if (code == 0) {
+            return null;
+         }
+         if ((code & 1) != 0) {
+            int ref = code >>> 1;
+            if (ref >= strings.size()) {
+               throw new IllegalArgumentException("Bad string reference: " + ref);
+            }
+            return strings.get(ref);
+         }
+         int length = (code >>> 1) - 1;
+         if (length < 0 || length > bytes.length - pos) {
+            throw new IllegalArgumentException("Bad string length: " + length);
+         }
+         String str = new String(bytes, pos, length, UTF8);
+         pos += length;
+         strings.add(str);
+         return str;
+      }
+
+      String[] readValues() {
+         int count = readInt();
+         if (count < 0 || count > bytes.length - pos) {
+            throw new IllegalArgumentException("Bad value count: " + count);
+         }
+         String[] values = new String[count];
+         for (int ii = 0; ii < count; ii++) {
+            values[ii] = readString();
+         }
+         return values;
+      }
+   }
+}
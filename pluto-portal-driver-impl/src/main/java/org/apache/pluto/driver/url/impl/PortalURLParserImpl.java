@@ -53,7 +53,10 @@ public class PortalURLParserImpl implements PortalURLParser {
    private static final boolean isTrace = LOG.isTraceEnabled();
 
    /** The singleton parser instance. */
-   private static final PortalURLParser PARSER = new PortalURLParserImpl();
+   private static final PortalURLParser PARSER = new PortalURLParserImpl(false, null);
+
+   /** The singleton parser instance generating URLs in the compact format. */
+   private static final PortalURLParser COMPACT_PARSER = new PortalURLParserImpl(true, null);
 
 
    // Constants used for Encoding/Decoding ------------------------------------
@@ -76,26 +79,55 @@ public class PortalURLParserImpl implements PortalURLParser {
    private static final String VALUE_ARRAY_EMPTY = "@";
    private static final String DELIM = ";";
    private static final String TOKEN_DELIM = "/";
+   private static final String TOKEN_START = TOKEN_DELIM + PREFIX;
+   private static final char DELIM_CHAR = ';';
+   private static final char VALUE_DELIM_CHAR = ':';
+   private static final String[] EMPTY_VALUES = new String[0];
 
    private static final String ACTION = "ac";
    private static final String RESOURCE = "rs";
    private static final String AJAX_ACTION = "aa";       // new for portlet spec 3
    private static final String PARTIAL_ACTION = "pa";    // new for portlet spec 3
    private static final String RENDER = "re";            // new for portlet spec 3
+   private static final String BATCH_ACTION = "ba";      // Ajax action returning the render data
    
    private static final String AUTHENTICATE = "au";      // new for portlet spec 3
    
    private static final String ACTION_PARAM = "av";      // new for portlet spec 3
    private static final String RESOURCE_PARAM = "rv";    // new for portlet spec 3
 
+   private static final String COMPACT_STATE = "cs";     // the state in the compact format
+   private static final String STORED_STATE = "st";      // the key of the state in the state store
+
+   // The token types. The position of a type is its code in the compact format,
+   // so new types may only be appended.
+   private static final String[] TOKEN_TYPES = {
+      PORTLET_ID, RESOURCE_ID, CACHE_LEVEL, RENDER_PARAM, PUBLIC_RENDER_PARAM, WINDOW_STATE,
+      PORTLET_MODE, ACTION, RESOURCE, AJAX_ACTION, PARTIAL_ACTION, RENDER, AUTHENTICATE,
+      ACTION_PARAM, RESOURCE_PARAM, COMPACT_STATE, STORED_STATE, BATCH_ACTION
+   };
+
+   /** The version of the compact format written by this parser. */
+   private static final int COMPACT_VERSION = 1;
+
+   /** States in the compact format up to this length are not stored. */
+   private static final int MAX_INLINE_LENGTH = 32;
+
+   /** <code>true</code> if URLs are generated in the compact format. */
+   private final boolean compact;
+
+   /** The store for the URL state, or <code>null</code>. */
+   private final PortalURLStateStore stateStore;
+
 
    // Constructor -------------------------------------------------------------
 
    /**
     * Private constructor that prevents external instantiation.
     */
-   private PortalURLParserImpl() {
-      // Do nothing.
+   private PortalURLParserImpl(boolean compact, PortalURLStateStore stateStore) {
+      this.compact = compact;
+      this.stateStore = stateStore;
    }
 
    /**
@@ -106,6 +138,32 @@ public class PortalURLParserImpl implements PortalURLParser {
       return PARSER;
    }
 
+   /**
+    * Returns the singleton parser instance that generates URLs carrying the
+    * state in the compact format: a single base64url encoded token rather
+    * than one path token per value. Both parsers accept URLs in either
+    * format.
+    * @return the compact parser instance.
+    */
+   public static PortalURLParser getCompactParser() {
+      return COMPACT_PARSER;
+   }
+
+   /**
+    * Returns a parser that keeps the state of the generated URLs in the given
+    * store. The URLs carry only the render path and the key of the state, so
+    * their length does not depend on the number of portlets on the page or
+    * on the size of their parameters. Small states are carried in the URL in
+    * the compact format. If the state of a URL has been discarded by the store,
+    * the URL refers to the page with its default state. The parser accepts
+    * URLs in all formats.
+    * @param stateStore  the store for the URL state
+    * @return a parser instance using the given store.
+    */
+   public static PortalURLParser getStoredStateParser(PortalURLStateStore stateStore) {
+      return new PortalURLParserImpl(true, stateStore);
+   }
+
 
    // Public Methods ----------------------------------------------------------
 
@@ -190,9 +248,9 @@ public class PortalURLParserImpl implements PortalURLParser {
 
       // Extract the version info for the portlets on the page and store in URL
       
-      StringBuilder vstr = new StringBuilder();
+      StringBuilder vstr = null;
       if (isTrace) {
-         vstr.append("Portlet Versions: ");
+         vstr = new StringBuilder("Portlet Versions: ");
       }
       for (String pid : pids) {
          String appName = PortletWindowConfig.fromId(pid).getContextPath();
@@ -210,196 +268,18 @@ public class PortalURLParserImpl implements PortalURLParser {
          LOG.debug(vstr.toString());
       }
 
-      // Tokenize the rest and process the tokens
+      // Scan the rest of the path info. Each token starts with the token delimiter
+      // and prefix, followed by the token type and its values.
       ArrayList<String> portletIds = new ArrayList<String>();
-      if (pathInfo.length() > 2) {
-         String[] tokens = pathInfo.split(TOKEN_DELIM + PREFIX);
-         for (String t : tokens) {
-
-            // vals contains the component values of the token after the type
-            String type, val;
-            String[] vals;
-            if (t.length() < 3) {
-               // LOG.warn("Token >>" + t + "<< is too short!! ");
-               continue;
-            } else {
-               type = t.substring(0, 2);
-               val = t.substring(2);
-               vals = val.split(DELIM);
-            }
-
-            // If the first value is numeric, attempt to dereference the index to obtain the portlet ID.
-            // The code assumes that the portlet ID table in the URL appears directly after the render path. 
-            int index = -1;
-            String pid = null;
-            if ((vals[0].length() > 0) && vals[0].matches("\\d+")) {
-               try {
-                  index = Integer.parseInt(vals[0]);
-                  if ((index >= 0) && (index < portletIds.size())) {
-                     pid = portletIds.get(index);
-                  }
-               } catch (Exception e) {
-                  LOG.error("error parsing URL pid reference token. Token: " + vals[0] + ", exception: " + e.toString());
-               }
-            }
-
-            // Get the portlet IDs & reference numbers. The portlet IDs are URL encoded.
-            if (type.equals(PORTLET_ID)) {
-               portletIds.add(Integer.parseInt(vals[1]), urlDecode(vals[0]));
-               continue;
-            } 
-
-            // Cacheability definition: portalURL.setCacheability().
-            if (type.equals(CACHE_LEVEL)) {
-               portalURL.setCacheability(urlDecode(vals[0]));
-               continue;
-            }
-
-            // ResourceID definition: portalURL.setResourceID().
-            if (type.equals(RESOURCE_ID)) {
-               portalURL.setResourceID(urlDecode(vals[0]));
-               continue;
-            }
-
-            // Authenticate definition: portalURL.setAuthenticated().
-            if (type.equals(AUTHENTICATE)) {
-               portalURL.setAuthenticated(Boolean.valueOf(urlDecode(vals[0])));
-               continue;
-            }
-
-            // Resource window definition: portalURL.setResourceWindow().
-            if (type.equals(RESOURCE)) {
-               portalURL.setTargetWindow(pid);
-               portalURL.setType(URLType.Resource);
-               continue;
-            }
-
-            // Render window definition: portalURL.setResourceWindow().
-            if (type.equals(RENDER)) {
-               portalURL.setTargetWindow(pid);
-               portalURL.setType(URLType.Render);
-               continue;
-            }
-
-            // Action window definition: portalURL.setActionWindow().
-            if (type.equals(ACTION)) {
-               portalURL.setTargetWindow(pid);
-               portalURL.setType(URLType.Action);
-               continue;
-            }
-
-            // Ajax Action window definition: portalURL.setActionWindow().
-            if (type.equals(AJAX_ACTION)) {
-               portalURL.setTargetWindow(pid);
-               portalURL.setType(URLType.AjaxAction);
-               continue;
-            }
-
-            // Partial Action window definition: portalURL.setActionWindow().
-            if (type.equals(PARTIAL_ACTION)) {
-               portalURL.setTargetWindow(pid);
-               portalURL.setType(URLType.PartialAction);
-               continue;
-            }
-
-            // Window state definition: portalURL.setWindowState().
-            if (type.equals(WINDOW_STATE)) {
-               portalURL.setWindowState(pid, new WindowState(urlDecode(vals[1])));
-               continue;
-            }
-
-            // Portlet mode definition: portalURL.setPortletMode().
-            if (type.equals(PORTLET_MODE)) {
-               portalURL.setPortletMode(pid, new PortletMode(urlDecode(vals[1])));
-               continue;
-            }
-
-            // The remaining types deal with parameters, so extract the
-            // parameter name and values.
-            StringBuilder dbgstr = new StringBuilder();
-            if (isTrace) {
-               dbgstr.append("Decoding parameter: window ID=").append(pid)
-                     .append(", name/value=").append(vals[1]);
-            }
-
-            String values = vals[1];
-            if (type.equals(PUBLIC_RENDER_PARAM)) {
-               if (vals.length != 3) {
-                  LOG.warn("Bad PRP Token: " + val);  
-               } else {
-                  values = vals[2];
-               }
-            }
-
-            String[] pVals = values.split(VALUE_DELIM, -1);
-            String[] paramValues = new String[0];
-            String paramName = "";
-            boolean isEmptyArray = false;
-            if (pVals.length > 1) {
-               if (pVals.length == 2 && pVals[1].equals(VALUE_ARRAY_EMPTY)) {
-                  isEmptyArray = true;
-               }
-               for (int i = 0; i < pVals.length; i++){
-                  if (pVals[i].equals(VALUE_NULL)) {
-                     pVals[i] = null;
-                  } else {
-                     pVals[i] = urlDecode(pVals[i]);
-                  }
-               }
-            }
-            
-            if (pVals.length == 0 || pVals[0] == null) {
-               LOG.warn("Bad parameter token: " + values);
-            } else {
-               paramName = pVals[0];
-               if (isEmptyArray) {
-                  paramValues = new String[0];
-               } else {
-                  paramValues = Arrays.copyOfRange(pVals, 1, pVals.length);
-               }
-            }
-            
-            if (isTrace) {
-               dbgstr.append(", paramName=").append(paramName);
-               dbgstr.append(", Values length=").append(paramValues.length);
-               dbgstr.append(", paramValues=").append(Arrays.toString(paramValues));
-               LOG.debug(dbgstr.toString());
-            }
-
-            // Portal URL parameter: portalURL.addParameter().
-            if(type.equals(RENDER_PARAM)) {
-               portalURL.addParameter(new PortalURLParameter(pid, paramName, paramValues));
-               continue;
-            }
-
-            // Portal URL parameter: portalURL.addParameter().
-            if(type.equals(ACTION_PARAM)) {
-               portalURL.addParameter(new PortalURLParameter(pid, paramName, paramValues, 
-                     PortalURLParameter.PARAM_TYPE_ACTION));
-               continue;
-            }
-
-            // Portal URL parameter: portalURL.addParameter().
-            if(type.equals(RESOURCE_PARAM)) {
-               portalURL.addParameter(new PortalURLParameter(pid, paramName, paramValues,
-                     PortalURLParameter.PARAM_TYPE_RESOURCE));
-               continue;
-            }
-
-            //set public parameter in portalURL
-            if (type.equals(PUBLIC_RENDER_PARAM)){
-               PublicRenderParameterMapper mapper = portalURL.getPublicRenderParameterMapper();
-               int prpGroup = mapper.getIndex(pid, paramName);
-               if (prpGroup >= 0) {
-                  mapper.setValues(prpGroup, paramValues);
-               } else {
-                  StringBuilder sb = new StringBuilder("Could not find public render parameter group for portlet ID=");
-                  sb.append(pid).append(", parameter name=").append(paramName);
-                  LOG.warn(sb.toString());
-               }
-               continue;
-            }
+      int pos = pathInfo.indexOf(TOKEN_START);
+      while (pos >= 0) {
+         int start = pos + TOKEN_START.length();
+         int next = pathInfo.indexOf(TOKEN_START, start);
+         int end = (next < 0) ? pathInfo.length() : next;
+         if (end - start >= 3) {
+            parseToken(portalURL, pathInfo, start, end, portletIds);
          }
+         pos = next;
       }
 
       // If we're dealing with a render request (with or without target portlet),
@@ -430,27 +310,45 @@ public class PortalURLParserImpl implements PortalURLParser {
       // Make sure the servlet parameters have been processed
       portalURL.handleServletRequestParams();
 
-      // Append the server URI and the servlet path.
-      buffer.append(portalURL.getServletPath().startsWith(TOKEN_DELIM)?"":TOKEN_DELIM)
-      .append(portalURL.getServletPath());
-
-      // Start the pathInfo with the path to the render URL (page).
-      if (portalURL.getRenderPath() != null) {
-         String p = portalURL.getRenderPath().replaceAll(" ", "%20");
-         buffer.append(p);
+      ArrayList<String> pids = new ArrayList<String>(portalURL.getPortletIds());
+
+      // The URLs of a request share the encoded segments. The prefix up to and
+      // including the portlet ID table only depends on the page.
+      PortalURLTokenCache tokenCache = compact ? null : portalURL.tokenCache;
+      PortalURLTokenCache.Key prefixKey = null;
+      String prefix = null;
+      if (tokenCache != null) {
+         prefixKey = new PortalURLTokenCache.Key(null, -1, -1, portalURL.getRenderPath(),
+               pids.toArray(new String[pids.size()]));
+         prefix = tokenCache.get(prefixKey);
       }
 
-      // Add the portletIds with references
-      ArrayList<String> pids = new ArrayList<String>();
-      for (String pid : portalURL.getPortletIds()) {
-         pids.add(pid);
-         buffer.append(TOKEN_DELIM).append(PREFIX).append(PORTLET_ID);
-         try {
-            buffer.append(URLEncoder.encode(pid, "UTF-8"));
-         } catch(Exception e) {
-            LOG.warn("Could not encode pid=" + pid);
+      StateWriter writer = compact 
+            ? new CompactStateWriter(buffer, stateStore, portalURL.servletRequest) 
+            : new PathStateWriter(buffer, tokenCache);
+
+      if (prefix != null) {
+         buffer.append(prefix);
+      } else {
+
+         // Append the server URI and the servlet path.
+         buffer.append(portalURL.getServletPath().startsWith(TOKEN_DELIM)?"":TOKEN_DELIM)
+         .append(portalURL.getServletPath());
+
+         // Start the pathInfo with the path to the render URL (page).
+         if (portalURL.getRenderPath() != null) {
+            String p = portalURL.getRenderPath().replaceAll(" ", "%20");
+            buffer.append(p);
+         }
+
+         // Add the portletIds with references
+         for (int index = 0; index < pids.size(); index++) {
+            writer.portletId(pids.get(index), index);
+         }
+
+         if (tokenCache != null) {
+            tokenCache.put(prefixKey, buffer.toString());
          }
-         buffer.append(DELIM).append(String.valueOf(pids.indexOf(pid)));
       }
 
       //Append the resource window definition, if it exists.
@@ -464,8 +362,7 @@ public class PortalURLParserImpl implements PortalURLParser {
                .append(Arrays.toString(pids.toArray()));
             LOG.warn(txt.toString());
          } else {
-            buffer.append(TOKEN_DELIM);
-            buffer.append(PREFIX).append(RESOURCE).append(String.valueOf(index));
+            writer.window(RESOURCE, index);
          }
       }
 
@@ -480,13 +377,12 @@ public class PortalURLParserImpl implements PortalURLParser {
                .append(Arrays.toString(pids.toArray()));
             LOG.warn(txt.toString());
          } else {
-            buffer.append(TOKEN_DELIM);
-            buffer.append(PREFIX).append(RENDER).append(String.valueOf(index));
+            writer.window(RENDER, index);
          }
       }
       
       // Append the action window definition, if it exists.
-      if (portalURL.getType() == URLType.Action) {
+      if (portalURL.getType() == URLType.Action || portalURL.getType() == URLType.BatchAction) {
          int index = pids.indexOf(targetWindow);
          if (index < 0) {
             StringBuilder txt = new StringBuilder();
@@ -496,31 +392,24 @@ public class PortalURLParserImpl implements PortalURLParser {
                .append(Arrays.toString(pids.toArray()));
             LOG.warn(txt.toString());
          } else {
-            buffer.append(TOKEN_DELIM);
-            buffer.append(PREFIX).append(ACTION).append(String.valueOf(index));
+            writer.window((portalURL.getType() == URLType.Action) ? ACTION : BATCH_ACTION, index);
          }
       }
       
       // Add authenticate token if the URL requires authentication
       
       if (portalURL.getAuthenticated()) {
-         buffer.append(TOKEN_DELIM);
-         buffer.append(PREFIX).append(AUTHENTICATE)
-               .append(urlEncode(String.valueOf(portalURL.getAuthenticated())));
+         writer.value(AUTHENTICATE, String.valueOf(portalURL.getAuthenticated()));
       }
 
       String reswin = null;
       boolean isCacheabilityFull = false;
       if (portalURL.getType() == URLType.Resource) {
          if (portalURL.getCacheability() != null) {
-            buffer.append(TOKEN_DELIM);
-            buffer.append(PREFIX).append(CACHE_LEVEL)
-                  .append(urlEncode(portalURL.getCacheability()));
+            writer.value(CACHE_LEVEL, portalURL.getCacheability());
          }
          if (portalURL.getResourceID() != null) {
-            buffer.append(TOKEN_DELIM);
-            buffer.append(PREFIX).append(RESOURCE_ID)
-                  .append(urlEncode(portalURL.getResourceID()));
+            writer.value(RESOURCE_ID, portalURL.getResourceID());
          }
          
          // Set up cacheability processing. For PORTLET, set
@@ -551,8 +440,7 @@ public class PortalURLParserImpl implements PortalURLParser {
                .append(", Portlet IDs in map: ").append(Arrays.toString(pids.toArray()));
             LOG.warn(txt.toString());
          } else {
-            buffer.append(TOKEN_DELIM).append(PREFIX).append(PORTLET_MODE)
-            .append(String.valueOf(index)).append(DELIM).append(urlEncode(pm.toString()));
+            writer.windowValue(PORTLET_MODE, index, pm.toString());
          }
       }
 
@@ -572,8 +460,7 @@ public class PortalURLParserImpl implements PortalURLParser {
                .append(", Portlet IDs in map: ").append(Arrays.toString(pids.toArray()));
             LOG.warn(txt.toString());
          } else {
-            buffer.append(TOKEN_DELIM).append(PREFIX).append(WINDOW_STATE)
-            .append(String.valueOf(index)).append(DELIM).append(urlEncode(ws.toString()));
+            writer.windowValue(WINDOW_STATE, index, ws.toString());
          }
       }
 
@@ -593,7 +480,6 @@ public class PortalURLParserImpl implements PortalURLParser {
 
          // Encode render params as a part of the URL.
          if (param.getName() != null && param.getValues() != null) {
-            String valueString = encodeMultiValues(param.getValues());
             String ptype = RENDER_PARAM;
             if (param.getType().equals(PortalURLParameter.PARAM_TYPE_ACTION)) {
                ptype = ACTION_PARAM;
@@ -601,10 +487,7 @@ public class PortalURLParserImpl implements PortalURLParser {
                ptype = RESOURCE_PARAM;
             }
             if (!isCacheabilityFull || ptype.equals(RESOURCE_PARAM)) {
-               buffer.append(TOKEN_DELIM).append(PREFIX).append(ptype)
-                     .append(String.valueOf(index))
-                     .append(DELIM).append(urlEncode(param.getName()))
-                     .append(VALUE_DELIM).append(valueString);
+               writer.parameter(ptype, index, param.getName(), param.getValues());
             }
          }
       }
@@ -626,7 +509,6 @@ public class PortalURLParserImpl implements PortalURLParser {
 
          for (int i : activeIndexes) {
             String[] values = mapper.getValues(i);
-            String valstr = encodeMultiValues(values);
 
             // the values for the PRP group need only appear in the URL once
             List<PortalURLPublicParameter> prplist = mapper.getPublicParameterGroup(i);
@@ -634,17 +516,14 @@ public class PortalURLParserImpl implements PortalURLParser {
                PortalURLPublicParameter prp = prplist.get(0);
                int index = pids.indexOf(prp.getWindowId());
                if (index >= 0) {
-                  buffer.append(TOKEN_DELIM).append(PREFIX).append(PUBLIC_RENDER_PARAM)
-                  .append(String.valueOf(index)).append(DELIM)
-                  .append(String.valueOf(i)).append(DELIM)
-                  .append(urlEncode(prp.getName())).append(VALUE_DELIM)
-                  .append(valstr);
+                  writer.publicParameter(index, i, prp.getName(), values);
                } else {
                   LOG.warn("window ID not on page for public render parameter: " + prp.toString());
                }
             }
          }
       }
+      writer.end();
       
       // Add fragment identifier if present on render URL
       if (portalURL.getType() == URLType.Render) {
@@ -661,6 +540,221 @@ public class PortalURLParserImpl implements PortalURLParser {
       return buffer.toString();
    }
 
+   /**
+    * Receives the state of a portal URL from {@link #toString(RelativePortalURLImpl)}
+    * and appends it to the URL in one of the supported formats.
+    */
+   private interface StateWriter {
+
+      /** Adds a portlet ID to the table the other tokens refer to. */
+      void portletId(String pid, int index);
+
+      /** Sets the target window. */
+      void window(String type, int index);
+
+      /** Sets a value that is not specific to a window. */
+      void value(String type, String value);
+
+      /** Sets the portlet mode or window state of a window. */
+      void windowValue(String type, int index, String value);
+
+      /** Adds a render, action or resource parameter. */
+      void parameter(String type, int index, String name, String[] values);
+
+      /** Sets the values of a public render parameter group. */
+      void publicParameter(int index, int group, String name, String[] values);
+
+      /** Completes the state. */
+      void end();
+   }
+
+   /**
+    * Appends the state as path info tokens, one token per value. Tokens are
+    * taken from the token cache of the URL if possible.
+    */
+   private class PathStateWriter implements StateWriter {
+      private final StringBuilder buffer;
+      private final PortalURLTokenCache tokenCache;
+
+      PathStateWriter(StringBuilder buffer, PortalURLTokenCache tokenCache) {
+         this.buffer = buffer;
+         this.tokenCache = tokenCache;
+      }
+
+      private StringBuilder startToken(String type) {
+         return buffer.append(TOKEN_DELIM).append(PREFIX).append(type);
+      }
+
+      private PortalURLTokenCache.Key cacheKey(String type, int index, int group, String name, String[] values) {
+         return (tokenCache == null) ? null : new PortalURLTokenCache.Key(type, index, group, name, values);
+      }
+
+      /**
+       * Appends the cached token.
+       * @return <code>false</code> if the token is not cached.
+       */
+      private boolean appendCached(PortalURLTokenCache.Key key) {
+         String token = (key == null) ? null : tokenCache.get(key);
+         if (token == null) {
+            return false;
+         }
+         buffer.append(token);
+         return true;
+      }
+
+      /**
+       * Caches the token appended since the given buffer position.
+       */
+      private void cache(PortalURLTokenCache.Key key, int start) {
+         if (key != null) {
+            tokenCache.put(key, buffer.substring(start));
+         }
+      }
+
+      public void portletId(String pid, int index) {
+         startToken(PORTLET_ID);
+         try {
+            buffer.append(URLEncoder.encode(pid, "UTF-8"));
+         } catch(Exception e) {
+            LOG.warn("Could not encode pid=" + pid);
+         }
+         buffer.append(DELIM).append(String.valueOf(index));
+      }
+
+      public void window(String type, int index) {
+         startToken(type).append(String.valueOf(index));
+      }
+
+      public void value(String type, String value) {
+         PortalURLTokenCache.Key key = cacheKey(type, -1, -1, value, null);
+         if (!appendCached(key)) {
+            int start = buffer.length();
+            startToken(type).append(urlEncode(value));
+            cache(key, start);
+         }
+      }
+
+      public void windowValue(String type, int index, String value) {
+         PortalURLTokenCache.Key key = cacheKey(type, index, -1, value, null);
+         if (!appendCached(key)) {
+            int start = buffer.length();
+            startToken(type).append(String.valueOf(index)).append(DELIM).append(urlEncode(value));
+            cache(key, start);
+         }
+      }
+
+      public void parameter(String type, int index, String name, String[] values) {
+         PortalURLTokenCache.Key key = cacheKey(type, index, -1, name, values);
+         if (!appendCached(key)) {
+            int start = buffer.length();
+            startToken(type).append(String.valueOf(index))
+                  .append(DELIM).append(urlEncode(name))
+                  .append(VALUE_DELIM).append(encodeMultiValues(values));
+            cache(key, start);
+         }
+      }
+
+      public void publicParameter(int index, int group, String name, String[] values) {
+         PortalURLTokenCache.Key key = cacheKey(PUBLIC_RENDER_PARAM, index, group, name, values);
+         if (!appendCached(key)) {
+            int start = buffer.length();
+            startToken(PUBLIC_RENDER_PARAM).append(String.valueOf(index)).append(DELIM)
+                  .append(String.valueOf(group)).append(DELIM)
+                  .append(urlEncode(name)).append(VALUE_DELIM)
+                  .append(encodeMultiValues(values));
+            cache(key, start);
+         }
+      }
+
+      public void end() {
+         // Do nothing.
+      }
+   }
+
+   /**
+    * Collects the state in the binary format of the {@link CompactStateCodec}
+    * and appends it as a single token. Each value is written as the code of
+    * its token type followed by the fields of the token. If a state store is
+    * available, the token contains the key of the stored state instead.
+    */
+   private static class CompactStateWriter implements StateWriter {
+      private final StringBuilder buffer;
+      private final PortalURLStateStore stateStore;
+      private final HttpServletRequest request;
+      private final CompactStateCodec.Writer out = new CompactStateCodec.Writer();
+
+      CompactStateWriter(StringBuilder buffer, PortalURLStateStore stateStore, HttpServletRequest request) {
+         this.buffer = buffer;
+         this.stateStore = stateStore;
+         this.request = request;
+         out.writeByte(COMPACT_VERSION);
+      }
+
+      private void startToken(String type) {
+         for (int code = 0; code < TOKEN_TYPES.length; code++) {
+            if (TOKEN_TYPES[code] == type) {
+               out.writeByte(code);
+               return;
+            }
+         }
+         throw new IllegalArgumentException("Unknown token type: " + type);
+      }
+
+      public void portletId(String pid, int index) {
+         startToken(PORTLET_ID);
+         out.writeString(pid);
+         out.writeInt(index);
+      }
+
+      public void window(String type, int index) {
+         startToken(type);
+         out.writeInt(index);
+      }
+
+      public void value(String type, String value) {
+         startToken(type);
+         out.writeString(value);
+      }
+
+      public void windowValue(String type, int index, String value) {
+         startToken(type);
+         out.writeInt(index);
+         out.writeString(value);
+      }
+
+      public void parameter(String type, int index, String name, String[] values) {
+         startToken(type);
+         out.writeInt(index);
+         out.writeString(name);
+         out.writeValues(values);
+      }
+
+      public void publicParameter(int index, int group, String name, String[] values) {
+         startToken(PUBLIC_RENDER_PARAM);
+         out.writeInt(index);
+         out.writeInt(group);
+         out.writeString(name);
+         out.writeValues(values);
+      }
+
+      public void end() {
+         // the version alone carries no state
+         if (out.size() > 1) {
+            String state = out.toText();
+            buffer.append(TOKEN_DELIM).append(PREFIX);
+            String key = null;
+            if (stateStore != null && request != null && state.length() > MAX_INLINE_LENGTH) {
+               key = stateStore.put(request, state);
+            }
+            if (key != null) {
+               buffer.append(STORED_STATE).append(key);
+            } else {
+               buffer.append(COMPACT_STATE).append(state);
+            }
+         }
+      }
+   }
+
    // Private Encoding/Decoding Methods ---------------------------------------
 
    /**
@@ -722,6 +816,395 @@ public class PortalURLParserImpl implements PortalURLParser {
       return buffer.toString();
    }
 
+   /**
+    * Processes a single path info token. The token occupies the given range
+    * of the path, without the token delimiter and prefix. The path is scanned
+    * in place; strings are only created for the values that are stored in the
+    * portal URL.
+    */
+   private void parseToken(RelativePortalURLImpl portalURL, String path, int start, int end,
+         List<String> portletIds) {
+
+      String type = getTokenType(path, start);
+      if (type == null) {
+         return;
+      }
+
+      // The type is followed by up to three values separated by DELIM:
+      // [v0Start, v0End), [v1Start, v1End) and [v2Start, end).
+      int v0Start = start + 2;
+      int v0End = indexOf(path, DELIM_CHAR, v0Start, end);
+      int v1Start = Math.min(v0End + 1, end);
+      int v1End = indexOf(path, DELIM_CHAR, v1Start, end);
+      int v2Start = Math.min(v1End + 1, end);
+
+      // The complete state in the compact format
+      if (type == COMPACT_STATE) {
+         parseCompactState(portalURL, path.substring(v0Start, end), portletIds);
+         return;
+      }
+
+      // The key of the complete state in the state store. If the state is no
+      // longer available, the URL refers to the page in its default state.
+      if (type == STORED_STATE) {
+         String key = path.substring(v0Start, end);
+         String state = null;
+         if (stateStore != null && portalURL.servletRequest != null) {
+            state = stateStore.get(portalURL.servletRequest, key);
+         }
+         if (state == null) {
+            if (isDebug) {
+               LOG.debug("URL state not found, using the default state of the page. Key: " + key);
+            }
+         } else {
+            parseCompactState(portalURL, state, portletIds);
+         }
+         return;
+      }
+
+      // Get the portlet IDs & reference numbers. The portlet IDs are URL encoded.
+      if (type == PORTLET_ID) {
+         applyToken(portalURL, portletIds, type, parseIndex(path, v1Start, v1End),
+               urlDecode(path, v0Start, v0End), null);
+         return;
+      }
+
+      if (type == CACHE_LEVEL || type == RESOURCE_ID || type == AUTHENTICATE) {
+         applyToken(portalURL, portletIds, type, -1, urlDecode(path, v0Start, v0End), null);
+         return;
+      }
+
+      // If the first value is numeric, it references the portlet ID.
+      int index = parseIndex(path, v0Start, v0End);
+
+      if (type == RESOURCE || type == RENDER || type == ACTION || type == AJAX_ACTION || type == PARTIAL_ACTION
+            || type == BATCH_ACTION) {
+         applyToken(portalURL, portletIds, type, index, null, null);
+         return;
+      }
+
+      if (v0End == end) {
+         LOG.warn("Bad token: " + path.substring(start, end));
+         return;
+      }
+
+      if (type == WINDOW_STATE || type == PORTLET_MODE) {
+         applyToken(portalURL, portletIds, type, index, urlDecode(path, v1Start, v1End), null);
+         return;
+      }
+
+      // The remaining types deal with parameters, so extract the
+      // parameter name and values.
+      int valStart = v1Start;
+      int valEnd = v1End;
+      if (type == PUBLIC_RENDER_PARAM) {
+         if (v2Start == end || indexOf(path, DELIM_CHAR, v2Start, end) < end) {
+            LOG.warn("Bad PRP Token: " + path.substring(v0Start, end));  
+         } else {
+            valStart = v2Start;
+            valEnd = end;
+         }
+      }
+
+      // count the name and values in order to allocate the value array once
+      int count = 1;
+      for (int ii = valStart; ii < valEnd; ii++) {
+         if (path.charAt(ii) == VALUE_DELIM_CHAR) {
+            count++;
+         }
+      }
+
+      int nameEnd = indexOf(path, VALUE_DELIM_CHAR, valStart, valEnd);
+      String paramName = (count > 1) ? decodeValue(path, valStart, nameEnd) : path.substring(valStart, valEnd);
+      String[] paramValues = EMPTY_VALUES;
+      if (paramName == null) {
+         LOG.warn("Bad parameter token: " + path.substring(valStart, valEnd));
+         paramName = "";
+      } else if (count > 2 || (count == 2 && !isValue(path, nameEnd + 1, valEnd, VALUE_ARRAY_EMPTY))) {
+         paramValues = new String[count - 1];
+         int vs = nameEnd + 1;
+         for (int ii = 0; ii < paramValues.length; ii++) {
+            int ve = indexOf(path, VALUE_DELIM_CHAR, vs, valEnd);
+            paramValues[ii] = decodeValue(path, vs, ve);
+            vs = ve + 1;
+         }
+      }
+
+      if (isTrace) {
+         StringBuilder dbgstr = new StringBuilder();
+         dbgstr.append("Decoding parameter: window index=").append(index)
+               .append(", name/value=").append(path, valStart, valEnd);
+         dbgstr.append(", paramName=").append(paramName);
+         dbgstr.append(", Values length=").append(paramValues.length);
+         dbgstr.append(", paramValues=").append(Arrays.toString(paramValues));
+         LOG.debug(dbgstr.toString());
+      }
+
+      applyToken(portalURL, portletIds, type, index, paramName, paramValues);
+   }
+
+   /**
+    * Processes the state of a URL in the compact format.
+    * 
+    * @see CompactStateCodec
+    */
+   private void parseCompactState(RelativePortalURLImpl portalURL, String state, List<String> portletIds) {
+      try {
+         CompactStateCodec.Reader reader = new CompactStateCodec.Reader(state);
+         int version = reader.readByte();
+         if (version != COMPACT_VERSION) {
+            LOG.warn("Unsupported compact URL state version: " + version);
+            return;
+         }
+         while (reader.hasMore()) {
+            int code = reader.readByte();
+            if (code >= TOKEN_TYPES.length) {
+               throw new IllegalArgumentException("Unknown token code: " + code);
+            }
+            String type = TOKEN_TYPES[code];
+            if (type == PORTLET_ID) {
+               String pid = reader.readString();
+               applyToken(portalURL, portletIds, type, reader.readInt(), pid, null);
+            } else if (type == CACHE_LEVEL || type == RESOURCE_ID || type == AUTHENTICATE) {
+               applyToken(portalURL, portletIds, type, -1, reader.readString(), null);
+            } else if (type == RESOURCE || type == RENDER || type == ACTION || type == AJAX_ACTION
+                  || type == PARTIAL_ACTION || type == BATCH_ACTION) {
+               applyToken(portalURL, portletIds, type, reader.readInt(), null, null);
+            } else if (type == WINDOW_STATE || type == PORTLET_MODE) {
+               int index = reader.readInt();
+               applyToken(portalURL, portletIds, type, index, reader.readString(), null);
+            } else if (type == PUBLIC_RENDER_PARAM) {
+               int index = reader.readInt();
+               reader.readInt(); // the PRP group, which is determined by the mapper
+               String name = reader.readString();
+               applyToken(portalURL, portletIds, type, index, name, reader.readValues());
+            } else if (type == RENDER_PARAM || type == ACTION_PARAM || type == RESOURCE_PARAM) {
+               int index = reader.readInt();
+               String name = reader.readString();
+               applyToken(portalURL, portletIds, type, index, name, reader.readValues());
+            } else {
+               throw new IllegalArgumentException("Unexpected token: " + type);
+            }
+         }
+      } catch (IllegalArgumentException e) {
+         LOG.warn("Bad compact URL state: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Applies a decoded token to the portal URL.
+    * 
+    * @param type    the token type, one of the type constants
+    * @param index   the reference to the portlet ID the token applies to. For
+    *                portlet ID tokens, the reference number of the portlet ID.
+    * @param value   the token value. For parameter tokens, the parameter name.
+    * @param values  the parameter values
+    */
+   private void applyToken(RelativePortalURLImpl portalURL, List<String> portletIds, String type, int index,
+         String value, String[] values) {
+
+      // Store the portlet ID under its reference number.
+      if (type == PORTLET_ID) {
+         if (index < 0 || index > portletIds.size() || value == null) {
+            LOG.warn("Bad portlet ID reference: " + index + ", portlet ID: " + value);
+         } else {
+            portletIds.add(index, value);
+         }
+         return;
+      }
+
+      // Dereference the index to obtain the portlet ID.
+      // The code assumes that the portlet ID table in the URL appears directly after the render path. 
+      String pid = null;
+      if ((index >= 0) && (index < portletIds.size())) {
+         pid = portletIds.get(index);
+      }
+
+      // Cacheability definition: portalURL.setCacheability().
+      if (type == CACHE_LEVEL) {
+         portalURL.setCacheability(value);
+         return;
+      }
+
+      // ResourceID definition: portalURL.setResourceID().
+      if (type == RESOURCE_ID) {
+         portalURL.setResourceID(value);
+         return;
+      }
+
+      // Authenticate definition: portalURL.setAuthenticated().
+      if (type == AUTHENTICATE) {
+         portalURL.setAuthenticated(Boolean.valueOf(value));
+         return;
+      }
+
+      // Resource window definition: portalURL.setResourceWindow().
+      if (type == RESOURCE) {
+         portalURL.setTargetWindow(pid);
+         portalURL.setType(URLType.Resource);
+         return;
+      }
+
+      // Render window definition: portalURL.setResourceWindow().
+      if (type == RENDER) {
+         portalURL.setTargetWindow(pid);
+         portalURL.setType(URLType.Render);
+         return;
+      }
+
+      // Action window definition: portalURL.setActionWindow().
+      if (type == ACTION) {
+         portalURL.setTargetWindow(pid);
+         portalURL.setType(URLType.Action);
+         return;
+      }
+
+      // Ajax Action window definition: portalURL.setActionWindow().
+      if (type == AJAX_ACTION) {
+         portalURL.setTargetWindow(pid);
+         portalURL.setType(URLType.AjaxAction);
+         return;
+      }
+
+      // Partial Action window definition: portalURL.setActionWindow().
+      if (type == PARTIAL_ACTION) {
+         portalURL.setTargetWindow(pid);
+         portalURL.setType(URLType.PartialAction);
+         return;
+      }
+
+      // Batch Action window definition: portalURL.setActionWindow().
+      if (type == BATCH_ACTION) {
+         portalURL.setTargetWindow(pid);
+         portalURL.setType(URLType.BatchAction);
+         return;
+      }
+
+      // Window state definition: portalURL.setWindowState().
+      if (type == WINDOW_STATE) {
+         portalURL.setWindowState(pid, new WindowState(value));
+         return;
+      }
+
+      // Portlet mode definition: portalURL.setPortletMode().
+      if (type == PORTLET_MODE) {
+         portalURL.setPortletMode(pid, new PortletMode(value));
+         return;
+      }
+
+      // Portal URL parameter: portalURL.addParameter().
+      if (type == RENDER_PARAM) {
+         portalURL.addParameter(new PortalURLParameter(pid, value, values));
+         return;
+      }
+
+      // Portal URL parameter: portalURL.addParameter().
+      if (type == ACTION_PARAM) {
+         portalURL.addParameter(new PortalURLParameter(pid, value, values, 
+               PortalURLParameter.PARAM_TYPE_ACTION));
+         return;
+      }
+
+      // Portal URL parameter: portalURL.addParameter().
+      if (type == RESOURCE_PARAM) {
+         portalURL.addParameter(new PortalURLParameter(pid, value, values,
+               PortalURLParameter.PARAM_TYPE_RESOURCE));
+         return;
+      }
+
+      //set public parameter in portalURL
+      if (type == PUBLIC_RENDER_PARAM) {
+         PublicRenderParameterMapper mapper = portalURL.getPublicRenderParameterMapper();
+         int prpGroup = mapper.getIndex(pid, value);
+         if (prpGroup >= 0) {
+            mapper.setValues(prpGroup, values);
+         } else {
+            StringBuilder sb = new StringBuilder("Could not find public render parameter group for portlet ID=");
+            sb.append(pid).append(", parameter name=").append(value);
+            LOG.warn(sb.toString());
+         }
+      }
+   }
+
+   /**
+    * Returns the type of the token starting at the given position.
+    * 
+    * @return  the type constant, which can be compared by identity, or
+    *          <code>null</code> if the type is unknown.
+    */
+   private static String getTokenType(String path, int start) {
+      for (String type : TOKEN_TYPES) {
+         if (path.regionMatches(start, type, 0, 2)) {
+            return type;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Returns <code>true</code> if the given range of the path equals the value.
+    */
+   private static boolean isValue(String path, int start, int end, String value) {
+      return (end - start == value.length()) && path.startsWith(value, start);
+   }
+
+   /**
+    * Returns the position of the character within the given range of the
+    * path, or the end of the range if the character is not found.
+    */
+   private static int indexOf(String path, char c, int start, int end) {
+      for (int ii = start; ii < end; ii++) {
+         if (path.charAt(ii) == c) {
+            return ii;
+         }
+      }
+      return end;
+   }
+
+   /**
+    * Parses the given range of the path as a non-negative integer.
+    * @return the integer, or -1 if the range does not contain a valid number.
+    */
+   private static int parseIndex(String path, int start, int end) {
+      if (start >= end || end - start > 9) {
+         return -1;
+      }
+      int value = 0;
+      for (int ii = start; ii < end; ii++) {
+         char c = path.charAt(ii);
+         if (c < '0' || c > '9') {
+            return -1;
+         }
+         value = value * 10 + (c - '0');
+      }
+      return value;
+   }
+
+   /**
+    * Decodes a single encoded parameter name or value.
+    * @return the decoded string, or <code>null</code> for the null value marker.
+    */
+   private String decodeValue(String path, int start, int end) {
+      if (isValue(path, start, end, VALUE_NULL)) {
+         return null;
+      }
+      return urlDecode(path, start, end);
+   }
+
+   /**
+    * URL decodes the given range of the path. The decoder is only invoked if
+    * the range contains escaped characters.
+    */
+   private String urlDecode(String path, int start, int end) {
+      for (int ii = start; ii < end; ii++) {
+         char c = path.charAt(ii);
+         if (c == '%' || c == '+') {
+            return urlDecode(path.substring(start, end));
+         }
+      }
+      return path.substring(start, end);
+   }
+
    /**
     * This parser is completely married to the URL impl anyway, so let it
     * blow up if someone tries to use a different URL impl.
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.url.impl;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Bounded store for the state of portal URLs, used by the
+ * {@link PortalURLParserImpl} to replace the state in a URL by a short key.
+ * <p>
+ * The key is derived from the hash of the state, so the URLs of the same state
+ * share a single entry. The store is either global or held in the HTTP
+ * session. In both cases the least recently used entries are discarded once
+ * the maximum number of entries has been reached; the URLs referring to them
+ * then lose their state.
+ * <p>
+ * In session scope, the store does not create a session. States of requests
+ * without a session are not stored, and the URL carries the state itself.
+ * The entries of a session are locked on their own, so that the URLs of
+ * different sessions are handled concurrently.
+ */
+public class PortalURLStateStore {
+
+   /** The session attribute holding the entries in session scope. */
+   static final String SESSION_ATTRIBUTE = PortalURLStateStore.class.getName();
+
+   /** Number of hash bytes used for the key. */
+   private static final int KEY_BYTES = 12;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final int maxEntries;
+
+   private final boolean sessionScoped;
+
+   /** The entries in global scope, guarded by itself. */
+   private final StateMap globalEntries;
+
+   /**
+    * @param maxEntries     the maximum number of states held by the store, or
+    *                       per session in session scope.
+    * @param sessionScoped  <code>true</code> if the states are held in the
+    *                       session of the user, <code>false</code> if they are
+    *                       shared by all users.
+    */
+   public PortalURLStateStore(int maxEntries, boolean sessionScoped) {
+      this.maxEntries = maxEntries;
+      this.sessionScoped = sessionScoped;
+      this.globalEntries = sessionScoped ? null : new StateMap(maxEntries);
+   }
+
+   /**
+    * Stores a state.
+    *
+    * @param request  the request the URL is generated for
+    * @param state    the state
+    * @return  the key of the state, consisting of URL safe characters, or
+    *          <code>null</code> if the store is session scoped and the
+    *          request has no session
+    */
+   public String put(HttpServletRequest request, String state) {
+      String key = createKey(state);
+      if (!sessionScoped) {
+         synchronized (globalEntries) {
+            globalEntries.put(key, state);
+         }
+         return key;
+      }
+
+      HttpSession session = request.getSession(false);
+      if (session == null) {
+         return null;
+      }
+      StateMap entries = (StateMap) session.getAttribute(SESSION_ATTRIBUTE);
+      if (entries == null) {
+         // the session is the mutex for creating its entries
+         synchronized (session) {
+            entries = (StateMap) session.getAttribute(SESSION_ATTRIBUTE);
+            if (entries == null) {
+               entries = new StateMap(maxEntries);
+               entries.put(key, state);
+               session.setAttribute(SESSION_ATTRIBUTE, entries);
+               return key;
+            }
+         }
+      }
+      boolean added;
+      synchronized (entries) {
+         added = (entries.put(key, state) == null);
+      }
+      if (added) {
+         // set the attribute again, so that the change is replicated
+         session.setAttribute(SESSION_ATTRIBUTE, entries);
+      }
+      return key;
+   }
+
+   /**
+    * Returns a stored state.
+    *
+    * @param request  the request containing the key
+    * @param key      the key returned by {@link #put}
+    * @return  the state, or <code>null</code> if the state has been discarded
+    */
+   public String get(HttpServletRequest request, String key) {
+      if (!sessionScoped) {
+         synchronized (globalEntries) {
+            return globalEntries.get(key);
+         }
+      }
+
+      HttpSession session = request.getSession(false);
+      if (session == null) {
+         return null;
+      }
+      StateMap entries = (StateMap) session.getAttribute(SESSION_ATTRIBUTE);
+      if (entries == null) {
+         return null;
+      }
+      synchronized (entries) {
+         return entries.get(key);
+      }
+   }
+
+   public int getMaxEntries() {
+      return maxEntries;
+   }
+
+   public boolean isSessionScoped() {
+      return sessionScoped;
+   }
+
+   @Override
+   public String toString() {
+      return "PortalURLStateStore[maxEntries=" + maxEntries + ", sessionScoped=" + sessionScoped + "]";
+   }
+
+   // Private Methods ---------------------------------------------------------
+
+   /**
+    * Returns the base64url representation of the first bytes of the SHA-256
+    * hash of the state.
+    */
+   private static String createKey(String state) {
+      byte[] hash;
+      try {
+         hash = MessageDigest.getInstance("SHA-256").digest(state.getBytes(UTF8));
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("SHA-256 is not supported.", e);
+      }
+      CompactStateCodec.Writer out = new CompactStateCodec.Writer();
+      for (int ii = 0; ii < KEY_BYTES; ii++) {
+         out.writeByte(hash[ii]);
+      }
+      return out.toText();
+   }
+
+   /**
+    * The stored states in access order, guarded by itself.
+    */
+   private static class StateMap extends LinkedHashMap<String, String> implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private final int maxEntries;
+
+      StateMap(int maxEntries) {
+         super(16, 0.75f, true);
+         this.maxEntries = maxEntries;
+      }
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+         return size() > maxEntries;
+      }
+
+      /**
+       * Serializes a copy, as the session may be replicated while another
+       * request of the session changes the entries.
+       */
+      private Object writeReplace() {
+         synchronized (this) {
+            StateMap copy = new StateMap(maxEntries);
+            copy.putAll(this);
+            return copy;
+         }
+      }
+   }
+}
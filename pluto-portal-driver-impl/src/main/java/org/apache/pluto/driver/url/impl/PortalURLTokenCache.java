@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.url.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the encoded URL segments of a request, so that the URLs generated
+ * while the request is processed only encode the values that differ from the
+ * URLs generated before.
+ * <p>
+ * A cache is created for each parsed portal URL and shared by its clones. The
+ * segments are the invariant URL prefix, consisting of the servlet path,
+ * render path and portlet ID table, and the path info tokens. A segment is
+ * identified by all values it is generated from, so a cached segment never
+ * differs from the one that would be generated. The number of segments is
+ * bounded; once the limit has been reached, further segments are not cached.
+ */
+final class PortalURLTokenCache {
+
+   /** The maximum number of segments held for a request. */
+   static final int MAX_ENTRIES = 1024;
+
+   private final ConcurrentMap<Key, String> segments = new ConcurrentHashMap<Key, String>();
+
+   String get(Key key) {
+      return segments.get(key);
+   }
+
+   void put(Key key, String segment) {
+      if (segments.size() < MAX_ENTRIES) {
+         segments.put(key.copy(), segment);
+      }
+   }
+
+   int size() {
+      return segments.size();
+   }
+
+   /**
+    * The values a segment is generated from.
+    */
+   static final class Key {
+      private final String type;
+      private final int index;
+      private final int group;
+      private final String name;
+      private final String[] values;
+      private final int hash;
+
+      /**
+       * @param type    the token type, or <code>null</code> for the prefix
+       * @param index   the portlet ID reference, or -1
+       * @param group   the public render parameter group, or -1
+       * @param name    the token value or parameter name
+       * @param values  the parameter values, or <code>null</code>
+       */
+      Key(String type, int index, int group, String name, String[] values) {
+         this.type = type;
+         this.index = index;
+         this.group = group;
+         this.name = name;
+         this.values = values;
+         int hc = (type == null) ? 0 : type.hashCode();
+         hc = 31 * hc + index;
+         hc = 31 * hc + group;
+         hc = 31 * hc + ((name == null) ? 0 : name.hashCode());
+         this.hash = 31 * hc + Arrays.hashCode(values);
+      }
+
+      /**
+       * Returns a key that does not share the values array, which may be
+       * modified after the segment has been generated.
+       */
+      Key copy() {
+         return (values == null) ? this : new Key(type, index, group, name, values.clone());
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) {
+            return false;
+         }
+         Key key = (Key) o;
+         return hash == key.hash && index == key.index && group == key.group && equals(type, key.type)
+               && equals(name, key.name) && Arrays.equals(values, key.values);
+      }
+
+      private static boolean equals(String s1, String s2) {
+         return (s1 == null) ? s2 == null : s1.equals(s2);
+      }
+   }
+}
@@ -36,6 +36,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.apache.pluto.container.PortletRequestContext;
 import org.apache.pluto.driver.AttributeKeys;
 import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.core.PageEventBroadcaster;
 import org.apache.pluto.driver.services.portal.PageConfig;
 import org.apache.pluto.driver.services.portal.PublicRenderParameterMapper;
 import org.apache.pluto.driver.url.PortalURL;
@@ -88,6 +89,9 @@ public class RelativePortalURLImpl implements PortalURL {
    // marks whether the servlet request parameters have been processed.
    boolean                             reqParamsProcessed = false;
 
+   // The encoded URL segments, shared by the clones of the URL
+   PortalURLTokenCache                 tokenCache;
+
    /** The window states: key is the window ID, value is WindowState. */
    private Map<String, WindowState>    windowStates       = new HashMap<String, WindowState>();
 
@@ -123,6 +127,7 @@ public class RelativePortalURLImpl implements PortalURL {
       servletPath = buffer.toString();
       this.urlParser = urlParser;
       this.servletRequest = req;
+      this.tokenCache = new PortalURLTokenCache();
       this.cloneId = (++cloneCtr) + 10000;
       if (isDebug) {
          LOG.debug("Constructed URL, clone ID: " + cloneId);
@@ -166,7 +171,7 @@ public class RelativePortalURLImpl implements PortalURL {
 
             String ptype = PortalURLParameter.PARAM_TYPE_RENDER;
             if (type == URLType.Action || type == URLType.AjaxAction
-                  || type == URLType.PartialAction) {
+                  || type == URLType.PartialAction || type == URLType.BatchAction) {
                ptype = PortalURLParameter.PARAM_TYPE_ACTION;
             } else if (type == URLType.Resource) {
                ptype = PortalURLParameter.PARAM_TYPE_RESOURCE;
@@ -177,6 +182,11 @@ public class RelativePortalURLImpl implements PortalURL {
 
             for (String parm : parms.keySet()) {
 
+               // the page ID of a partial action is meant for the portal
+               if (type == URLType.PartialAction && PageEventBroadcaster.PAGE_PARAMETER.equals(parm)) {
+                  continue;
+               }
+
                // If it's a render request & target window is set, the parameter
                // might be public
                if (type == URLType.Render && targetWindow != null) {
@@ -366,6 +376,7 @@ public class RelativePortalURLImpl implements PortalURL {
       portalURL.urlParser = urlParser;
       portalURL.servletRequest = servletRequest;
       portalURL.reqParamsProcessed = reqParamsProcessed;
+      portalURL.tokenCache = tokenCache;
 
       portalURL.windowStates = new HashMap<String, WindowState>(windowStates);
       portalURL.portletModes = new HashMap<String, PortletMode>(portletModes);
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.PublicRenderParameter;
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterMapper;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterQNameMapper;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterService;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.impl.PortalURLParserImpl;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+
+/**
+ * Tests merging the window contexts used to process portlet windows
+ * concurrently into the {@link PortalRequestContext} of the request.
+ */
+public class PortalRequestContextTest extends MockObjectTestCase {
+
+   private static final String ALPHA = "/app.alpha!A";
+
+   private static final String BETA = "/app.beta!B";
+
+   private static final String PAGE = "/pluto/portal/page";
+
+   private static final String STATE = "/__pd%2Fapp.alpha%21A;0/__pd%2Fapp.beta%21B;1"
+         + "/__rp0;text:a/__rp1;text:b/__pm1;edit";
+
+   private ServletContext servletContext;
+
+   private PortalRequestContext context;
+
+   public void setUp() throws Exception {
+      super.setUp();
+      servletContext = servletContext();
+      context = new PortalRequestContext(servletContext, request(PAGE + STATE),
+            (HttpServletResponse) mock(HttpServletResponse.class).proxy());
+   }
+
+   public void testWindowStateIsMerged() {
+      PortalRequestContext alpha = windowContext();
+      PortalURL alphaURL = alpha.getRequestedPortalURL();
+      alphaURL.setParameter(new PortalURLParameter(ALPHA, "text", new String[] {"x"}));
+      alphaURL.setParameter(new PortalURLParameter(ALPHA, "other", new String[] {"y"}));
+      alphaURL.setPortletMode(ALPHA, PortletMode.HELP);
+      alphaURL.setWindowState(ALPHA, WindowState.MAXIMIZED);
+
+      context.mergeWindowContext(alpha, ALPHA);
+
+      PortalURL url = context.getRequestedPortalURL();
+      assertEquals("[other=y, text=x]", parameters(url, ALPHA));
+      assertEquals("[text=b]", parameters(url, BETA));
+      assertEquals(PortletMode.HELP, url.getPortletModes().get(ALPHA));
+      assertEquals(WindowState.MAXIMIZED, url.getWindowStates().get(ALPHA));
+      assertEquals(PortletMode.EDIT, url.getPortletModes().get(BETA));
+   }
+
+   public void testRemovedRenderParameterIsMerged() {
+      PortalRequestContext alpha = windowContext();
+      PortalURL alphaURL = alpha.getRequestedPortalURL();
+      for (PortalURLParameter pup : alphaURL.getParameters().toArray(new PortalURLParameter[0])) {
+         if (pup.getWindowId().equals(ALPHA)) {
+            alphaURL.removeParameter(pup);
+         }
+      }
+
+      context.mergeWindowContext(alpha, ALPHA);
+
+      assertEquals("[]", parameters(context.getRequestedPortalURL(), ALPHA));
+      assertEquals("[text=b]", parameters(context.getRequestedPortalURL(), BETA));
+   }
+
+   public void testOnlyChangesOfTheWindowAreMerged() {
+      // the window context of alpha also holds the state of beta
+      PortalRequestContext alpha = windowContext();
+      PortalRequestContext beta = windowContext();
+      alpha.getRequestedPortalURL().setParameter(new PortalURLParameter(BETA, "text", new String[] {"stale"}));
+      beta.getRequestedPortalURL().setParameter(new PortalURLParameter(BETA, "text", new String[] {"y"}));
+
+      context.mergeWindowContext(alpha, ALPHA);
+      context.mergeWindowContext(beta, BETA);
+
+      assertEquals("[text=a]", parameters(context.getRequestedPortalURL(), ALPHA));
+      assertEquals("[text=y]", parameters(context.getRequestedPortalURL(), BETA));
+   }
+
+   public void testPublicRenderParametersAreMergedInPageOrder() {
+      PortalRequestContext alpha = windowContext();
+      PortalRequestContext beta = windowContext();
+
+      // beta is processed first, the result follows the page order
+      mapper(beta).setValues(0, new String[] {"blue"});
+      mapper(beta).setRemoved(0, false);
+      mapper(alpha).setValues(0, new String[] {"red"});
+      mapper(alpha).setRemoved(0, false);
+
+      context.mergeWindowContext(alpha, ALPHA);
+      context.mergeWindowContext(beta, BETA);
+
+      assertEquals("[blue]", Arrays.toString(mapper(context).getValues(0)));
+      assertFalse(mapper(context).getRemoved(0));
+   }
+
+   public void testUnchangedPublicRenderParameterIsNotMerged() {
+      mapper(context).setValues(0, new String[] {"red"});
+      mapper(context).setRemoved(0, false);
+      PortalRequestContext alpha = windowContext();
+      PortalRequestContext beta = windowContext();
+
+      // alpha changes the parameter, beta leaves the value it was created with
+      mapper(alpha).setValues(0, new String[] {"green"});
+
+      context.mergeWindowContext(alpha, ALPHA);
+      context.mergeWindowContext(beta, BETA);
+
+      assertEquals("[green]", Arrays.toString(mapper(context).getValues(0)));
+   }
+
+   public void testRemovedPublicRenderParameterIsMerged() {
+      mapper(context).setValues(0, new String[] {"red"});
+      mapper(context).setRemoved(0, false);
+      PortalRequestContext beta = windowContext();
+      mapper(beta).setRemoved(0, true);
+
+      context.mergeWindowContext(beta, BETA);
+
+      assertTrue(mapper(context).getRemoved(0));
+   }
+
+   private PortalRequestContext windowContext() {
+      return context.createWindowContext(request(PAGE + STATE),
+            (HttpServletResponse) mock(HttpServletResponse.class).proxy());
+   }
+
+   private static PublicRenderParameterMapper mapper(PortalRequestContext context) {
+      return context.getRequestedPortalURL().getPublicRenderParameterMapper();
+   }
+
+   /**
+    * Returns the render parameters of a window, sorted by name.
+    */
+   private static String parameters(PortalURL url, String windowId) {
+      List<String> parameters = new ArrayList<String>();
+      for (PortalURLParameter pup : url.getParameters()) {
+         if (pup.getWindowId().equals(windowId)) {
+            parameters.add(pup.getName() + "=" + Arrays.toString(pup.getValues()).replaceAll("[\\[\\]]", ""));
+         }
+      }
+      Collections.sort(parameters);
+      return parameters.toString();
+   }
+
+   private ServletContext servletContext() {
+      PageConfig pageConfig = new PageConfig();
+      pageConfig.setName("page");
+      pageConfig.setPortletIds(Arrays.asList(ALPHA, BETA));
+
+      Mock mockPrp = mock(PublicRenderParameter.class);
+      mockPrp.stubs().method("getIdentifier").will(returnValue("color"));
+      mockPrp.stubs().method("getQName").will(returnValue(new QName("urn:test", "color")));
+      Mock mockApp = mock(PortletApplicationDefinition.class);
+      mockApp.stubs().method("getVersion").will(returnValue("3.0"));
+      mockApp.stubs().method("getName").will(returnValue("app"));
+      mockApp.stubs().method("getPublicRenderParameters").will(returnValue(Arrays.asList(mockPrp.proxy())));
+      Mock mockPortlet = mock(PortletDefinition.class);
+      mockPortlet.stubs().method("getPortletName").will(returnValue("portlet"));
+      mockPortlet.stubs().method("getSupportedPublicRenderParameters").will(returnValue(Arrays.asList("color")));
+      Mock mockRegistry = mock(PortletRegistryService.class);
+      mockRegistry.stubs().method("getPortletApplication").will(returnValue(mockApp.proxy()));
+      mockRegistry.stubs().method("getPortlet").will(returnValue(mockPortlet.proxy()));
+      PortletRegistryService registry = (PortletRegistryService) mockRegistry.proxy();
+
+      Mock mockPrpService = mock(PublicRenderParameterService.class);
+      mockPrpService.stubs().method("getPRPMapper")
+            .will(returnValue(new PublicRenderParameterQNameMapper(pageConfig, registry)));
+      Mock mockConfig = mock(DriverConfiguration.class);
+      mockConfig.stubs().method("getPublicRenderParameterService").will(returnValue(mockPrpService.proxy()));
+      mockConfig.stubs().method("getPageConfig").will(returnValue(pageConfig));
+      mockConfig.stubs().method("getPortletRegistryService").will(returnValue(registry));
+      mockConfig.stubs().method("getPortalUrlParser").will(returnValue(PortalURLParserImpl.getParser()));
+      Mock mockContext = mock(ServletContext.class);
+      mockContext.stubs().method("getAttribute").with(eq(AttributeKeys.DRIVER_CONFIG))
+            .will(returnValue(mockConfig.proxy()));
+      return (ServletContext) mockContext.proxy();
+   }
+
+   private HttpServletRequest request(String uri) {
+      Mock mockRequest = mock(HttpServletRequest.class);
+      mockRequest.stubs().method("getRequestURI").will(returnValue(uri));
+      mockRequest.stubs().method("getContextPath").will(returnValue("/pluto"));
+      mockRequest.stubs().method("getServletPath").will(returnValue("/portal"));
+      mockRequest.stubs().method("getPathInfo").will(returnValue(uri.substring("/pluto/portal".length())));
+      mockRequest.stubs().method("getScheme").will(returnValue("http"));
+      mockRequest.stubs().method("getServerName").will(returnValue("localhost"));
+      mockRequest.stubs().method("getServerPort").will(returnValue(8080));
+      mockRequest.stubs().method("getServletContext").will(returnValue(servletContext));
+      mockRequest.stubs().method("setCharacterEncoding");
+      mockRequest.stubs().method("setAttribute");
+      mockRequest.stubs().method("getParameterMap").will(returnValue(Collections.emptyMap()));
+      return (HttpServletRequest) mockRequest.proxy();
+   }
+}
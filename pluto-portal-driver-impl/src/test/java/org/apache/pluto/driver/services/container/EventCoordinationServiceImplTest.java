@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.container;
+
+import java.io.Serializable;
+
+import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.PortletContainer;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortletContextService;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.impl.EventDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.PortletApplicationDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.PortletDefinitionImpl;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+
+/**
+ * Tests delivering events fired with a value object to a single portlet
+ * window.
+ */
+public class EventCoordinationServiceImplTest extends MockObjectTestCase {
+
+   private static final QName NAME = new QName("urn:test", "color");
+
+   private EventCoordinationServiceImpl service;
+   private Mock registry;
+   private Mock container;
+   private PortletWindow window;
+   private HttpServletRequest request;
+   private HttpServletResponse response;
+
+   @Override
+   protected void setUp() throws Exception {
+      super.setUp();
+      registry = mock(PortletRegistryService.class);
+      registry.stubs().method("addPortletRegistryListener");
+      Mock contextService = mock(PortletContextService.class);
+      contextService.stubs().method("getClassLoader").will(returnValue(getClass().getClassLoader()));
+      service = new EventCoordinationServiceImpl((PortletRegistryService) registry.proxy(),
+            (PortletContextService) contextService.proxy());
+
+      // the target application declares the event with a String value
+      PortletApplicationDefinition app = new PortletApplicationDefinitionImpl();
+      app.setName("/target");
+      app.setContextPath("/target");
+      EventDefinition color = new EventDefinitionImpl(NAME);
+      color.setValueType(String.class.getName());
+      app.addEventDefinition(color);
+      PortletDefinition portlet = new PortletDefinitionImpl("portlet", app);
+      app.addPortlet(portlet);
+
+      Mock mockWindow = mock(PortletWindow.class);
+      mockWindow.stubs().method("getPortletDefinition").will(returnValue(portlet));
+      window = (PortletWindow) mockWindow.proxy();
+      container = mock(PortletContainer.class);
+      request = (HttpServletRequest) mock(HttpServletRequest.class).proxy();
+      response = (HttpServletResponse) mock(HttpServletResponse.class).proxy();
+   }
+
+   public void testSharedValueIsPassedByReference() {
+      String value = "red";
+      Event event = new ObjectValueEvent(NAME, value, "/target");
+      container.expects(once()).method("doEvent").with(same(window), same(request), same(response), same(event));
+      service.doEvent((PortletContainer) container.proxy(), window, event, request, response);
+   }
+
+   public void testUnmarshallableValueIsDropped() {
+      // the value type of the source application cannot be bound by JAXB
+      Event event = new ObjectValueEvent(NAME, new Unmarshallable(), "/source");
+      container.expects(never()).method("doEvent");
+      service.doEvent((PortletContainer) container.proxy(), window, event, request, response);
+   }
+
+   public void testDestroyRemovesRegistryListeners() {
+      registry.expects(once()).method("removePortletRegistryListener").with(isA(EventRoutingIndex.class));
+      registry.expects(once()).method("removePortletRegistryListener")
+            .with(same(EventPayloadMarshaller.getInstance()));
+      service.destroy();
+   }
+
+   /** An event value with a property JAXB cannot bind, as it is an interface. */
+   public static class Unmarshallable implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private Runnable task;
+
+      public Runnable getTask() {
+         return task;
+      }
+
+      public void setTask(Runnable task) {
+         this.task = task;
+      }
+   }
+}
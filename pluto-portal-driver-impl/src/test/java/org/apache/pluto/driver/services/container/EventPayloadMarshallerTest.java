@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.container;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.impl.PortletApplicationDefinitionImpl;
+
+/**
+ * Tests that the {@link EventPayloadMarshaller} marshals event values to XML
+ * and back, before and after its cached contexts are discarded, and copies
+ * the mutable ones.
+ */
+public class EventPayloadMarshallerTest extends TestCase {
+
+   private static final QName NAME = new QName("urn:test", "color");
+
+   private EventPayloadMarshaller marshaller;
+
+   @Override
+   protected void setUp() throws Exception {
+      super.setUp();
+      marshaller = new EventPayloadMarshaller();
+   }
+
+   private String roundTrip(String value) throws Exception {
+      StringWriter out = new StringWriter();
+      marshaller.marshal("/app", new JAXBElement<String>(NAME, String.class, value), out);
+      JAXBElement<String> element = marshaller.unmarshal("/app", out.toString(), String.class);
+      assertEquals(NAME, element.getName());
+      return element.getValue();
+   }
+
+   public void testRoundTrip() throws Exception {
+      assertEquals("red", roundTrip("red"));
+      // the second time, the context and the pooled (un)marshallers are reused
+      assertEquals("green", roundTrip("green"));
+   }
+
+   public void testRemovedApplication() throws Exception {
+      assertEquals("red", roundTrip("red"));
+
+      PortletApplicationDefinition app = new PortletApplicationDefinitionImpl();
+      app.setName("/app");
+      PortletRegistryEvent event = new PortletRegistryEvent();
+      event.setPortletApplication(app);
+      marshaller.portletApplicationRemoved(event);
+
+      assertEquals("blue", roundTrip("blue"));
+   }
+
+   public void testImmutableValues() {
+      assertTrue(EventPayloadMarshaller.isImmutable("red"));
+      assertTrue(EventPayloadMarshaller.isImmutable(Integer.valueOf(42)));
+      assertTrue(EventPayloadMarshaller.isImmutable(NAME));
+      assertFalse(EventPayloadMarshaller.isImmutable(new Date()));
+      assertFalse(EventPayloadMarshaller.isImmutable(new ArrayList<String>()));
+   }
+
+   public void testCopy() throws Exception {
+      ArrayList<Date> value = new ArrayList<Date>();
+      value.add(new Date(0L));
+      Object copy = marshaller.copy(value, getClass().getClassLoader());
+      assertEquals(value, copy);
+      assertNotSame(value, copy);
+      assertNotSame(value.get(0), ((ArrayList<?>) copy).get(0));
+   }
+}
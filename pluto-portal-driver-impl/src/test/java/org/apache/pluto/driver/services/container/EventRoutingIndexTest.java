@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.container;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.impl.EventDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.EventDefinitionReferenceImpl;
+import org.apache.pluto.container.om.portlet.impl.PortletApplicationDefinitionImpl;
+import org.apache.pluto.container.om.portlet.impl.PortletDefinitionImpl;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+
+/**
+ * Tests that the {@link EventRoutingIndex} routes events to the portlets as
+ * the processing events of their deployment descriptors declare.
+ */
+public class EventRoutingIndexTest extends MockObjectTestCase {
+
+   private static final String NS = "urn:test";
+
+   private Mock registry;
+   private EventRoutingIndex index;
+   private PortletApplicationDefinition app;
+
+   @Override
+   protected void setUp() throws Exception {
+      super.setUp();
+      app = new PortletApplicationDefinitionImpl();
+      app.setName("/app");
+      app.setContextPath("/app");
+      app.setDefaultNamespace(NS);
+
+      EventDefinition color = new EventDefinitionImpl(new QName(NS, "color"));
+      color.addAlias(new QName("urn:other", "colour"));
+      app.addEventDefinition(color);
+
+      portlet("exact", new QName(NS, "color"));
+      portlet("alias", new QName("urn:other", "colour"));
+      portlet("local", new QName("", "color"));
+      portlet("dot", new QName(NS, "color."));
+      portlet("star", new QName(NS, "c*"));
+      portlet("other", new QName(NS, "size"));
+
+      registry = mock(PortletRegistryService.class);
+      index = new EventRoutingIndex((PortletRegistryService) registry.proxy());
+   }
+
+   private void portlet(String name, QName processingEvent) {
+      PortletDefinition portlet = new PortletDefinitionImpl(name, app);
+      portlet.addSupportedProcessingEvent(new EventDefinitionReferenceImpl(processingEvent));
+      app.addPortlet(portlet);
+   }
+
+   public void testRoutesEventsToTheProcessingPortlets() {
+      registry.expects(once()).method("getPortletApplication").with(eq("/app")).will(returnValue(app));
+      assertEquals(new HashSet<String>(Arrays.asList("exact", "alias", "local", "star")),
+            index.getPortletNames("/app", new QName(NS, "color")));
+      assertEquals(new HashSet<String>(Arrays.asList("dot", "star")),
+            index.getPortletNames("/app", new QName(NS, "color.dark")));
+      assertEquals(Collections.singleton("other"), index.getPortletNames("/app", new QName(NS, "size")));
+      assertEquals(Collections.singleton("star"), index.getPortletNames("/app", new QName(NS, "cut")));
+      assertTrue(index.getPortletNames("/app", new QName("urn:other", "color")).isEmpty());
+   }
+
+   public void testRegistrationDiscardsTheRoutesOfTheApplication() {
+      registry.expects(once()).method("getPortletApplication").with(eq("/app")).will(returnValue(app));
+      assertEquals(Collections.singleton("other"), index.getPortletNames("/app", new QName(NS, "size")));
+
+      portlet("added", new QName(NS, "size"));
+      assertEquals(Collections.singleton("other"), index.getPortletNames("/app", new QName(NS, "size")));
+
+      PortletRegistryEvent event = new PortletRegistryEvent();
+      event.setPortletApplication(app);
+      index.portletApplicationRegistered(event);
+
+      registry.expects(once()).method("getPortletApplication").with(eq("/app")).will(returnValue(app));
+      assertEquals(new HashSet<String>(Arrays.asList("other", "added")),
+            index.getPortletNames("/app", new QName(NS, "size")));
+   }
+
+   public void testUnknownApplicationHasNoRoutes() {
+      registry.expects(once()).method("getPortletApplication").with(eq("/none"))
+            .will(throwException(new PortletContainerException("unknown")));
+      assertTrue(index.getPortletNames("/none", new QName(NS, "color")).isEmpty());
+      assertTrue(index.getPortletNames("/none", new QName(NS, "color")).isEmpty());
+   }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.url.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.portlet.PortletMode;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.PublicRenderParameter;
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterQNameMapper;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterService;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURL.URLType;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.PortalURLParser;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+
+/**
+ * Tests that the compact URL format and the stored URL state carry the same
+ * state as the path format of the {@link PortalURLParserImpl}, and that URLs
+ * generated from cached tokens reflect the state of the URL.
+ */
+public class PortalURLParserImplTest extends MockObjectTestCase {
+
+   private static final String PAGE = "/pluto/portal/page";
+
+   private static final String STATE = "/__pd%2Fapp.alpha%21A;0/__pd%2Fapp.beta%21B;1/__ac1"
+         + "/__pm1;edit/__ws0;maximized"
+         + "/__rp0;text:a+b/__av1;op:1/__rp1;text:a+b:,:%C3%A4%3A%3B%2F/__rp1;empty:@"
+         + "/__sp0;0;color:red:%2C";
+
+   private final PortalURLParser pathParser = PortalURLParserImpl.getParser();
+   private final PortalURLParser compactParser = PortalURLParserImpl.getCompactParser();
+
+   private List<String> portletIds = Arrays.asList("/app.alpha!A", "/app.beta!B");
+
+   private final Map<String, Object> sessionAttributes = new HashMap<String, Object>();
+   private boolean hasSession = true;
+   private int sessionWrites;
+
+   public void testPathFormatIsUnchanged() {
+      PortalURL url = pathParser.parse(request(PAGE + STATE));
+      assertEquals(URLType.Action, url.getType());
+      assertEquals("/app.beta!B", url.getTargetWindow());
+      assertEquals(PAGE + STATE, pathParser.toString(url));
+   }
+
+   public void testCachedTokensFollowTheState() {
+      RelativePortalURLImpl url = (RelativePortalURLImpl) pathParser.parse(request(PAGE + STATE));
+      assertEquals(PAGE + STATE, pathParser.toString(url));
+      assertTrue(url.tokenCache.size() > 0);
+      assertEquals(PAGE + STATE, pathParser.toString(url.clone()));
+
+      PortalURL changed = url.clone();
+      changed.setPortletMode("/app.beta!B", PortletMode.VIEW);
+      String[] values = {"x"};
+      changed.setParameter(new PortalURLParameter("/app.alpha!A", "text", values));
+      String expected = PAGE + STATE.replace("/__pm1;edit", "/__pm1;view").replace("/__rp0;text:a+b", "/__rp0;text:x");
+      assertEquals(expected, pathParser.toString(changed));
+
+      // the cached token must not depend on the values array of the parameter
+      values[0] = "y";
+      assertEquals(expected.replace("text:x", "text:y"), pathParser.toString(changed));
+      assertEquals(PAGE + STATE, pathParser.toString(url));
+   }
+
+   public void testCompactRoundTrip() {
+      PortalURL url = pathParser.parse(request(PAGE + STATE));
+      String compact = compactParser.toString(url);
+      assertTrue(compact, compact.startsWith(PAGE + "/__cs"));
+      assertTrue(compact, compact.length() < (PAGE + STATE).length());
+
+      PortalURL decoded = pathParser.parse(request(compact));
+      assertEquals(PAGE + STATE, pathParser.toString(decoded));
+      assertEquals(compact, compactParser.toString(decoded));
+   }
+
+   public void testCompactParserAcceptsPathFormat() {
+      PortalURL url = compactParser.parse(request(PAGE + STATE));
+      assertEquals(PAGE + STATE, pathParser.toString(url));
+   }
+
+   public void testResourceRoundTrip() {
+      String state = "/__pd%2Fapp.alpha%21A;0/__pd%2Fapp.beta%21B;1/__rs0/__clcacheLevelPage/__rires+1"
+            + "/__pm0;view/__rv0;id:42";
+      PortalURL url = pathParser.parse(request(PAGE + state));
+      PortalURL decoded = pathParser.parse(request(compactParser.toString(url)));
+      assertEquals(PAGE + state, pathParser.toString(decoded));
+      assertEquals("res 1", decoded.getResourceID());
+   }
+
+   public void testBatchActionRoundTrip() {
+      String state = STATE.replace("/__ac1", "/__ba1");
+      PortalURL url = pathParser.parse(request(PAGE + state));
+      assertEquals(URLType.BatchAction, url.getType());
+      assertEquals("/app.beta!B", url.getTargetWindow());
+      for (PortalURLParameter param : url.getParameters()) {
+         if (param.getName().equals("op")) {
+            assertEquals(PortalURLParameter.PARAM_TYPE_ACTION, param.getType());
+         }
+      }
+      assertEquals(PAGE + state, pathParser.toString(url));
+
+      String compact = compactParser.toString(url);
+      assertTrue(compact, compact.startsWith(PAGE + "/__cs"));
+      PortalURL decoded = compactParser.parse(request(compact));
+      assertEquals(URLType.BatchAction, decoded.getType());
+      assertEquals(PAGE + state, pathParser.toString(decoded));
+      assertEquals(compact, compactParser.toString(decoded));
+   }
+
+   public void testBatchActionTokenAppendedToCompactState() {
+      // the portlet hub appends the token to the URL of the page state
+      PortalURL page = pathParser.parse(request(PAGE + STATE.replace("/__ac1", "")));
+      PortalURL url = compactParser.parse(request(compactParser.toString(page) + "/__ba1"));
+      assertEquals(URLType.BatchAction, url.getType());
+      assertEquals("/app.beta!B", url.getTargetWindow());
+   }
+
+   public void testEmptyState() {
+      portletIds = Collections.emptyList();
+      PortalURL url = pathParser.parse(request(PAGE));
+      assertEquals(PAGE, compactParser.toString(url));
+   }
+
+   public void testMalformedCompactStateIsIgnored() {
+      PortalURL url = pathParser.parse(request(PAGE + STATE));
+      String compact = compactParser.toString(url);
+
+      // truncated state: the tokens read before the truncation are kept
+      PortalURL truncated = pathParser.parse(request(compact.substring(0, compact.length() - 6)));
+      assertEquals("/app.beta!B", truncated.getTargetWindow());
+
+      assertEquals(URLType.Portal, pathParser.parse(request(PAGE + "/__cs%%")).getType());
+      assertEquals(URLType.Portal, pathParser.parse(request(PAGE + "/__csAg")).getType());
+   }
+
+   public void testStoredStateRoundTrip() {
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(10, false));
+      PortalURL url = parser.parse(request(PAGE + STATE));
+      String stored = parser.toString(url);
+      assertTrue(stored, stored.startsWith(PAGE + "/__st"));
+      assertEquals(PAGE.length() + 5 + 16, stored.length());
+      assertEquals(stored, parser.toString(url.clone()));
+
+      assertEquals(PAGE + STATE, pathParser.toString(parser.parse(request(stored))));
+      assertTrue(sessionAttributes.isEmpty());
+   }
+
+   public void testSessionScopedStore() {
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(10, true));
+      String stored = parser.toString(parser.parse(request(PAGE + STATE)));
+      assertEquals(PAGE + STATE, pathParser.toString(parser.parse(request(stored))));
+      assertTrue(sessionAttributes.containsKey(PortalURLStateStore.SESSION_ATTRIBUTE));
+
+      // another session does not know the state
+      sessionAttributes.clear();
+      PortalURL url = parser.parse(request(stored));
+      assertEquals(URLType.Portal, url.getType());
+   }
+
+   public void testSessionScopedStoreSetsAttributeOnChange() {
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(10, true));
+      parser.toString(parser.parse(request(PAGE + STATE)));
+      parser.toString(parser.parse(request(PAGE + STATE + "/__rp0;more:1")));
+      assertEquals(2, sessionWrites);
+   }
+
+   public void testSessionEntriesAreSerializable() throws Exception {
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(10, true));
+      parser.toString(parser.parse(request(PAGE + STATE)));
+      parser.toString(parser.parse(request(PAGE + STATE + "/__rp0;more:1")));
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(sessionAttributes.get(PortalURLStateStore.SESSION_ATTRIBUTE));
+      out.close();
+      Object entries = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+      assertEquals(sessionAttributes.get(PortalURLStateStore.SESSION_ATTRIBUTE), entries);
+      assertEquals(2, ((Map<?, ?>) entries).size());
+   }
+
+   public void testSessionScopedStoreWithoutSessionKeepsStateInURL() {
+      hasSession = false;
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(10, true));
+      String url = parser.toString(parser.parse(request(PAGE + STATE)));
+      assertTrue(url, url.startsWith(PAGE + "/__cs"));
+      assertEquals(PAGE + STATE, pathParser.toString(parser.parse(request(url))));
+      assertTrue(sessionAttributes.isEmpty());
+   }
+
+   public void testDiscardedStateFallsBackToPage() {
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(1, false));
+      String first = parser.toString(parser.parse(request(PAGE + STATE)));
+      PortalURL other = parser.parse(request(PAGE + STATE + "/__rp0;more:1"));
+      String second = parser.toString(other);
+      assertFalse(first.equals(second));
+
+      PortalURL url = parser.parse(request(first));
+      assertEquals("/page", url.getRenderPath());
+      assertEquals(URLType.Portal, url.getType());
+      assertTrue(url.getParameters().isEmpty());
+      assertEquals(pathParser.toString(other), pathParser.toString(parser.parse(request(second))));
+   }
+
+   public void testSmallStateIsNotStored() {
+      PortalURLParser parser = PortalURLParserImpl.getStoredStateParser(new PortalURLStateStore(10, false));
+      String state = "/__pd%2Fapp.alpha%21A;0/__re0";
+      portletIds = Arrays.asList("/app.alpha!A");
+      String url = parser.toString(parser.parse(request(PAGE + state)));
+      assertTrue(url, url.startsWith(PAGE + "/__cs"));
+      assertEquals(PAGE + state, pathParser.toString(parser.parse(request(url))));
+   }
+
+   private HttpServletRequest request(String uri) {
+      PageConfig pageConfig = new PageConfig();
+      pageConfig.setName("page");
+      pageConfig.setPortletIds(portletIds);
+
+      Mock mockPrp = mock(PublicRenderParameter.class);
+      mockPrp.stubs().method("getIdentifier").will(returnValue("color"));
+      mockPrp.stubs().method("getQName").will(returnValue(new QName("urn:test", "color")));
+      Mock mockApp = mock(PortletApplicationDefinition.class);
+      mockApp.stubs().method("getVersion").will(returnValue("3.0"));
+      mockApp.stubs().method("getName").will(returnValue("app"));
+      mockApp.stubs().method("getPublicRenderParameters").will(returnValue(Arrays.asList(mockPrp.proxy())));
+      Mock mockPortlet = mock(PortletDefinition.class);
+      mockPortlet.stubs().method("getPortletName").will(returnValue("portlet"));
+      mockPortlet.stubs().method("getSupportedPublicRenderParameters").will(returnValue(Arrays.asList("color")));
+      Mock mockRegistry = mock(PortletRegistryService.class);
+      mockRegistry.stubs().method("getPortletApplication").will(returnValue(mockApp.proxy()));
+      mockRegistry.stubs().method("getPortlet").will(returnValue(mockPortlet.proxy()));
+      PortletRegistryService registry = (PortletRegistryService) mockRegistry.proxy();
+
+      Mock mockPrpService = mock(PublicRenderParameterService.class);
+      mockPrpService.stubs().method("getPRPMapper")
+            .will(returnValue(new PublicRenderParameterQNameMapper(pageConfig, registry)));
+      Mock mockConfig = mock(DriverConfiguration.class);
+      mockConfig.stubs().method("getPublicRenderParameterService").will(returnValue(mockPrpService.proxy()));
+      mockConfig.stubs().method("getPageConfig").will(returnValue(pageConfig));
+      mockConfig.stubs().method("getPortletRegistryService").will(returnValue(registry));
+      Mock mockContext = mock(ServletContext.class);
+      mockContext.stubs().method("getAttribute").with(eq(AttributeKeys.DRIVER_CONFIG))
+            .will(returnValue(mockConfig.proxy()));
+
+      Mock mockRequest = mock(HttpServletRequest.class);
+      mockRequest.stubs().method("getRequestURI").will(returnValue(uri));
+      mockRequest.stubs().method("getContextPath").will(returnValue("/pluto"));
+      mockRequest.stubs().method("getServletPath").will(returnValue("/portal"));
+      mockRequest.stubs().method("getPathInfo").will(returnValue(uri.substring("/pluto/portal".length())));
+      mockRequest.stubs().method("getScheme").will(returnValue("http"));
+      mockRequest.stubs().method("getServerName").will(returnValue("localhost"));
+      mockRequest.stubs().method("getServerPort").will(returnValue(8080));
+      mockRequest.stubs().method("getServletContext").will(returnValue(mockContext.proxy()));
+      mockRequest.stubs().method("setCharacterEncoding");
+      mockRequest.stubs().method("getSession").with(eq(false)).will(new CustomStub("existing session") {
+         public Object invoke(Invocation invocation) {
+            return hasSession ? session() : null;
+         }
+      });
+      mockRequest.stubs().method("getParameterMap").will(returnValue(Collections.emptyMap()));
+      return (HttpServletRequest) mockRequest.proxy();
+   }
+
+   private HttpSession session() {
+      Mock mockSession = mock(HttpSession.class);
+      mockSession.stubs().method("getAttribute").will(new CustomStub("session attribute") {
+         public Object invoke(Invocation invocation) {
+            return sessionAttributes.get(invocation.parameterValues.get(0));
+         }
+      });
+      mockSession.stubs().method("setAttribute").will(new CustomStub("session attribute") {
+         public Object invoke(Invocation invocation) {
+            sessionAttributes.put((String) invocation.parameterValues.get(0), invocation.parameterValues.get(1));
+            sessionWrites++;
+            return null;
+         }
+      });
+      return (HttpSession) mockSession.proxy();
+   }
+}
@@ -63,6 +63,40 @@ public class AttributeKeys {
      */
     public static final String DYNAMIC_PAGE_RESOURCES = "dynamicResources";
 
+    /**
+     * For passing the window renders started by the portal driver to the
+     * portlet tags. The value is a map from window ID to
+     * {@link org.apache.pluto.driver.core.PrefetchedRender}.
+     */
+    public static final String PREFETCHED_RENDERS = "org.apache.pluto.driver.PrefetchedRenders";
+
+    /**
+     * Set when the page is streamed. Holds the list of prefetched renders
+     * that were not complete when their portlet tag was processed, in page
+     * order. Their markup is written at the end of the page.
+     */
+    public static final String DEFERRED_RENDERS = "org.apache.pluto.driver.DeferredRenders";
+
+    /**
+     * Attribute Key used to bind the render output cache to the
+     * ServletContext. Only bound when the cache is enabled.
+     */
+    public static final String RENDER_CACHE = "org.apache.pluto.driver.RenderCache";
+
+    /**
+     * For passing the cache control of a cached render to the render
+     * response context, so that the portal can read the expiration time
+     * and validation token set by the portlet.
+     */
+    public static final String RENDER_CACHE_CONTROL = "org.apache.pluto.driver.RenderCacheControl";
+
+    /**
+     * Attribute Key used to bind the
+     * {@link org.apache.pluto.driver.core.PageEventBroadcaster} to the
+     * ServletContext. Only bound when the page event stream is enabled.
+     */
+    public static final String PAGE_EVENTS = "org.apache.pluto.driver.PageEvents";
+
     // Constructor -------------------------------------------------------------
 
     /**
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.pluto.driver.core.PageEventBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the Server-Sent Events stream through which the portlet hub of a page
+ * learns that portlet windows have processed actions, see
+ * {@link PageEventBroadcaster}. The servlet must support asynchronous
+ * processing. While it is deployed, the theme opens the stream on each page.
+ * <p>
+ * Init parameters:
+ * <ul>
+ * <li><code>maxConnectionsPerSession</code>: the number of pages of a session
+ * that receive events, 4 by default</li>
+ * <li><code>maxConnections</code>: the number of pages of all sessions that
+ * receive events, 1000 by default</li>
+ * <li><code>timeout</code>: the time in milliseconds after which a stream is
+ * completed, upon which the browser opens it again, 5 minutes by default</li>
+ * </ul>
+ */
+public class PageEventServlet extends HttpServlet {
+
+   private static final long   serialVersionUID = 1L;
+
+   private static final Logger LOG              = LoggerFactory.getLogger(PageEventServlet.class);
+
+   private int                 maxConnectionsPerSession = 4;
+
+   private int                 maxConnections   = 1000;
+
+   private long                timeout          = 300000;
+
+   private PageEventBroadcaster broadcaster     = null;
+
+   public String getServletInfo() {
+      return "Pluto Page Event Servlet";
+   }
+
+   /**
+    * Creates the broadcaster and binds it to the servlet context.
+    */
+   public void init() {
+      String value = getServletConfig().getInitParameter("maxConnectionsPerSession");
+      if (value != null && value.length() > 0) {
+         try {
+            maxConnectionsPerSession = Math.max(1, Integer.parseInt(value.trim()));
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid maxConnectionsPerSession init parameter: " + value);
+         }
+      }
+      value = getServletConfig().getInitParameter("maxConnections");
+      if (value != null && value.length() > 0) {
+         try {
+            maxConnections = Math.max(1, Integer.parseInt(value.trim()));
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid maxConnections init parameter: " + value);
+         }
+      }
+      value = getServletConfig().getInitParameter("timeout");
+      if (value != null && value.length() > 0) {
+         try {
+            timeout = Long.parseLong(value.trim());
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid timeout init parameter: " + value);
+         }
+      }
+
+      broadcaster = new PageEventBroadcaster(maxConnectionsPerSession, maxConnections, getPath());
+      getServletContext().setAttribute(AttributeKeys.PAGE_EVENTS, broadcaster);
+      LOG.info("Page event stream enabled at " + broadcaster.getPath());
+   }
+
+   /**
+    * Completes the open streams.
+    */
+   public void destroy() {
+      if (broadcaster != null) {
+         getServletContext().removeAttribute(AttributeKeys.PAGE_EVENTS);
+         broadcaster.close();
+         broadcaster = null;
+      }
+   }
+
+   /**
+    * Opens the event stream of a page. Only pages of an existing session are
+    * served; otherwise the status 204 tells the browser not to reconnect.
+    */
+   protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+         IOException {
+      HttpSession session = request.getSession(false);
+      if (session == null || !request.isAsyncSupported()) {
+         response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+         return;
+      }
+
+      response.setContentType("text/event-stream");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+
+      AsyncContext context = request.startAsync();
+      context.setTimeout(timeout);
+
+      broadcaster.register(session.getId(), request.getParameter("page"), context);
+   }
+
+   /**
+    * Returns the path of the servlet relative to the context path, taken from
+    * its first mapping.
+    */
+   private String getPath() {
+      ServletRegistration registration = getServletContext().getServletRegistration(getServletName());
+      Collection<String> mappings = (registration != null) ? registration.getMappings() : null;
+      if (mappings == null || mappings.isEmpty()) {
+         return "/" + getServletName();
+      }
+      String path = mappings.iterator().next();
+      if (path.endsWith("/*")) {
+         path = path.substring(0, path.length() - 2);
+      }
+      return path;
+   }
+}
@@ -22,9 +22,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.portlet.PortletException;
 import javax.portlet.PortletRequest;
+import javax.portlet.ResourceURL;
+import javax.portlet.WindowState;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -32,6 +39,7 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.apache.pluto.container.HeaderData;
 import org.apache.pluto.container.PageResourceId;
@@ -41,8 +49,15 @@ import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.Dependency;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.core.PageEventBroadcaster;
 import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.core.PortalServletRequest;
+import org.apache.pluto.driver.core.PortalTasks;
+import org.apache.pluto.driver.core.PortalWindowResponse;
+import org.apache.pluto.driver.core.PortletRenderCache;
 import org.apache.pluto.driver.core.PortletWindowImpl;
+import org.apache.pluto.driver.core.PrefetchedRender;
+import org.apache.pluto.driver.core.RenderDataResponse;
 import org.apache.pluto.driver.services.portal.PageConfig;
 import org.apache.pluto.driver.services.portal.PageResources;
 import org.apache.pluto.driver.services.portal.PortletWindowConfig;
@@ -77,6 +92,50 @@ public class PortalDriverServlet extends HttpServlet {
    /** Character encoding and content type of the response */
    private String              contentType      = "";
 
+   /**
+    * Executor used to process the portlet windows on a page concurrently. Only available when the
+    * <code>aggregationThreads</code> init parameter is set to a value greater than 1.
+    */
+   private ExecutorService     executor         = null;
+
+   /**
+    * Whether the windows on a page are rendered concurrently before the page is aggregated. Set through the
+    * <code>parallelRender</code> init parameter; requires the aggregation executor.
+    */
+   private boolean             parallelRender   = false;
+
+   /** Time in milliseconds a prefetched render may take before an error is displayed for the window. */
+   private long                renderTimeout    = 30000;
+
+   /**
+    * Time in milliseconds the request thread waits for cancelled renders to stop before the servlet returns.
+    * Renders still running after this time are detached from the request and response.
+    */
+   private long                renderStopTimeout = 5000;
+
+   /**
+    * Whether the page is written to the client while windows are still rendering. Windows that are not complete
+    * when the theme reaches them are displayed at the end of the page. Set through the <code>streaming</code> init
+    * parameter; requires parallel rendering.
+    */
+   private boolean             streaming        = false;
+
+   /**
+    * Whether a session is created before a streamed page is sent, so that portlets displayed at the end of the page
+    * can use one. Set through the <code>streamingSession</code> init parameter. Otherwise, such portlets can only
+    * use a session that already exists.
+    */
+   private boolean             streamingSession = false;
+
+   /**
+    * Cache for the markup of the windows that declare an expiration cache. Enabled by setting the
+    * <code>renderCacheSize</code> init parameter to the maximum number of cached renders.
+    */
+   private PortletRenderCache  renderCache      = null;
+
+   /** The configured page resources, which cache the markup generated for the pages. */
+   private PageResources       pageResources    = null;
+
    // HttpServlet Impl --------------------------------------------------------
 
    public String getServletInfo() {
@@ -96,6 +155,86 @@ public class PortalDriverServlet extends HttpServlet {
          contentType = "text/html; charset=" + charset;
       }
 
+      String threads = getServletConfig().getInitParameter("aggregationThreads");
+      if (threads != null && threads.length() > 0) {
+         try {
+            int poolSize = Integer.parseInt(threads.trim());
+            if (poolSize > 1) {
+               executor = Executors.newFixedThreadPool(poolSize, PortalTasks.newThreadFactory("pluto-aggregation"));
+               LOG.info("Parallel page aggregation enabled. Threads: " + poolSize);
+            }
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid aggregationThreads init parameter: " + threads);
+         }
+      }
+
+      parallelRender = (executor != null) && Boolean.parseBoolean(getServletConfig().getInitParameter("parallelRender"));
+      String timeout = getServletConfig().getInitParameter("renderTimeout");
+      if (timeout != null && timeout.length() > 0) {
+         try {
+            renderTimeout = Long.parseLong(timeout.trim());
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid renderTimeout init parameter: " + timeout);
+         }
+      }
+      timeout = getServletConfig().getInitParameter("renderStopTimeout");
+      if (timeout != null && timeout.length() > 0) {
+         try {
+            renderStopTimeout = Long.parseLong(timeout.trim());
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid renderStopTimeout init parameter: " + timeout);
+         }
+      }
+      streaming = parallelRender && Boolean.parseBoolean(getServletConfig().getInitParameter("streaming"));
+      streamingSession = streaming && Boolean.parseBoolean(getServletConfig().getInitParameter("streamingSession"));
+
+      // discard the cached markup of the page resources when portlet applications are deployed
+      DriverConfiguration dc = (DriverConfiguration) servletContext.getAttribute(AttributeKeys.DRIVER_CONFIG);
+      if (dc != null && dc.getRenderConfigService().getPageResources() != null) {
+         pageResources = dc.getRenderConfigService().getPageResources();
+         dc.getPortletRegistryService().addPortletRegistryListener(pageResources);
+      }
+      // and the cached portlet data of the page state
+      if (dc != null) {
+         dc.getPortletRegistryService().addPortletRegistryListener(PageState.REGISTRY_LISTENER);
+      }
+
+      String cacheSize = getServletConfig().getInitParameter("renderCacheSize");
+      if (cacheSize != null && cacheSize.length() > 0) {
+         try {
+            int maxEntries = Integer.parseInt(cacheSize.trim());
+            if (maxEntries > 0) {
+               renderCache = new PortletRenderCache(maxEntries);
+               servletContext.setAttribute(AttributeKeys.RENDER_CACHE, renderCache);
+               LOG.info("Portlet render cache enabled. Entries: " + maxEntries);
+            }
+         } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid renderCacheSize init parameter: " + cacheSize);
+         }
+      }
+   }
+
+   /**
+    * Stops the aggregation threads and discards the render cache, if any.
+    */
+   public void destroy() {
+      DriverConfiguration dc = (DriverConfiguration) servletContext.getAttribute(AttributeKeys.DRIVER_CONFIG);
+      if (dc != null) {
+         dc.getPortletRegistryService().removePortletRegistryListener(PageState.REGISTRY_LISTENER);
+         if (pageResources != null) {
+            dc.getPortletRegistryService().removePortletRegistryListener(pageResources);
+         }
+      }
+      pageResources = null;
+      if (executor != null) {
+         executor.shutdownNow();
+         executor = null;
+      }
+      if (renderCache != null) {
+         LOG.info("Shutting down " + renderCache);
+         servletContext.removeAttribute(AttributeKeys.RENDER_CACHE);
+         renderCache = null;
+      }
    }
 
    /**
@@ -146,6 +285,11 @@ public class PortalDriverServlet extends HttpServlet {
             LOG.debug("Processing " + reqType + " request for window: " + portletWindow.getId().getStringId());
          }
 
+         // The cached markup of the window is no longer valid once it has processed an action
+         if (renderCache != null && portalURL.getType() != URLType.Resource) {
+            renderCache.invalidate(targetWindow);
+         }
+
          try {
             PageState ps;
             String jsondata;
@@ -158,9 +302,31 @@ public class PortalDriverServlet extends HttpServlet {
                response.setContentType("application/json");
                ps = new PageState(request);
                Writer writer = response.getWriter();
-               jsondata = ps.toJSONString();
-               LOG.debug("Ajax Action: returning new page state to client: " + jsondata);
-               writer.write(jsondata);
+               // only the portlets whose state the client does not have yet
+               String stateHashes = request.getHeader(PageState.STATE_HASHES_HEADER);
+               if (LOG.isDebugEnabled()) {
+                  jsondata = ps.toJSONString(stateHashes);
+                  LOG.debug("Ajax Action: returning new page state to client: " + jsondata);
+                  writer.write(jsondata);
+               } else {
+                  ps.writeJSON(writer, stateHashes);
+               }
+               break;
+            case BatchAction:
+               container.doAction(portletWindow, request, response, false);
+
+               // Serve the render data of the portlets whose state changed, so that the
+               // portlet clients do not need to request it one after the other.
+               ps = new PageState(request);
+               String knownHashes = request.getHeader(PageState.STATE_HASHES_HEADER);
+               for (String pid : ps.getChangedPortletIds(knownHashes)) {
+                  RenderDataResponse renderData = serveRenderData(request, response, pid);
+                  if (renderData != null && renderData.getContent() != null) {
+                     ps.setRenderData(pid, renderData.getContent(), renderData.getContentType());
+                  }
+               }
+               response.setContentType("application/json");
+               ps.writeJSON(response.getWriter(), knownHashes);
                break;
             case PartialAction:
                container.doAction(portletWindow, request, response, false);
@@ -172,7 +338,7 @@ public class PortalDriverServlet extends HttpServlet {
                // some points.
 
                ps = new PageState(request);
-               jsondata = ps.toJSONString();
+               jsondata = ps.toJSONString(request.getHeader(PageState.STATE_HASHES_HEADER));
                if (LOG.isDebugEnabled()) {
                   LOG.debug("Partial Action: dump page state:\n" + jsondata);
                }
@@ -192,6 +358,15 @@ public class PortalDriverServlet extends HttpServlet {
             LOG.error(ex.getMessage(), ex);
             throw new ServletException(ex);
          }
+
+         // Other pages displaying the window may show data changed by the action
+         if (portalURL.getType() != URLType.Resource) {
+            PageEventBroadcaster events = (PageEventBroadcaster) servletContext.getAttribute(AttributeKeys.PAGE_EVENTS);
+            HttpSession session = request.getSession(false);
+            if (events != null && session != null) {
+               events.windowChanged(session.getId(), targetWindow, PageEventBroadcaster.getOriginPageId(request));
+            }
+         }
          if (LOG.isDebugEnabled()) {
             LOG.debug(reqType + " request processed.\n");
          }
@@ -225,13 +400,48 @@ public class PortalDriverServlet extends HttpServlet {
          response.setContentType("text/html;charset=UTF-8");
          doHeaders(request, response, portalURL);
 
+         // Start rendering the windows so that the portlet tags only need to pick up the markup
+
+         Map<String, PrefetchedRender> renders = null;
+         List<PrefetchedRender> started = null;
+         if (parallelRender) {
+            renders = prefetchRenders(request, response, portalURL);
+            // the portlet tags remove the renders they pick up from the map, so keep
+            // the started renders in order to stop the ones the theme does not display
+            started = new ArrayList<PrefetchedRender>(renders.values());
+            request.setAttribute(AttributeKeys.PREFETCHED_RENDERS, renders);
+            if (streaming) {
+               // The response is committed before all windows have rendered, after which
+               // a session can no longer be created.
+               if (streamingSession) {
+                  request.getSession(true);
+               }
+               request.setAttribute(AttributeKeys.DEFERRED_RENDERS, new ArrayList<PrefetchedRender>());
+            }
+         }
+
          if (LOG.isDebugEnabled()) {
             LOG.debug("Dispatching to: " + uri);
          }
 
          // Dispatch to the JSP that aggregates the page.
          RequestDispatcher dispatcher = request.getRequestDispatcher(uri);
-         dispatcher.forward(request, response);
+         try {
+            dispatcher.forward(request, response);
+            checkDeferredRenders(request, uri);
+         } finally {
+            // stop renders for windows that the theme did not display, and make sure
+            // that no render is left running against the request and response
+            if (started != null) {
+               for (PrefetchedRender render : started) {
+                  render.cancel();
+               }
+               long end = System.currentTimeMillis() + renderStopTimeout;
+               for (PrefetchedRender render : started) {
+                  render.finish(end - System.currentTimeMillis());
+               }
+            }
+         }
 
          if (LOG.isDebugEnabled()) {
             LOG.debug("Render request processed.\n");
@@ -255,6 +465,21 @@ public class PortalDriverServlet extends HttpServlet {
       doGet(request, response);
    }
 
+   /**
+    * Fails the request if the theme has left windows of a streamed page unwritten, which happens when it does not
+    * contain the pluto:deferredRenders tag.
+    */
+   @SuppressWarnings("unchecked")
+   private void checkDeferredRenders(HttpServletRequest request, String uri) throws ServletException {
+      List<PrefetchedRender> deferred = (List<PrefetchedRender>) request.getAttribute(AttributeKeys.DEFERRED_RENDERS);
+      if (deferred != null && !deferred.isEmpty()) {
+         String msg = "The page " + uri + " has left " + deferred.size() + " portlet window(s) empty."
+               + " Themes used with the streaming mode must end with the pluto:deferredRenders tag.";
+         LOG.error(msg);
+         throw new ServletException(msg);
+      }
+   }
+
    private void doHeaders(HttpServletRequest req, HttpServletResponse resp, PortalURL purl) throws ServletException,
          IOException {
 
@@ -265,25 +490,29 @@ public class PortalDriverServlet extends HttpServlet {
       List<PageResourceId> dynamicdeps = new ArrayList<PageResourceId>();
       Map<PageResourceId, String> dynamicResources = new HashMap<PageResourceId, String>();
 
-      for (String pid : purl.getPortletIds()) {
+      List<String> pids = new ArrayList<String>(purl.getPortletIds());
+      List<HeaderData> results = (executor == null || pids.size() < 2) ? doHeadersSerial(req, resp, purl, dc, pids)
+            : doHeadersParallel(req, resp, purl, dc, pids);
 
-         PortletWindowConfig wcfg = PortletWindowConfig.fromId(pid);
-         PortletWindowImpl pwin = new PortletWindowImpl(container, wcfg, purl);
-         HeaderData hd = null;
+      // merge the results in page order, so that the output does not depend on
+      // the order in which the header requests completed.
 
-         try {
+      for (int ii = 0; ii < pids.size(); ii++) {
+         String pid = pids.get(ii);
+         HeaderData hd = results.get(ii);
 
-            String appName = wcfg.getContextPath();
-            String portletName = PortletWindowConfig.parsePortletName(pid);
-            PortletDefinition pd = dc.getPortletRegistryService().getPortletApplication(appName)
-                  .getPortlet(portletName);
+         if (hd != null) {
 
             if (purl.isVersion3(pid)) {
-               hd = container.doHeader(pwin, req, resp);
 
                // collect the page dependencies
-               for (Dependency dep : pd.getDependencies()) {
-                  portletdeps.add(new PageResourceId(dep.getName(), dep.getScope(), dep.getVersion()));
+               try {
+                  for (Dependency dep : getPortletDefinition(dc, pid).getDependencies()) {
+                     portletdeps.add(new PageResourceId(dep.getName(), dep.getScope(), dep.getVersion()));
+                  }
+               } catch (PortletContainerException ex) {
+                  LOG.error(ex.getMessage(), ex);
+                  throw new ServletException(ex);
                }
 
                // Process any dependencies that were dynamically added during the header request
@@ -294,44 +523,25 @@ public class PortalDriverServlet extends HttpServlet {
                      dynamicResources.put(id, resources.get(id));
                   }
                }
-
-            } else if (purl.getVersion(pid).equalsIgnoreCase("2.0")) {
-               ContainerRuntimeOption crt = pd.getContainerRuntimeOption("javax.portlet.renderHeaders");
-               if (crt != null) {
-                  List<String> headers = crt.getValues();
-                  if (headers.size() == 1 && headers.get(0).equalsIgnoreCase("true")) {
-                     hd = container.doRender(pwin, req, resp, PortletRequest.RENDER_HEADERS);
-                  }
-               }
             }
 
-            if (hd != null) {
-
-               // handle markup for document head section
-               markup.append(hd.getHeadSectionMarkup()).append("\n");
+            // handle markup for document head section
+            markup.append(hd.getHeadSectionMarkup()).append("\n");
 
-               // add the cookies & http headers to the response
-               
-               List<Cookie> cookies = hd.getCookies();
-               for (Cookie c : cookies) {
-                  resp.addCookie(c);
-               }
+            // add the cookies & http headers to the response
+            
+            List<Cookie> cookies = hd.getCookies();
+            for (Cookie c : cookies) {
+               resp.addCookie(c);
+            }
 
-               // Add the HTTP headers to the response
-               Map<String, List<String>> headers = hd.getHttpHeaders();
-               for (String name : headers.keySet()) {
-                  for (String val : headers.get(name)) {
-                     resp.addHeader(name, val);
-                  }
+            // Add the HTTP headers to the response
+            Map<String, List<String>> headers = hd.getHttpHeaders();
+            for (String name : headers.keySet()) {
+               for (String val : headers.get(name)) {
+                  resp.addHeader(name, val);
                }
             }
-
-         } catch (PortletContainerException ex) {
-            LOG.error(ex.getMessage(), ex);
-            throw new ServletException(ex);
-         } catch (PortletException ex) {
-            LOG.error(ex.getMessage(), ex);
-            throw new ServletException(ex);
          }
       }
 
@@ -359,7 +569,8 @@ public class PortalDriverServlet extends HttpServlet {
       int defDespSize = deps.size();
 
       // add in the page-specific resources
-      List<PageResourceId> pagedeps = purl.getPageConfig(req.getServletContext()).getPageResources();
+      PageConfig pageConfig = purl.getPageConfig(req.getServletContext());
+      List<PageResourceId> pagedeps = pageConfig.getPageResources();
       deps.addAll(pagedeps);
 
       // and the portlet dependencies
@@ -384,9 +595,249 @@ public class PortalDriverServlet extends HttpServlet {
 
       // Set the markup resulting from the specified page resources as an attribute
       // The main rendering JSP uses this when rendering the head section.
-      markup.append(pageres.getMarkup(deps, req.getContextPath()));
+      markup.append(pageres.getMarkup(pageConfig.getName(), deps, req.getContextPath()));
       req.setAttribute(AttributeKeys.DYNAMIC_PAGE_RESOURCES, markup.toString());
 
       return;
    }
+
+   /**
+    * Executes the header requests for the given windows one after the other on the request thread.
+    * 
+    * @return the header data for each window in page order. An entry is <code>null</code> if the window
+    *         has no header phase.
+    */
+   private List<HeaderData> doHeadersSerial(HttpServletRequest req, HttpServletResponse resp, PortalURL purl,
+         DriverConfiguration dc, List<String> pids) throws ServletException, IOException {
+      List<HeaderData> results = new ArrayList<HeaderData>(pids.size());
+      for (String pid : pids) {
+         results.add(doHeader(req, resp, purl, dc, pid));
+      }
+      return results;
+   }
+
+   /**
+    * Executes the header requests for the given windows concurrently. Each window is dispatched with its own
+    * request and response wrapper so that the invocation attributes of concurrently running windows cannot
+    * interfere. Request attributes, cookies and HTTP headers set by the portlets are applied to the original
+    * request and response in page order once all windows have completed.
+    * 
+    * @return the header data for each window in page order. An entry is <code>null</code> if the window
+    *         has no header phase.
+    */
+   private List<HeaderData> doHeadersParallel(final HttpServletRequest req, final HttpServletResponse resp,
+         final PortalURL purl, final DriverConfiguration dc, List<String> pids) throws ServletException,
+         IOException {
+
+      List<PortalServletRequest> requests = new ArrayList<PortalServletRequest>(pids.size());
+      List<PortalWindowResponse> responses = new ArrayList<PortalWindowResponse>(pids.size());
+      List<Future<HeaderData>> futures = new ArrayList<Future<HeaderData>>(pids.size());
+
+      for (final String pid : pids) {
+         final PortalServletRequest wreq = new PortalServletRequest(req);
+         final PortalWindowResponse wresp = new PortalWindowResponse(resp);
+         requests.add(wreq);
+         responses.add(wresp);
+         futures.add(submit(new Callable<HeaderData>() {
+            public HeaderData call() throws Exception {
+               return doHeader(wreq, wresp, purl, dc, pid);
+            }
+         }));
+      }
+
+      // No header request may still be running against the request once this method returns,
+      // not even when one of them has failed.
+      if (awaitAll(futures)) {
+         throw new ServletException("Interrupted while waiting for the header requests.");
+      }
+
+      List<HeaderData> results = new ArrayList<HeaderData>(pids.size());
+      for (int ii = 0; ii < futures.size(); ii++) {
+         requests.get(ii).applyAttributes();
+         responses.get(ii).applyHeaders();
+         try {
+            results.add(futures.get(ii).get());
+         } catch (InterruptedException e) {
+            // cannot happen, the task has completed
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+         } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServletException) {
+               throw (ServletException) cause;
+            } else if (cause instanceof IOException) {
+               throw (IOException) cause;
+            }
+            throw new ServletException(cause);
+         }
+      }
+      return results;
+   }
+
+   /**
+    * Waits until all given tasks have completed. The wait is not cut short by an interrupt, so that no task
+    * is left running against the request; the interrupt status is restored afterwards.
+    * 
+    * @return <code>true</code> if the thread was interrupted while waiting
+    */
+   private static boolean awaitAll(List<? extends Future<?>> futures) {
+      boolean interrupted = false;
+      for (Future<?> future : futures) {
+         while (true) {
+            try {
+               future.get();
+               break;
+            } catch (InterruptedException e) {
+               interrupted = true;
+            } catch (ExecutionException e) {
+               break;
+            }
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+      return interrupted;
+   }
+
+   /**
+    * Executes the header request for a single window.
+    * 
+    * @return the header data, or <code>null</code> if the window has no header phase.
+    */
+   private HeaderData doHeader(HttpServletRequest req, HttpServletResponse resp, PortalURL purl,
+         DriverConfiguration dc, String pid) throws ServletException, IOException {
+
+      PortletWindowConfig wcfg = PortletWindowConfig.fromId(pid);
+      PortletWindowImpl pwin = new PortletWindowImpl(container, wcfg, purl);
+      HeaderData hd = null;
+
+      try {
+
+         PortletDefinition pd = getPortletDefinition(dc, pid);
+
+         if (purl.isVersion3(pid)) {
+            hd = container.doHeader(pwin, req, resp);
+         } else if (purl.getVersion(pid).equalsIgnoreCase("2.0")) {
+            ContainerRuntimeOption crt = pd.getContainerRuntimeOption("javax.portlet.renderHeaders");
+            if (crt != null) {
+               List<String> headers = crt.getValues();
+               if (headers.size() == 1 && headers.get(0).equalsIgnoreCase("true")) {
+                  hd = container.doRender(pwin, req, resp, PortletRequest.RENDER_HEADERS);
+               }
+            }
+         }
+
+      } catch (PortletContainerException ex) {
+         LOG.error(ex.getMessage(), ex);
+         throw new ServletException(ex);
+      } catch (PortletException ex) {
+         LOG.error(ex.getMessage(), ex);
+         throw new ServletException(ex);
+      }
+      return hd;
+   }
+
+   /**
+    * Starts the render of each window that will be displayed on the page. Each window renders into its own buffer.
+    * Windows that cannot be set up here are left to the portlet tag, which renders them inline.
+    * 
+    * @return the started renders by window ID
+    */
+   private Map<String, PrefetchedRender> prefetchRenders(HttpServletRequest req, HttpServletResponse resp,
+         final PortalURL purl) {
+
+      final DriverConfiguration dc = (DriverConfiguration) servletContext.getAttribute(AttributeKeys.DRIVER_CONFIG);
+      Map<String, PrefetchedRender> renders = new HashMap<String, PrefetchedRender>();
+
+      // If a window is maximized, the other windows are not displayed
+      String maximized = null;
+      for (Map.Entry<String, WindowState> entry : purl.getWindowStates().entrySet()) {
+         if (WindowState.MAXIMIZED.equals(entry.getValue())) {
+            maximized = entry.getKey();
+         }
+      }
+
+      for (final String pid : purl.getPortletIds()) {
+         if (maximized != null && !maximized.equals(pid)) {
+            continue;
+         }
+
+         final PortletWindowImpl pwin;
+         try {
+            pwin = new PortletWindowImpl(container, PortletWindowConfig.fromId(pid), purl);
+         } catch (RuntimeException e) {
+            if (LOG.isDebugEnabled()) {
+               LOG.debug("Not prefetching window " + pid + ": " + e.getMessage());
+            }
+            continue;
+         }
+
+         final PrefetchedRender render = new PrefetchedRender(pid, req, resp, renderTimeout);
+         render.setFuture(submit(render.track(new Callable<Void>() {
+            public Void call() throws Exception {
+               String renderHeaders = null;
+               if (purl.getVersion(pid).equalsIgnoreCase("2.0")) {
+                  ContainerRuntimeOption crt = getPortletDefinition(dc, pid).getContainerRuntimeOption(
+                        "javax.portlet.renderHeaders");
+                  if (crt != null) {
+                     List<String> headers = crt.getValues();
+                     if (headers.size() == 1 && headers.get(0).equalsIgnoreCase("true")) {
+                        renderHeaders = PortletRequest.RENDER_MARKUP;
+                     }
+                  }
+               }
+               if (renderCache != null) {
+                  renderCache.render(container, pwin, render.getRequest(), render.getResponse(), renderHeaders);
+               } else {
+                  container.doRender(pwin, render.getRequest(), render.getResponse(), renderHeaders);
+               }
+               return null;
+            }
+         })));
+         renders.put(pid, render);
+      }
+
+      return renders;
+   }
+
+   /**
+    * Serves the render data of a portlet after an action, i.e. the response to a resource request with the new
+    * state of the page, no resource parameters and the cacheability <code>PAGE</code>. The window is processed
+    * in a window context, so that the requested portal URL is left to the page state.
+    * 
+    * @return the render data, or <code>null</code> if the window could not be set up or the request failed
+    */
+   private RenderDataResponse serveRenderData(HttpServletRequest req, HttpServletResponse resp, String pid) {
+      PortalServletRequest wreq = new PortalServletRequest(req);
+      RenderDataResponse wresp = new RenderDataResponse(resp);
+      PortalURL url = PortalRequestContext.getContext(req).createWindowContext(wreq, wresp).getRequestedPortalURL();
+      url.setType(URLType.Resource);
+      url.setTargetWindow(pid);
+      url.setCacheability(ResourceURL.PAGE);
+      url.setResourceID(null);
+      try {
+         PortletWindowImpl pwin = new PortletWindowImpl(container, PortletWindowConfig.fromId(pid), url);
+         container.doServeResource(pwin, wreq, wresp, null);
+         return wresp;
+      } catch (Exception e) {
+         // the portlet client requests the render data itself
+         LOG.warn("Could not serve the render data of window " + pid + ": " + e.getMessage());
+         return null;
+      }
+   }
+
+   /**
+    * Submits a task to the aggregation executor. The task runs with the context class loader of the calling
+    * thread.
+    */
+   private <T> Future<T> submit(Callable<T> task) {
+      return PortalTasks.submit(executor, null, task);
+   }
+
+   private PortletDefinition getPortletDefinition(DriverConfiguration dc, String pid) throws PortletContainerException {
+      String appName = PortletWindowConfig.fromId(pid).getContextPath();
+      String portletName = PortletWindowConfig.parsePortletName(pid);
+      return dc.getPortletRegistryService().getPortletApplication(appName).getPortlet(portletName);
+   }
 }
@@ -0,0 +1,342 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pushes notifications to the open portal pages through Server-Sent Events.
+ * Each page holds an asynchronous request open, which is registered here
+ * under the session of the page. The number of open requests is bounded per
+ * session and in total; when a session opens more pages, its oldest request is
+ * completed, and when the portal holds too many, the oldest of all is.
+ * <p>
+ * The only notification is that a portlet window has processed an action,
+ * upon which the portlet hub of a page displaying the window passes the
+ * state of the window to its portlet client again, so that the client can
+ * fetch the new content instead of polling for it. As the state of a window
+ * belongs to the session, only the pages of the acting session are notified.
+ * <p>
+ * The streams are written with non-blocking I/O: each connection queues its
+ * events and writes them while the container reports that it can, so that a
+ * slow client holds up neither the action request nor the other clients. A
+ * client that falls too far behind is disconnected.
+ */
+public class PageEventBroadcaster {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageEventBroadcaster.class);
+
+    /** The event announcing that a window has processed an action. */
+    public static final String WINDOW_CHANGED = "windowChanged";
+
+    /**
+     * The request header carrying the ID of the page that sent an Ajax action.
+     * The page is not notified, as it receives the new state with the response.
+     */
+    public static final String PAGE_HEADER = "X-Pluto-Page";
+
+    /**
+     * The query parameter carrying the ID of the page that sent a partial
+     * action, which the portlet sends itself, without the request header.
+     */
+    public static final String PAGE_PARAMETER = "_plutoPage";
+
+    /**
+     * Returns the ID of the page that sent an action.
+     *
+     * @param request  the action request
+     * @return the page ID, or <code>null</code> if the request does not
+     *         carry it
+     */
+    public static String getOriginPageId(HttpServletRequest request) {
+        String pageId = request.getHeader(PAGE_HEADER);
+        return (pageId != null) ? pageId : request.getParameter(PAGE_PARAMETER);
+    }
+
+    /** The number of events a connection may have queued before it is closed. */
+    static final int MAX_PENDING_EVENTS = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Tells the browser to wait 10 seconds before it opens a lost stream again. */
+    private static final byte[] RETRY = "retry: 10000\n\n".getBytes(UTF8);
+
+    private final int maxConnectionsPerSession;
+
+    private final int maxConnections;
+
+    private final String path;
+
+    /** The open connections by session ID, oldest first. Guarded by itself. */
+    private final Map<String, LinkedList<Connection>> connections = new HashMap<String, LinkedList<Connection>>();
+
+    /** All open connections, oldest first. Guarded by {@link #connections}. */
+    private final Set<Connection> allConnections = new LinkedHashSet<Connection>();
+
+    /**
+     * @param maxConnectionsPerSession  the maximum number of open connections
+     *                                  of a session
+     * @param maxConnections  the maximum number of open connections
+     * @param path  the path of the event stream relative to the context path
+     */
+    public PageEventBroadcaster(int maxConnectionsPerSession, int maxConnections, String path) {
+        this.maxConnectionsPerSession = maxConnectionsPerSession;
+        this.maxConnections = maxConnections;
+        this.path = path;
+    }
+
+    /**
+     * @return the path of the event stream relative to the context path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Registers the event stream of a page. The response must have been set up
+     * for Server-Sent Events, and its output stream must not have been used.
+     *
+     * @param sessionId  the session of the page
+     * @param pageId  the ID the page sends along with its Ajax actions, or
+     *                <code>null</code>
+     * @param context  the asynchronous context of the request for the stream
+     * @throws IOException  if the output stream cannot be obtained
+     */
+    public void register(String sessionId, String pageId, AsyncContext context) throws IOException {
+        final Connection connection = new Connection(sessionId, pageId, context);
+        context.addListener(new AsyncListener() {
+            public void onComplete(AsyncEvent event) {
+                remove(connection);
+            }
+
+            public void onTimeout(AsyncEvent event) {
+                connection.close();
+            }
+
+            public void onError(AsyncEvent event) {
+                connection.close();
+            }
+
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        List<Connection> evicted = new LinkedList<Connection>();
+        synchronized (connections) {
+            LinkedList<Connection> list = connections.get(sessionId);
+            if (list == null) {
+                list = new LinkedList<Connection>();
+                connections.put(sessionId, list);
+            }
+            list.add(connection);
+            allConnections.add(connection);
+            if (list.size() > maxConnectionsPerSession) {
+                evicted.add(list.getFirst());
+                remove(list.getFirst());
+            }
+            while (allConnections.size() > maxConnections) {
+                Connection oldest = allConnections.iterator().next();
+                evicted.add(oldest);
+                remove(oldest);
+            }
+        }
+        for (Connection c : evicted) {
+            c.close();
+        }
+        connection.start();
+    }
+
+    /**
+     * Notifies the pages of a session that a portlet window has processed an
+     * action. The page that sent the action is left out.
+     *
+     * @param sessionId  the session in which the action was processed
+     * @param windowId  the ID of the portlet window
+     * @param originPageId  the ID of the page that sent the action, or
+     *                      <code>null</code>
+     */
+    public void windowChanged(String sessionId, String windowId, String originPageId) {
+        byte[] event = ("event: " + WINDOW_CHANGED + "\ndata: " + windowId + "\n\n").getBytes(UTF8);
+        for (Connection connection : getConnections(sessionId)) {
+            if (originPageId == null || !originPageId.equals(connection.pageId)) {
+                connection.send(event);
+            }
+        }
+    }
+
+    /**
+     * @return the number of open connections
+     */
+    public int getConnectionCount() {
+        synchronized (connections) {
+            return allConnections.size();
+        }
+    }
+
+    /**
+     * Completes all open connections.
+     */
+    public void close() {
+        List<Connection> open;
+        synchronized (connections) {
+            open = new LinkedList<Connection>(allConnections);
+        }
+        for (Connection connection : open) {
+            connection.close();
+        }
+    }
+
+    private List<Connection> getConnections(String sessionId) {
+        synchronized (connections) {
+            LinkedList<Connection> list = connections.get(sessionId);
+            return (list != null) ? new LinkedList<Connection>(list) : new LinkedList<Connection>();
+        }
+    }
+
+    private void remove(Connection connection) {
+        synchronized (connections) {
+            allConnections.remove(connection);
+            LinkedList<Connection> list = connections.get(connection.sessionId);
+            if (list != null) {
+                list.remove(connection);
+                if (list.isEmpty()) {
+                    connections.remove(connection.sessionId);
+                }
+            }
+        }
+    }
+
+    /**
+     * The event stream of a page. The events are queued and written whenever
+     * the output stream is ready, either right away or when the container
+     * calls {@link #onWritePossible()}.
+     */
+    private class Connection implements WriteListener {
+        final String sessionId;
+        final String pageId;
+        final AsyncContext context;
+        private final LinkedList<byte[]> pending = new LinkedList<byte[]>();
+        private ServletOutputStream out;
+        private boolean unflushed;
+        private boolean closed;
+
+        Connection(String sessionId, String pageId, AsyncContext context) {
+            this.sessionId = sessionId;
+            this.pageId = pageId;
+            this.context = context;
+        }
+
+        /**
+         * Switches the output stream to non-blocking I/O; the container then
+         * calls {@link #onWritePossible()} once the stream is ready.
+         */
+        synchronized void start() throws IOException {
+            if (closed) {
+                return;
+            }
+            pending.add(RETRY);
+            out = context.getResponse().getOutputStream();
+            out.setWriteListener(this);
+        }
+
+        synchronized void send(byte[] event) {
+            if (closed) {
+                return;
+            }
+            if (pending.size() >= MAX_PENDING_EVENTS) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Closing page event stream of a client that does not keep up.");
+                }
+                close();
+                return;
+            }
+            pending.add(event);
+            if (out != null) {
+                try {
+                    write();
+                } catch (IOException e) {
+                    onError(e);
+                } catch (IllegalStateException e) {
+                    // the request has already been completed by the container
+                    remove(this);
+                }
+            }
+        }
+
+        public synchronized void onWritePossible() throws IOException {
+            if (!closed) {
+                write();
+            }
+        }
+
+        public void onError(Throwable t) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Closing page event stream: " + t.getMessage());
+            }
+            close();
+        }
+
+        /**
+         * Writes the queued events until the stream is not ready any more.
+         */
+        private void write() throws IOException {
+            while (out.isReady()) {
+                byte[] event = pending.poll();
+                if (event != null) {
+                    out.write(event);
+                    unflushed = true;
+                } else if (unflushed) {
+                    unflushed = false;
+                    out.flush();
+                } else {
+                    return;
+                }
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+            remove(this);
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // already completed
+            }
+        }
+    }
+}
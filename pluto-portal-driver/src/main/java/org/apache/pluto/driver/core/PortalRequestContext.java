@@ -16,6 +16,11 @@
  */
 package org.apache.pluto.driver.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -24,7 +29,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.pluto.driver.AttributeKeys;
 import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterMapper;
 import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
 import org.apache.pluto.driver.url.PortalURLParser;
 
 /**
@@ -60,6 +67,12 @@ public class PortalRequestContext {
     /** The requested portal URL. */
     private PortalURL requestedPortalURL;
 
+    /**
+     * The requested portal URL at the time a window context was created;
+     * <code>null</code> unless this is a window context.
+     */
+    private PortalURL windowBaseURL;
+
 
     // Constructor -------------------------------------------------------------
 
@@ -134,6 +147,82 @@ public class PortalRequestContext {
        requestedPortalURL = portalURL;
     }
 
+    /**
+     * Creates a context for processing a single portlet window on a thread
+     * other than the request thread. The window context is bound to the given
+     * window request, which must keep its attributes apart from the request of
+     * this context, such as a {@link PortalServletRequest}. It works on a copy
+     * of the requested portal URL, whose changes can be merged back with
+     * {@link #mergeWindowContext(PortalRequestContext, String)}.
+     *
+     * @param windowRequest  the request used to process the window
+     * @param windowResponse  the response used to process the window
+     * @return the window context
+     */
+    public synchronized PortalRequestContext createWindowContext(HttpServletRequest windowRequest,
+          HttpServletResponse windowResponse) {
+       PortalRequestContext context = new PortalRequestContext(servletContext, windowRequest, windowResponse);
+       context.windowBaseURL = getRequestedPortalURL().clone();
+       context.requestedPortalURL = context.windowBaseURL.clone();
+       return context;
+    }
+
+    /**
+     * Merges the changes made to the portal URL of a window context into the
+     * requested portal URL. The render parameters, portlet mode and window
+     * state of the window are taken over from the window context; of the
+     * public render parameters, only those changed while processing the window
+     * are taken over. Merging the window contexts in page order therefore
+     * gives the same result regardless of the order in which the windows were
+     * processed.
+     *
+     * @param windowContext  a context created by {@link #createWindowContext}
+     * @param windowId  the ID of the window processed in the window context
+     */
+    public synchronized void mergeWindowContext(PortalRequestContext windowContext, String windowId) {
+       PortalURL url = getRequestedPortalURL();
+       PortalURL windowURL = windowContext.getRequestedPortalURL();
+       PortalURL baseURL = windowContext.windowBaseURL;
+
+       for (PortalURLParameter pup : new ArrayList<PortalURLParameter>(url.getParameters())) {
+          if (pup.getWindowId().equals(windowId)) {
+             url.removeParameter(pup);
+          }
+       }
+       for (PortalURLParameter pup : windowURL.getParameters()) {
+          if (pup.getWindowId().equals(windowId)) {
+             url.setParameter(pup.clone());
+          }
+       }
+
+       PortletMode mode = windowURL.getPortletModes().get(windowId);
+       if (mode != null) {
+          url.setPortletMode(windowId, mode);
+       }
+       WindowState state = windowURL.getWindowStates().get(windowId);
+       if (state != null) {
+          url.setWindowState(windowId, state);
+       }
+
+       PublicRenderParameterMapper mapper = url.getPublicRenderParameterMapper();
+       PublicRenderParameterMapper windowMapper = windowURL.getPublicRenderParameterMapper();
+       PublicRenderParameterMapper baseMapper = baseURL.getPublicRenderParameterMapper();
+       if (mapper == null || windowMapper == null || baseMapper == null) {
+          return;
+       }
+       for (int ii = 0; ii < windowMapper.getNumberOfGroups(); ii++) {
+          boolean removed = windowMapper.getRemoved(ii);
+          String[] values = windowMapper.getValues(ii);
+          if (removed == baseMapper.getRemoved(ii) && Arrays.equals(values, baseMapper.getValues(ii))) {
+             continue;
+          }
+          if (!removed) {
+             mapper.setValues(ii, values);
+          }
+          mapper.setRemoved(ii, removed);
+       }
+    }
+
 	public ServletContext getServletContext() {
 		return servletContext;
 	}
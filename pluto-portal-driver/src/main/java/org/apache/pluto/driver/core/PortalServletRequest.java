@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Request wrapper used when a portlet window is processed on a thread other
+ * than the request thread.
+ * <p>
+ * Attributes set or removed through this wrapper are kept locally, so that
+ * windows running concurrently do not see each other's invocation attributes.
+ * After the window has been processed, the recorded changes can be applied to
+ * the wrapped request with {@link #applyAttributes()}, in page order, which
+ * leaves the request in the same state as serial processing would.
+ */
+public class PortalServletRequest extends HttpServletRequestWrapper {
+
+    /** Marks an attribute that has been removed through this wrapper. */
+    private static final Object REMOVED = new Object();
+
+    private final HttpServletRequest original;
+
+    private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+    public PortalServletRequest(HttpServletRequest request) {
+        this(request, request);
+    }
+
+    /**
+     * Wraps a request that stands in for the request of the portal page, such
+     * as a request that can be detached from it.
+     *
+     * @param request   the request to wrap
+     * @param original  the request of the portal page, to which the
+     *                  attributes are applied
+     */
+    public PortalServletRequest(HttpServletRequest request, HttpServletRequest original) {
+        super(request);
+        this.original = original;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        Object value = attributes.get(name);
+        if (value == null) {
+            return super.getAttribute(name);
+        }
+        return (value == REMOVED) ? null : value;
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        Set<String> names = new LinkedHashSet<String>();
+        for (Enumeration<String> e = super.getAttributeNames(); e.hasMoreElements();) {
+            names.add(e.nextElement());
+        }
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                names.remove(entry.getKey());
+            } else {
+                names.add(entry.getKey());
+            }
+        }
+        return Collections.enumeration(names);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, (value == null) ? REMOVED : value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.put(name, REMOVED);
+    }
+
+    /**
+     * Session creation on the underlying request is not thread safe, so it is
+     * serialized across all wrappers of the same request.
+     */
+    @Override
+    public HttpSession getSession(boolean create) {
+        synchronized (original) {
+            return super.getSession(create);
+        }
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    /**
+     * Applies the attribute changes made through this wrapper to the wrapped
+     * request. Must be called on the request thread.
+     */
+    public void applyAttributes() {
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                original.removeAttribute(entry.getKey());
+            } else {
+                original.setAttribute(entry.getKey(), entry.getValue());
+            }
+        }
+        attributes.clear();
+    }
+}
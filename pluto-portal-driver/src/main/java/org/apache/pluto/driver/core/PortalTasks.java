@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work of a portal request on the threads of an executor, such as
+ * the windows rendered in parallel and the events delivered concurrently.
+ */
+public final class PortalTasks {
+
+    private PortalTasks() {
+    }
+
+    /**
+     * Returns a factory for named daemon threads.
+     *
+     * @param name  the name of the threads, to which a sequence number is
+     *              appended
+     * @return the thread factory
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Submits a task to an executor. The task runs with the context class
+     * loader of the calling thread, and waits for a permit if the number of
+     * concurrent tasks is bounded by permits.
+     *
+     * @param executor  the executor
+     * @param permits  bounds the number of concurrent tasks, or
+     *                 <code>null</code> if the executor itself does
+     * @param task  the task
+     * @return the future of the task
+     */
+    public static <T> Future<T> submit(ExecutorService executor, final Semaphore permits, final Callable<T> task) {
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                if (permits != null) {
+                    permits.acquire();
+                }
+                Thread thread = Thread.currentThread();
+                ClassLoader orig = thread.getContextClassLoader();
+                thread.setContextClassLoader(cl);
+                try {
+                    return task.call();
+                } finally {
+                    thread.setContextClassLoader(orig);
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            }
+        });
+    }
+}
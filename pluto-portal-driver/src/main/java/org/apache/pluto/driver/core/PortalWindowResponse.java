@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper used when a portlet window is processed on a thread other
+ * than the request thread.
+ * <p>
+ * Cookies and HTTP headers added through this wrapper are recorded instead of
+ * being added to the wrapped response, which is not thread safe. After the
+ * window has been processed, the recorded changes can be applied to the
+ * wrapped response with {@link #applyHeaders()}, in page order.
+ */
+public class PortalWindowResponse extends HttpServletResponseWrapper {
+
+    private final HttpServletResponse original;
+
+    private final List<Change> changes = new ArrayList<Change>();
+
+    public PortalWindowResponse(HttpServletResponse response) {
+        super(response);
+        this.original = response;
+    }
+
+    @Override
+    public void addCookie(final Cookie cookie) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.addCookie(cookie);
+            }
+        });
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.addHeader(name, value);
+            }
+        });
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.setHeader(name, value);
+            }
+        });
+    }
+
+    @Override
+    public void addDateHeader(final String name, final long date) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.addDateHeader(name, date);
+            }
+        });
+    }
+
+    @Override
+    public void setDateHeader(final String name, final long date) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.setDateHeader(name, date);
+            }
+        });
+    }
+
+    @Override
+    public void addIntHeader(final String name, final int value) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.addIntHeader(name, value);
+            }
+        });
+    }
+
+    @Override
+    public void setIntHeader(final String name, final int value) {
+        changes.add(new Change() {
+            void apply(HttpServletResponse response) {
+                response.setIntHeader(name, value);
+            }
+        });
+    }
+
+    /**
+     * @return <code>true</code> if cookies or headers have been recorded and
+     *         not applied yet
+     */
+    public boolean hasChanges() {
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Applies the cookies and headers recorded by this wrapper to the wrapped
+     * response, in the order they were added. Must be called on the request
+     * thread.
+     */
+    public void applyHeaders() {
+        for (Change change : changes) {
+            change.apply(original);
+        }
+        changes.clear();
+    }
+
+    /** A recorded change of the response headers. */
+    private abstract static class Change {
+        abstract void apply(HttpServletResponse response);
+    }
+}
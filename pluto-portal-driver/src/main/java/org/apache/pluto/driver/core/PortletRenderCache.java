@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.portlet.CacheControl;
+import javax.portlet.PortletException;
+import javax.portlet.PortletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.pluto.container.PortletContainer;
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.PortalURLPublicParameter;
+
+/**
+ * Cache for the markup of portlet window renders, as described by the
+ * expiration cache and cache scope of the portlet.
+ * <p>
+ * Entries are keyed on the window ID, portlet mode, window state, render
+ * and public render parameters, request locale and query string. Content in
+ * private scope is additionally keyed on the user, or on the session if the
+ * user is not authenticated. The expiration time, scope and validation token
+ * set by the portlet through the {@link CacheControl} of the render response
+ * are honored. When an entry with a validation token has expired, the
+ * portlet is rendered with that token and may declare the cached content
+ * still valid.
+ * <p>
+ * The number of entries is bounded; the least recently used entry is evicted
+ * first. The entries of a window are discarded when the window receives an
+ * action or event.
+ */
+public class PortletRenderCache {
+
+    private final int maxEntries;
+
+    /** Access ordered, guarded by itself. */
+    private final Map<List<String>, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries  the maximum number of renders held by the cache
+     */
+    public PortletRenderCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<List<String>, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, Entry> eldest) {
+                if (size() > PortletRenderCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Renders the portlet window, or writes the cached markup to the response
+     * if the cache holds a valid render for the window.
+     *
+     * @param container      the portlet container
+     * @param window         the portlet window
+     * @param request        the servlet request
+     * @param response       the response buffering the window markup
+     * @param renderHeaders  the render part of a version 2 portlet, as passed to
+     *                       {@link PortletContainer#doRender}. Only the markup
+     *                       part is cached.
+     */
+    public void render(PortletContainer container, PortletWindow window, HttpServletRequest request,
+            PortalServletResponse response, String renderHeaders)
+            throws PortletException, IOException, PortletContainerException {
+        PortalURL url = PortalRequestContext.getContext(request).getRequestedPortalURL();
+        render(container, window, url, request, response, renderHeaders);
+    }
+
+    void render(PortletContainer container, PortletWindow window, PortalURL url, HttpServletRequest request,
+            PortalServletResponse response, String renderHeaders)
+            throws PortletException, IOException, PortletContainerException {
+
+        if (renderHeaders != null && !renderHeaders.equals(PortletRequest.RENDER_MARKUP)) {
+            container.doRender(window, request, response, renderHeaders);
+            return;
+        }
+
+        List<String> publicKey = createKey(window, url, request);
+        List<String> privateKey = null;
+        String user = getUser(request);
+        if (user != null) {
+            privateKey = new ArrayList<String>(publicKey);
+            privateKey.add(user);
+        }
+
+        List<String> key = publicKey;
+        Entry entry = get(publicKey);
+        if (entry == null && privateKey != null) {
+            key = privateKey;
+            entry = get(privateKey);
+        }
+
+        long now = currentTimeMillis();
+        if (entry != null && entry.isValid(now)) {
+            hits.incrementAndGet();
+            entry.writeTo(request, response);
+            return;
+        }
+
+        RenderCacheControl cacheControl = new RenderCacheControl();
+        if (entry != null) {
+            cacheControl.setETag(entry.eTag);
+        }
+        request.setAttribute(AttributeKeys.RENDER_CACHE_CONTROL, cacheControl);
+        try {
+            container.doRender(window, request, response, renderHeaders);
+        } finally {
+            request.removeAttribute(AttributeKeys.RENDER_CACHE_CONTROL);
+        }
+
+        int expirationTime = cacheControl.getExpirationTime();
+        if (entry != null && entry.eTag != null && cacheControl.useCachedContent()) {
+            // the portlet has validated the cached markup
+            revalidations.incrementAndGet();
+            String eTag = (cacheControl.getETag() != null) ? cacheControl.getETag() : entry.eTag;
+            Entry refreshed = new Entry(entry.markup, entry.title, eTag, getExpiry(now, expirationTime));
+            if (expirationTime == 0) {
+                remove(key);
+            } else {
+                put(key, refreshed);
+            }
+            response.resetBuffer();
+            refreshed.writeTo(request, response);
+            return;
+        }
+
+        misses.incrementAndGet();
+        if (entry != null) {
+            remove(key);
+        }
+        List<String> storeKey = cacheControl.isPublicScope() ? publicKey : privateKey;
+        if (expirationTime != 0 && storeKey != null) {
+            response.getWriter().flush();
+            String markup = response.getInternalBuffer().toString();
+            String title = (String) request.getAttribute(AttributeKeys.PORTLET_TITLE);
+            put(storeKey, new Entry(markup, title, cacheControl.getETag(), getExpiry(now, expirationTime)));
+        }
+    }
+
+    /**
+     * Discards the cached renders of a portlet window.
+     *
+     * @param windowId  the portlet window ID
+     */
+    public void invalidate(String windowId) {
+        synchronized (entries) {
+            for (Iterator<List<String>> it = entries.keySet().iterator(); it.hasNext();) {
+                if (it.next().get(0).equals(windowId)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all cached renders.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of renders served from the cache without invoking the portlet
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of renders for which the portlet generated the markup
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of renders for which the portlet declared the expired
+     *         markup to be still valid
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return the number of entries evicted because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PortletRenderCache[entries=" + size() + "/" + maxEntries + ", hits=" + hits + ", misses=" + misses
+                + ", revalidations=" + revalidations + ", evictions=" + evictions + "]";
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    /**
+     * Returns the current time. Overridden in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Entry get(List<String> key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void put(List<String> key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    private void remove(List<String> key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Creates the key of the window render without the user.
+     */
+    private static List<String> createKey(PortletWindow window, PortalURL url, HttpServletRequest request) {
+        String windowId = window.getId().getStringId();
+        List<String> key = new ArrayList<String>();
+        key.add(windowId);
+        key.add(String.valueOf(window.getPortletMode()));
+        key.add(String.valueOf(window.getWindowState()));
+        key.add(String.valueOf(request.getLocale()));
+        key.add(request.getQueryString());
+
+        Map<String, String[]> params = new TreeMap<String, String[]>();
+        for (PortalURLParameter pup : url.getParameters()) {
+            if (pup.getWindowId().equals(windowId) && pup.getType().equals(PortalURLParameter.PARAM_TYPE_RENDER)) {
+                params.put(pup.getName(), pup.getValues());
+            }
+        }
+        addParameters(key, PortalURLParameter.PARAM_TYPE_RENDER, params);
+
+        params.clear();
+        for (PortalURLPublicParameter prp : url.getPublicRenderParameterMapper().getPRPsForWindow(windowId, true)) {
+            params.put(prp.getName(), prp.getValues());
+        }
+        addParameters(key, PortalURLParameter.PARAM_TYPE_PUBLIC, params);
+        return key;
+    }
+
+    private static void addParameters(List<String> key, String type, Map<String, String[]> params) {
+        key.add(type);
+        key.add(Integer.toString(params.size()));
+        for (Map.Entry<String, String[]> param : params.entrySet()) {
+            String[] values = param.getValue();
+            key.add(param.getKey());
+            key.add(Integer.toString(values.length));
+            for (String value : values) {
+                key.add(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the user that content in private scope is cached for, or
+     * <code>null</code> if the user cannot be identified.
+     */
+    private static String getUser(HttpServletRequest request) {
+        if (request.getRemoteUser() != null) {
+            return "user:" + request.getRemoteUser();
+        }
+        HttpSession session = request.getSession(false);
+        return (session == null) ? null : "session:" + session.getId();
+    }
+
+    private static long getExpiry(long now, int expirationTime) {
+        return (expirationTime < 0) ? Long.MAX_VALUE : now + expirationTime * 1000L;
+    }
+
+    /**
+     * A cached render.
+     */
+    private static class Entry {
+        private final String markup;
+        private final String title;
+        private final String eTag;
+        private final long expiry;
+
+        Entry(String markup, String title, String eTag, long expiry) {
+            this.markup = markup;
+            this.title = title;
+            this.eTag = eTag;
+            this.expiry = expiry;
+        }
+
+        boolean isValid(long now) {
+            return now < expiry;
+        }
+
+        void writeTo(HttpServletRequest request, PortalServletResponse response) {
+            if (title != null) {
+                request.setAttribute(AttributeKeys.PORTLET_TITLE, title);
+            }
+            PrintWriter writer = response.getWriter();
+            writer.write(markup);
+            writer.flush();
+        }
+    }
+
+    /**
+     * The cache control passed to the render response of a cached window.
+     */
+    private static class RenderCacheControl implements CacheControl {
+        private String eTag;
+        private int expirationTime;
+        private boolean publicScope;
+        private boolean cachedContent;
+
+        public boolean useCachedContent() {
+            return cachedContent;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public int getExpirationTime() {
+            return expirationTime;
+        }
+
+        public boolean isPublicScope() {
+            return publicScope;
+        }
+
+        public void setETag(String eTag) {
+            this.eTag = eTag;
+        }
+
+        public void setExpirationTime(int expirationTime) {
+            this.expirationTime = expirationTime;
+        }
+
+        public void setPublicScope(boolean publicScope) {
+            this.publicScope = publicScope;
+        }
+
+        public void setUseCachedContent(boolean cachedContent) {
+            this.cachedContent = cachedContent;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.portlet.PortletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The render of a portlet window that has been started by the portal driver
+ * before the page is aggregated. The markup is written to a private
+ * {@link PortalServletResponse} buffer and picked up by the portlet tag.
+ * <p>
+ * A render that is cancelled may keep running until the portlet notices the
+ * interrupt. Before the servlet returns, {@link #finish(long)} waits for the
+ * render task to return; if it does not return in time, the request and
+ * response of the render are detached from the servlet request and response,
+ * which the container may recycle once the servlet has returned.
+ * <p>
+ * Cookies and HTTP headers set by the portlet are recorded, and applied to the
+ * servlet response on the request thread when the render is picked up. On a
+ * streamed page they are lost if the response has already been committed by
+ * then; a warning is logged in that case.
+ */
+public class PrefetchedRender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrefetchedRender.class);
+
+    private final String windowId;
+
+    private final PortalServletRequest request;
+
+    private final PortalServletResponse response;
+
+    private final PortalWindowResponse headers;
+
+    private final Detachable requestTarget;
+
+    private final Detachable responseTarget;
+
+    /** Set when the render task starts running, or when it is cancelled before. */
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /** Released when the render task has returned, or has been cancelled before it started. */
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private final long timeout;
+
+    private final long deadline;
+
+    private Future<?> future;
+
+    private String placeholderId;
+
+    /** Set once the render task has returned, or has been cancelled before it started. */
+    private boolean completed;
+
+    /** Receives this render once it has completed, see {@link #notifyOnCompletion(BlockingQueue)}. */
+    private BlockingQueue<? super PrefetchedRender> completionQueue;
+
+    /**
+     * Creates the buffers for a window render.
+     *
+     * @param windowId  the portlet window ID
+     * @param request   the servlet request
+     * @param response  the servlet response
+     * @param timeout   the time in milliseconds the render may take, measured
+     *                  from now. A value of 0 or less means no timeout.
+     */
+    public PrefetchedRender(String windowId, HttpServletRequest request, HttpServletResponse response, long timeout) {
+        this.windowId = windowId;
+        this.requestTarget = new Detachable(request);
+        this.responseTarget = new Detachable(response);
+        this.request = new PortalServletRequest(requestTarget.proxy(HttpServletRequest.class), request);
+        this.headers = new PortalWindowResponse(responseTarget.proxy(HttpServletResponse.class));
+        this.response = new PortalServletResponse(headers);
+        this.timeout = timeout;
+        this.deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    public String getWindowId() {
+        return windowId;
+    }
+
+    /**
+     * @return the request the window is rendered with
+     */
+    public PortalServletRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the response holding the rendered markup
+     */
+    public PortalServletResponse getResponse() {
+        return response;
+    }
+
+    public void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Wraps the render task, so that its completion can be waited for even
+     * after it has been cancelled. The wrapped task is to be submitted and its
+     * future set with {@link #setFuture(Future)}.
+     *
+     * @param task  the render task
+     * @return the wrapped task
+     */
+    public <T> Callable<T> track(final Callable<T> task) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                if (!claimed.compareAndSet(false, true)) {
+                    // cancelled before it started
+                    return null;
+                }
+                try {
+                    return task.call();
+                } finally {
+                    finished.countDown();
+                    completed();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return <code>true</code> if the render has completed, successfully or not
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * @return the time in milliseconds at which the render times out, or 0 if
+     *         it does not time out
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Adds this render to the given queue once it has completed. The render is
+     * added right away if it has already completed. The result is to be picked
+     * up with {@link #await()}.
+     *
+     * @param queue  the queue receiving the render
+     */
+    public synchronized void notifyOnCompletion(BlockingQueue<? super PrefetchedRender> queue) {
+        if (completed) {
+            queue.add(this);
+        } else {
+            completionQueue = queue;
+        }
+    }
+
+    private synchronized void completed() {
+        completed = true;
+        if (completionQueue != null) {
+            completionQueue.add(this);
+            completionQueue = null;
+        }
+    }
+
+    /**
+     * Drops the markup of the render once it has been written to the page, so
+     * that it can be collected before the page request completes.
+     */
+    public void release() {
+        StringBuffer buffer = response.getInternalBuffer().getBuffer();
+        buffer.setLength(0);
+        buffer.trimToSize();
+    }
+
+    /**
+     * @return the ID of the page element the markup is to be moved into when the
+     *         window is displayed after the rest of the page, or <code>null</code>
+     */
+    public String getPlaceholderId() {
+        return placeholderId;
+    }
+
+    public void setPlaceholderId(String placeholderId) {
+        this.placeholderId = placeholderId;
+    }
+
+    /**
+     * Cancels the render if it has not completed yet. A render that is running
+     * is interrupted, see {@link #finish(long)}.
+     */
+    public void cancel() {
+        if (claimed.compareAndSet(false, true)) {
+            finished.countDown();
+            completed();
+        }
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels the render if it has not completed yet, and waits at most the
+     * given time for the render task to return. If it does not return in
+     * time, the request and response of the render are detached, so that the
+     * portlet cannot reach the servlet request and response any more. Must be
+     * called on the request thread before the servlet returns.
+     *
+     * @param wait  the maximum time to wait in milliseconds
+     * @return <code>true</code> if the render task has returned
+     */
+    public boolean finish(long wait) {
+        cancel();
+        boolean done = false;
+        boolean interrupted = false;
+        try {
+            done = finished.await(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (!done) {
+            requestTarget.detach();
+            responseTarget.detach();
+            LOG.warn("Portlet window " + windowId + " is still rendering after the page request has completed."
+                    + " The request and response have been detached from the render.");
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return done;
+    }
+
+    /**
+     * Waits for the render to complete. Once the render has finished, the
+     * request attributes, cookies and headers set by the portlet are applied to
+     * the original request and response. Must be called on the request thread.
+     *
+     * @throws Exception  the exception thrown by the render, or a
+     *                    {@link PortletException} if the render did not
+     *                    complete in time.
+     */
+    public void await() throws Exception {
+        try {
+            if (deadline > 0) {
+                long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+                future.get(remaining, TimeUnit.MILLISECONDS);
+            } else {
+                future.get();
+            }
+            applyChanges();
+        } catch (TimeoutException e) {
+            cancel();
+            throw new PortletException("Portlet window " + windowId + " did not render within " + timeout + " ms.");
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            applyChanges();
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void applyChanges() {
+        request.applyAttributes();
+        if (headers.hasChanges() && headers.isCommitted()) {
+            LOG.warn("Portlet window " + windowId + " has set cookies or HTTP headers after the page was sent"
+                    + " to the client. They are ignored.");
+        }
+        headers.applyHeaders();
+    }
+
+    /**
+     * Forwards calls to the servlet request or response until it is detached,
+     * after which every call fails.
+     */
+    private static class Detachable implements InvocationHandler {
+        private volatile Object target;
+
+        Detachable(Object target) {
+            this.target = target;
+        }
+
+        <T> T proxy(Class<T> type) {
+            return type.cast(Proxy.newProxyInstance(PrefetchedRender.class.getClassLoader(),
+                    new Class<?>[] {type}, this));
+        }
+
+        void detach() {
+            target = null;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                } else if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return "Detachable[" + target + "]";
+            }
+            Object current = target;
+            if (current == null) {
+                throw new IllegalStateException("The page request has completed.");
+            }
+            try {
+                return method.invoke(current, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
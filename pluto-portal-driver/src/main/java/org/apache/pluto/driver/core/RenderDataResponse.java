@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper collecting the render data of a portlet window, i.e. the
+ * output of a resource request served along with an Ajax action. The content
+ * and its type are kept in the wrapper, and the status, headers and cookies
+ * are dropped, so that the wrapped response is left to the page state.
+ */
+public class RenderDataResponse extends HttpServletResponseWrapper {
+
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private final StringWriter buffer = new StringWriter();
+    private final PrintWriter writer = new PrintWriter(buffer);
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final ServletOutputStream stream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+        }
+    };
+
+    private String contentType = null;
+    private String characterEncoding = null;
+    private int status = SC_OK;
+
+    public RenderDataResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * @return the content written to the response, or <code>null</code> if
+     *         the resource request failed
+     */
+    public String getContent() {
+        if (status >= SC_BAD_REQUEST) {
+            return null;
+        }
+        writer.flush();
+        if (bytes.size() == 0) {
+            return buffer.toString();
+        }
+        try {
+            return buffer.toString() + bytes.toString(getCharacterEncoding());
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return stream;
+    }
+
+    @Override
+    public void setContentType(String type) {
+        contentType = type;
+        if (type != null) {
+            int ind = type.toLowerCase().indexOf("charset=");
+            if (ind >= 0) {
+                int end = type.indexOf(';', ind);
+                String charset = type.substring(ind + 8, (end < 0) ? type.length() : end).trim();
+                characterEncoding = charset.replace("\"", "");
+            }
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        characterEncoding = charset;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return (characterEncoding != null) ? characterEncoding : DEFAULT_CHARSET;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+    }
+
+    @Override
+    public int getBufferSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        status = SC_OK;
+    }
+
+    @Override
+    public void resetBuffer() {
+        writer.flush();
+        buffer.getBuffer().setLength(0);
+        bytes.reset();
+    }
+}
@@ -25,19 +25,28 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.pluto.container.PageResourceId;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This is a container for configured resources such as style sheets and javascript 
  * files that can be added to a portal page in the document head section.
+ * <p>
+ * The markup generated for the dependencies of a page is cached by page, and is
+ * discarded when a resource is added or a portlet application is registered or
+ * removed.
  * 
  * @author Scott Nicklous
  *
  */
-public class PageResources {
+public class PageResources implements PortletRegistryListener {
    private static final Logger LOG = LoggerFactory.getLogger(PageResources.class);
    private static final boolean isDebug = LOG.isDebugEnabled();
    @SuppressWarnings("unused")
@@ -97,9 +106,39 @@ public class PageResources {
       
    }
    
+   /**
+    * The markup generated for the dependencies of a page, and the input and
+    * cache generation it was generated from.
+    */
+   private static class PageMarkup {
+      final List<PageResourceId> prids;
+      final String contextPath;
+      final String markup;
+      final long generation;
+      PageMarkup(List<PageResourceId> prids, String contextPath, String markup, long generation) {
+         this.prids = prids;
+         this.contextPath = contextPath;
+         this.markup = markup;
+         this.generation = generation;
+      }
+
+      boolean matches(List<PageResourceId> prids, String contextPath, long generation) {
+         return this.generation == generation && this.prids.equals(prids)
+               && ((this.contextPath == null) ? contextPath == null : this.contextPath.equals(contextPath));
+      }
+   }
+
    // The map containing the current page resources
 
    private Map<PageResourceId, Source> resources = new HashMap<PageResourceId, Source>();
+
+   // The markup cache, holding the last markup generated for each page
+
+   private final ConcurrentMap<String, PageMarkup> markupCache = new ConcurrentHashMap<String, PageMarkup>();
+
+   // Counts the changes of the resources, so that markup generated before a change is not used after it
+
+   private final AtomicLong generation = new AtomicLong();
    
    public PageResources() {
    }
@@ -131,6 +170,7 @@ public class PageResources {
       if (id.getName() != null && id.getScope() != null  && type != null && 
             id.getVersion() != null && source != null) {
          resources.put(id, new Source(type, source));
+         invalidateMarkup();
       } else {
          StringBuilder txt = new StringBuilder(128);
          txt.append("Required value null when adding page Resource");
@@ -401,6 +441,51 @@ public class PageResources {
       return (markup.length() == 0) ? null : markup.toString();
    }
 
+   /**
+    * Returns the head section markup for the dependencies of a page, as
+    * {@link #getMarkup(List, String)} does. The markup is generated once and
+    * reused as long as the dependencies of the page and the context path do
+    * not change.
+    * 
+    * @param pageId        The name of the page
+    * @param prids         List of page resource IDs
+    * @param contextPath   The context path 
+    * @return              Markup string that can be added to the document head section
+    */
+   public String getMarkup(String pageId, List<PageResourceId> prids, String contextPath) {
+      if (pageId == null) {
+         return getMarkup(prids, contextPath);
+      }
+
+      long current = generation.get();
+      PageMarkup cached = markupCache.get(pageId);
+      if (cached != null && cached.matches(prids, contextPath, current)) {
+         return cached.markup;
+      }
+
+      // markup stored after a concurrent change does not match the new generation
+      String markup = getMarkup(prids, contextPath);
+      markupCache.put(pageId, new PageMarkup(new ArrayList<PageResourceId>(prids), contextPath, markup, current));
+      
+      if (isDebug) {
+         LOG.debug("Cached page resource markup for page: " + pageId);
+      }
+      return markup;
+   }
+
+   public void portletApplicationRegistered(PortletRegistryEvent event) {
+      invalidateMarkup();
+   }
+
+   public void portletApplicationRemoved(PortletRegistryEvent event) {
+      invalidateMarkup();
+   }
+
+   private void invalidateMarkup() {
+      generation.incrementAndGet();
+      markupCache.clear();
+   }
+
    @Override
    public String toString() {
       StringBuilder txt = new StringBuilder(128);
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.tags;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.core.PrefetchedRender;
+
+/**
+ * Writes the markup of the portlets that were still rendering when their
+ * portlet tag was processed on a streamed page. Each portlet is written to a
+ * hidden element as soon as it is complete, together with a script that moves
+ * the markup into the placeholder left by the render and title tags. The
+ * portlets are written in the order in which they complete, and the markup of
+ * each is released once written.
+ * <p>
+ * The tag must be placed at the end of the page body of every theme used with
+ * the streaming mode. The portal driver fails the request if portlets are left
+ * unwritten. The tag does nothing if the page is not streamed.
+ * <p>
+ * The markup of a deferred portlet is parsed inside the hidden element before
+ * it is moved:
+ * <ul>
+ * <li>Inline scripts run when the markup arrives at the end of the page, not
+ * at the position of the portlet. Output of <code>document.write</code> is
+ * moved along with the markup, but scripts that locate their surroundings
+ * in the document see the hidden element.</li>
+ * <li>The response has usually been committed by the time the portlet
+ * completes, so cookies and HTTP headers set by the portlet are ignored.</li>
+ * </ul>
+ */
+public class PortletDeferredRenderTag extends TagSupport {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Moves the content of the element with ID 'src' into the element with ID 'dest'. */
+    private static final String FILL_SCRIPT =
+        "<script type=\"text/javascript\">\n" +
+        "function plutoFillDeferred(src, dest) {\n" +
+        "   var s = document.getElementById(src), d = document.getElementById(dest);\n" +
+        "   if (s) {\n" +
+        "      while (d && s.firstChild) {\n" +
+        "         d.appendChild(s.firstChild);\n" +
+        "      }\n" +
+        "      s.parentNode.removeChild(s);\n" +
+        "   }\n" +
+        "}\n" +
+        "</script>\n";
+
+    public int doEndTag() throws JspException {
+        try {
+            writeDeferredRenders(pageContext.getOut(), pageContext.getRequest());
+        } catch (IOException ex) {
+            throw new JspException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JspException(ex);
+        }
+        return EVAL_PAGE;
+    }
+
+    /**
+     * Writes the deferred renders of the request as they complete, and empties
+     * the list of deferred renders.
+     */
+    @SuppressWarnings("unchecked")
+    static void writeDeferredRenders(Writer out, ServletRequest request)
+            throws IOException, InterruptedException {
+        List<PrefetchedRender> deferred = (List<PrefetchedRender>)
+                request.getAttribute(AttributeKeys.DEFERRED_RENDERS);
+        if (deferred == null || deferred.isEmpty()) {
+            return;
+        }
+        Map<String, PrefetchedRender> renders = (Map<String, PrefetchedRender>)
+                request.getAttribute(AttributeKeys.PREFETCHED_RENDERS);
+
+        // drop the references, so that the markup can be collected once written
+        List<PrefetchedRender> pending = new ArrayList<PrefetchedRender>(deferred);
+        deferred.clear();
+        BlockingQueue<PrefetchedRender> completed = new LinkedBlockingQueue<PrefetchedRender>();
+        for (PrefetchedRender render : pending) {
+            if (renders != null) {
+                renders.remove(render.getWindowId());
+            }
+            render.notifyOnCompletion(completed);
+        }
+
+        out.write(FILL_SCRIPT);
+        while (!pending.isEmpty()) {
+            PrefetchedRender render = nextRender(pending, completed);
+            pending.remove(render);
+            try {
+                writeRender(out, request, render);
+            } finally {
+                render.release();
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Returns the next render that has completed, or the render that has
+     * timed out first.
+     */
+    private static PrefetchedRender nextRender(List<PrefetchedRender> pending,
+            BlockingQueue<PrefetchedRender> completed) throws InterruptedException {
+        PrefetchedRender first = null;
+        for (PrefetchedRender render : pending) {
+            if (render.getDeadline() > 0
+                    && (first == null || render.getDeadline() < first.getDeadline())) {
+                first = render;
+            }
+        }
+        PrefetchedRender next;
+        if (first == null) {
+            next = completed.take();
+        } else {
+            long wait = first.getDeadline() - System.currentTimeMillis();
+            next = completed.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+        }
+        // the render fails with a timeout when awaited
+        return (next != null) ? next : first;
+    }
+
+    private static void writeRender(Writer out, ServletRequest request, PrefetchedRender render)
+            throws IOException {
+        String id = render.getPlaceholderId();
+
+        out.write("<div id=\"" + id + "-content\" style=\"display:none\">");
+        try {
+            render.await();
+            out.write(render.getResponse().getInternalBuffer().getBuffer().toString());
+        } catch (Throwable th) {
+            PortletRenderTag.printError(out, render.getWindowId(), th);
+        }
+        out.write("</div>\n");
+
+        out.write("<span id=\"" + id + "-title-content\" style=\"display:none\">");
+        out.write(PortletTitleTag.getTitle(request, render.getWindowId()));
+        out.write("</span>\n");
+
+        out.write("<script type=\"text/javascript\">");
+        out.write("plutoFillDeferred('" + id + "-content', '" + id + "');");
+        out.write("plutoFillDeferred('" + id + "-title-content', '" + id + "-title');");
+        out.write("</script>\n");
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.pluto.driver.tags;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.TagSupport;
@@ -59,17 +60,29 @@ public class PortletRenderTag extends TagSupport {
                 throw new JspException(ex);
             }
         }
+        // If the rendering is still running, leave a placeholder for the markup.
+        else if (parentTag.getStatus() == PortletTag.PENDING) {
+            try {
+                pageContext.getOut().print("<div id=\"" 
+                        + parentTag.getPendingRender().getPlaceholderId() + "\"></div>");
+            } catch (IOException ex) {
+                throw new JspException(ex);
+            }
+        }
         // Otherwise, print the error stack trace.
         else {
             try {
-            	PortletWindowConfig windowConfig =
-                    PortletWindowConfig.fromId(parentTag.getEvaluatedPortletId());
-            	
-                pageContext.getOut().print("Error rendering portlet " + windowConfig.getPortletName() + ".");
-                pageContext.getOut().print("<pre>");
-                parentTag.getThrowable().printStackTrace(
-                		new PrintWriter(pageContext.getOut()));
-                pageContext.getOut().print("</pre>");
+                printError(pageContext.getOut(), parentTag.getEvaluatedPortletId(),
+                        parentTag.getThrowable());
+            } catch (IOException ex) {
+                throw new JspException(ex);
+            }
+        }
+        
+        // Send what we have so far if the page is streamed.
+        if (parentTag.isStreaming()) {
+            try {
+                pageContext.getOut().flush();
             } catch (IOException ex) {
                 throw new JspException(ex);
             }
@@ -79,6 +92,19 @@ public class PortletRenderTag extends TagSupport {
         return SKIP_BODY;
     }
 
+    /**
+     * Prints the error details for a portlet that could not be rendered.
+     */
+    static void printError(Writer out, String portletId, Throwable throwable)
+            throws IOException {
+        PortletWindowConfig windowConfig = PortletWindowConfig.fromId(portletId);
+
+        out.write("Error rendering portlet " + windowConfig.getPortletName() + ".");
+        out.write("<pre>");
+        throwable.printStackTrace(new PrintWriter(out));
+        out.write("</pre>");
+    }
+
 
 }
 
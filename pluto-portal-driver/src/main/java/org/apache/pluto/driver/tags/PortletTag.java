@@ -23,6 +23,7 @@ import java.util.Map;
 import javax.portlet.PortletRequest;
 import javax.portlet.WindowState;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.jsp.JspException;
@@ -38,7 +39,9 @@ import org.apache.pluto.driver.AttributeKeys;
 import org.apache.pluto.driver.config.DriverConfiguration;
 import org.apache.pluto.driver.core.PortalRequestContext;
 import org.apache.pluto.driver.core.PortalServletResponse;
+import org.apache.pluto.driver.core.PortletRenderCache;
 import org.apache.pluto.driver.core.PortletWindowImpl;
+import org.apache.pluto.driver.core.PrefetchedRender;
 import org.apache.pluto.driver.services.portal.PortletWindowConfig;
 import org.apache.pluto.driver.url.PortalURL;
 import org.apache.pluto.tags.el.ExpressionEvaluatorProxy;
@@ -62,6 +65,9 @@ public class PortletTag extends BodyTagSupport {
    /** Status constant for successful rendering. */
    public static final int       SUCCESS          = 1;
 
+   /** Status constant for a rendering that is displayed at the end of a streamed page. */
+   public static final int       PENDING          = 2;
+
    // Private Member Variables ------------------------------------------------
 
    /** The portlet ID attribute passed into this tag. */
@@ -79,6 +85,15 @@ public class PortletTag extends BodyTagSupport {
    /** The cached Throwable instance when fail to render the portlet. */
    private Throwable             throwable;
 
+   /** The render to be displayed later when the status is PENDING. */
+   private PrefetchedRender      pendingRender;
+
+   /** The prefetched render whose markup is displayed by the tag body. */
+   private PrefetchedRender      usedRender;
+
+   /** Whether the page is being streamed. */
+   private boolean               streaming;
+
    // Tag Attribute Accessors -------------------------------------------------
 
    /**
@@ -158,6 +173,16 @@ public class PortletTag extends BodyTagSupport {
 
       }
 
+      // Pick up the markup if the portal driver has already started the render.
+      PrefetchedRender prefetched = takePrefetchedRender(pageContext.getRequest(), evaluatedPortletId);
+      List<PrefetchedRender> deferred = getDeferredRenders();
+      streaming = (deferred != null);
+      pendingRender = null;
+      usedRender = null;
+      if (prefetched != null) {
+         return usePrefetchedRender(prefetched, deferred);
+      }
+
       // Render the portlet and cache the response.
       try {
          String renderHeaders = null;
@@ -177,7 +202,13 @@ public class PortletTag extends BodyTagSupport {
             }
          }
 
-         container.doRender(window, (HttpServletRequest) pageContext.getRequest(), portalResponse, renderHeaders);
+         PortletRenderCache renderCache = (PortletRenderCache) servletContext.getAttribute(AttributeKeys.RENDER_CACHE);
+         if (renderCache != null) {
+            renderCache.render(container, window, (HttpServletRequest) pageContext.getRequest(), portalResponse,
+                  renderHeaders);
+         } else {
+            container.doRender(window, (HttpServletRequest) pageContext.getRequest(), portalResponse, renderHeaders);
+         }
          response = portalResponse;
          status = SUCCESS;
       } catch (Throwable th) {
@@ -189,8 +220,56 @@ public class PortletTag extends BodyTagSupport {
       return EVAL_BODY_INCLUDE;
    }
 
+   /**
+    * Method invoked when the end tag is encountered. Releases the markup of a
+    * prefetched render once the tag body has written it.
+    * 
+    * @throws JspException
+    *            if an error occurs.
+    */
+   public int doEndTag() throws JspException {
+      if (usedRender != null) {
+         usedRender.release();
+         usedRender = null;
+      }
+      response = null;
+      return EVAL_PAGE;
+   }
+
    // Package Methods ---------------------------------------------------------
 
+   /**
+    * Picks up the result of a render started by the portal driver. On a
+    * streamed page, a render that is not complete yet is added to the deferred
+    * renders and the status is set to PENDING.
+    * 
+    * @param prefetched
+    *           the render started for this window.
+    * @param deferred
+    *           the renders displayed at the end of the page, or <code>null</code> if the page is not streamed.
+    * @return the value to be returned by {@link #doStartTag()}.
+    */
+   int usePrefetchedRender(PrefetchedRender prefetched, List<PrefetchedRender> deferred) {
+      if (deferred != null && !prefetched.isDone()) {
+         // leave a placeholder, the markup is written at the end of the page
+         prefetched.setPlaceholderId("pluto-deferred-" + (deferred.size() + 1));
+         deferred.add(prefetched);
+         pendingRender = prefetched;
+         status = PENDING;
+         return EVAL_BODY_INCLUDE;
+      }
+      usedRender = prefetched;
+      try {
+         prefetched.await();
+         response = prefetched.getResponse();
+         status = SUCCESS;
+      } catch (Throwable th) {
+         status = FAILED;
+         throwable = th;
+      }
+      return EVAL_BODY_INCLUDE;
+   }
+
    /**
     * Returns the rendering status.
     * 
@@ -209,6 +288,24 @@ public class PortletTag extends BodyTagSupport {
       return response;
    }
 
+   /**
+    * Returns the render that is displayed at the end of the page.
+    * 
+    * @return the pending render, or <code>null</code> if the status is not PENDING.
+    */
+   PrefetchedRender getPendingRender() {
+      return pendingRender;
+   }
+
+   /**
+    * Returns whether the page is being streamed.
+    * 
+    * @return <code>true</code> if the page is streamed.
+    */
+   boolean isStreaming() {
+      return streaming;
+   }
+
    /**
     * Returns the error that has occurred when rendering portlet.
     * 
@@ -229,6 +326,33 @@ public class PortletTag extends BodyTagSupport {
 
    // Private Methods ---------------------------------------------------------
 
+   /**
+    * Returns the render started for a window by the portal driver, if any, and
+    * removes it from the prefetched renders. As the tag releases the markup of
+    * the render once it has written it, a window displayed twice on the page is
+    * rendered inline the second time.
+    * 
+    * @param request    the page request
+    * @param windowId   the ID of the window
+    * @return the prefetched render, or <code>null</code> if the window is to be rendered inline.
+    */
+   @SuppressWarnings("unchecked")
+   static PrefetchedRender takePrefetchedRender(ServletRequest request, String windowId) {
+      Map<String, PrefetchedRender> renders = (Map<String, PrefetchedRender>) request.getAttribute(
+            AttributeKeys.PREFETCHED_RENDERS);
+      return (renders == null) ? null : renders.remove(windowId);
+   }
+
+   /**
+    * Returns the list of renders displayed at the end of the page.
+    * 
+    * @return the deferred renders, or <code>null</code> if the page is not streamed.
+    */
+   @SuppressWarnings("unchecked")
+   private List<PrefetchedRender> getDeferredRenders() {
+      return (List<PrefetchedRender>) pageContext.getRequest().getAttribute(AttributeKeys.DEFERRED_RENDERS);
+   }
+
    /**
     * Evaluates the portlet ID attribute passed into this tag. This method evaluates the member variable
     * <code>portletId</code> and saves the evaluated result to <code>evaluatedPortletId</code>
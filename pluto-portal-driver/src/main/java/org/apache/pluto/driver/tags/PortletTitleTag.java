@@ -18,6 +18,7 @@ package org.apache.pluto.driver.tags;
 
 import java.io.IOException;
 
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.TagSupport;
@@ -58,22 +59,33 @@ public class PortletTitleTag extends TagSupport {
         
         // Print out the portlet title to page.
         try {
-        	String title = (String) pageContext.getRequest().getAttribute(
-            		AttributeKeys.PORTLET_TITLE);
-        	
-        	if(title == null)
-        	{
-        	 	PortletWindowConfig windowConfig =
-                    PortletWindowConfig.fromId(parentTag.getEvaluatedPortletId());
-        	 	
-        		title = "[ " + windowConfig.getPortletName() + " not ready ]";
-        	}
-        	
-            pageContext.getOut().print(title);
+            if (parentTag.getStatus() == PortletTag.PENDING) {
+                // The title is known once the portlet has rendered
+                pageContext.getOut().print("<span id=\"" 
+                        + parentTag.getPendingRender().getPlaceholderId() + "-title\"></span>");
+            } else {
+                pageContext.getOut().print(getTitle(pageContext.getRequest(),
+                        parentTag.getEvaluatedPortletId()));
+            }
         } catch (IOException ex) {
             throw new JspException(ex);
         }
         return SKIP_BODY;
     }
+
+    /**
+     * Returns the title set by the portlet that was rendered last.
+     */
+    static String getTitle(ServletRequest request, String portletId) {
+    	String title = (String) request.getAttribute(AttributeKeys.PORTLET_TITLE);
+    	
+    	if(title == null)
+    	{
+    	 	PortletWindowConfig windowConfig = PortletWindowConfig.fromId(portletId);
+    	 	
+    		title = "[ " + windowConfig.getPortletName() + " not ready ]";
+    	}
+    	return title;
+    }
 }
 
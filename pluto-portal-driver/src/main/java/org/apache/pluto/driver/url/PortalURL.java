@@ -42,7 +42,8 @@ public interface PortalURL extends Cloneable {
       Resource,
       AjaxAction,
       PartialAction,
-      Portal;
+      Portal,
+      BatchAction;
    }
    
    public PortletParameterFactory getPortletParameterFactory(PortletRequestContext reqctx);
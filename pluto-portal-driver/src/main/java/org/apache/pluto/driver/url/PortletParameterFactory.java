@@ -58,6 +58,7 @@ public class PortletParameterFactory {
       actionTypes.add(URLType.Action);
       actionTypes.add(URLType.AjaxAction);
       actionTypes.add(URLType.PartialAction);
+      actionTypes.add(URLType.BatchAction);
    }
    
    private final static HashMap<PortalURL.URLType, String> urlTypeMap  = 
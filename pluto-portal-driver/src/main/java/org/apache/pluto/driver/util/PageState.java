@@ -21,12 +21,19 @@ package org.apache.pluto.driver.util;
 
 import static java.util.logging.Level.*;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import javax.portlet.PortletConfig;
@@ -36,6 +43,8 @@ import javax.portlet.WindowState;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
 import org.apache.pluto.driver.AttributeKeys;
 import org.apache.pluto.driver.config.DriverConfiguration;
 import org.apache.pluto.driver.core.PortalRequestContext;
@@ -54,6 +63,20 @@ import org.apache.pluto.driver.url.PortalURLPublicParameter;
  *
  */
 public class PageState {
+   
+   /**
+    * The request header in which the portlet hub sends the state hashes of the
+    * portlets.
+    */
+   public static final String STATE_HASHES_HEADER = "X-Pluto-State-Hashes";
+   
+   private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
+   
+   /** The static data of the portlets by portlet ID. */
+   private static final ConcurrentMap<String, PortletMetadata> METADATA = 
+         new ConcurrentHashMap<String, PortletMetadata>();
+   
    private static final String LOG_CLASS = PageState.class.getName();
    private final Logger        LOGGER    = Logger.getLogger(LOG_CLASS);
 
@@ -63,6 +86,9 @@ public class PageState {
    private PortalURL             portalUrl;
    private ServletContext        servletContext;
    
+   /** The render data and its MIME type by portlet ID. */
+   private final Map<String, String[]> renderData = new HashMap<String, String[]>();
+   
    /**
     * Constructor. Access the classes containing the necessary data.
     *  
@@ -248,6 +274,42 @@ public class PageState {
       return ub.toString();
    }
    
+   /**
+    * Returns the IDs of the portlets whose state differs from the state known 
+    * to the client, i.e. the portlets written to the page state for the
+    * given state hashes.
+    * 
+    * @param   stateHashes  the state hashes known to the client, or 
+    *                       <code>null</code> if the client knows no state
+    * @return  the portlet IDs in page order
+    */
+   public List<String> getChangedPortletIds(String stateHashes) {
+      Map<String, String> knownHashes = parseStateHashes(stateHashes);
+      Map<String, List<PortalURLParameter>> windowParameters = getWindowParameters();
+      PublicRenderParameterMapper mapper = portalUrl.getPublicRenderParameterMapper();
+      List<String> pids = new ArrayList<String>();
+      for (String pid : getPortletIds()) {
+         String hash = hash(getWindowParameters(windowParameters, pid), mapper.getPRPsForWindow(pid, true), 
+               getPortletMode(pid), getWindowState(pid));
+         if (!hash.equals(knownHashes.get(getMetadata(pid).namespace))) {
+            pids.add(pid);
+         }
+      }
+      return pids;
+   }
+   
+   /**
+    * Sets the render data of a portlet, which is passed to the portlet client
+    * with its new state.
+    * 
+    * @param   portletId   the portlet ID
+    * @param   data        the render data
+    * @param   mimeType    the MIME type of the render data
+    */
+   public void setRenderData(String portletId, String data, String mimeType) {
+      renderData.put(portletId, new String[] {data, mimeType});
+   }
+   
    /**
     * Returns the page state needed by the portlet hub as a JSON string suitable
     * for transport to the client.
@@ -255,113 +317,410 @@ public class PageState {
     * @return  JSON string representing the current page state
     */
    public String toJSONString() {
-      StringBuffer json = new StringBuffer(1024);
-      json.append("{\"portlets\" : {\n");
-      
-      Collection<PortalURLParameter> pups = getParameters();
-      Map<String, String[]> pubparms = getPublicParameters();
+      return toJSONString(null);
+   }
+   
+   /**
+    * Returns the page state as a JSON string, leaving out the portlets whose
+    * state the client already has.
+    * 
+    * @param   stateHashes  the state hashes known to the client, or 
+    *                       <code>null</code> for the full page state
+    * @return  JSON string representing the changed page state
+    * @see #writeJSON(Writer, String)
+    */
+   public String toJSONString(String stateHashes) {
+      StringBuilderWriter json = new StringBuilderWriter();
+      try {
+         writeJSON(json, stateHashes);
+      } catch (IOException e) {
+         // not thrown by a StringBuilderWriter
+         throw new IllegalStateException(e);
+      }
+      return json.toString();
+   }
+   
+   /**
+    * Writes the page state as JSON, leaving out the portlets whose state the 
+    * client already has. Each portlet in the page state carries a hash of its 
+    * state, which the portlet hub sends back with an Ajax action in the 
+    * {@link #STATE_HASHES_HEADER} header, in the format
+    * <code>namespace:hash,namespace:hash</code>. The portlet hub keeps the
+    * state of the portlets left out, and it has the static data of the page 
+    * from the initial page state, so only the states of the remaining portlets
+    * are written.
+    * <p>
+    * The JSON is written directly to the writer, so that it does not need to
+    * be assembled in memory, and the static data of the portlets is taken
+    * from a cache.
+    * 
+    * @param   out          receives the JSON
+    * @param   stateHashes  the state hashes known to the client, or 
+    *                       <code>null</code> for the full page state
+    */
+   public void writeJSON(Writer out, String stateHashes) throws IOException {
       PublicRenderParameterMapper mapper = portalUrl.getPublicRenderParameterMapper();
-      int numGroups = mapper.getNumberOfGroups();
+      Map<String, String> knownHashes = parseStateHashes(stateHashes);
+      boolean delta = (stateHashes != null);
       
+      Map<String, List<PortalURLParameter>> windowParameters = getWindowParameters();
+      
+      out.write("{\"portlets\" : {\n");
       boolean sep = false;
       for (String pid : getPortletIds()) {
+         PortletMetadata metadata = getMetadata(pid);
+         List<PortalURLParameter> pups = getWindowParameters(windowParameters, pid);
+         List<PortalURLPublicParameter> prps = mapper.getPRPsForWindow(pid, true);
+         String portletMode = getPortletMode(pid);
+         String windowState = getWindowState(pid);
+         String hash = hash(pups, prps, portletMode, windowState);
+         if (delta && hash.equals(knownHashes.get(metadata.namespace))) {
+            continue;
+         }
+         
          if (sep) {
-            json.append(",\n");
+            out.write(",\n");
          }
          sep = true;
-         json.append("   \"" + getNameSpace(pid) + "\" : {\n");
-         json.append("      \"state\" : {\n");
-         json.append("         \"parameters\" : {\n");
+         out.write("   \"");
+         out.write(metadata.namespace);
+         out.write("\" : {\n");
+         out.write("      \"state\" : {\n");
+         out.write("         \"parameters\" : {\n");
 
-         // Add the portlet parameters
-         String c1 = "            \"";
-         for (PortalURLParameter pup : pups){
-            if (pup.getWindowId().equals(pid)){
-               json.append(c1  + pup.getName() + "\" : [");
-               String c2 = "";
-               for (String val : pup.getValues()) {
-                  json.append(c2 + " \"" + val + "\"");
-                  c2 = ",";
-               }
-               json.append("]");
-               c1 = ",\n            \"";
-            }
+         // Add the portlet parameters and the public render parameter values for this portlet
+         String c1 = "            ";
+         for (PortalURLParameter pup : pups) {
+            writeParameter(out, c1, pup.getName(), pup.getValues());
+            c1 = ",\n            ";
+         }
+         for (PortalURLPublicParameter prp : prps) {
+            writeParameter(out, c1, prp.getName(), prp.getValues());
+            c1 = ",\n            ";
          }
          
-         // Add the public render parameter values for this portlet
-         
-         for (PortalURLPublicParameter prp : mapper.getPRPsForWindow(pid, true)) {
-            json.append(c1 + prp.getName() + "\" : [");
-            String c2 = "";
-            for (String val : prp.getValues()) {
-               json.append(c2 + " \"" + val + "\"");
-               c2 = ",";
+         out.write("         }, \n");
+         out.write("         \"portletMode\" : ");
+         writeString(out, portletMode);
+         out.write(", \n");
+         out.write("         \"windowState\" : ");
+         writeString(out, windowState);
+         out.write("\n");
+         out.write("      },\n");
+         out.write("      \"stateHash\" : \"");
+         out.write(hash);
+         out.write('"');
+         if (delta) {
+            if (renderData.containsKey(pid)) {
+               out.write(",\n");
+               writeRenderData(out, pid);
             }
-            json.append("]");
-            c1 = ",\n            \"";
+            out.write("\n   }");
+            continue;
          }
+         out.write(",\n");
          
-//          Set<String> prpnames = getPRPNames(pid);
-//          for (String prp : pubparms.keySet()) {
-//             if (prpnames.contains(prp)) {
-//                json.append(c1 + prp + "\" : [");
-//                String c2 = "";
-//                for (String val : (String[])pubparms.get(prp)) {
-//                   json.append(c2 + " \"" + val + "\"");
-//                   c2 = ",";
-//                }
-//                json.append("]");
-//                c1 = ",\n            \"";
-//             }
-//          }
-
-         json.append("         }, \n");
-         json.append("         \"portletMode\" : \"" + getPortletMode(pid) + "\", \n");
-         json.append("         \"windowState\" : \"" + getWindowState(pid) + "\"\n");
-         json.append("      },\n");
-//          json.append("      \"pubParms\" : [" + getPRPNamesAsString(pid) + "],\n");
-         
-         json.append("      \"pubParms\" : {");
+         out.write("      \"pubParms\" : {");
          String c2 = "";
          for (PortalURLPublicParameter prp : mapper.getPRPsForWindow(pid, false)) {
-            int group = mapper.getIndex(prp);
-            json.append(c2);
-            json.append("\"");
-            json.append(prp.getName());
-            json.append("\" : \"");
-            json.append(String.valueOf(group));
-            json.append("\"");
+            out.write(c2);
+            writeString(out, prp.getName());
+            out.write(" : \"");
+            out.write(String.valueOf(mapper.getIndex(prp)));
+            out.write('"');
             c2 = ", ";
          }
-         json.append("},\n");
+         out.write("},\n");
          
-         json.append("      \"allowedPM\" : [" + getPortletModesAsString(pid) + "],\n");
-         json.append("      \"allowedWS\" : [" + getWindowStatesAsString(pid) + "],\n");
-         json.append("      \"renderData\" : {\n");
-         json.append("         \"renderData\" : null,\n");
-         json.append("         \"mimeType\" : \"text/plain\"\n");
-         json.append("      },\n");
-         json.append("      \"urlpid\" : \"" + pid + "\"\n");
-         json.append("   }");
+         out.write("      \"allowedPM\" : [");
+         out.write(metadata.allowedPM);
+         out.write("],\n");
+         out.write("      \"allowedWS\" : [");
+         out.write(metadata.allowedWS);
+         out.write("],\n");
+         writeRenderData(out, pid);
+         out.write(",\n");
+         out.write("      \"urlpid\" : ");
+         writeString(out, pid);
+         out.write("\n");
+         out.write("   }");
+      }
+      
+      if (delta) {
+         out.write("\n}}");
+         return;
       }
       
-      json.append("\n},\n\"prpMap\" : {");
+      out.write("\n},\n\"prpMap\" : {");
       String sep1 = "";
       for (int ii=0; ii < mapper.getNumberOfGroups(); ii++) {
-         json.append(sep1).append("\n   \"").append(String.valueOf(ii)).append("\" : {");
+         out.write(sep1);
+         out.write("\n   \"");
+         out.write(String.valueOf(ii));
+         out.write("\" : {");
          sep1 = ",";
          String sep2 = "";
          for (PortalURLPublicParameter prp : mapper.getPublicParameterGroup(ii)) {
-            json.append(sep2).append("\n      \"")
-                .append(getNameSpace(prp.getWindowId()))
-                .append("\" : \"")
-                .append(prp.getName()).append("\"");
+            out.write(sep2);
+            out.write("\n      \"");
+            out.write(getMetadata(prp.getWindowId()).namespace);
+            out.write("\" : ");
+            writeString(out, prp.getName());
             sep2 = ", ";
          }
-         json.append("   }");
+         out.write("   }");
+      }
+      out.write("\n}}");
+   }
+   
+   /**
+    * Writes the render data of a portlet, which is <code>null</code> unless
+    * it has been set.
+    */
+   private void writeRenderData(Writer out, String pid) throws IOException {
+      String[] data = renderData.get(pid);
+      out.write("      \"renderData\" : {\n");
+      out.write("         \"renderData\" : ");
+      writeString(out, (data == null) ? null : data[0]);
+      out.write(",\n");
+      out.write("         \"mimeType\" : ");
+      writeString(out, (data == null || data[1] == null) ? "text/plain" : data[1]);
+      out.write("\n");
+      out.write("      }");
+   }
+   
+   /**
+    * Returns the parameters of the current URL by window, in the order of the URL.
+    */
+   private Map<String, List<PortalURLParameter>> getWindowParameters() {
+      Map<String, List<PortalURLParameter>> windowParameters = new HashMap<String, List<PortalURLParameter>>();
+      for (PortalURLParameter pup : getParameters()) {
+         List<PortalURLParameter> pups = windowParameters.get(pup.getWindowId());
+         if (pups == null) {
+            pups = new ArrayList<PortalURLParameter>();
+            windowParameters.put(pup.getWindowId(), pups);
+         }
+         pups.add(pup);
+      }
+      return windowParameters;
+   }
+   
+   private static List<PortalURLParameter> getWindowParameters(Map<String, List<PortalURLParameter>> windowParameters, 
+         String pid) {
+      List<PortalURLParameter> pups = windowParameters.get(pid);
+      if (pups == null) {
+         pups = Collections.emptyList();
+      }
+      return pups;
+   }
+   
+   /**
+    * Writes a parameter as a JSON member with an array of values.
+    */
+   private static void writeParameter(Writer out, String prefix, String name, String[] values) 
+         throws IOException {
+      out.write(prefix);
+      writeString(out, name);
+      out.write(" : [");
+      String sep = "";
+      for (String val : values) {
+         out.write(sep);
+         out.write(' ');
+         writeString(out, val);
+         sep = ",";
+      }
+      out.write(']');
+   }
+   
+   /**
+    * Writes a JSON string. Besides the characters that JSON requires to be
+    * escaped, '&lt;' is escaped, as the page state is embedded in a script 
+    * element of the page, and the line separators that JavaScript does not 
+    * allow in string literals.
+    */
+   private static void writeString(Writer out, String str) throws IOException {
+      if (str == null) {
+         out.write("null");
+         return;
+      }
+      out.write('"');
+      int start = 0;
+      for (int ii = 0; ii < str.length(); ii++) {
+         char c = str.charAt(ii);
+         if (c >= 0x20 && c != '"' && c != '\\' && c != '<' && c != '\u2028' && c != '\u2029') {
+            continue;
+         }
+         out.write(str, start, ii - start);
+         start = ii + 1;
+         switch (c) {
+         case '"':
+            out.write("\\\"");
+            break;
+         case '\\':
+            out.write("\\\\");
+            break;
+         case '\n':
+            out.write("\\n");
+            break;
+         case '\r':
+            out.write("\\r");
+            break;
+         case '\t':
+            out.write("\\t");
+            break;
+         default:
+            String hex = Integer.toHexString(c);
+            out.write("\\u");
+            out.write("0000", 0, 4 - hex.length());
+            out.write(hex);
+         }
+      }
+      if (start == 0) {
+         out.write(str);
+      } else {
+         out.write(str, start, str.length() - start);
+      }
+      out.write('"');
+   }
+   
+   /**
+    * Returns the static data of a portlet, which is cached until a portlet 
+    * application is registered or removed.
+    */
+   private PortletMetadata getMetadata(String portletId) {
+      PortletMetadata metadata = METADATA.get(portletId);
+      if (metadata == null) {
+         metadata = new PortletMetadata(getNameSpace(portletId), getPortletModesAsString(portletId), 
+               getWindowStatesAsString(portletId));
+         METADATA.putIfAbsent(portletId, metadata);
+      }
+      return metadata;
+   }
+   
+   /**
+    * Parses the state hashes sent by the portlet hub.
+    * 
+    * @param   stateHashes  the state hashes, may be <code>null</code>
+    * @return  the state hashes by portlet namespace
+    */
+   private static Map<String, String> parseStateHashes(String stateHashes) {
+      Map<String, String> hashes = new HashMap<String, String>();
+      if (stateHashes != null) {
+         for (String entry : stateHashes.split(",")) {
+            int ind = entry.indexOf(':');
+            if (ind > 0) {
+               hashes.put(entry.substring(0, ind).trim(), entry.substring(ind + 1).trim());
+            }
+         }
+      }
+      return hashes;
+   }
+   
+   /**
+    * Computes the 64-bit FNV-1a hash of the state of a portlet.
+    */
+   private static String hash(List<PortalURLParameter> pups, List<PortalURLPublicParameter> prps, 
+         String portletMode, String windowState) {
+      long hash = FNV_OFFSET;
+      for (PortalURLParameter pup : pups) {
+         hash = hash(hash, pup.getName(), pup.getValues());
+      }
+      for (PortalURLPublicParameter prp : prps) {
+         hash = hash(hash, prp.getName(), prp.getValues());
+      }
+      hash = hash(hash, portletMode);
+      hash = hash(hash, windowState);
+      return Long.toHexString(hash);
+   }
+   
+   private static long hash(long hash, String name, String[] values) {
+      hash = hash(hash, name);
+      for (String val : values) {
+         hash = hash(hash, val);
+      }
+      // separates the values of consecutive parameters
+      return (hash ^ 0xffff) * FNV_PRIME;
+   }
+   
+   private static long hash(long hash, String str) {
+      if (str != null) {
+         for (int ii = 0; ii < str.length(); ii++) {
+            hash = (hash ^ str.charAt(ii)) * FNV_PRIME;
+         }
+      }
+      // terminates the string, a character that cannot occur in it
+      return (hash ^ 0xfffe) * FNV_PRIME;
+   }
+   
+   /**
+    * Discards the cached static data of the portlets when portlet applications
+    * are registered or removed, as their portlet modes and window states may 
+    * have changed.
+    */
+   public static final PortletRegistryListener REGISTRY_LISTENER = new PortletRegistryListener() {
+      public void portletApplicationRegistered(PortletRegistryEvent event) {
+         METADATA.clear();
       }
-      json.append("\n}}");
 
-      return json.toString();
+      public void portletApplicationRemoved(PortletRegistryEvent event) {
+         METADATA.clear();
+      }
+   };
+   
+   /**
+    * A writer collecting the JSON, which unlike a {@link java.io.StringWriter}
+    * does not synchronize each write.
+    */
+   private static class StringBuilderWriter extends Writer {
+      private final StringBuilder buffer = new StringBuilder(4096);
+
+      @Override
+      public void write(int c) {
+         buffer.append((char) c);
+      }
+
+      @Override
+      public void write(String str) {
+         buffer.append(str);
+      }
+
+      @Override
+      public void write(String str, int off, int len) {
+         // appending a part of a CharSequence would copy character by character
+         buffer.append(str.substring(off, off + len));
+      }
+
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+         buffer.append(cbuf, off, len);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public String toString() {
+         return buffer.toString();
+      }
+   }
+   
+   /**
+    * The static data of a portlet in the page state.
+    */
+   private static class PortletMetadata {
+      final String namespace;
+      final String allowedPM;
+      final String allowedWS;
+      
+      PortletMetadata(String namespace, String allowedPM, String allowedWS) {
+         this.namespace = namespace;
+         this.allowedPM = allowedPM;
+         this.allowedWS = allowedWS;
+      }
    }
 }
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.jmock.Mock;
+
+/**
+ * Tests the connection registry of the {@link PageEventBroadcaster} and the
+ * non-blocking writes of its event streams.
+ */
+public class PageEventBroadcasterTest extends PlutoTestCase {
+
+    private static final String RETRY = "retry: 10000\n\n";
+
+    private static final String EVENT = "event: windowChanged\ndata: /app.portlet!1\n\n";
+
+    private PageEventBroadcaster broadcaster;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        broadcaster = new PageEventBroadcaster(2, 3, "/portal-events");
+    }
+
+    public void testOldestConnectionOfSessionIsCompleted() throws Exception {
+        Mock first = mockContext(new Stream());
+        first.expects(once()).method("complete");
+        Mock second = mockContext(new Stream());
+        second.expects(never()).method("complete");
+        Mock other = mockContext(new Stream());
+        other.expects(never()).method("complete");
+        Mock third = mockContext(new Stream());
+        third.expects(never()).method("complete");
+
+        broadcaster.register("session", "page1", (AsyncContext) first.proxy());
+        broadcaster.register("session", "page2", (AsyncContext) second.proxy());
+        broadcaster.register("other", "page3", (AsyncContext) other.proxy());
+        broadcaster.register("session", "page4", (AsyncContext) third.proxy());
+        assertEquals(3, broadcaster.getConnectionCount());
+    }
+
+    public void testOldestConnectionIsCompleted() throws Exception {
+        Mock first = mockContext(new Stream());
+        first.expects(once()).method("complete");
+        Mock second = mockContext(new Stream());
+        second.expects(never()).method("complete");
+
+        broadcaster.register("session1", "page1", (AsyncContext) first.proxy());
+        broadcaster.register("session2", "page2", (AsyncContext) second.proxy());
+        broadcaster.register("session3", "page3", (AsyncContext) mockContext(new Stream()).proxy());
+        broadcaster.register("session4", "page4", (AsyncContext) mockContext(new Stream()).proxy());
+        assertEquals(3, broadcaster.getConnectionCount());
+    }
+
+    public void testWindowChangedSkipsOriginPage() throws Exception {
+        Stream origin = new Stream();
+        Stream other = new Stream();
+        broadcaster.register("session", "page1", (AsyncContext) mockContext(origin).proxy());
+        broadcaster.register("session", "page2", (AsyncContext) mockContext(other).proxy());
+
+        broadcaster.windowChanged("session", "/app.portlet!1", "page1");
+        assertEquals(RETRY + EVENT, other.toString());
+        assertEquals(RETRY, origin.toString());
+    }
+
+    public void testWindowChangedSkipsOtherSessions() throws Exception {
+        Stream own = new Stream();
+        Stream other = new Stream();
+        broadcaster.register("session", "page1", (AsyncContext) mockContext(own).proxy());
+        broadcaster.register("other", "page2", (AsyncContext) mockContext(other).proxy());
+
+        broadcaster.windowChanged("session", "/app.portlet!1", null);
+        assertEquals(RETRY + EVENT, own.toString());
+        assertEquals(RETRY, other.toString());
+    }
+
+    public void testEventsAreQueuedUntilStreamIsReady() throws Exception {
+        Stream stream = new Stream();
+        stream.ready = false;
+        broadcaster.register("session", "page1", (AsyncContext) mockContext(stream).proxy());
+        broadcaster.windowChanged("session", "/app.portlet!1", null);
+        assertEquals("", stream.toString());
+
+        stream.ready = true;
+        stream.listener.onWritePossible();
+        assertEquals(RETRY + EVENT, stream.toString());
+        assertTrue(stream.flushed);
+    }
+
+    public void testSlowClientIsCompleted() throws Exception {
+        Stream stream = new Stream();
+        stream.ready = false;
+        Mock context = mockContext(stream);
+        context.expects(once()).method("complete");
+        broadcaster.register("session", "page1", (AsyncContext) context.proxy());
+
+        // the retry line is already queued
+        for (int ii = 0; ii < PageEventBroadcaster.MAX_PENDING_EVENTS; ii++) {
+            broadcaster.windowChanged("session", "/app.portlet!1", null);
+        }
+        assertEquals(0, broadcaster.getConnectionCount());
+    }
+
+    public void testOriginPageOfPartialActionIsTakenFromURL() {
+        Mock ajax = mock(HttpServletRequest.class);
+        ajax.stubs().method("getHeader").with(eq(PageEventBroadcaster.PAGE_HEADER)).will(returnValue("page1"));
+        assertEquals("page1", PageEventBroadcaster.getOriginPageId((HttpServletRequest) ajax.proxy()));
+
+        Mock partial = mock(HttpServletRequest.class);
+        partial.stubs().method("getHeader").will(returnValue(null));
+        partial.stubs().method("getParameter").with(eq(PageEventBroadcaster.PAGE_PARAMETER))
+                .will(returnValue("page2"));
+        assertEquals("page2", PageEventBroadcaster.getOriginPageId((HttpServletRequest) partial.proxy()));
+    }
+
+    private Mock mockContext(Stream out) {
+        Mock response = mock(ServletResponse.class);
+        response.stubs().method("getOutputStream").will(returnValue(out));
+        Mock context = mock(AsyncContext.class);
+        context.stubs().method("addListener");
+        context.stubs().method("getResponse").will(returnValue(response.proxy()));
+        return context;
+    }
+
+    /**
+     * An output stream that is ready or not as the test requires, and that
+     * calls its write listener once when the listener is set, as the
+     * container does.
+     */
+    private static class Stream extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean ready = true;
+        boolean flushed;
+        WriteListener listener;
+
+        public boolean isReady() {
+            return ready;
+        }
+
+        public void setWriteListener(WriteListener listener) {
+            this.listener = listener;
+            if (ready) {
+                try {
+                    listener.onWritePossible();
+                } catch (IOException e) {
+                    listener.onError(e);
+                }
+            }
+        }
+
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        public void flush() {
+            flushed = true;
+        }
+
+        public String toString() {
+            try {
+                return bytes.toString("UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.jmock.Mock;
+
+/**
+ * Tests the attribute isolation of the {@link PortalServletRequest}.
+ */
+public class PortalServletRequestTest extends PlutoTestCase {
+
+    private Mock mockRequest;
+    private PortalServletRequest request;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mockRequest = mock(HttpServletRequest.class);
+        request = new PortalServletRequest((HttpServletRequest) mockRequest.proxy());
+    }
+
+    public void testGetAttributeFallsBackToWrappedRequest() {
+        mockRequest.expects(once()).method("getAttribute").with(eq("shared")).will(returnValue("value"));
+        assertEquals("value", request.getAttribute("shared"));
+    }
+
+    public void testSetAttributeIsLocal() {
+        // the wrapped request must not be touched before applyAttributes()
+        mockRequest.expects(never()).method("setAttribute");
+        request.setAttribute("local", "value");
+        assertEquals("value", request.getAttribute("local"));
+    }
+
+    public void testRemovedAttributeIsHidden() {
+        mockRequest.expects(never()).method("getAttribute");
+        request.setAttribute("local", "value");
+        request.removeAttribute("local");
+        assertNull(request.getAttribute("local"));
+    }
+
+    public void testApplyAttributes() {
+        mockRequest.expects(once()).method("setAttribute").with(eq("title"), eq("Title"));
+        mockRequest.expects(once()).method("removeAttribute").with(eq("transient"));
+        request.setAttribute("title", "Title");
+        request.setAttribute("transient", "value");
+        request.removeAttribute("transient");
+        request.applyAttributes();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.jmock.Mock;
+
+/**
+ * Tests that the {@link PortalWindowResponse} defers the header changes.
+ */
+public class PortalWindowResponseTest extends PlutoTestCase {
+
+    private Mock mockResponse;
+    private PortalWindowResponse response;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mockResponse = mock(HttpServletResponse.class);
+        response = new PortalWindowResponse((HttpServletResponse) mockResponse.proxy());
+    }
+
+    public void testHeadersAreRecorded() {
+        // the wrapped response must not be touched before applyHeaders()
+        mockResponse.expects(never()).method("addHeader");
+        mockResponse.expects(never()).method("addCookie");
+        response.addHeader("X-Test", "value");
+        response.addCookie(new Cookie("name", "value"));
+    }
+
+    public void testApplyHeadersInOrder() {
+        Cookie cookie = new Cookie("name", "value");
+        mockResponse.expects(once()).method("addHeader").with(eq("X-Test"), eq("first")).id("first");
+        mockResponse.expects(once()).method("addCookie").with(same(cookie)).after("first").id("cookie");
+        mockResponse.expects(once()).method("setIntHeader").with(eq("X-Count"), eq(2)).after("cookie");
+        response.addHeader("X-Test", "first");
+        response.addCookie(cookie);
+        response.setIntHeader("X-Count", 2);
+        response.applyHeaders();
+
+        // the changes are applied only once
+        response.applyHeaders();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import javax.portlet.CacheControl;
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.container.PortletContainer;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.PortletWindowID;
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterMapper;
+import org.apache.pluto.driver.url.PortalURL;
+import org.jmock.Mock;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+
+/**
+ * Tests the {@link PortletRenderCache}.
+ */
+public class PortletRenderCacheTest extends PlutoTestCase {
+
+    private Mock mockContainer;
+    private Mock mockWindow;
+    private PortalURL url;
+    private TestRenderCache cache;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mockContainer = mock(PortletContainer.class);
+
+        Mock mockId = mock(PortletWindowID.class);
+        mockId.stubs().method("getStringId").will(returnValue("win"));
+        mockWindow = mock(PortletWindow.class);
+        mockWindow.stubs().method("getId").will(returnValue(mockId.proxy()));
+        mockWindow.stubs().method("getPortletMode").will(returnValue(PortletMode.VIEW));
+        mockWindow.stubs().method("getWindowState").will(returnValue(WindowState.NORMAL));
+
+        Mock mockMapper = mock(PublicRenderParameterMapper.class);
+        mockMapper.stubs().method("getPRPsForWindow").will(returnValue(Collections.EMPTY_LIST));
+        Mock mockUrl = mock(PortalURL.class);
+        mockUrl.stubs().method("getParameters").will(returnValue(Collections.EMPTY_LIST));
+        mockUrl.stubs().method("getPublicRenderParameterMapper").will(returnValue(mockMapper.proxy()));
+        url = (PortalURL) mockUrl.proxy();
+
+        cache = new TestRenderCache(10);
+    }
+
+    public void testFreshRenderIsServedFromCache() throws Exception {
+        expectRenders(1, new PortletRender("markup", 60, false, null, false));
+        assertEquals("markup", render("alice"));
+        assertEquals("markup", render("alice"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testZeroExpirationIsNotCached() throws Exception {
+        expectRenders(2, new PortletRender("markup", 0, false, null, false));
+        render("alice");
+        render("alice");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    public void testPrivateRenderIsNotShared() throws Exception {
+        expectRenders(2, new PortletRender("markup", 60, false, null, false));
+        render("alice");
+        render("bob");
+        assertEquals(0, cache.getHits());
+    }
+
+    public void testPrivateRenderOfUnknownUserIsNotCached() throws Exception {
+        expectRenders(2, new PortletRender("markup", 60, false, null, false));
+        render(null);
+        render(null);
+        assertEquals(0, cache.size());
+    }
+
+    public void testPublicRenderIsShared() throws Exception {
+        expectRenders(1, new PortletRender("markup", 60, true, null, false));
+        render("alice");
+        assertEquals("markup", render("bob"));
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testExpiredRenderIsRevalidated() throws Exception {
+        expectRenders(1, new PortletRender("markup", 60, false, "v1", false));
+        render("alice");
+        cache.time += 61000;
+
+        PortletRender validation = new PortletRender("", 60, false, null, true);
+        expectRenders(1, validation);
+        assertEquals("markup", render("alice"));
+        assertEquals("v1", validation.eTag);
+        assertEquals(1, cache.getRevalidations());
+
+        // the validated render is fresh again
+        assertEquals("markup", render("alice"));
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testInvalidate() throws Exception {
+        expectRenders(2, new PortletRender("markup", -1, false, null, false));
+        render("alice");
+        cache.invalidate("win");
+        render("alice");
+        assertEquals(0, cache.getHits());
+    }
+
+    public void testLeastRecentlyUsedRenderIsEvicted() throws Exception {
+        cache = new TestRenderCache(1);
+        expectRenders(3, new PortletRender("markup", 60, false, null, false));
+        render("alice");
+        render("bob");
+        render("alice");
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    private void expectRenders(int count, PortletRender render) {
+        mockContainer.expects(exactly(count)).method("doRender").will(render);
+    }
+
+    private String render(String user) throws Exception {
+        Mock mockRequest = mock(HttpServletRequest.class);
+        mockRequest.stubs().method("getRemoteUser").will(returnValue(user));
+        mockRequest.stubs().method("getSession").will(returnValue(null));
+        mockRequest.stubs().method("getLocale").will(returnValue(Locale.ENGLISH));
+        mockRequest.stubs().method("getQueryString").will(returnValue(null));
+        mockRequest.stubs().method("getAttribute").will(returnValue(null));
+        HttpServletRequest request = new PortalServletRequest((HttpServletRequest) mockRequest.proxy());
+        PortalServletResponse response = new PortalServletResponse(
+                (HttpServletResponse) mock(HttpServletResponse.class).proxy());
+        cache.render((PortletContainer) mockContainer.proxy(), (PortletWindow) mockWindow.proxy(), url, request,
+                response, null);
+        return response.getInternalBuffer().toString();
+    }
+
+    /**
+     * Stands in for the portlet, setting the cache control of the render response.
+     */
+    private static class PortletRender extends CustomStub {
+        private final String markup;
+        private final int expirationTime;
+        private final boolean publicScope;
+        private final String newETag;
+        private final boolean useCachedContent;
+        private String eTag;
+
+        PortletRender(String markup, int expirationTime, boolean publicScope, String newETag,
+                boolean useCachedContent) {
+            super("portlet render");
+            this.markup = markup;
+            this.expirationTime = expirationTime;
+            this.publicScope = publicScope;
+            this.newETag = newETag;
+            this.useCachedContent = useCachedContent;
+        }
+
+        public Object invoke(Invocation invocation) throws Throwable {
+            HttpServletRequest request = (HttpServletRequest) invocation.parameterValues.get(1);
+            PortalServletResponse response = (PortalServletResponse) invocation.parameterValues.get(2);
+            CacheControl cacheControl = (CacheControl) request.getAttribute(AttributeKeys.RENDER_CACHE_CONTROL);
+            eTag = cacheControl.getETag();
+            cacheControl.setExpirationTime(expirationTime);
+            cacheControl.setPublicScope(publicScope);
+            if (newETag != null) {
+                cacheControl.setETag(newETag);
+            }
+            cacheControl.setUseCachedContent(useCachedContent);
+            response.getWriter().print(markup);
+            return null;
+        }
+    }
+
+    private static class TestRenderCache extends PortletRenderCache {
+        private long time = 1000000;
+
+        TestRenderCache(int maxEntries) {
+            super(maxEntries);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return time;
+        }
+    }
+}
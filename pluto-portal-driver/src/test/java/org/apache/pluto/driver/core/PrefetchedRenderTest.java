@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.portlet.PortletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.jmock.Mock;
+
+/**
+ * Tests waiting for a {@link PrefetchedRender}.
+ */
+public class PrefetchedRenderTest extends PlutoTestCase {
+
+    private Mock mockRequest;
+    private HttpServletResponse response;
+    private ExecutorService executor;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mockRequest = mock(HttpServletRequest.class);
+        response = (HttpServletResponse) mock(HttpServletResponse.class).proxy();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testAwaitAppliesAttributes() throws Exception {
+        mockRequest.expects(once()).method("setAttribute").with(eq("title"), eq("Title"));
+        final PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(), response, 0);
+        render.setFuture(executor.submit(new Callable<Void>() {
+            public Void call() {
+                render.getRequest().setAttribute("title", "Title");
+                render.getResponse().getWriter().print("markup");
+                return null;
+            }
+        }));
+        render.await();
+        assertEquals("markup", render.getResponse().getInternalBuffer().toString());
+    }
+
+    public void testAwaitAppliesHeaders() throws Exception {
+        Mock mockResponse = mock(HttpServletResponse.class);
+        mockResponse.stubs().method("isCommitted").will(returnValue(false));
+        mockResponse.expects(once()).method("setHeader").with(eq("X-Window"), eq("win"));
+        final PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(),
+                (HttpServletResponse) mockResponse.proxy(), 0);
+        render.setFuture(executor.submit(new Callable<Void>() {
+            public Void call() {
+                render.getResponse().setHeader("X-Window", "win");
+                return null;
+            }
+        }));
+        render.await();
+    }
+
+    public void testAwaitRethrowsRenderFailure() throws Exception {
+        PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(), response, 0);
+        render.setFuture(executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                throw new PortletException("failed");
+            }
+        }));
+        try {
+            render.await();
+            fail("Exception should have been thrown.");
+        } catch (PortletException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    public void testAwaitTimesOut() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(), response, 10);
+        render.setFuture(executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                latch.await();
+                return null;
+            }
+        }));
+        try {
+            render.await();
+            fail("Exception should have been thrown.");
+        } catch (PortletException e) {
+            assertTrue(e.getMessage().contains("win"));
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    public void testFinishWaitsForCancelledRender() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final AtomicBoolean returned = new AtomicBoolean();
+        PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(), response, 0);
+        render.setFuture(executor.submit(render.track(new Callable<Void>() {
+            public Void call() throws Exception {
+                running.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    // the portlet takes a moment to clean up
+                    Thread.sleep(20);
+                }
+                returned.set(true);
+                return null;
+            }
+        })));
+        running.await();
+        assertTrue(render.finish(5000));
+        assertTrue(returned.get());
+    }
+
+    public void testFinishSkipsRenderThatHasNotStarted() throws Exception {
+        final AtomicBoolean called = new AtomicBoolean();
+        PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(), response, 0);
+        Callable<Void> task = render.track(new Callable<Void>() {
+            public Void call() {
+                called.set(true);
+                return null;
+            }
+        });
+        assertTrue(render.finish(0));
+        task.call();
+        assertFalse(called.get());
+    }
+
+    public void testTimedOutRenderIsDetachedFromRequest() throws Exception {
+        mockRequest.expects(never()).method("getParameter");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch returned = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final PrefetchedRender render = new PrefetchedRender("win", (HttpServletRequest) mockRequest.proxy(),
+                response, 10);
+        render.setFuture(executor.submit(render.track(new Callable<Void>() {
+            public Void call() {
+                // a portlet that does not react to the interrupt
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        // keep waiting
+                    }
+                }
+                try {
+                    render.getRequest().getParameter("name");
+                } catch (Throwable th) {
+                    failure.set(th);
+                } finally {
+                    returned.countDown();
+                }
+                return null;
+            }
+        })));
+        try {
+            render.await();
+            fail("Exception should have been thrown.");
+        } catch (PortletException e) {
+            // timed out
+        }
+
+        // what the portal driver does before the servlet returns
+        assertFalse(render.finish(10));
+
+        release.countDown();
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.core;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.driver.container.PlutoTestCase;
+
+/**
+ * Tests that the {@link RenderDataResponse} keeps the render data of a window
+ * and leaves the wrapped response alone.
+ */
+public class RenderDataResponseTest extends PlutoTestCase {
+
+    private RenderDataResponse response;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        // the wrapped response expects no calls
+        response = new RenderDataResponse((HttpServletResponse) mock(HttpServletResponse.class).proxy());
+    }
+
+    public void testWriterContent() {
+        response.setContentType("text/html");
+        response.getWriter().print("<p>caf\u00e9</p>");
+        assertEquals("<p>caf\u00e9</p>", response.getContent());
+        assertEquals("text/html", response.getContentType());
+        assertEquals("UTF-8", response.getCharacterEncoding());
+    }
+
+    public void testStreamContentUsesCharset() throws Exception {
+        response.setContentType("text/html; charset=ISO-8859-1");
+        response.getOutputStream().write("caf\u00e9".getBytes("ISO-8859-1"));
+        assertEquals("ISO-8859-1", response.getCharacterEncoding());
+        assertEquals("caf\u00e9", response.getContent());
+    }
+
+    public void testCharsetFollowedByParameter() throws Exception {
+        response.setContentType("text/plain; charset=\"UTF-16BE\"; format=flowed");
+        response.getOutputStream().write("\u20ac".getBytes("UTF-16BE"));
+        assertEquals("UTF-16BE", response.getCharacterEncoding());
+        assertEquals("\u20ac", response.getContent());
+    }
+
+    public void testSetCharacterEncoding() throws Exception {
+        response.setCharacterEncoding("ISO-8859-1");
+        response.getOutputStream().write(new byte[] {(byte) 0xe9});
+        assertEquals("\u00e9", response.getContent());
+        assertNull(response.getContentType());
+    }
+
+    public void testErrorStatusGivesNoContent() throws Exception {
+        response.getWriter().print("not found");
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+        assertNull(response.getContent());
+
+        response.reset();
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals("", response.getContent());
+
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        assertNull(response.getContent());
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals("", response.getContent());
+    }
+
+    public void testResetBuffer() throws Exception {
+        response.getWriter().print("a");
+        response.getOutputStream().write('b');
+        assertEquals("ab", response.getContent());
+        response.resetBuffer();
+        response.getWriter().print("c");
+        assertEquals("c", response.getContent());
+    }
+
+    public void testHeadersAndCookiesAreDropped() throws Exception {
+        response.addCookie(new Cookie("name", "value"));
+        response.addHeader("X-Header", "value");
+        response.setHeader("X-Header", "value");
+        response.setDateHeader("Expires", 0L);
+        response.setIntHeader("X-Count", 1);
+        response.setContentLength(10);
+        response.getWriter().print("content");
+        response.flushBuffer();
+        assertFalse(response.isCommitted());
+        assertEquals("content", response.getContent());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.services.portal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.pluto.container.PageResourceId;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.driver.services.portal.PageResources.Type;
+
+/**
+ * Tests that the markup cached for a page is the markup generated for its
+ * dependencies, and that it is regenerated when the input changes.
+ */
+public class PageResourcesTest extends TestCase {
+
+   private static final PageResourceId CSS = new PageResourceId("style.css", "org.apache.pluto", "1.0.0");
+   private static final PageResourceId JS = new PageResourceId("script.js", "org.apache.pluto", "1.0.0");
+
+   private PageResources resources;
+
+   @Override
+   protected void setUp() throws Exception {
+      super.setUp();
+      resources = new PageResources();
+      resources.addResource(CSS, Type.CSS, "/css/style.css");
+      resources.addResource(JS, Type.SCRIPT, "/js/script.js");
+      resources.initialized();
+   }
+
+   public void testCachedMarkup() {
+      List<PageResourceId> deps = new ArrayList<PageResourceId>(Arrays.asList(CSS, JS));
+      String markup = resources.getMarkup(deps, "/pluto");
+      assertEquals(markup, resources.getMarkup("page", deps, "/pluto"));
+      assertSame(resources.getMarkup("page", deps, "/pluto"), resources.getMarkup("page", deps, "/pluto"));
+
+      // the cache holds a copy of the dependencies
+      deps.remove(JS);
+      assertEquals(resources.getMarkup(deps, "/pluto"), resources.getMarkup("page", deps, "/pluto"));
+      assertEquals(resources.getMarkup(deps, "/other"), resources.getMarkup("page", deps, "/other"));
+      assertNull(resources.getMarkup("page", new ArrayList<PageResourceId>(), "/pluto"));
+   }
+
+   public void testAddedResource() {
+      List<PageResourceId> deps = Arrays.asList(CSS);
+      String markup = resources.getMarkup("page", deps, "/pluto");
+      resources.addResource(CSS, Type.CSS, "/css/other.css");
+      String updated = resources.getMarkup("page", deps, "/pluto");
+      assertFalse(markup.equals(updated));
+      assertTrue(updated.contains("/pluto/css/other.css"));
+   }
+
+   public void testResourceAddedWhileMarkupIsGenerated() {
+      resources = new PageResources(resources) {
+         private boolean changed;
+
+         @Override
+         public String getMarkup(List<PageResourceId> prids, String contextPath) {
+            String markup = super.getMarkup(prids, contextPath);
+            if (!changed) {
+               // another thread changes the resource after the markup has been generated
+               changed = true;
+               addResource(CSS, Type.CSS, "/css/other.css");
+            }
+            return markup;
+         }
+      };
+      List<PageResourceId> deps = Arrays.asList(CSS);
+      assertTrue(resources.getMarkup("page", deps, "/pluto").contains("/pluto/css/style.css"));
+      assertTrue(resources.getMarkup("page", deps, "/pluto").contains("/pluto/css/other.css"));
+   }
+
+   public void testRegisteredApplication() {
+      List<PageResourceId> deps = Arrays.asList(CSS, JS);
+      String markup = resources.getMarkup("page", deps, "/pluto");
+      assertSame(markup, resources.getMarkup("page", deps, "/pluto"));
+      resources.portletApplicationRegistered(new PortletRegistryEvent());
+      String regenerated = resources.getMarkup("page", deps, "/pluto");
+      assertNotSame(markup, regenerated);
+      assertEquals(markup, regenerated);
+   }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.tags;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.apache.pluto.driver.core.PrefetchedRender;
+import org.jmock.Mock;
+
+/**
+ * Tests writing the deferred renders of a streamed page.
+ */
+public class PortletDeferredRenderTagTest extends PlutoTestCase {
+
+    private Mock mockRequest;
+    private HttpServletResponse response;
+    private ExecutorService executor;
+    private CountDownLatch release;
+    private List<PrefetchedRender> deferred;
+    private Map<String, PrefetchedRender> renders;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mockRequest = mock(HttpServletRequest.class);
+        response = (HttpServletResponse) mock(HttpServletResponse.class).proxy();
+        executor = Executors.newFixedThreadPool(2);
+        release = new CountDownLatch(1);
+        deferred = new ArrayList<PrefetchedRender>();
+        renders = new HashMap<String, PrefetchedRender>();
+        mockRequest.stubs().method("getAttribute").with(eq(AttributeKeys.DEFERRED_RENDERS))
+                .will(returnValue(deferred));
+        mockRequest.stubs().method("getAttribute").with(eq(AttributeKeys.PREFETCHED_RENDERS))
+                .will(returnValue(renders));
+        mockRequest.stubs().method("getAttribute").with(eq(AttributeKeys.PORTLET_TITLE))
+                .will(returnValue("Title"));
+    }
+
+    public void tearDown() throws Exception {
+        release.countDown();
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testRendersAreWrittenAsTheyComplete() throws Exception {
+        PrefetchedRender first = deferRender("/app.First!1", "first", true, 0);
+        PrefetchedRender second = deferRender("/app.Second!2", "second", false, 0);
+
+        // the first render completes once the second has been written
+        StringWriter out = new StringWriter() {
+            public void flush() {
+                release.countDown();
+            }
+        };
+        PortletDeferredRenderTag.writeDeferredRenders(out, (HttpServletRequest) mockRequest.proxy());
+
+        String page = out.toString();
+        assertTrue(page.contains("function plutoFillDeferred"));
+        int secondAt = page.indexOf("<div id=\"pluto-deferred-2-content\" style=\"display:none\">second</div>");
+        int firstAt = page.indexOf("<div id=\"pluto-deferred-1-content\" style=\"display:none\">first</div>");
+        assertTrue(secondAt > 0);
+        assertTrue(firstAt > secondAt);
+        assertTrue(page.contains("<span id=\"pluto-deferred-1-title-content\" style=\"display:none\">Title</span>"));
+        assertTrue(page.contains("plutoFillDeferred('pluto-deferred-1-content', 'pluto-deferred-1');"));
+        assertTrue(page.contains("plutoFillDeferred('pluto-deferred-2-title-content', 'pluto-deferred-2-title');"));
+
+        // nothing is left for the portal driver to complain about, and the markup is released
+        assertTrue(deferred.isEmpty());
+        assertTrue(renders.isEmpty());
+        assertEquals("", first.getResponse().getInternalBuffer().toString());
+        assertEquals("", second.getResponse().getInternalBuffer().toString());
+    }
+
+    public void testTimedOutRenderIsWrittenAsError() throws Exception {
+        deferRender("/app.Slow!1", "slow", true, 20);
+
+        StringWriter out = new StringWriter();
+        PortletDeferredRenderTag.writeDeferredRenders(out, (HttpServletRequest) mockRequest.proxy());
+
+        String page = out.toString();
+        assertTrue(page.contains("Error rendering portlet Slow."));
+        assertFalse(page.contains("slow</div>"));
+        assertTrue(page.contains("plutoFillDeferred('pluto-deferred-1-content', 'pluto-deferred-1');"));
+        assertTrue(deferred.isEmpty());
+    }
+
+    public void testNothingIsWrittenWithoutDeferredRenders() throws Exception {
+        StringWriter out = new StringWriter();
+        PortletDeferredRenderTag.writeDeferredRenders(out, (HttpServletRequest) mockRequest.proxy());
+        assertEquals("", out.toString());
+    }
+
+    /**
+     * Starts a render and leaves it to the end of the page, as the portlet tag
+     * does for a render that is still running.
+     */
+    private PrefetchedRender deferRender(String windowId, final String markup, final boolean blocked,
+            long timeout) {
+        final PrefetchedRender render = new PrefetchedRender(windowId, (HttpServletRequest) mockRequest.proxy(),
+                response, timeout);
+        render.setFuture(executor.submit(render.track(new Callable<Void>() {
+            public Void call() throws Exception {
+                if (blocked) {
+                    release.await();
+                }
+                render.getResponse().getWriter().print(markup);
+                return null;
+            }
+        })));
+        render.setPlaceholderId("pluto-deferred-" + (deferred.size() + 1));
+        deferred.add(render);
+        renders.put(windowId, render);
+        return render;
+    }
+}
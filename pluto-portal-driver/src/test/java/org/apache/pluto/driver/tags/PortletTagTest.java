@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.tags;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.apache.pluto.driver.core.PrefetchedRender;
+import org.jmock.Mock;
+
+/**
+ * Tests how the {@link PortletTag} picks up prefetched renders.
+ */
+public class PortletTagTest extends PlutoTestCase {
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ExecutorService executor;
+    private CountDownLatch release;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        request = (HttpServletRequest) mock(HttpServletRequest.class).proxy();
+        response = (HttpServletResponse) mock(HttpServletResponse.class).proxy();
+        executor = Executors.newSingleThreadExecutor();
+        release = new CountDownLatch(1);
+    }
+
+    public void tearDown() throws Exception {
+        release.countDown();
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testRunningRenderIsPendingOnStreamedPage() throws Exception {
+        List<PrefetchedRender> deferred = new ArrayList<PrefetchedRender>();
+        PrefetchedRender render = startRender("/app.First!1", true);
+
+        PortletTag tag = new PortletTag();
+        tag.usePrefetchedRender(render, deferred);
+
+        assertEquals(PortletTag.PENDING, tag.getStatus());
+        assertSame(render, tag.getPendingRender());
+        assertEquals("pluto-deferred-1", render.getPlaceholderId());
+        assertEquals(1, deferred.size());
+        assertSame(render, deferred.get(0));
+    }
+
+    public void testCompleteRenderIsDisplayedOnStreamedPage() throws Exception {
+        List<PrefetchedRender> deferred = new ArrayList<PrefetchedRender>();
+        PrefetchedRender render = startRender("/app.First!1", false);
+        render.await();
+
+        PortletTag tag = new PortletTag();
+        tag.usePrefetchedRender(render, deferred);
+
+        assertEquals(PortletTag.SUCCESS, tag.getStatus());
+        assertNull(tag.getPendingRender());
+        assertTrue(deferred.isEmpty());
+        assertEquals("markup", tag.getPortalServletResponse().getInternalBuffer().toString());
+
+        // the markup is released once the tag body has written it
+        tag.doEndTag();
+        assertEquals("", render.getResponse().getInternalBuffer().toString());
+    }
+
+    public void testRunningRenderIsAwaitedWhenNotStreamed() throws Exception {
+        PrefetchedRender render = startRender("/app.First!1", false);
+
+        PortletTag tag = new PortletTag();
+        tag.usePrefetchedRender(render, null);
+
+        assertEquals(PortletTag.SUCCESS, tag.getStatus());
+        assertEquals("markup", tag.getPortalServletResponse().getInternalBuffer().toString());
+    }
+
+    public void testPrefetchedRenderIsTakenOnce() throws Exception {
+        PrefetchedRender render = startRender("/app.First!1", false);
+        Map<String, PrefetchedRender> renders = new HashMap<String, PrefetchedRender>();
+        renders.put("/app.First!1", render);
+        Mock page = mock(HttpServletRequest.class);
+        page.stubs().method("getAttribute").with(eq(AttributeKeys.PREFETCHED_RENDERS)).will(returnValue(renders));
+
+        // the second occurrence of the window is rendered inline
+        assertSame(render, PortletTag.takePrefetchedRender((HttpServletRequest) page.proxy(), "/app.First!1"));
+        assertNull(PortletTag.takePrefetchedRender((HttpServletRequest) page.proxy(), "/app.First!1"));
+    }
+
+    private PrefetchedRender startRender(String windowId, final boolean blocked) {
+        final PrefetchedRender render = new PrefetchedRender(windowId, request, response, 0);
+        render.setFuture(executor.submit(render.track(new Callable<Void>() {
+            public Void call() throws Exception {
+                if (blocked) {
+                    release.await();
+                }
+                render.getResponse().getWriter().print("markup");
+                return null;
+            }
+        })));
+        return render;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.driver.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.PublicRenderParameter;
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.container.PlutoTestCase;
+import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PublicRenderParameterQNameMapper;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.PortalURLParser;
+import org.jmock.Mock;
+
+/**
+ * Tests the page state written for the portlet hub, and the delta written
+ * for the state hashes sent with an Ajax action.
+ */
+public class PageStateTest extends PlutoTestCase {
+
+    private static final String PORTLET1 = "/app.portlet1!1";
+    private static final String PORTLET2 = "/app.portlet2!2";
+    private static final String PORTLET3 = "/app.portlet3!3";
+
+    private static final Pattern STATE_HASH =
+            Pattern.compile("\"(Pluto_\\w+)\" : \\{.*?\"stateHash\" : \"(\\w+)\"", Pattern.DOTALL);
+
+    private HttpServletRequest request;
+    private List<PortalURLParameter> parameters;
+    private PublicRenderParameterQNameMapper mapper;
+    private Set<PortletMode> portletModes;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        PageState.REGISTRY_LISTENER.portletApplicationRegistered(null);
+
+        PageConfig pageConfig = new PageConfig();
+        pageConfig.setPortletIds(Arrays.asList(PORTLET1, PORTLET2, PORTLET3));
+
+        // the first two portlets share the public render parameter "color"
+        Mock prp = mock(PublicRenderParameter.class);
+        prp.stubs().method("getIdentifier").will(returnValue("color"));
+        prp.stubs().method("getQName").will(returnValue(new QName("urn:test", "color")));
+        Mock app = mock(PortletApplicationDefinition.class);
+        app.stubs().method("getPublicRenderParameters")
+                .will(returnValue(Collections.singletonList(prp.proxy())));
+        Mock registry = mock(PortletRegistryService.class);
+        registry.stubs().method("getPortletApplication").will(returnValue(app.proxy()));
+        registry.stubs().method("getPortlet").with(eq("/app"), eq("portlet1"))
+                .will(returnValue(portlet(Collections.singletonList("color"))));
+        registry.stubs().method("getPortlet").with(eq("/app"), eq("portlet2"))
+                .will(returnValue(portlet(Collections.singletonList("color"))));
+        registry.stubs().method("getPortlet").with(eq("/app"), eq("portlet3"))
+                .will(returnValue(portlet(Collections.<String>emptyList())));
+        mapper = new PublicRenderParameterQNameMapper(pageConfig, (PortletRegistryService) registry.proxy());
+
+        parameters = new ArrayList<PortalURLParameter>();
+        Mock portalURL = mock(PortalURL.class);
+        portalURL.stubs().method("getPageConfig").will(returnValue(pageConfig));
+        portalURL.stubs().method("getParameters").will(returnValue(parameters));
+        portalURL.stubs().method("getPublicRenderParameterMapper").will(returnValue(mapper));
+        portalURL.stubs().method("getPortletMode").will(returnValue(PortletMode.VIEW));
+        portalURL.stubs().method("getWindowState").will(returnValue(WindowState.NORMAL));
+        Mock parser = mock(PortalURLParser.class);
+        parser.stubs().method("parse").will(returnValue(portalURL.proxy()));
+
+        portletModes = new HashSet<PortletMode>(Arrays.asList(PortletMode.VIEW));
+        Mock config = mock(DriverConfiguration.class);
+        config.stubs().method("getPortalUrlParser").will(returnValue(parser.proxy()));
+        config.stubs().method("getSupportedPortletModes").will(returnValue(portletModes));
+        config.stubs().method("getSupportedWindowStates")
+                .will(returnValue(new HashSet<WindowState>(Arrays.asList(WindowState.NORMAL))));
+        Mock servletContext = mock(ServletContext.class);
+        servletContext.stubs().method("getAttribute").with(eq(AttributeKeys.DRIVER_CONFIG))
+                .will(returnValue(config.proxy()));
+
+        Mock req = mock(HttpServletRequest.class);
+        req.stubs().method("setAttribute");
+        request = (HttpServletRequest) req.proxy();
+        PortalRequestContext context = new PortalRequestContext((ServletContext) servletContext.proxy(),
+                request, (HttpServletResponse) mock(HttpServletResponse.class).proxy());
+        req.stubs().method("getAttribute").will(returnValue(context));
+    }
+
+    public void testKnownHashSkipsWindow() {
+        Map<String, String> hashes = getStateHashes(new PageState(request).toJSONString());
+        assertEquals(3, hashes.size());
+        String ns1 = namespace(PORTLET1);
+        String ns2 = namespace(PORTLET2);
+
+        PageState pageState = new PageState(request);
+        String json = pageState.toJSONString(ns1 + ":" + hashes.get(ns1));
+        assertEquals(2, getStateHashes(json).size());
+        assertFalse(json.contains(ns1));
+        assertTrue(json.contains(ns2));
+        assertEquals(Arrays.asList(PORTLET2, PORTLET3),
+                pageState.getChangedPortletIds(ns1 + ":" + hashes.get(ns1)));
+
+        // unknown entries and white space are tolerated
+        String header = " " + ns1 + ":" + hashes.get(ns1) + ", bogus, " + ns2 + " : " + hashes.get(ns2);
+        assertEquals(Collections.singleton(namespace(PORTLET3)),
+                getStateHashes(new PageState(request).toJSONString(header)).keySet());
+    }
+
+    public void testEmptyHeaderGivesDelta() {
+        String json = new PageState(request).toJSONString("");
+        assertEquals(getStateHashes(new PageState(request).toJSONString()), getStateHashes(json));
+        assertFalse(json.contains("prpMap"));
+        assertFalse(json.contains("allowedPM"));
+        assertFalse(json.contains("pubParms"));
+        assertTrue(json.endsWith("\n}}"));
+    }
+
+    public void testUnchangedStateGivesEmptyDelta() {
+        String header = toHeader(getStateHashes(new PageState(request).toJSONString()));
+        assertEquals("{\"portlets\" : {\n\n}}", new PageState(request).toJSONString(header));
+        assertTrue(new PageState(request).getChangedPortletIds(header).isEmpty());
+    }
+
+    public void testParameterChangeReturnsWindow() {
+        String header = toHeader(getStateHashes(new PageState(request).toJSONString()));
+        parameters.add(new PortalURLParameter(PORTLET3, "page", new String[] {"2"}));
+        assertEquals(Collections.singleton(namespace(PORTLET3)),
+                getStateHashes(new PageState(request).toJSONString(header)).keySet());
+    }
+
+    public void testPublicParameterChangeReturnsOtherWindows() {
+        Map<String, String> hashes = getStateHashes(new PageState(request).toJSONString());
+        String header = toHeader(hashes);
+        mapper.setValues(mapper.getIndex(PORTLET1, "color"), new String[] {"red"});
+
+        Map<String, String> changed = getStateHashes(new PageState(request).toJSONString(header));
+        assertEquals(new HashSet<String>(Arrays.asList(namespace(PORTLET1), namespace(PORTLET2))),
+                changed.keySet());
+        assertFalse(hashes.get(namespace(PORTLET2)).equals(changed.get(namespace(PORTLET2))));
+        assertEquals(Arrays.asList(PORTLET1, PORTLET2), new PageState(request).getChangedPortletIds(header));
+    }
+
+    public void testHashSeparatesValues() {
+        parameters.add(new PortalURLParameter(PORTLET1, "a", new String[] {"bc"}));
+        parameters.add(new PortalURLParameter(PORTLET2, "ab", new String[] {"c"}));
+        parameters.add(new PortalURLParameter(PORTLET3, "a", new String[] {"b", "c"}));
+        Map<String, String> hashes = getStateHashes(new PageState(request).toJSONString());
+        assertEquals(3, new HashSet<String>(hashes.values()).size());
+    }
+
+    public void testStringsAreEscaped() {
+        String value = "</script>\u2028\u2029\u0001\u001f\"\\\n\r\t\u00e9";
+        parameters.add(new PortalURLParameter(PORTLET1, "na<me", new String[] {value, ""}));
+        String json = new PageState(request).toJSONString();
+
+        assertTrue(json.contains("\"na\\u003cme\" : [ \"\\u003c/script>\\u2028\\u2029\\u0001\\u001f"
+                + "\\\"\\\\\\n\\r\\t\u00e9\", \"\"]"));
+        for (char c : "<\u2028\u2029\u0001\u001f\r\t".toCharArray()) {
+            assertEquals(-1, json.indexOf(c));
+        }
+    }
+
+    public void testStringsRoundTrip() {
+        String[] values = {"</script>", "\u2028\u2029", "\u0000\u0001\u007f", "\"quoted\" \\ back",
+                "line\nbreak\r\n", "\u00e9\u20ac\ud83d\ude00", "&amp; '", ""};
+        parameters.add(new PortalURLParameter(PORTLET1, "p\"1\u2028", values));
+        mapper.setValues(mapper.getIndex(PORTLET1, "color"), new String[] {"<b>\u2029</b>"});
+        PageState pageState = new PageState(request);
+        pageState.setRenderData(PORTLET2, "<div>\u2028\"</div>\n", "text/html");
+        String json = pageState.toJSONString();
+
+        List<String> strings = getStrings(json);
+        int ind = strings.indexOf("p\"1\u2028");
+        assertTrue(ind >= 0);
+        assertEquals(Arrays.asList(values), strings.subList(ind + 1, ind + 1 + values.length));
+        assertTrue(strings.contains("<b>\u2029</b>"));
+        assertTrue(strings.contains("<div>\u2028\"</div>\n"));
+        assertTrue(strings.contains(PORTLET3));
+    }
+
+    public void testRenderData() {
+        PageState pageState = new PageState(request);
+        pageState.setRenderData(PORTLET1, "<p>one</p>", "text/html");
+        pageState.setRenderData(PORTLET2, "two", null);
+        String json = pageState.toJSONString();
+
+        assertTrue(json.contains("\"renderData\" : {\n         \"renderData\" : \"\\u003cp>one\\u003c/p>\",\n"
+                + "         \"mimeType\" : \"text/html\"\n      }"));
+        assertTrue(json.contains("\"renderData\" : \"two\",\n         \"mimeType\" : \"text/plain\""));
+        assertTrue(json.contains("\"renderData\" : null,\n         \"mimeType\" : \"text/plain\""));
+    }
+
+    public void testRenderDataOfChangedPortlets() {
+        String header = toHeader(getStateHashes(new PageState(request).toJSONString()));
+        mapper.setValues(mapper.getIndex(PORTLET1, "color"), new String[] {"red"});
+
+        PageState pageState = new PageState(request);
+        List<String> changed = pageState.getChangedPortletIds(header);
+        assertEquals(Arrays.asList(PORTLET1, PORTLET2), changed);
+        pageState.setRenderData(PORTLET1, "one", "text/plain");
+        pageState.setRenderData(PORTLET3, "three", "text/plain");
+        String json = pageState.toJSONString(header);
+
+        // only the changed portlets are written, and only those with render data carry it
+        assertEquals(new HashSet<String>(Arrays.asList(namespace(PORTLET1), namespace(PORTLET2))),
+                getStateHashes(json).keySet());
+        List<String> strings = getStrings(json);
+        assertEquals(strings.indexOf("renderData") + 1, strings.lastIndexOf("renderData"));
+        assertTrue(strings.contains("one"));
+        assertFalse(strings.contains("three"));
+        int second = json.indexOf(namespace(PORTLET2));
+        assertTrue(json.indexOf("renderData") < second);
+    }
+
+    public void testMetadataIsCachedUntilRegistryChanges() {
+        assertTrue(new PageState(request).toJSONString().contains("\"allowedPM\" : [\"view\"]"));
+
+        portletModes.add(PortletMode.EDIT);
+        assertTrue(new PageState(request).toJSONString().contains("\"allowedPM\" : [\"view\"]"));
+
+        PageState.REGISTRY_LISTENER.portletApplicationRemoved(null);
+        String json = new PageState(request).toJSONString();
+        assertFalse(json.contains("\"allowedPM\" : [\"view\"]"));
+        assertTrue(json.contains("\"edit\""));
+    }
+
+    private Object portlet(List<String> prps) {
+        Mock portlet = mock(PortletDefinition.class);
+        portlet.stubs().method("getSupportedPublicRenderParameters").will(returnValue(prps));
+        return portlet.proxy();
+    }
+
+    private String namespace(String portletId) {
+        return new PageState(request).getNameSpace(portletId);
+    }
+
+    private static Map<String, String> getStateHashes(String json) {
+        Map<String, String> hashes = new LinkedHashMap<String, String>();
+        Matcher matcher = STATE_HASH.matcher(json);
+        while (matcher.find()) {
+            hashes.put(matcher.group(1), matcher.group(2));
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns the decoded string literals of the JSON in order.
+     */
+    private static List<String> getStrings(String json) {
+        List<String> strings = new ArrayList<String>();
+        for (int ii = 0; ii < json.length(); ii++) {
+            if (json.charAt(ii) != '"') {
+                continue;
+            }
+            StringBuilder str = new StringBuilder();
+            for (ii++; json.charAt(ii) != '"'; ii++) {
+                char c = json.charAt(ii);
+                if (c != '\\') {
+                    str.append(c);
+                    continue;
+                }
+                c = json.charAt(++ii);
+                switch (c) {
+                case 'n':
+                    str.append('\n');
+                    break;
+                case 'r':
+                    str.append('\r');
+                    break;
+                case 't':
+                    str.append('\t');
+                    break;
+                case 'u':
+                    str.append((char) Integer.parseInt(json.substring(ii + 1, ii + 5), 16));
+                    ii += 4;
+                    break;
+                default:
+                    str.append(c);
+                }
+            }
+            strings.add(str.toString());
+        }
+        return strings;
+    }
+
+    private static String toHeader(Map<String, String> hashes) {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            if (header.length() > 0) {
+                header.append(',');
+            }
+            header.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return header.toString();
+    }
+}
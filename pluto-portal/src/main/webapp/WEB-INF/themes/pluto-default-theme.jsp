@@ -50,11 +50,23 @@ group (the left column) displays portlets with odd IDs, while the second group
        var portlet = portlet || {};
        portlet.impl = portlet.impl || {};
        portlet.impl.getInitData = function () {
-          return <%=ps.toJSONString()%>;
+          return <% ps.writeJSON(out, null); %>;
        }
+       // Set to true to have the portal serve the render data of the portlets
+       // affected by an Ajax action along with the new page state
+       portlet.impl.batchActions = false;
        portlet.impl.getUrlBase = function () {
           return '<%=response.encodeURL(ps.getUrlBase())%>';
        }
+       <%
+          org.apache.pluto.driver.core.PageEventBroadcaster events =
+             (org.apache.pluto.driver.core.PageEventBroadcaster) application.getAttribute(AttributeKeys.PAGE_EVENTS);
+          if (events != null) {
+       %>
+       portlet.impl.getEventsUrl = function () {
+          return '<%=response.encodeURL(request.getContextPath() + events.getPath())%>';
+       }
+       <% } %>
     </script>
 
     <c:if test="${empty dynamicResources}">
@@ -140,6 +152,9 @@ group (the left column) displays portlets with odd IDs, while the second group
 
 </div>
 
+<!-- Portlets that were still rendering when the page was streamed -->
+<pluto:deferredRenders/>
+
 </body>
 
 </html>
@@ -335,6 +335,7 @@ var portlet = portlet || {};
    AJAX_ACTION = "aa",       // new for portlet spec 3
    PARTIAL_ACTION = "pa",    // new for portlet spec 3
    RENDER = "re",            // new for portlet spec 3
+   BATCH_ACTION = "ba",      // Ajax action returning the render data
    
    ACTION_PARAM = "av",      // new for portlet spec 3
    RESOURCE_PARAM = "rv",    // new for portlet spec 3
@@ -479,6 +480,10 @@ var portlet = portlet || {};
           // Add Ajax Action window
           isAction = true;
           url += TOKEN_DELIM + PREFIX + AJAX_ACTION + pidMap[pid];
+      } else if (type === "BATCH_ACTION") {
+          // Add Batch Action window
+          isAction = true;
+          url += TOKEN_DELIM + PREFIX + BATCH_ACTION + pidMap[pid];
       } else if (type === "PARTIAL_ACTION") {
          // Add Partial Action window
          isAction = true;
@@ -563,6 +568,12 @@ var portlet = portlet || {};
     	  url += str;
       }
 
+      // The portlet sends the partial action itself, so the page ID is
+      // passed in the URL rather than in a request header
+      if (type === "PARTIAL_ACTION" && pageId) {
+         url += '?' + PAGE_PARAM + '=' + pageId;
+      }
+
       // Use Promise to allow for potential server communication - 
       return new Promise(function (resolve) {
          resolve(url);
@@ -615,6 +626,8 @@ var portlet = portlet || {};
                   } else {
                      pageState.portlets[tpid].state.parameters[prpName] = newVal.slice(0);
                   }
+                  delete pageState.portlets[tpid].stateHash;
+                  pageState.portlets[tpid].renderData = null;
                   upids.push(tpid);
                   
                }
@@ -622,8 +635,11 @@ var portlet = portlet || {};
          }
       }
       
-      // update state for the initiating portlet
+      // update state for the initiating portlet. The state hashes no longer 
+      // match the states, so the server has to send them after an action.
       pageState.portlets[pid].state = state;
+      delete pageState.portlets[pid].stateHash;
+      pageState.portlets[pid].renderData = null;
       upids.push(pid);
       
       updateHistory();
@@ -647,11 +663,15 @@ var portlet = portlet || {};
 
    
    // decodes the update strings. The update string is 
-   // a JSON object containing the entire page state. This decoder 
+   // a JSON object containing the page state. After an Ajax action
+   // it only contains the portlets whose state may have changed.
+   // This decoder records the state hashes of the portlets and 
    // returns an object containing the state for portlets whose 
    // state has changed as compared to the current page state.
+   // The render data served along with a batch action is 
+   // recorded for these portlets.
    decodeUpdateString = function (ustr) {
-      var states = {}, ostate, nstate, pid, ps, npids = 0, cpids = 0;
+      var states = {}, ostate, nstate, pid, ps, npids = 0, cpids = 0, rdata;
       
       console.log("Decoding string: >>" + ustr + "<<");
 
@@ -670,6 +690,23 @@ var portlet = portlet || {};
                states[pid] = cloneState(nstate);
                cpids++;
             }
+            
+            rdata = ps.portlets[pid].renderData;
+            if (rdata && rdata.renderData !== undefined && rdata.renderData !== null) {
+               pageState.portlets[pid].renderData = rdata;
+               if (!states[pid]) {
+                  // pass the new render data to the portlet client
+                  states[pid] = cloneState(nstate);
+               }
+            } else if (states[pid]) {
+               pageState.portlets[pid].renderData = null;
+            }
+            
+            if (ps.portlets[pid].stateHash) {
+               pageState.portlets[pid].stateHash = ps.portlets[pid].stateHash;
+            } else {
+               delete pageState.portlets[pid].stateHash;
+            }
          }
       }
       
@@ -737,6 +774,88 @@ var portlet = portlet || {};
 
    },
    
+   /**
+    * Returns the state hashes of the portlets in the format expected by the
+    * server, "namespace:hash,namespace:hash". The server only returns the
+    * state of portlets whose hash does not match after an Ajax action.
+    * 
+    * @returns  {string}   the state hashes
+    * @private 
+    */
+   getStateHashes = function () {
+      var pid, hashes = [];
+      for (pid in pageState.portlets) {
+         if (pageState.portlets.hasOwnProperty(pid) && pageState.portlets[pid].stateHash) {
+            hashes.push(pid + ':' + pageState.portlets[pid].stateHash);
+         }
+      }
+      return hashes.join(',');
+   },
+   
+   /**
+    * Opens the request of an Ajax action, sending along the state hashes.
+    * 
+    * @param   {XMLHttpRequest}  xhr     the request
+    * @param   {string}          method  the HTTP method
+    * @param   {string}          url     the action URL
+    * @private 
+    */
+   openAction = function (xhr, method, url) {
+      xhr.open(method, url, true);
+      xhr.setRequestHeader('X-Pluto-State-Hashes', getStateHashes());
+      if (pageId) {
+         xhr.setRequestHeader('X-Pluto-Page', pageId);
+      }
+   },
+   
+   /**
+    * ID of the page sent along with the Ajax actions, so that the page is
+    * not notified of its own actions through the page event stream. Only set
+    * when the stream is open.
+    * @property   {string} pageId
+    * @private
+    */
+   pageId = null,
+   
+   /**
+    * Name of the query parameter carrying the page ID of a partial action.
+    * @property   {string} PAGE_PARAM
+    * @private
+    */
+   PAGE_PARAM = '_plutoPage',
+   
+   /**
+    * Opens the page event stream if the portal provides one. When a portlet
+    * window has processed an action on another page, its portlet client is
+    * passed its state again, so that it can fetch its new content.
+    * 
+    * @private 
+    */
+   openPageEvents = function () {
+      var source;
+      if (!window.EventSource || !portlet.impl.getEventsUrl) {
+         return;
+      }
+      pageId = Math.random().toString(36).substr(2) + new Date().getTime().toString(36);
+      source = new EventSource(portlet.impl.getEventsUrl() + '?page=' + pageId);
+      // a non-Ajax action replaces the page, which need not refresh its windows
+      window.addEventListener('beforeunload', function () {
+         source.close();
+      });
+      source.addEventListener('windowChanged', function (ev) {
+         var pid;
+         for (pid in pageState.portlets) {
+            if (pageState.portlets.hasOwnProperty(pid) && pageState.portlets[pid].urlpid === ev.data) {
+               pageState.portlets[pid].renderData = null;
+               updateWhenIdle().then(function (doUpdate) {
+                  doUpdate([pid]);
+               });
+               return;
+            }
+         }
+      });
+   },
+   
    /**
     * function to extract data from form and encode it as an 'application/x-www-form-urlencoded' string
     * 
@@ -799,7 +918,7 @@ var portlet = portlet || {};
 
          // get the ajax action URL. The Pluto impl creates the URL in JS
          // therefore no error handling 
-         getUrl("ACTION", pid, parms).then(function (url) {
+         getUrl(portlet.impl.batchActions ? "BATCH_ACTION" : "ACTION", pid, parms).then(function (url) {
             var xhr, upids, fd, method = 'POST', enctype, fstr;
 
             console.log("ajax action URL: " + url);
@@ -826,7 +945,7 @@ var portlet = portlet || {};
                   // multipart/form-data is always POSTed using FormData 
                   fd = new FormData(element);
                   console.log("ajax action: POST using FormData object: " + fd);
-                  xhr.open(method, url, true);
+                  openAction(xhr, method, url);
                   xhr.send(fd);
                } else {
                   // has to be 'application\/x-www-form-urlencoded', as the hub does not support text/plain
@@ -840,18 +959,18 @@ var portlet = portlet || {};
                      } else {
                         url += '?' + fstr;
                      }
-                     xhr.open(method, url, true);
+                     openAction(xhr, method, url);
                      xhr.send();
                   } else {
                      // has to be post, since we only support GET & POST
-                     xhr.open(method, url, true);
+                     openAction(xhr, method, url);
                      xhr.setRequestHeader('Content-Type','application/x-www-form-urlencoded');
                      xhr.setRequestHeader('Content-Length', fstr.length);
                      xhr.send(fstr);
                   }
                }
             } else {
-               xhr.open(method, url, true);
+               openAction(xhr, method, url);
                console.log("ajax action: POST using URL with parameters");
                xhr.send();
             }
@@ -898,6 +1017,7 @@ var portlet = portlet || {};
       if (!isInitialized) {
          pageState = portlet.impl.getInitData();
          updateHistory(true);
+         openPageEvents();
          isInitialized = true;
       }
       
@@ -46,6 +46,9 @@ public class ActionURLTag362 extends ActionURLTag286 {
    
    MutableRenderParameters rparams;
    MutableActionParameters aparams;
+
+   /** The type of the recorded render parameters of a template URL. */
+   private static final String RENDER_PARAMETER = "render";
    
    public ActionURLTag362() {
       super();
@@ -54,6 +57,11 @@ public class ActionURLTag362 extends ActionURLTag286 {
    @Override
    public int doStartTag() throws JspException {
 
+      if (startTemplate()) {
+         handleDefaultEscapeXML();
+         return EVAL_BODY_INCLUDE;
+      }
+
       Object obj = pageContext.getRequest().getAttribute(Constants.PORTLET_RESPONSE);
       if ((obj == null) || !(obj instanceof MimeResponse)) {
          throw new JspException("Could not obtain MimeResponse to create the URL.");
@@ -86,6 +94,11 @@ public class ActionURLTag362 extends ActionURLTag286 {
          throw new IllegalArgumentException("the argument key must not be null or empty!");
       }
 
+      if (isRecordingTemplate()) {
+         addTemplateParameter(null, key, value);
+         return;
+      }
+
       if (value == null || value.length() == 0) {
          aparams.removeParameter(key);
       } else {
@@ -105,6 +118,11 @@ public class ActionURLTag362 extends ActionURLTag286 {
          throw new IllegalArgumentException("the argument key must not be null or empty!");
       }
 
+      if (isRecordingTemplate()) {
+         addTemplateParameter(RENDER_PARAMETER, key, value);
+         return;
+      }
+
       if (value == null || value.length() == 0) {
          rparams.removeParameter(key);
       } else {
@@ -119,6 +137,18 @@ public class ActionURLTag362 extends ActionURLTag286 {
       }
    }
    
+   /**
+    * add a recorded action or render parameter
+    */
+   @Override
+   protected void replayTemplateParameter(String type, String key, String value) {
+      if (RENDER_PARAMETER.equals(type)) {
+         addRenderParameter(key, value);
+      } else {
+         addParameter(key, value);
+      }
+   }
+
    /**
     * prevent additional copying
     */
@@ -22,8 +22,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.portlet.BaseURL;
+import javax.portlet.PortletResponse;
 import javax.portlet.PortletSecurityException;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.jsp.JspException;
@@ -62,6 +65,106 @@ public abstract class BaseURLTag extends TagSupport {
 	protected Map<String, List<String>> propertiesMap = 
 		new HashMap<String, List<String>>();
 	
+	/**
+	 * The request attribute holding the URL templates of the request.
+	 */
+	private static final String TEMPLATES_ATTRIBUTE = BaseURLTag.class.getName() + ".templates";
+	
+	private String template = null;
+	
+	/**
+	 * The parameters of a URL in template mode in the order they were added,
+	 * each consisting of the parameter type, name and value.
+	 */
+	private final List<String[]> templateParameters = new ArrayList<String[]>();
+	
+	private boolean recordingTemplate = false;
+	
+	private boolean creatingTemplate = false;
+	
+	
+	/**
+	 * Starts a URL in template mode. In template mode, the parameters are only
+	 * recorded. The URL is created by the end tag if no template for URLs of
+	 * the same structure is available in the current request; otherwise the
+	 * parameter values are substituted into the template.
+	 * 
+	 * @return true if the tag is in template mode
+	 * @throws JspException
+	 */
+	protected boolean startTemplate() throws JspException {
+		if (template != null && !template.equalsIgnoreCase("true") && !template.equalsIgnoreCase("false")) {
+			StringBuilder txt = new StringBuilder(128);
+			txt.append("Invalid template option: ").append(template);
+			txt.append(", valid options: true, false");
+			throw new JspException(txt.toString());
+		}
+		
+		if (creatingTemplate || !Boolean.parseBoolean(template)) {
+			return false;
+		}
+		
+		if (secure != null && !secure.equalsIgnoreCase("true") && !secure.equalsIgnoreCase("false")) {
+			StringBuilder txt = new StringBuilder(128);
+			txt.append("Invalid secure option: ").append(secure);
+			txt.append(", valid options: true, false");
+			throw new JspException(txt.toString());
+		}
+		
+		if (var != null) {
+			pageContext.removeAttribute(var, PageContext.PAGE_SCOPE);
+		}
+		
+		templateParameters.clear();
+		recordingTemplate = true;
+		return true;
+	}
+	
+	
+	/**
+	 * @return true if the tag is in template mode and the parameters are to be
+	 *         recorded by {@link #addTemplateParameter}
+	 */
+	protected boolean isRecordingTemplate() {
+		return recordingTemplate;
+	}
+	
+	
+	/**
+	 * Records a parameter of a URL in template mode.
+	 * 
+	 * @param type the parameter type, or null for the parameters added by
+	 *        {@link #addParameter}
+	 * @param key the parameter name
+	 * @param value the parameter value, null or empty to remove the parameter
+	 */
+	protected void addTemplateParameter(String type, String key, String value) {
+		templateParameters.add(new String[] {type, key, value});
+	}
+	
+	
+	/**
+	 * Adds a recorded parameter to the URL created for a template.
+	 * 
+	 * @param type the parameter type
+	 * @param key the parameter name
+	 * @param value the parameter value
+	 */
+	protected void replayTemplateParameter(String type, String key, String value) {
+		addParameter(key, value);
+	}
+	
+	
+	/**
+	 * Appends the attributes the URL string depends on to the key of the
+	 * template.
+	 * 
+	 * @param key the template key
+	 */
+	protected void appendTemplateKey(StringBuilder key) {
+		key.append(secure).append('\n').append(Boolean.parseBoolean(escapeXml));
+	}
+	
 	
 	/**
 	 * Sets the secure flag on the URl as required
@@ -123,25 +226,7 @@ public abstract class BaseURLTag extends TagSupport {
 	@Override
 	public int doEndTag() throws JspException{
 		
-		BaseURL url = getUrl();
-		
-		if(url == null){
-			throw new IllegalStateException("internal error: url not set");
-		}
-		
-		setUrlParameters(url);		
-		setUrlProperties(url);
-		
-		HttpServletResponse response = 
-			(HttpServletResponse) pageContext.getResponse();
-		
-		//	properly encoding urls to allow non-cookie enabled sessions - PLUTO-252 
-		String urlString = response.encodeURL(url.toString());
-
- 		if(Boolean.parseBoolean(escapeXml))
- 		{
-			 urlString = doEscapeXml(urlString);
-		}
+		String urlString = recordingTemplate ? getTemplateUrlString() : createUrlString();
 		
 	    if (var == null) {
             try {            	
@@ -161,6 +246,8 @@ public abstract class BaseURLTag extends TagSupport {
 	    propertiesMap.clear();
 	    parametersMap.clear();
 	    removedParametersList.clear();
+	    templateParameters.clear();
+	    recordingTemplate = false;
 	    
 	    setUrl(null);
 	    
@@ -168,6 +255,123 @@ public abstract class BaseURLTag extends TagSupport {
 	}
 	
 	
+	/**
+	 * Creates the string representation of the URL.
+	 * 
+	 * @return the URL string
+	 */
+	private String createUrlString() {
+		
+		BaseURL url = getUrl();
+		
+		if(url == null){
+			throw new IllegalStateException("internal error: url not set");
+		}
+		
+		setUrlParameters(url);		
+		setUrlProperties(url);
+		
+		HttpServletResponse response = 
+			(HttpServletResponse) pageContext.getResponse();
+		
+		//	properly encoding urls to allow non-cookie enabled sessions - PLUTO-252 
+		String urlString = response.encodeURL(url.toString());
+
+ 		if(Boolean.parseBoolean(escapeXml))
+ 		{
+			 urlString = doEscapeXml(urlString);
+		}
+ 		
+ 		return urlString;
+	}
+	
+	
+	/**
+	 * Creates the URL string of a URL in template mode from the template of the
+	 * request. If the request does not contain the template yet, a URL with
+	 * placeholder values is created and compiled into the template.
+	 * 
+	 * @return the URL string
+	 * @throws JspException
+	 */
+	private String getTemplateUrlString() throws JspException {
+		
+		@SuppressWarnings("unchecked")
+		ConcurrentMap<String, URLTemplate> templates = 
+			(ConcurrentMap<String, URLTemplate>) pageContext.getRequest().getAttribute(TEMPLATES_ATTRIBUTE);
+		if (templates == null) {
+			templates = new ConcurrentHashMap<String, URLTemplate>();
+			pageContext.getRequest().setAttribute(TEMPLATES_ATTRIBUTE, templates);
+		}
+		
+		// the portlet request attributes may be shared by the portlets of the page
+		PortletResponse portletResponse = 
+			(PortletResponse) pageContext.getRequest().getAttribute(Constants.PORTLET_RESPONSE);
+		
+		StringBuilder key = new StringBuilder(128);
+		key.append(getClass().getName()).append('\n');
+		key.append((portletResponse == null) ? null : portletResponse.getNamespace()).append('\n');
+		appendTemplateKey(key);
+		
+		List<String> values = new ArrayList<String>(templateParameters.size());
+		for (String[] parameter : templateParameters) {
+			key.append('\n').append(parameter[0]).append(':').append(parameter[1]);
+			if (isEmpty(parameter[2])) {
+				key.append(":-");
+			} else {
+				values.add(parameter[2]);
+			}
+		}
+		for (Map.Entry<String, List<String>> property : propertiesMap.entrySet()) {
+			key.append("\nproperty:").append(property.getKey()).append(property.getValue());
+		}
+		
+		String templateKey = key.toString();
+		URLTemplate urlTemplate = templates.get(templateKey);
+		if (urlTemplate == null) {
+			urlTemplate = URLTemplate.compile(createTemplateUrlString(true), values.size());
+			templates.put(templateKey, urlTemplate);
+		}
+		
+		if (urlTemplate == URLTemplate.NONE) {
+			return createTemplateUrlString(false);
+		}
+		return urlTemplate.expand(values);
+	}
+	
+	
+	/**
+	 * Creates the URL of a URL in template mode with the recorded parameters.
+	 * 
+	 * @param placeholders true to replace the parameter values by placeholders
+	 * @return the URL string
+	 * @throws JspException
+	 */
+	private String createTemplateUrlString(boolean placeholders) throws JspException {
+		recordingTemplate = false;
+		creatingTemplate = true;
+		try {
+			doStartTag();
+			
+			int index = 0;
+			for (String[] parameter : templateParameters) {
+				String value = parameter[2];
+				if (placeholders && !isEmpty(value)) {
+					value = URLTemplate.placeholder(index++);
+				}
+				replayTemplateParameter(parameter[0], parameter[1], value);
+			}
+			
+			return createUrlString();
+		} finally {
+			creatingTemplate = false;
+			recordingTemplate = true;
+			parametersMap.clear();
+			setUrl(null);
+		}
+	}
+	
+	
 
 	/* (non-Javadoc)
 	 * @see javax.servlet.jsp.tagext.TagSupport#release()
@@ -248,6 +452,26 @@ public abstract class BaseURLTag extends TagSupport {
         this.escapeXml = escapeXml;
     }
 
+   /**
+     * Returns the template property.
+     * @return String
+     */
+    public String getTemplate() {
+        return template;
+    }
+    
+    
+    /**
+     * Sets the template property. In template mode, the URL string is
+     * created once per request for the URLs that only differ in the
+     * parameter values.
+     * @param template
+     * @return void
+     */
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
    /**
      * Adds a key,value pair to the parameter map. 
      * @param key String
@@ -260,6 +484,14 @@ public abstract class BaseURLTag extends TagSupport {
     				"the argument key must not be null or empty!");
     	}
     	
+    	if(recordingTemplate){
+    		if(isEmpty(value)){
+    			removedParametersList.add(key);
+    		}
+    		addTemplateParameter(null, key, value);
+    		return;
+    	}
+    	
     	if((value == null) || (value.length() == 0)){//remove parameter
     		if(parametersMap.containsKey(key)){
     			parametersMap.remove(key);
@@ -103,6 +103,17 @@ public abstract class PortletURLTag168 extends BaseURLTag {
       return super.doStartTag();
    }
 
+   /*
+    * (non-Javadoc)
+    * 
+    * @see org.apache.pluto.tags.BaseURLTag#appendTemplateKey(java.lang.StringBuilder)
+    */
+   @Override
+   protected void appendTemplateKey(StringBuilder key) {
+      super.appendTemplateKey(key);
+      key.append('\n').append(portletMode).append('\n').append(windowState);
+   }
+
    /**
     * Returns the portletMode property.
     * 
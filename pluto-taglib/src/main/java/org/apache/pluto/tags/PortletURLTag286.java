@@ -73,9 +73,23 @@ public abstract class PortletURLTag286 extends PortletURLTag168 {
            throw new JspException(txt.toString());
         }
         
+        if (startTemplate()) {
+           return EVAL_BODY_INCLUDE;
+        }
+        
         return super.doStartTag();
     }
 	
+	
+	/* (non-Javadoc)
+	 * @see org.apache.pluto.tags.PortletURLTag168#appendTemplateKey(java.lang.StringBuilder)
+	 */
+	@Override
+	protected void appendTemplateKey(StringBuilder key) {
+		super.appendTemplateKey(key);
+		key.append('\n').append(Boolean.parseBoolean(copyCurrentRenderParameters));
+	}
+	
     
 	/* (non-Javadoc)
 	 * @see org.apache.pluto.tags.BaseURLTag#doEndTag()
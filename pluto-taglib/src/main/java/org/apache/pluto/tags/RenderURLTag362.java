@@ -49,6 +49,11 @@ public class RenderURLTag362 extends RenderURLTag286 {
    @Override
    public int doStartTag() throws JspException {
 
+      if (startTemplate()) {
+         handleDefaultEscapeXML();
+         return EVAL_BODY_INCLUDE;
+      }
+
       Object obj = pageContext.getRequest().getAttribute(Constants.PORTLET_RESPONSE);
       if ((obj == null) || !(obj instanceof MimeResponse)) {
          throw new JspException("Could not obtain MimeResponse to create the URL.");
@@ -77,6 +82,11 @@ public class RenderURLTag362 extends RenderURLTag286 {
          throw new IllegalArgumentException("the argument key must not be null or empty!");
       }
 
+      if (isRecordingTemplate()) {
+         addTemplateParameter(null, key, value);
+         return;
+      }
+
       if (value == null || value.length() == 0) {
          params.removeParameter(key);
       } else {
@@ -83,6 +83,10 @@ public class ResourceURLTag286 extends BaseURLTag {
                }
            }
        }
+       
+       if (startTemplate()) {
+           return EVAL_BODY_INCLUDE;
+       }
 		       
         PortletResponse portletResponse = (PortletResponse) pageContext.getRequest()
             .getAttribute(Constants.PORTLET_RESPONSE);
@@ -121,6 +125,16 @@ public class ResourceURLTag286 extends BaseURLTag {
     }
 	
 	   
+	/* (non-Javadoc)
+	 * @see org.apache.pluto.tags.BaseURLTag#appendTemplateKey(java.lang.StringBuilder)
+	 */
+	@Override
+	protected void appendTemplateKey(StringBuilder key) {
+		super.appendTemplateKey(key);
+		key.append('\n').append(id).append('\n').append(cacheability);
+	}
+	
+	
 	/**
 	 * @return the id
 	 */
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.tags;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A URL string generated once with placeholder parameter values, into which
+ * the values of later URLs with the same structure are substituted.
+ * <p>
+ * A placeholder contains a character that is escaped by the
+ * {@link URLEncoder}. A URL is only used as template if each placeholder
+ * occurs exactly once in its escaped form, so that the values substituted
+ * into the template are encoded as the portal would have encoded them.
+ *
+ * @see BaseURLTag
+ */
+final class URLTemplate {
+
+   private static final String ENCODING = "UTF-8";
+
+   /** Marks URLs that cannot be generated from a template. */
+   static final URLTemplate NONE = new URLTemplate(new String[0], new int[0]);
+
+   /** The URL segments between the placeholders. */
+   private final String[] segments;
+
+   /** The parameter value substituted after each segment but the last. */
+   private final int[] indexes;
+
+   private URLTemplate(String[] segments, int[] indexes) {
+      this.segments = segments;
+      this.indexes = indexes;
+   }
+
+   /**
+    * Returns the placeholder value of a parameter.
+    *
+    * @param index
+    *           the index of the parameter value
+    * @return the placeholder
+    */
+   static String placeholder(int index) {
+      return "plutoTemplate" + index + "!";
+   }
+
+   /**
+    * Splits a URL generated with placeholder values into a template.
+    *
+    * @param url
+    *           the URL string
+    * @param count
+    *           the number of placeholders
+    * @return the template, or {@link #NONE} if the placeholders have not been
+    *         encoded as expected
+    */
+   static URLTemplate compile(String url, int count) {
+      // the placeholders are ordered by their position in the URL
+      TreeMap<Integer, Integer> positions = new TreeMap<Integer, Integer>();
+      int[] lengths = new int[count];
+      for (int ii = 0; ii < count; ii++) {
+         String placeholder = placeholder(ii);
+         String escaped = encode(placeholder);
+         int pos = url.indexOf(escaped);
+         if (pos < 0 || url.indexOf(escaped, pos + 1) >= 0 || url.contains(placeholder)) {
+            return NONE;
+         }
+         positions.put(pos, ii);
+         lengths[ii] = escaped.length();
+      }
+
+      String[] segments = new String[count + 1];
+      int[] indexes = new int[count];
+      int start = 0;
+      int ii = 0;
+      for (Map.Entry<Integer, Integer> entry : positions.entrySet()) {
+         if (entry.getKey() < start) {
+            return NONE;
+         }
+         segments[ii] = url.substring(start, entry.getKey());
+         indexes[ii++] = entry.getValue();
+         start = entry.getKey() + lengths[entry.getValue()];
+      }
+      segments[count] = url.substring(start);
+      return new URLTemplate(segments, indexes);
+   }
+
+   /**
+    * Creates the URL string for the given parameter values.
+    *
+    * @param values
+    *           the parameter values, in the order of the placeholders
+    * @return the URL string
+    */
+   String expand(List<String> values) {
+      StringBuilder txt = new StringBuilder(128);
+      for (int ii = 0; ii < indexes.length; ii++) {
+         txt.append(segments[ii]).append(encode(values.get(indexes[ii])));
+      }
+      return txt.append(segments[indexes.length]).toString();
+   }
+
+   private static String encode(String value) {
+      try {
+         return URLEncoder.encode(value, ENCODING);
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.tags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.el.ELContext;
+import javax.portlet.MimeResponse;
+import javax.portlet.MutableRenderParameters;
+import javax.portlet.PortletConfig;
+import javax.portlet.RenderURL;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.el.ExpressionEvaluator;
+import javax.servlet.jsp.el.VariableResolver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests URL tags in template mode against URLs rendered directly by the tags.
+ */
+public class BaseURLTagTest {
+
+   private final Map<String, Object> requestAttributes = new HashMap<String, Object>();
+
+   private final Map<String, Object> pageAttributes = new HashMap<String, Object>();
+
+   private HttpServletRequest request;
+
+   private HttpServletResponse response;
+
+   /** The number of portlet URLs created by the tags. */
+   private int urlsCreated;
+
+   @Before
+   public void setUp() {
+      request = proxy(HttpServletRequest.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getAttribute")) {
+               return requestAttributes.get(args[0]);
+            } else if (method.getName().equals("setAttribute")) {
+               requestAttributes.put((String) args[0], args[1]);
+            }
+            return null;
+         }
+      });
+      response = proxy(HttpServletResponse.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("encodeURL") ? args[0] : null;
+         }
+      });
+      requestAttributes.put(Constants.PORTLET_CONFIG, proxy(PortletConfig.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            return null;
+         }
+      }));
+      requestAttributes.put(Constants.PORTLET_RESPONSE, proxy(MimeResponse.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("createRenderURL")) {
+               urlsCreated++;
+               return renderURL();
+            } else if (method.getName().equals("getNamespace")) {
+               return "ns";
+            }
+            return null;
+         }
+      }));
+   }
+
+   @Test
+   public void templateMatchesDirectRender() throws Exception {
+      String[][] values = {
+            {"first", "second"},
+            {"a b", "ä&=/"},
+            {"%41", "+"},
+            {"plutoTemplate1!", "plutoTemplate0!"},
+            {"plutoTemplate0%21", "<tag>"},
+      };
+      for (String[] value : values) {
+         assertEquals(render(false, value), render(true, value));
+      }
+   }
+
+   @Test
+   public void templateIsCreatedOncePerRequest() throws Exception {
+      render(true, "first", "second");
+      int created = urlsCreated;
+      assertEquals("/page/ns?a=third&amp;b=fourth", render(true, "third", "fourth"));
+      assertEquals(created, urlsCreated);
+   }
+
+   @Test
+   public void placeholderTextInValueIsNotReplaced() throws Exception {
+      // the first URL creates the template
+      render(true, "x", "y");
+      assertEquals("/page/ns?a=plutoTemplate1%21&amp;b=plutoTemplate0%21",
+            render(true, "plutoTemplate1!", "plutoTemplate0!"));
+   }
+
+   @Test
+   public void emptyValueIsNotSubstituted() throws Exception {
+      assertEquals(render(false, "", "y"), render(true, "", "y"));
+      assertTrue(render(true, "x", "y").contains("a=x"));
+   }
+
+   /**
+    * Renders a URL with the parameters 'a' and 'b', as the renderURL tag with
+    * nested param tags does.
+    */
+   private String render(boolean template, String... values) throws JspException {
+      RenderURLTag362 tag = new RenderURLTag362();
+      tag.setPageContext(new TestPageContext());
+      tag.setVar("url");
+      tag.setTemplate(Boolean.toString(template));
+      tag.doStartTag();
+      tag.addParameter("a", values[0]);
+      tag.addParameter("b", values[1]);
+      tag.doEndTag();
+      return (String) pageAttributes.get("url");
+   }
+
+   /**
+    * Creates a render URL that writes its parameters URL encoded, in the order
+    * they were set.
+    */
+   private RenderURL renderURL() {
+      final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+      final MutableRenderParameters params = proxy(MutableRenderParameters.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getValues")) {
+               return parameters.get(args[0]);
+            } else if (method.getName().equals("setValues")) {
+               parameters.put((String) args[0], (String[]) args[1]);
+            } else if (method.getName().equals("setValue")) {
+               parameters.put((String) args[0], new String[] {(String) args[1]});
+            } else if (method.getName().equals("removeParameter")) {
+               return parameters.remove(args[0]) != null;
+            }
+            return null;
+         }
+      });
+      return proxy(RenderURL.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+            if (method.getName().equals("getRenderParameters")) {
+               return params;
+            } else if (method.getName().equals("toString")) {
+               StringBuilder url = new StringBuilder("/page/ns");
+               char separator = '?';
+               for (Map.Entry<String, String[]> entry : parameters.entrySet()) {
+                  for (String value : entry.getValue()) {
+                     url.append(separator).append(encode(entry.getKey())).append('=').append(encode(value));
+                     separator = '&';
+                  }
+               }
+               return url.toString();
+            }
+            return null;
+         }
+      });
+   }
+
+   private static String encode(String value) throws UnsupportedEncodingException {
+      return URLEncoder.encode(value, "UTF-8");
+   }
+
+   private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+      return type.cast(Proxy.newProxyInstance(BaseURLTagTest.class.getClassLoader(), new Class<?>[] {type},
+            handler));
+   }
+
+   /**
+    * Page context of a JSP using the URL tags.
+    */
+   private class TestPageContext extends PageContext {
+
+      @Override
+      public ServletRequest getRequest() {
+         return request;
+      }
+
+      @Override
+      public ServletResponse getResponse() {
+         return response;
+      }
+
+      @Override
+      public void setAttribute(String name, Object value) {
+         pageAttributes.put(name, value);
+      }
+
+      @Override
+      public void setAttribute(String name, Object value, int scope) {
+         pageAttributes.put(name, value);
+      }
+
+      @Override
+      public Object getAttribute(String name) {
+         return pageAttributes.get(name);
+      }
+
+      @Override
+      public Object getAttribute(String name, int scope) {
+         return pageAttributes.get(name);
+      }
+
+      @Override
+      public Object findAttribute(String name) {
+         return pageAttributes.get(name);
+      }
+
+      @Override
+      public void removeAttribute(String name) {
+         pageAttributes.remove(name);
+      }
+
+      @Override
+      public void removeAttribute(String name, int scope) {
+         pageAttributes.remove(name);
+      }
+
+      @Override
+      public int getAttributesScope(String name) {
+         return PAGE_SCOPE;
+      }
+
+      @Override
+      public Enumeration<String> getAttributeNamesInScope(int scope) {
+         return Collections.enumeration(pageAttributes.keySet());
+      }
+
+      @Override
+      public void initialize(Servlet servlet, ServletRequest request, ServletResponse response, String errorPageURL,
+            boolean needsSession, int bufferSize, boolean autoFlush) {
+      }
+
+      @Override
+      public void release() {
+      }
+
+      @Override
+      public HttpSession getSession() {
+         return null;
+      }
+
+      @Override
+      public Object getPage() {
+         return null;
+      }
+
+      @Override
+      public Exception getException() {
+         return null;
+      }
+
+      @Override
+      public ServletConfig getServletConfig() {
+         return null;
+      }
+
+      @Override
+      public ServletContext getServletContext() {
+         return null;
+      }
+
+      @Override
+      public void forward(String relativeUrlPath) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void include(String relativeUrlPath) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void include(String relativeUrlPath, boolean flush) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void handlePageException(Exception e) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void handlePageException(Throwable t) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public JspWriter getOut() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      @SuppressWarnings("deprecation")
+      public ExpressionEvaluator getExpressionEvaluator() {
+         return null;
+      }
+
+      @Override
+      @SuppressWarnings("deprecation")
+      public VariableResolver getVariableResolver() {
+         return null;
+      }
+
+      @Override
+      public ELContext getELContext() {
+         return null;
+      }
+   }
+}
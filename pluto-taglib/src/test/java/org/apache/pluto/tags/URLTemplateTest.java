@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pluto.tags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests compiling and expanding {@link URLTemplate}s.
+ */
+public class URLTemplateTest {
+
+   @Test
+   public void expand() {
+      URLTemplate template = URLTemplate.compile("/p?b=plutoTemplate1%21&a=plutoTemplate0%21", 2);
+      assertEquals("/p?b=two+2&a=%C3%A4%26%3D", template.expand(Arrays.asList("ä&=", "two 2")));
+   }
+
+   @Test
+   public void placeholderTextInValueIsNotReplaced() {
+      URLTemplate template = URLTemplate.compile("/p?a=plutoTemplate0%21&b=plutoTemplate1%21", 2);
+      assertEquals("/p?a=plutoTemplate1%21&b=plutoTemplate0%21",
+            template.expand(Arrays.asList("plutoTemplate1!", "plutoTemplate0!")));
+   }
+
+   @Test
+   public void placeholderTextInFixedPartIsRejected() {
+      assertSame(URLTemplate.NONE, URLTemplate.compile("/p?x=plutoTemplate0%21&a=plutoTemplate0%21", 1));
+      assertSame(URLTemplate.NONE, URLTemplate.compile("/p?x=plutoTemplate0!&a=plutoTemplate0%21", 1));
+   }
+
+   @Test
+   public void missingPlaceholderIsRejected() {
+      assertSame(URLTemplate.NONE, URLTemplate.compile("/p?a=plutoTemplate0%21", 2));
+   }
+}